@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2020 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import nu.validator.checker.Checker;
+import nu.validator.checker.LanguageDetectingChecker;
+import nu.validator.checker.MicrodataChecker;
+import nu.validator.checker.NormalizationChecker;
+import nu.validator.checker.TextContentChecker;
+import nu.validator.checker.schematronequiv.Assertions;
+import nu.validator.checker.table.TableChecker;
+import nu.validator.htmlparser.sax.HtmlParser;
+import nu.validator.saxtree.Node;
+import nu.validator.saxtree.TreeBuilder;
+import nu.validator.saxtree.TreeParser;
+import nu.validator.validation.ValidationScope;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.SAXException;
+
+/**
+ * Each checker on its own. The corpus is parsed into SAX trees once during
+ * set-up, and each invocation replays the trees into the checker, so that
+ * neither parsing nor the schema is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CheckerBenchmark {
+
+    @Param("tests")
+    public String corpus;
+
+    @Param({ "Assertions", "TableChecker", "MicrodataChecker",
+            "NormalizationChecker", "LanguageDetectingChecker",
+            "TextContentChecker" })
+    public String checker;
+
+    private final List<Node> trees = new ArrayList<>();
+
+    private CountingErrorHandler errorHandler;
+
+    private Checker instance;
+
+    private TreeParser treeParser;
+
+    private ValidationScope validationScope;
+
+    @Setup
+    public void setUp() throws Exception {
+        Corpus documents = Corpus.load(corpus);
+        CountingErrorHandler parseErrorHandler = new CountingErrorHandler();
+        for (int i = 0; i < documents.size(); i++) {
+            TreeBuilder treeBuilder = new TreeBuilder();
+            HtmlParser parser = Pipelines.newHtmlParser(parseErrorHandler);
+            parser.setContentHandler(treeBuilder);
+            parser.setLexicalHandler(treeBuilder);
+            try {
+                parser.parse(documents.inputSource(i));
+            } catch (SAXException e) {
+                continue;
+            }
+            trees.add(treeBuilder.getRoot());
+        }
+        errorHandler = new CountingErrorHandler();
+        instance = newChecker(checker);
+        instance.setErrorHandler(errorHandler);
+        treeParser = new TreeParser(instance, null);
+        validationScope = new ValidationScope();
+        validationScope.setLanguageDetection(true);
+        validationScope.setRdfaFull(true);
+    }
+
+    private static Checker newChecker(String name) {
+        switch (name) {
+            case "Assertions":
+                return new Assertions();
+            case "TableChecker":
+                return new TableChecker();
+            case "MicrodataChecker":
+                return new MicrodataChecker();
+            case "NormalizationChecker":
+                return new NormalizationChecker();
+            case "LanguageDetectingChecker":
+                return new LanguageDetectingChecker();
+            case "TextContentChecker":
+                return new TextContentChecker();
+            default:
+                throw new IllegalArgumentException(
+                        "Unknown checker \u201c" + name + "\u201d.");
+        }
+    }
+
+    @Benchmark
+    public int check() throws IOException, SAXException {
+        errorHandler.reset();
+        ValidationScope previousScope = validationScope.enter();
+        try {
+            for (Node tree : trees) {
+                instance.reset();
+                treeParser.parse(tree);
+            }
+        } finally {
+            validationScope.exit(previousScope);
+        }
+        return errorHandler.getCount();
+    }
+}
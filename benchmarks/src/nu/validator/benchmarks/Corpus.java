@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2020 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.xml.sax.InputSource;
+
+/**
+ * The HTML documents a benchmark runs over, read into memory up front from
+ * a directory tree (normally a checkout of the <code>tests</code>
+ * repository), so that no benchmark measures file I/O.
+ */
+final class Corpus {
+
+    private final List<String> systemIds = new ArrayList<>();
+
+    private final List<byte[]> documents = new ArrayList<>();
+
+    private Corpus() {
+    }
+
+    static Corpus load(String path) throws IOException {
+        File root = new File(path);
+        if (!root.isDirectory()) {
+            throw new IOException("No corpus directory at \u201c"
+                    + root.getAbsolutePath()
+                    + "\u201d. Check out the tests repository or use"
+                    + " \u201c-p corpus=DIR\u201d.");
+        }
+        List<File> files = new ArrayList<>();
+        collect(root, files);
+        Collections.sort(files);
+        Corpus corpus = new Corpus();
+        for (File file : files) {
+            corpus.systemIds.add(file.toURI().toURL().toString());
+            corpus.documents.add(Files.readAllBytes(file.toPath()));
+        }
+        if (corpus.size() == 0) {
+            throw new IOException("No HTML documents found under \u201c"
+                    + root.getAbsolutePath() + "\u201d.");
+        }
+        return corpus;
+    }
+
+    private static void collect(File dir, List<File> files) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                if (!child.getName().startsWith(".")) {
+                    collect(child, files);
+                }
+            } else if (child.getName().endsWith(".html")
+                    || child.getName().endsWith(".htm")) {
+                files.add(child);
+            }
+        }
+    }
+
+    int size() {
+        return documents.size();
+    }
+
+    String systemId(int index) {
+        return systemIds.get(index);
+    }
+
+    /**
+     * Returns a fresh input source for a document, read as UTF-8 the way
+     * <code>TestRunner</code> reads the tests.
+     */
+    InputSource inputSource(int index) {
+        InputSource is = new InputSource(
+                new ByteArrayInputStream(documents.get(index)));
+        is.setSystemId(systemIds.get(index));
+        is.setEncoding("UTF-8");
+        return is;
+    }
+}
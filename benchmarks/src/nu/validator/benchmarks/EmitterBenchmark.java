@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2020 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import nu.validator.htmlparser.sax.HtmlSerializer;
+import nu.validator.json.Serializer;
+import nu.validator.messages.GnuMessageEmitter;
+import nu.validator.messages.JsonMessageEmitter;
+import nu.validator.messages.MessageEmitter;
+import nu.validator.messages.MessageEmitterAdapter;
+import nu.validator.messages.XhtmlMessageEmitter;
+import nu.validator.source.SourceCode;
+import nu.validator.validation.SimpleDocumentValidator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * Each message emitter on its own. The corpus is checked once during
+ * set-up, keeping the messages and source of each document, and each
+ * invocation feeds them back through a <code>MessageEmitterAdapter</code>
+ * into the emitter, writing to a stream that discards its input.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EmitterBenchmark {
+
+    @Param("tests")
+    public String corpus;
+
+    @Param({ "json", "gnu", "xhtml" })
+    public String emitter;
+
+    private final List<CheckedDocument> checkedDocuments = new ArrayList<>();
+
+    private final CountingOutputStream out = new CountingOutputStream();
+
+    private static final class CheckedDocument {
+
+        final String systemId;
+
+        final SourceCode sourceCode;
+
+        final List<Message> messages = new ArrayList<>();
+
+        CheckedDocument(String systemId, SourceCode sourceCode) {
+            this.systemId = systemId;
+            this.sourceCode = sourceCode;
+        }
+    }
+
+    private enum Severity {
+        WARNING, ERROR, FATAL
+    }
+
+    private static final class Message {
+
+        final Severity severity;
+
+        final SAXParseException exception;
+
+        Message(Severity severity, SAXParseException exception) {
+            this.severity = severity;
+            this.exception = exception;
+        }
+    }
+
+    private static final class RecordingErrorHandler implements
+            ErrorHandler {
+
+        CheckedDocument document;
+
+        @Override
+        public void warning(SAXParseException exception) throws SAXException {
+            document.messages.add(new Message(Severity.WARNING, exception));
+        }
+
+        @Override
+        public void error(SAXParseException exception) throws SAXException {
+            document.messages.add(new Message(Severity.ERROR, exception));
+        }
+
+        @Override
+        public void fatalError(SAXParseException exception)
+                throws SAXException {
+            document.messages.add(new Message(Severity.FATAL, exception));
+        }
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        Corpus documents = Corpus.load(corpus);
+        RecordingErrorHandler recorder = new RecordingErrorHandler();
+        for (int i = 0; i < documents.size(); i++) {
+            // Each document needs a SourceCode of its own for the extracts,
+            // and a validator owns exactly one.
+            SimpleDocumentValidator validator = new SimpleDocumentValidator(
+                    i == 0, false, true);
+            validator.setUpMainSchema(Pipelines.HTML5_SCHEMA, recorder);
+            validator.setUpValidatorAndParsers(recorder, true, false);
+            recorder.document = new CheckedDocument(documents.systemId(i),
+                    validator.getSourceCode());
+            try {
+                validator.checkHtmlInputSource(documents.inputSource(i));
+            } catch (SAXException e) {
+                // recorded already
+            }
+            checkedDocuments.add(recorder.document);
+        }
+    }
+
+    @Benchmark
+    public long emit() throws SAXException {
+        out.count = 0;
+        for (CheckedDocument document : checkedDocuments) {
+            HtmlSerializer serializer = null;
+            MessageEmitter messageEmitter;
+            switch (emitter) {
+                case "json":
+                    messageEmitter = new JsonMessageEmitter(
+                            new Serializer(out), null, false);
+                    break;
+                case "gnu":
+                    messageEmitter = new GnuMessageEmitter(out, false);
+                    break;
+                case "xhtml":
+                    serializer = new HtmlSerializer(out);
+                    serializer.startDocument();
+                    messageEmitter = new XhtmlMessageEmitter(serializer);
+                    break;
+                default:
+                    throw new IllegalArgumentException(
+                            "Unknown emitter \u201c" + emitter + "\u201d.");
+            }
+            MessageEmitterAdapter adapter = new MessageEmitterAdapter(null,
+                    document.sourceCode, false, null, 0, true,
+                    messageEmitter);
+            adapter.start(document.systemId);
+            for (Message message : document.messages) {
+                switch (message.severity) {
+                    case WARNING:
+                        adapter.warning(message.exception);
+                        break;
+                    case ERROR:
+                        adapter.error(message.exception);
+                        break;
+                    case FATAL:
+                        adapter.fatalError(message.exception);
+                        break;
+                }
+            }
+            adapter.end("Document checking completed. No errors found.",
+                    "Document checking completed.", "");
+            if (serializer != null) {
+                serializer.endDocument();
+            }
+        }
+        return out.count;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2020 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import nu.validator.htmlparser.sax.HtmlParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.thaiopensource.validate.Validator;
+
+/**
+ * Parsing the corpus with the HTML parser alone, and with just the main
+ * RELAX NG schema behind it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param("tests")
+    public String corpus;
+
+    private Corpus documents;
+
+    private CountingErrorHandler errorHandler;
+
+    private HtmlParser parser;
+
+    private HtmlParser validatingParser;
+
+    private Validator validator;
+
+    @Setup
+    public void setUp() throws Exception {
+        documents = Corpus.load(corpus);
+        errorHandler = new CountingErrorHandler();
+        parser = Pipelines.newHtmlParser(errorHandler);
+        parser.setContentHandler(new DefaultHandler());
+        validator = Pipelines.html5Schema(errorHandler).createValidator(
+                Pipelines.propertyMap(errorHandler));
+        validatingParser = Pipelines.newHtmlParser(errorHandler);
+        validatingParser.setContentHandler(validator.getContentHandler());
+    }
+
+    @Benchmark
+    public int parse() throws IOException {
+        errorHandler.reset();
+        for (int i = 0; i < documents.size(); i++) {
+            try {
+                parser.parse(documents.inputSource(i));
+            } catch (SAXException e) {
+                // reported to the error handler already
+            }
+        }
+        return errorHandler.getCount();
+    }
+
+    @Benchmark
+    public int parseAndRelaxNg() throws IOException {
+        errorHandler.reset();
+        for (int i = 0; i < documents.size(); i++) {
+            validator.reset();
+            try {
+                validatingParser.parse(documents.inputSource(i));
+            } catch (SAXException e) {
+                // reported to the error handler already
+            }
+        }
+        return errorHandler.getCount();
+    }
+}
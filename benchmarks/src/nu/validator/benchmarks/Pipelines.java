@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2020 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.benchmarks;
+
+import nu.validator.htmlparser.common.Heuristics;
+import nu.validator.htmlparser.common.XmlViolationPolicy;
+import nu.validator.htmlparser.sax.HtmlParser;
+import nu.validator.localentities.LocalCacheEntityResolver;
+import nu.validator.xml.NullEntityResolver;
+import nu.validator.xml.TypedInputSource;
+import nu.validator.xml.customelements.NamespaceChangingSchemaWrapper;
+import nu.validator.xml.dataattributes.DataAttributeDroppingSchemaWrapper;
+import nu.validator.xml.langattributes.XmlLangAttributeDroppingSchemaWrapper;
+import nu.validator.xml.roleattributes.RoleAttributeFilteringSchemaWrapper;
+import nu.validator.xml.templateelement.TemplateElementDroppingSchemaWrapper;
+
+import org.xml.sax.ErrorHandler;
+
+import com.thaiopensource.util.PropertyMap;
+import com.thaiopensource.util.PropertyMapBuilder;
+import com.thaiopensource.validate.Schema;
+import com.thaiopensource.validate.ValidateProperty;
+import com.thaiopensource.validate.prop.rng.RngProperty;
+import com.thaiopensource.validate.rng.CompactSchemaReader;
+import com.thaiopensource.xml.sax.Jaxp11XMLReaderCreator;
+
+/**
+ * Builds pieces of the HTML checking pipeline set up the same way
+ * <code>SimpleDocumentValidator</code> sets them up, for benchmarks that
+ * measure the pieces separately.
+ */
+final class Pipelines {
+
+    static final String HTML5_SCHEMA = "http://s.validator.nu/html5-all.rnc";
+
+    private Pipelines() {
+    }
+
+    static HtmlParser newHtmlParser(ErrorHandler errorHandler)
+            throws Exception {
+        HtmlParser htmlParser = new HtmlParser();
+        htmlParser.setCommentPolicy(XmlViolationPolicy.ALLOW);
+        htmlParser.setContentNonXmlCharPolicy(XmlViolationPolicy.ALLOW);
+        htmlParser.setContentSpacePolicy(XmlViolationPolicy.ALTER_INFOSET);
+        htmlParser.setNamePolicy(XmlViolationPolicy.ALLOW);
+        htmlParser.setXmlnsPolicy(XmlViolationPolicy.ALTER_INFOSET);
+        htmlParser.setMappingLangToXmlLang(true);
+        htmlParser.setHeuristics(Heuristics.ALL);
+        htmlParser.setErrorHandler(errorHandler);
+        htmlParser.setFeature(
+                "http://xml.org/sax/features/unicode-normalization-checking",
+                true);
+        return htmlParser;
+    }
+
+    static PropertyMap propertyMap(ErrorHandler errorHandler) {
+        PropertyMapBuilder pmb = new PropertyMapBuilder();
+        pmb.put(ValidateProperty.ERROR_HANDLER, errorHandler);
+        pmb.put(ValidateProperty.XML_READER_CREATOR,
+                new Jaxp11XMLReaderCreator());
+        RngProperty.CHECK_ID_IDREF.add(pmb);
+        return pmb.toPropertyMap();
+    }
+
+    /**
+     * Compiles the main HTML schema and wraps it the way
+     * <code>SimpleDocumentValidator</code> does, but without the checkers.
+     */
+    static Schema html5Schema(ErrorHandler errorHandler) throws Exception {
+        LocalCacheEntityResolver entityResolver = new LocalCacheEntityResolver(
+                new NullEntityResolver());
+        entityResolver.setAllowRnc(true);
+        TypedInputSource schemaInput = (TypedInputSource) entityResolver.resolveEntity(
+                null, HTML5_SCHEMA);
+        PropertyMapBuilder pmb = new PropertyMapBuilder();
+        pmb.put(ValidateProperty.ERROR_HANDLER, errorHandler);
+        pmb.put(ValidateProperty.ENTITY_RESOLVER, entityResolver);
+        pmb.put(ValidateProperty.XML_READER_CREATOR,
+                new Jaxp11XMLReaderCreator());
+        RngProperty.CHECK_ID_IDREF.add(pmb);
+        Schema schema = CompactSchemaReader.getInstance().createSchema(
+                schemaInput, pmb.toPropertyMap());
+        schema = new DataAttributeDroppingSchemaWrapper(schema);
+        schema = new XmlLangAttributeDroppingSchemaWrapper(schema);
+        schema = new RoleAttributeFilteringSchemaWrapper(schema);
+        schema = new TemplateElementDroppingSchemaWrapper(schema);
+        schema = new NamespaceChangingSchemaWrapper(schema);
+        return schema;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2020 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import nu.validator.validation.SimpleDocumentValidator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.SAXException;
+
+/**
+ * Checking the corpus end to end, the way the command-line checker does,
+ * with everything but message output.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ValidatorBenchmark {
+
+    @Param("tests")
+    public String corpus;
+
+    private Corpus documents;
+
+    private CountingErrorHandler errorHandler;
+
+    private SimpleDocumentValidator validator;
+
+    @Setup
+    public void setUp() throws Exception {
+        documents = Corpus.load(corpus);
+        errorHandler = new CountingErrorHandler();
+        validator = new SimpleDocumentValidator(true, false, true);
+        validator.setUpMainSchema(Pipelines.HTML5_SCHEMA, errorHandler);
+        validator.setUpValidatorAndParsers(errorHandler, true, false);
+    }
+
+    @Benchmark
+    public int checkHtmlInputSource() throws IOException {
+        errorHandler.reset();
+        for (int i = 0; i < documents.size(); i++) {
+            try {
+                validator.checkHtmlInputSource(documents.inputSource(i));
+            } catch (SAXException e) {
+                // reported to the error handler already
+            }
+        }
+        return errorHandler.getCount();
+    }
+}
@@ -95,6 +95,9 @@ vnuJar = os.path.join(distDir, "vnu.jar")
 dependencyDir = os.path.join(buildRoot, "dependencies")
 extrasDir = os.path.join(buildRoot, "extras")
 jarsDir = os.path.join(buildRoot, "jars")
+benchmarksDir = os.path.join(buildRoot, "benchmarks")
+benchmarkDependencyDir = os.path.join(buildRoot, "benchmark-dependencies")
+benchmarksJar = os.path.join(buildRoot, "build", "benchmarks.jar")
 jingTrangDir = os.path.join(buildRoot, "jing-trang")
 cssValidatorDir = os.path.join(buildRoot, "css-validator")
 vnuSrc = os.path.join(buildRoot, "src", "nu", "validator")
@@ -144,6 +147,16 @@ maxConnPerRoute = 100
 maxTotalConnections = 200
 maxRedirects = 20  # Gecko default
 statistics = 0
+benchmarkArgs = ''
+# Self-checking tester classes run by the "test" target
+testerClasses = [
+    "nu.validator.source.test.ExtractTester",
+    "nu.validator.servlet.test.BatchTester",
+    "nu.validator.client.test.StdioTester",
+    "nu.validator.client.test.FailFastTester",
+    "nu.validator.messages.test.RecordingTester",
+]
+
 miniDoc = '<!doctype html><html lang=""><meta charset=utf-8><title>test</title>'  # nopep8
 
 dependencyPackages = [
@@ -191,6 +204,14 @@ moduleDependencyPackages = [
     ("https://repo1.maven.org/maven2/org/slf4j/slf4j-log4j12/1.7.9/slf4j-log4j12-1.7.9.jar", "54528e0b3ea7656072a9b591248c6457"),  # nopep8
 ]
 
+# Not part of any checker artifact; only fetched by the "bench" task.
+benchmarkDependencyPackages = [
+    ("https://repo1.maven.org/maven2/org/openjdk/jmh/jmh-core/1.23/jmh-core-1.23.jar", "b654b75f93ae64e466253936fd027535"),  # nopep8
+    ("https://repo1.maven.org/maven2/org/openjdk/jmh/jmh-generator-annprocess/1.23/jmh-generator-annprocess-1.23.jar", "02acd87335465a3e575eaac8c7c5c0af"),  # nopep8
+    ("https://repo1.maven.org/maven2/net/sf/jopt-simple/jopt-simple/4.6/jopt-simple-4.6.jar", "13560a58a79b46b82057686543e8d727"),  # nopep8
+    ("https://repo1.maven.org/maven2/org/apache/commons/commons-math3/3.2/commons-math3-3.2.jar", "aaa32530c0f744813570ff73db018698"),  # nopep8
+]
+
 
 javaSafeNamePat = re.compile(r'[^a-zA-Z0-9]')
 directoryPat = re.compile(r'^[a-zA-Z0-9_-]+/$')
@@ -764,6 +785,46 @@ def buildEmitters():
     removeIfDirExists(classDir)
 
 
+def buildDataIndex(javaFile, className, inputName, outputName, classPath):
+    inputFile = os.path.join(filesDir, inputName)
+    if not os.path.exists(inputFile):
+        return
+    classDir = os.path.join(buildRoot, "classes")
+    ensureDirExists(classDir)
+    args = [
+        javacCmd,
+        '-g',
+        '-nowarn',
+        '-classpath',
+        classPath,
+        '-sourcepath',
+        os.path.join(buildRoot, "src"),
+        '-d',
+        classDir,
+        '-encoding',
+        'UTF-8',
+    ]
+    if javaTargetVersion != "":
+        args.append('--release')
+        args.append(javaTargetVersion)
+    args.append(javaFile)
+    if runCmd(args):
+        sys.exit(1)
+    if runCmd([javaCmd, '-cp', os.pathsep.join([classDir, classPath]),
+               className, inputFile, os.path.join(filesDir, outputName)]):
+        sys.exit(1)
+    removeIfDirExists(classDir)
+
+
+def buildDataIndexes(classPath):
+    buildDataIndex(os.path.join(vnuSrc, "spec", "html5", "Html5SpecIndex.java"),  # nopep8
+                   "nu.validator.spec.html5.Html5SpecIndex",
+                   "html5spec", "html5spec-index", classPath)
+    buildDataIndex(os.path.join(vnuSrc, "datatype", "data", "LanguageData.java"),  # nopep8
+                   "nu.validator.datatype.data.LanguageData",
+                   "subtag-registry", "subtag-registry-index", classPath)
+
+
 def dockerBuild():
     args = [
         dockerCmd,
@@ -885,12 +946,14 @@ def generateRunScript():
 def clean():
     removeIfDirExists(distDir)
     removeIfDirExists(distWarDir)
+    removeIfExists(benchmarksJar)
 
 
 def realclean():
     clean()
     removeIfDirExists(dependencyDir)
     removeIfDirExists(jarsDir)
+    removeIfDirExists(benchmarkDependencyDir)
     cleanJing()
     cleanCssValidator()
 
@@ -1379,6 +1442,7 @@ class Release():
             cssValidatorJarPath() +
             jingJarPath())
         buildEmitters()
+        buildDataIndexes(classPath)
         buildModule(buildRoot, "validator", classPath)
         self.createJarOrWar("jar")
 
@@ -1396,6 +1460,34 @@ class Release():
         className = "nu.validator.client.TestRunner"
         if runCmd([javaCmd, '-classpath', vnuJar, className] + args):
             sys.exit(1)
+        for className in testerClasses:
+            if runCmd([javaCmd, '-classpath', vnuJar, className]):
+                sys.exit(1)
+
+    def buildBenchmarks(self):
+        if not os.path.exists(vnuJar):
+            self.createJarOrWar("jar")
+        downloadBenchmarkDependencies()
+        sourceDir = os.path.join(benchmarksDir, "src")
+        classDir = os.path.join(benchmarksDir, "classes")
+        removeIfExists(benchmarksJar)
+        removeIfDirExists(classDir)
+        # The JMH annotation processor on the class path generates the
+        # benchmark harness classes and META-INF/BenchmarkList.
+        runJavac(sourceDir, classDir,
+                 os.pathsep.join(benchmarkDependencyJarPaths() + [vnuJar]))
+        runJar(classDir, benchmarksJar, sourceDir)
+        removeIfDirExists(classDir)
+
+    def runBenchmarks(self):
+        if not os.path.exists(benchmarksJar):
+            self.buildBenchmarks()
+        classPath = os.pathsep.join(
+            [benchmarksJar, vnuJar] + benchmarkDependencyJarPaths())
+        args = ["-p", "corpus=" + os.path.join(buildRoot, "tests")]
+        if runCmd([javaCmd, '-classpath', classPath, 'org.openjdk.jmh.Main'] +
+                  args + benchmarkArgs.split()):
+            sys.exit(1)
 
     def buildAll(self):
         if not os.path.exists(os.path.join(buildRoot, "dependencies")):
@@ -1616,6 +1708,18 @@ def downloadExtras():
         fetchUrlTo(url, path, md5sum)
 
 
+def downloadBenchmarkDependencies():
+    ensureDirExists(benchmarkDependencyDir)
+    for url, md5sum in benchmarkDependencyPackages:
+        path = os.path.join(benchmarkDependencyDir, url[url.rfind("/") + 1:])
+        if not os.path.exists(path):
+            fetchUrlTo(url, path, md5sum)
+
+
+def benchmarkDependencyJarPaths():
+    return findFilesWithExtension(benchmarkDependencyDir, "jar")
+
+
 def downloadDependencies():
     for url, md5sum in dependencyPackages:
         downloadDependency(url, md5sum)
@@ -1635,6 +1739,9 @@ def printHelp():
     print("Options:")
     print("  --about=https://about.validator.nu/")
     print("                                Sets URL for the about page")
+    print("  --bench-args=\"-f 1 ParseBenchmark\"")
+    print("                                Sets extra arguments for JMH when")
+    print("                                running benchmarks")
     print("  --control-port=-1")
     print("                                Sets server control port number")
     print("                                (necessary for daemonizing)")
@@ -1683,6 +1790,7 @@ def printHelp():
     print("  dldeps   -- Download missing dependency libraries and entities")
     print("  build    -- Build the source")
     print("  test     -- Run regression tests")
+    print("  bench    -- Build and run the JMH benchmarks over the tests")
     print("  check    -- Perform self-test of the system")
     print("  run      -- Run the system")
     print("  all      -- update dldeps build test run")
@@ -1702,7 +1810,7 @@ def main(argv):
         scriptFile, filterFile, disablePromiscuousSsl, extrasDir, \
         connectionTimeoutSeconds, socketTimeoutSeconds, maxTotalConnections, \
         maxConnPerRoute, statistics, stylesheet, script, icon, bindAddress, \
-        jdepsCmd, jlinkCmd, javaEnvVersion
+        jdepsCmd, jlinkCmd, javaEnvVersion, benchmarkArgs
     if len(argv) == 0:
         printHelp()
     else:
@@ -1769,6 +1877,8 @@ def main(argv):
                 html5specLink = arg[12:]
             elif arg.startswith("--about="):
                 aboutPage = arg[8:]
+            elif arg.startswith("--bench-args="):
+                benchmarkArgs = arg[13:]
             elif arg.startswith("--denylist="):
                 denyList = arg[11:]
             elif arg.startswith("--stylesheet="):
@@ -1947,6 +2057,9 @@ def main(argv):
                 generateRunScript()
             elif arg == 'test':
                 release.runTests()
+            elif arg == 'bench':
+                release.buildBenchmarks()
+                release.runBenchmarks()
             elif arg == 'check':
                 if not stylesheet:
                     stylesheet = 'style.css'
@@ -45,6 +45,7 @@ import javax.servlet.http.HttpServletRequest;
 
 import nu.validator.checker.Checker;
 import nu.validator.checker.LocatorImpl;
+import nu.validator.validation.ValidationScope;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.Locator;
@@ -67,10 +68,6 @@ public class LanguageDetectingChecker extends Checker {
 
     private Locator htmlStartTagLocator;
 
-    private StringBuilder elementContent;
-
-    private StringBuilder documentContent;
-
     private String httpContentLangHeader;
 
     private String htmlElementLangAttrValue;
@@ -91,10 +88,41 @@ public class LanguageDetectingChecker extends Checker {
 
     private int nonWhitespaceCharacterCount;
 
-    private static final int MAX_CHARS = 30720;
-
     private static final int MIN_CHARS = 1024;
 
+    /**
+     * The text that the language is detected from is sampled in blocks of
+     * this many characters from across the whole document, rather than
+     * being taken from its start only.
+     */
+    private static final int SAMPLE_BLOCK_CHARS = 250;
+
+    /**
+     * Enough blocks to fill the 10000 characters that the detector looks at;
+     * it ignores anything past those.
+     */
+    private static final int SAMPLE_BLOCKS = 40;
+
+    /**
+     * Blocks of the document text, with whitespace collapsed. Once it is
+     * full, every other block is dropped and from then on only every other
+     * block of the text is kept, so that the blocks stay evenly spread over
+     * the document however long it is.
+     */
+    private final char[] sample = new char[SAMPLE_BLOCKS * SAMPLE_BLOCK_CHARS];
+
+    private int sampleBlocks;
+
+    private int sampleLastBlockLength;
+
+    private int sampleStride;
+
+    private boolean samplingBlock;
+
+    private int textLength;
+
+    private boolean previousWasWhitespace;
+
     private static final double MIN_PROBABILITY = .90;
 
     private static final String[] RTL_LANGS = { "ar", "azb", "ckb", "dv", "fa",
@@ -196,6 +224,32 @@ public class LanguageDetectingChecker extends Checker {
         LANG_TAGS_BY_TLD.put("ve", new String[] { "es" });
         LANG_TAGS_BY_TLD.put("vn", new String[] { "vi" });
         LANG_TAGS_BY_TLD.put("za", new String[] { "af" });
+    }
+
+    private static volatile boolean profilesLoaded;
+
+    /**
+     * Loads the language profiles into the detector, if not already loaded.
+     * Parsing the profiles takes over a second and their n-gram tables take
+     * over 100MB of heap, so rather than doing it when this class is
+     * initialized, it is done the first time a document is long enough to
+     * detect its language in, or ahead of time by a caller that wants to
+     * avoid the delay on the first such document.
+     */
+    public static void loadProfiles() {
+        if (profilesLoaded) {
+            return;
+        }
+        synchronized (LanguageDetectingChecker.class) {
+            if (profilesLoaded) {
+                return;
+            }
+            readProfiles();
+            profilesLoaded = true;
+        }
+    }
+
+    private static void readProfiles() {
         try {
             BufferedReader br = new BufferedReader(new InputStreamReader(
                     LanguageDetectingChecker.class.getClassLoader() //
@@ -224,8 +278,55 @@ public class LanguageDetectingChecker extends Checker {
 
     private boolean shouldAppendToLangdetectContent() {
         return (inBody && currentOpenElementsWithSkipName < 1
-                && currentOpenElementsInDifferentLang < 1
-                && nonWhitespaceCharacterCount < MAX_CHARS);
+                && currentOpenElementsInDifferentLang < 1);
+    }
+
+    private void appendToSample(char c) {
+        int offset = textLength % SAMPLE_BLOCK_CHARS;
+        if (offset == 0) {
+            int block = textLength / SAMPLE_BLOCK_CHARS;
+            if (block % sampleStride == 0 && sampleBlocks == SAMPLE_BLOCKS) {
+                for (int i = 1; i < SAMPLE_BLOCKS / 2; i++) {
+                    System.arraycopy(sample, 2 * i * SAMPLE_BLOCK_CHARS,
+                            sample, i * SAMPLE_BLOCK_CHARS,
+                            SAMPLE_BLOCK_CHARS);
+                }
+                sampleBlocks = SAMPLE_BLOCKS / 2;
+                sampleStride *= 2;
+            }
+            samplingBlock = block % sampleStride == 0;
+            if (samplingBlock) {
+                sampleBlocks++;
+            }
+        }
+        if (samplingBlock) {
+            sample[(sampleBlocks - 1) * SAMPLE_BLOCK_CHARS + offset] = c;
+            sampleLastBlockLength = offset + 1;
+        }
+        textLength++;
+    }
+
+    private String sampledText() {
+        if (sampleBlocks == 0) {
+            return "";
+        }
+        if (sampleStride == 1) {
+            return new String(sample, 0,
+                    (sampleBlocks - 1) * SAMPLE_BLOCK_CHARS
+                            + sampleLastBlockLength);
+        }
+        // The blocks are not adjacent in the document, so keep words at
+        // their edges apart.
+        StringBuilder sb = new StringBuilder(sample.length + sampleBlocks);
+        for (int i = 0; i < sampleBlocks; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(sample, i * SAMPLE_BLOCK_CHARS,
+                    i == sampleBlocks - 1 ? sampleLastBlockLength
+                            : SAMPLE_BLOCK_CHARS);
+        }
+        return sb.toString();
     }
 
     private void setDocumentLanguage(String languageTag) {
@@ -605,8 +706,7 @@ public class LanguageDetectingChecker extends Checker {
      */
     @Override
     public void endDocument() throws SAXException {
-        if (!"0".equals(System.getProperty(
-                "nu.validator.checker.enableLangDetection"))
+        if (ValidationScope.current().isLanguageDetection()
                 && htmlStartTagLocator != null) {
             detectLanguageAndCheckAgainstDeclaredLanguage();
         }
@@ -639,9 +739,9 @@ public class LanguageDetectingChecker extends Checker {
                         declaredLangCode) >= 0) {
             return;
         }
+        loadProfiles();
         try {
-            String textContent = documentContent.toString() //
-                    .replaceAll("\\s+", " ");
+            String textContent = sampledText();
             String detectedLanguage = "";
             Detector detector = DetectorFactory.create();
             detector.append(textContent);
@@ -744,10 +844,6 @@ public class LanguageDetectingChecker extends Checker {
         if ("http://www.w3.org/1999/xhtml" != uri) {
             return;
         }
-        if (nonWhitespaceCharacterCount < MAX_CHARS) {
-            documentContent.append(elementContent);
-            elementContent.setLength(0);
-        }
         if ("body".equals(localName)) {
             inBody = false;
             currentOpenElementsWithSkipName = 0;
@@ -780,14 +876,17 @@ public class LanguageDetectingChecker extends Checker {
         currentOpenElementsInDifferentLang = 0;
         currentOpenElementsWithSkipName = 0;
         nonWhitespaceCharacterCount = 0;
-        elementContent = new StringBuilder();
-        documentContent = new StringBuilder();
+        sampleBlocks = 0;
+        sampleLastBlockLength = 0;
+        sampleStride = 1;
+        samplingBlock = false;
+        textLength = 0;
+        previousWasWhitespace = false;
         htmlElementHasLang = false;
         htmlElementLangAttrValue = "";
         declaredLangCode = "";
         hasDir = false;
         dirAttrValue = "";
-        documentContent.setLength(0);
         currentOpenElementsWithSkipName = 0;
         try {
             systemId = getDocumentLocator().getSystemId();
@@ -859,8 +958,8 @@ public class LanguageDetectingChecker extends Checker {
     @Override
     public void characters(char[] ch, int start, int length)
             throws SAXException {
-        if (shouldAppendToLangdetectContent()) {
-            elementContent.append(ch, start, length);
+        if (!shouldAppendToLangdetectContent()) {
+            return;
         }
         for (int i = start; i < start + length; i++) {
             char c = ch[i];
@@ -869,6 +968,13 @@ public class LanguageDetectingChecker extends Checker {
                 case '\t':
                 case '\r':
                 case '\n':
+                case '\u000B':
+                case '\f':
+                    if (!previousWasWhitespace) {
+                        appendToSample(' ');
+                        previousWasWhitespace = true;
+                    }
+                    continue;
                 case '#':
                 case '0':
                 case '1':
@@ -880,11 +986,13 @@ public class LanguageDetectingChecker extends Checker {
                 case '7':
                 case '8':
                 case '9':
+                    appendToSample(c);
+                    previousWasWhitespace = false;
                     continue;
                 default:
-                    if (shouldAppendToLangdetectContent()) {
-                        nonWhitespaceCharacterCount++;
-                    }
+                    appendToSample(c);
+                    previousWasWhitespace = false;
+                    nonWhitespaceCharacterCount++;
             }
         }
     }
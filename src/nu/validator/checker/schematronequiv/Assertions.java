@@ -22,8 +22,6 @@
 
 package nu.validator.checker.schematronequiv;
 
-import java.io.ByteArrayInputStream;
-import java.io.StringReader;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -62,14 +60,10 @@ import nu.validator.datatype.ImageCandidateStrings;
 import nu.validator.datatype.ImageCandidateURL;
 import nu.validator.htmlparser.impl.NCName;
 import nu.validator.messages.MessageEmitterAdapter;
+import nu.validator.validation.ValidationScope;
 
 import org.relaxng.datatype.DatatypeException;
 
-import org.w3c.css.css.StyleSheetParser;
-import org.w3c.css.parser.CssError;
-import org.w3c.css.parser.CssParseException;
-import org.w3c.css.parser.Errors;
-import org.w3c.css.util.ApplContext;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.Locator;
@@ -1134,6 +1128,8 @@ public class Assertions extends Checker {
 
     private boolean sourceIsCss;
 
+    private ValidationScope validationScope;
+
     public void setSourceIsCss(boolean sourceIsCss) {
         this.sourceIsCss = sourceIsCss;
     }
@@ -1506,91 +1502,33 @@ public class Assertions extends Checker {
             } else if ("option" == localName
                     && !stack[currentPtr].hasOption()) {
                 stack[currentPtr].setOptionFound();
-            } else if ("style" == localName) {
-                String styleContents = node.getTextContent().toString();
-                int lineOffset = 0;
-                if (styleContents.startsWith("\n")) {
-                    lineOffset = 1;
-                }
-                ApplContext ac = new ApplContext("en");
-                ac.setCssVersionAndProfile("css3svg");
-                ac.setMedium("all");
-                ac.setSuggestPropertyName(false);
-                ac.setTreatVendorExtensionsAsWarnings(true);
-                ac.setTreatCssHacksAsWarnings(true);
-                ac.setWarningLevel(-1);
-                ac.setFakeURL("file://localhost/StyleElement");
-                StyleSheetParser styleSheetParser = new StyleSheetParser();
-                styleSheetParser.parseStyleSheet(ac,
-                        new StringReader(styleContents.substring(lineOffset)),
-                        null);
-                styleSheetParser.getStyleSheet().findConflicts(ac);
-                Errors errors = styleSheetParser.getStyleSheet().getErrors();
-                if (errors.getErrorCount() > 0) {
+            } else if ("style" == localName
+                    && (sourceIsCss || validationScope.isInlineCss())) {
+                CssErrorCache.CssErrors errors = CssErrorCache.checkStyleElement(
+                        node.getTextContent().toString());
+                if (errors.found) {
                     incrementUseCounter("style-element-errors-found");
                 }
-                for (int i = 0; i < errors.getErrorCount(); i++) {
-                    String message = "";
-                    String cssProperty = "";
-                    String cssMessage = "";
-                    CssError error = errors.getErrorAt(i);
-                    int beginLine = error.getBeginLine() + lineOffset;
-                    int beginColumn = error.getBeginColumn();
-                    int endLine = error.getEndLine() + lineOffset;
-                    int endColumn = error.getEndColumn();
-                    if (beginLine == 0) {
-                        continue;
-                    }
-                    Throwable ex = error.getException();
-                    if (ex instanceof CssParseException) {
-                        CssParseException cpe = (CssParseException) ex;
-                        if ("generator.unrecognize" //
-                                .equals(cpe.getErrorType())) {
-                            cssMessage = "Parse Error";
-                        }
-                        if (cpe.getProperty() != null) {
-                            cssProperty = String.format("\u201c%s\u201D: ",
-                                    cpe.getProperty());
-                        }
-                        if (cpe.getMessage() != null) {
-                            cssMessage = cpe.getMessage();
-                        }
-                        if (!"".equals(cssMessage)) {
-                            message = cssProperty + cssMessage.trim();
-                            if (!".".equals(
-                                    message.substring(message.length() - 1))) {
-                                message = message + ".";
-                            }
-                        }
+                for (CssErrorCache.CssMessage error : errors.messages) {
+                    int lastLine = node.locator.getLineNumber() //
+                            + error.endLine - 1;
+                    int lastColumn = error.endColumn;
+                    int columnOffset = error.onFirstLine
+                            ? node.locator.getColumnNumber()
+                            : 0;
+                    String prefix = sourceIsCss ? "" : "CSS: ";
+                    SAXParseException spe = new SAXParseException( //
+                            prefix + error.message, publicId, systemId, //
+                            lastLine, lastColumn);
+                    int[] start = {
+                            node.locator.getLineNumber() + error.beginLine - 1,
+                            error.beginColumn, columnOffset };
+                    if ((getErrorHandler() instanceof MessageEmitterAdapter)
+                            && !(getErrorHandler() instanceof TestRunner)) {
+                        ((MessageEmitterAdapter) getErrorHandler()) //
+                                .errorWithStart(spe, start);
                     } else {
-                        message = ex.getMessage();
-                    }
-                    if (!"".equals(message)) {
-                        int lastLine = node.locator.getLineNumber() //
-                                + endLine - 1;
-                        int lastColumn = endColumn;
-                        int columnOffset = node.locator.getColumnNumber();
-                        if (error.getBeginLine() == 1) {
-                            if (lineOffset != 0) {
-                                columnOffset = 0;
-                            }
-                        } else {
-                            columnOffset = 0;
-                        }
-                        String prefix = sourceIsCss ? "" : "CSS: ";
-                        SAXParseException spe = new SAXParseException( //
-                                prefix + message, publicId, systemId, //
-                                lastLine, lastColumn);
-                        int[] start = {
-                                node.locator.getLineNumber() + beginLine - 1,
-                                beginColumn, columnOffset };
-                        if ((getErrorHandler() instanceof MessageEmitterAdapter)
-                                && !(getErrorHandler() instanceof TestRunner)) {
-                            ((MessageEmitterAdapter) getErrorHandler()) //
-                                    .errorWithStart(spe, start);
-                        } else {
-                            getErrorHandler().error(spe);
-                        }
+                        getErrorHandler().error(spe);
                     }
                 }
             }
@@ -1615,6 +1553,7 @@ public class Assertions extends Checker {
     public void startDocument() throws SAXException {
         reset();
         request = getRequest();
+        validationScope = ValidationScope.current();
         stack = new StackNode[32];
         currentPtr = 0;
         currentFigurePtr = -1;
@@ -1677,8 +1616,7 @@ public class Assertions extends Checker {
         boolean href = false;
         boolean activeDescendantWithAriaOwns = false;
         // see nu.validator.datatype.ImageCandidateStrings
-        System.setProperty("nu.validator.checker.imageCandidateString.hasWidth",
-                "0");
+        validationScope.setImageCandidateHasWidth(false);
 
         StackNode parent = peek();
         int ancestorMask = 0;
@@ -1744,60 +1682,16 @@ public class Assertions extends Checker {
                         }
                     }
                     if ("style" == attLocal) {
-                        String styleContents = atts.getValue(i);
-                        ApplContext ac = new ApplContext("en");
-                        ac.setCssVersionAndProfile("css3svg");
-                        ac.setMedium("all");
-                        ac.setSuggestPropertyName(false);
-                        ac.setTreatVendorExtensionsAsWarnings(true);
-                        ac.setTreatCssHacksAsWarnings(true);
-                        ac.setWarningLevel(-1);
-                        ac.setFakeURL("file://localhost/StyleAttribute");
-                        StyleSheetParser styleSheetParser = //
-                                new StyleSheetParser();
-                        styleSheetParser.parseStyleAttribute(ac,
-                                new ByteArrayInputStream(
-                                        styleContents.getBytes()),
-                                "", ac.getFakeURL(),
-                                getDocumentLocator().getLineNumber());
-                        styleSheetParser.getStyleSheet().findConflicts(ac);
-                        Errors errors = //
-                                styleSheetParser.getStyleSheet().getErrors();
-                        if (errors.getErrorCount() > 0) {
-                            incrementUseCounter("style-attribute-errors-found");
-                        }
-                        for (int j = 0; j < errors.getErrorCount(); j++) {
-                            String message = "";
-                            String cssProperty = "";
-                            String cssMessage = "";
-                            CssError error = errors.getErrorAt(j);
-                            Throwable ex = error.getException();
-                            if (ex instanceof CssParseException) {
-                                CssParseException cpe = (CssParseException) ex;
-                                if ("generator.unrecognize" //
-                                        .equals(cpe.getErrorType())) {
-                                    cssMessage = "Parse Error";
-                                }
-                                if (cpe.getProperty() != null) {
-                                    cssProperty = String.format(
-                                            "\u201c%s\u201D: ",
-                                            cpe.getProperty());
-                                }
-                                if (cpe.getMessage() != null) {
-                                    cssMessage = cpe.getMessage();
-                                }
-                                if (!"".equals(cssMessage)) {
-                                    message = cssProperty + cssMessage.trim();
-                                    if (!".".equals(message.substring(
-                                            message.length() - 1))) {
-                                        message = message + ".";
-                                    }
-                                }
-                            } else {
-                                message = ex.getMessage();
+                        if (validationScope.isInlineCss()) {
+                            CssErrorCache.CssErrors errors = //
+                                    CssErrorCache.checkStyleAttribute(
+                                            atts.getValue(i));
+                            if (errors.found) {
+                                incrementUseCounter(
+                                        "style-attribute-errors-found");
                             }
-                            if (!"".equals(message)) {
-                                err("CSS: " + message);
+                            for (CssErrorCache.CssMessage error : errors.messages) {
+                                err("CSS: " + error.message);
                             }
                         }
                     } else if ("tabindex" == attLocal) {
@@ -1861,8 +1755,7 @@ public class Assertions extends Checker {
                                     "javascript", atts.getValue(i))) {
                         languageJavaScript = true;
                     } else if ("rev" == attLocal
-                            && !("1".equals(System.getProperty(
-                                    "nu.validator.schema.rdfa-full")))) {
+                            && !validationScope.isRdfaFull()) {
                         errObsoleteAttribute("rev", localName,
                                 " Use the \u201Crel\u201D attribute instead,"
                                         + " with a term having the opposite meaning.");
@@ -2037,8 +1930,7 @@ public class Assertions extends Checker {
                                     srcsetVal);
                         }
                         // see nu.validator.datatype.ImageCandidateStrings
-                        if ("1".equals(System.getProperty(
-                                "nu.validator.checker.imageCandidateString.hasWidth"))) {
+                        if (validationScope.isImageCandidateHasWidth()) {
                             if (atts.getIndex("", "sizes") < 0) {
                                 err("When the \u201csrcset\u201d attribute has"
                                         + " any image candidate string with a"
@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2020 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.checker.schematronequiv;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.w3c.css.css.StyleSheetParser;
+import org.w3c.css.parser.CssError;
+import org.w3c.css.parser.CssParseException;
+import org.w3c.css.parser.Errors;
+import org.w3c.css.util.ApplContext;
+
+/**
+ * Checks the CSS in <code>style</code> attributes and <code>style</code>
+ * elements, and remembers the errors found for each CSS text, so that pages
+ * repeating the same CSS over and over only get it parsed once. Error
+ * positions are kept relative to the CSS text; callers anchor them to the
+ * document.
+ */
+final class CssErrorCache {
+
+    /**
+     * An error message with its position in the CSS text.
+     */
+    static final class CssMessage {
+
+        final String message;
+
+        final int beginLine;
+
+        final int beginColumn;
+
+        final int endLine;
+
+        final int endColumn;
+
+        /**
+         * Whether the columns are counted from where the CSS text starts
+         * rather than from the start of a line.
+         */
+        final boolean onFirstLine;
+
+        CssMessage(String message, int beginLine, int beginColumn,
+                int endLine, int endColumn, boolean onFirstLine) {
+            this.message = message;
+            this.beginLine = beginLine;
+            this.beginColumn = beginColumn;
+            this.endLine = endLine;
+            this.endColumn = endColumn;
+            this.onFirstLine = onFirstLine;
+        }
+    }
+
+    /**
+     * The outcome of checking one CSS text.
+     */
+    static final class CssErrors {
+
+        /**
+         * Whether the CSS parser reported any errors, including ones that
+         * have no message to show.
+         */
+        final boolean found;
+
+        final List<CssMessage> messages;
+
+        CssErrors(boolean found, List<CssMessage> messages) {
+            this.found = found;
+            this.messages = messages;
+        }
+    }
+
+    private static final int MAX_ENTRIES = Integer.parseInt(System.getProperty(
+            "nu.validator.checker.css-cache-size", "1000"));
+
+    /**
+     * CSS texts longer than this are checked without being cached.
+     */
+    private static final int MAX_CACHED_LENGTH = 4096;
+
+    private static final ConcurrentMap<String, CssErrors> STYLE_ATTRIBUTES = new ConcurrentHashMap<>();
+
+    private static final ConcurrentMap<String, CssErrors> STYLE_ELEMENTS = new ConcurrentHashMap<>();
+
+    private CssErrorCache() {
+    }
+
+    static CssErrors checkStyleAttribute(String css) {
+        CssErrors cached = STYLE_ATTRIBUTES.get(css);
+        if (cached == null) {
+            cached = parseStyleAttribute(css);
+            put(STYLE_ATTRIBUTES, css, cached);
+        }
+        return cached;
+    }
+
+    static CssErrors checkStyleElement(String css) {
+        CssErrors cached = STYLE_ELEMENTS.get(css);
+        if (cached == null) {
+            cached = parseStyleElement(css);
+            put(STYLE_ELEMENTS, css, cached);
+        }
+        return cached;
+    }
+
+    private static void put(ConcurrentMap<String, CssErrors> cache,
+            String css, CssErrors errors) {
+        if (MAX_ENTRIES <= 0 || css.length() > MAX_CACHED_LENGTH) {
+            return;
+        }
+        if (cache.size() >= MAX_ENTRIES) {
+            // Evict whatever the iterator yields first; good enough to
+            // keep the cache bounded without any locking.
+            Iterator<String> iter = cache.keySet().iterator();
+            if (iter.hasNext()) {
+                iter.next();
+                iter.remove();
+            }
+        }
+        cache.put(css, errors);
+    }
+
+    private static ApplContext newApplContext(String fakeUrl) {
+        ApplContext ac = new ApplContext("en");
+        ac.setCssVersionAndProfile("css3svg");
+        ac.setMedium("all");
+        ac.setSuggestPropertyName(false);
+        ac.setTreatVendorExtensionsAsWarnings(true);
+        ac.setTreatCssHacksAsWarnings(true);
+        ac.setWarningLevel(-1);
+        ac.setFakeURL(fakeUrl);
+        return ac;
+    }
+
+    private static CssErrors parseStyleAttribute(String css) {
+        ApplContext ac = newApplContext("file://localhost/StyleAttribute");
+        StyleSheetParser styleSheetParser = new StyleSheetParser();
+        styleSheetParser.parseStyleAttribute(ac,
+                new ByteArrayInputStream(css.getBytes()), "",
+                ac.getFakeURL(), 1);
+        styleSheetParser.getStyleSheet().findConflicts(ac);
+        Errors errors = styleSheetParser.getStyleSheet().getErrors();
+        List<CssMessage> messages = new ArrayList<>();
+        for (int i = 0; i < errors.getErrorCount(); i++) {
+            String message = messageFor(errors.getErrorAt(i));
+            if (!"".equals(message)) {
+                messages.add(new CssMessage(message, 0, 0, 0, 0, false));
+            }
+        }
+        return new CssErrors(errors.getErrorCount() > 0,
+                Collections.unmodifiableList(messages));
+    }
+
+    private static CssErrors parseStyleElement(String css) {
+        int lineOffset = 0;
+        if (css.startsWith("\n")) {
+            lineOffset = 1;
+        }
+        ApplContext ac = newApplContext("file://localhost/StyleElement");
+        StyleSheetParser styleSheetParser = new StyleSheetParser();
+        styleSheetParser.parseStyleSheet(ac,
+                new StringReader(css.substring(lineOffset)), null);
+        styleSheetParser.getStyleSheet().findConflicts(ac);
+        Errors errors = styleSheetParser.getStyleSheet().getErrors();
+        List<CssMessage> messages = new ArrayList<>();
+        for (int i = 0; i < errors.getErrorCount(); i++) {
+            CssError error = errors.getErrorAt(i);
+            int beginLine = error.getBeginLine() + lineOffset;
+            if (beginLine == 0) {
+                continue;
+            }
+            String message = messageFor(error);
+            if (!"".equals(message)) {
+                messages.add(new CssMessage(message, beginLine,
+                        error.getBeginColumn(),
+                        error.getEndLine() + lineOffset, error.getEndColumn(),
+                        error.getBeginLine() == 1 && lineOffset == 0));
+            }
+        }
+        return new CssErrors(errors.getErrorCount() > 0,
+                Collections.unmodifiableList(messages));
+    }
+
+    private static String messageFor(CssError error) {
+        String message = "";
+        String cssProperty = "";
+        String cssMessage = "";
+        Throwable ex = error.getException();
+        if (ex instanceof CssParseException) {
+            CssParseException cpe = (CssParseException) ex;
+            if ("generator.unrecognize".equals(cpe.getErrorType())) {
+                cssMessage = "Parse Error";
+            }
+            if (cpe.getProperty() != null) {
+                cssProperty = String.format("\u201c%s\u201D: ",
+                        cpe.getProperty());
+            }
+            if (cpe.getMessage() != null) {
+                cssMessage = cpe.getMessage();
+            }
+            if (!"".equals(cssMessage)) {
+                message = cssProperty + cssMessage.trim();
+                if (!".".equals(message.substring(message.length() - 1))) {
+                    message = message + ".";
+                }
+            }
+        } else {
+            message = ex.getMessage();
+        }
+        return message;
+    }
+}
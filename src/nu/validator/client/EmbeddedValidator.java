@@ -21,15 +21,21 @@
  */
 package nu.validator.client;
 
-import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
@@ -44,29 +50,45 @@ import nu.validator.messages.MessageEmitterAdapter;
 import nu.validator.messages.TextMessageEmitter;
 import nu.validator.messages.XmlMessageEmitter;
 import nu.validator.servlet.imagereview.ImageCollector;
+import nu.validator.validation.OptionalChecker;
 import nu.validator.validation.SimpleDocumentValidator;
+import nu.validator.xml.ForwardingErrorHandler;
 import nu.validator.xml.SystemErrErrorHandler;
 
 /**
  * Nu validator client for HTML validation from within another
  * application.
+ * 
+ * <p>Instances are thread-safe. Set-up validators are kept in a pool keyed
+ * by the options that affect their set-up (schema, streaming, entity
+ * loading, language detection, disabled checkers and parser-only mode), so
+ * that only the first documents
+ * validated with a given set of options pay for setting up schemas and
+ * parsers.
  */
 public class EmbeddedValidator {
 
     public static final String SCHEMA_URL = "http://s.validator.nu/html5-all.rnc";
 
     public static enum OutputFormat {
-        TEXT, XML, JSON, GNU
+        TEXT, XML, JSON, NDJSON, GNU
     }
 
-    private boolean asciiQuotes = false;
-    private boolean detectLanguages = false;
-    private boolean forceHTML = false;
-    private int lineOffset = 0;
-    private boolean loadEntities = false;
-    private boolean noStream = false;
-    private OutputFormat outputFormat = OutputFormat.JSON;
-    private String schemaUrl = SCHEMA_URL;
+    private volatile boolean asciiQuotes = false;
+    private volatile boolean detectLanguages = false;
+    private volatile boolean forceHTML = false;
+    private volatile int lineOffset = 0;
+    private volatile boolean loadEntities = false;
+    private volatile boolean noStream = false;
+    private volatile OutputFormat outputFormat = OutputFormat.JSON;
+    private volatile String schemaUrl = SCHEMA_URL;
+    private volatile Set<OptionalChecker> disabledCheckers = EnumSet.noneOf(OptionalChecker.class);
+    private volatile boolean parserOnly = false;
+    private volatile int failFast = 0;
+    private volatile boolean failFastOnWarnings = false;
+    private volatile int maxIdleValidators = Runtime.getRuntime().availableProcessors();
+
+    private final ConcurrentMap<String, BlockingQueue<PooledValidator>> idleValidators = new ConcurrentHashMap<>();
 
     /**
      * Validate the file at the given path
@@ -79,9 +101,9 @@ public class EmbeddedValidator {
      * @throws SAXException
      */
     public String validate(Path path) throws IOException, SAXException {
-        try (OneOffValidator validator = new OneOffValidator(asciiQuotes, detectLanguages, forceHTML, lineOffset, loadEntities, noStream, outputFormat, schemaUrl)) {
-            return validator.validate(path);
-        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        validate(path, out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
     }
 
     /**
@@ -95,9 +117,109 @@ public class EmbeddedValidator {
      * @throws SAXException
      */
     public String validate(InputStream in) throws IOException, SAXException {
-        try (OneOffValidator validator = new OneOffValidator(asciiQuotes, detectLanguages, forceHTML, lineOffset, loadEntities, noStream, outputFormat, schemaUrl)) {
-            return validator.validate(in);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        validate(in, out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Validate the file at the given path, writing the validation output to
+     * the given stream as it is produced
+     * 
+     * @param path
+     *            a valid {@link Path} to a readable file
+     * @param out
+     *            the stream to write UTF-8 validation output to; it is
+     *            flushed but not closed
+     * @throws IllegalStateException
+     * @throws IOException
+     * @throws SAXException
+     */
+    public void validate(Path path, OutputStream out)
+            throws IOException, SAXException {
+        PooledValidator validator = checkOut();
+        validator.validate(path, out);
+        checkIn(validator);
+    }
+
+    /**
+     * Validate the input source, writing the validation output to the given
+     * stream as it is produced
+     * 
+     * @param in
+     *            a valid {@link InputStream} to a readable file
+     * @param out
+     *            the stream to write UTF-8 validation output to; it is
+     *            flushed but not closed
+     * @throws IllegalStateException
+     * @throws IOException
+     * @throws SAXException
+     */
+    public void validate(InputStream in, OutputStream out)
+            throws IOException, SAXException {
+        PooledValidator validator = checkOut();
+        validator.validate(in, out);
+        checkIn(validator);
+    }
+
+    private String poolKey() {
+        return (schemaUrl == null ? SCHEMA_URL : schemaUrl) + ' ' + noStream
+                + ' ' + loadEntities + ' ' + detectLanguages + ' '
+                + OptionalChecker.toNames(disabledCheckers) + ' ' + parserOnly;
+    }
+
+    /**
+     * Returns an idle validator set up for the current options, or a new
+     * one if there is none.
+     */
+    private PooledValidator checkOut() throws SAXException {
+        String key = poolKey();
+        BlockingQueue<PooledValidator> idle = idleValidators.get(key);
+        PooledValidator validator = idle == null ? null : idle.poll();
+        if (validator == null) {
+            validator = new PooledValidator(key, detectLanguages, noStream,
+                    loadEntities, schemaUrl, disabledCheckers, parserOnly);
+        }
+        return validator;
+    }
+
+    /**
+     * Returns a validator to the pool after a validation that completed
+     * normally. Validators whose validation threw are simply dropped.
+     */
+    private void checkIn(PooledValidator validator) {
+        if (maxIdleValidators <= 0) {
+            return;
+        }
+        BlockingQueue<PooledValidator> idle = idleValidators.get(
+                validator.key);
+        if (idle == null) {
+            idle = new ArrayBlockingQueue<>(maxIdleValidators);
+            BlockingQueue<PooledValidator> existing = idleValidators.putIfAbsent(
+                    validator.key, idle);
+            if (existing != null) {
+                idle = existing;
+            }
         }
+        idle.offer(validator);
+    }
+
+    public int getMaxIdleValidators() {
+        return maxIdleValidators;
+    }
+
+    /**
+     * Default value is the number of available processors
+     * 
+     * @param maxIdleValidators
+     *            how many set-up validators to keep for each combination of
+     *            schema, streaming, entity loading and language detection
+     *            options; {@code 0} to set up a new validator for every
+     *            document
+     */
+    public void setMaxIdleValidators(int maxIdleValidators) {
+        this.maxIdleValidators = maxIdleValidators;
+        idleValidators.clear();
     }
 
     public OutputFormat getOutputFormat() {
@@ -196,6 +318,62 @@ public class EmbeddedValidator {
         this.lineOffset = lineOffset;
     }
 
+    public Set<OptionalChecker> getDisabledCheckers() {
+        return EnumSet.copyOf(disabledCheckers);
+    }
+
+    /**
+     * @param disabledCheckers
+     *            the optional checkers to leave out, for example to skip
+     *            the costlier checks when only parse errors and schema
+     *            errors matter
+     */
+    public void setDisabledCheckers(Set<OptionalChecker> disabledCheckers) {
+        EnumSet<OptionalChecker> copy = EnumSet.noneOf(OptionalChecker.class);
+        copy.addAll(disabledCheckers);
+        this.disabledCheckers = copy;
+    }
+
+    public boolean isParserOnly() {
+        return parserOnly;
+    }
+
+    /**
+     * @param parserOnly
+     *            if {@code true}, only parse errors are reported, without
+     *            extracts; the schema and the checkers are not run at all
+     */
+    public void setParserOnly(boolean parserOnly) {
+        this.parserOnly = parserOnly;
+    }
+
+    public int getFailFast() {
+        return failFast;
+    }
+
+    /**
+     * @param failFast
+     *            the number of errors after which to stop checking a
+     *            document, for example {@code 1} when only a yes/no answer
+     *            is needed; {@code 0} to check documents completely
+     */
+    public void setFailFast(int failFast) {
+        this.failFast = failFast;
+    }
+
+    public boolean isFailFastOnWarnings() {
+        return failFastOnWarnings;
+    }
+
+    /**
+     * @param failFastOnWarnings
+     *            if {@code true}, warnings count towards the number of
+     *            errors set with {@link #setFailFast(int)} as well
+     */
+    public void setFailFastOnWarnings(boolean failFastOnWarnings) {
+        this.failFastOnWarnings = failFastOnWarnings;
+    }
+
     public String getSchemaUrl() {
         return schemaUrl;
     }
@@ -214,88 +392,121 @@ public class EmbeddedValidator {
     }
 
     /**
-     * Self-contained, single use class for encapsulated building of an embedded
-     * validator.
+     * A validator with its schemas and parsers set up, reused for one
+     * document at a time. Its parsers and validators report to a forwarding
+     * error handler, which is pointed at a fresh message emitter adapter for
+     * each document.
      */
-    private class OneOffValidator implements AutoCloseable {
+    private class PooledValidator {
 
         private static final String MSG_SUCCESS = "Document checking completed. No errors found.";
         private static final String MSG_FAIL = "Document checking completed.";
         private static final String EXTENSION_ERROR = "File was not checked. Files must have .html, .xhtml, .htm, or .xht extensions.";
 
-        private final AtomicBoolean used = new AtomicBoolean(false);
-        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
-        private final BufferedOutputStream bufOut = new BufferedOutputStream(out);
+        private final String key;
 
         private final SimpleDocumentValidator validator;
-        private final MessageEmitterAdapter errorHandler;
-        private final boolean forceHtml;
+        private final ForwardingErrorHandler errorHandler = new ForwardingErrorHandler();
 
-        private OneOffValidator(boolean asciiQuotes, boolean detectLanguages, boolean forceHtml, int lineOffset, boolean loadEntities,
-                boolean noStream, OutputFormat outputFormat, String schemaUrl) throws SAXException {
+        private PooledValidator(String key, boolean detectLanguages, boolean noStream,
+                boolean loadEntities, String schemaUrl,
+                Set<OptionalChecker> disabledCheckers, boolean parserOnly)
+                throws SAXException {
+            this.key = key;
             this.validator = new SimpleDocumentValidator(true, false, !detectLanguages);
-            this.errorHandler = newErrorHandler(lineOffset, asciiQuotes, outputFormat);
-            this.forceHtml = forceHtml;
-            try {
-                this.validator.setUpMainSchema(schemaUrl == null ? SCHEMA_URL : schemaUrl, new SystemErrErrorHandler());
-            } catch (Exception e) {
-                throw new IllegalStateException(e);
+            for (OptionalChecker disabled : disabledCheckers) {
+                this.validator.setCheckerEnabled(disabled, false);
+            }
+            this.validator.setParserOnly(parserOnly);
+            if (!parserOnly) {
+                try {
+                    this.validator.setUpMainSchema(schemaUrl == null ? SCHEMA_URL : schemaUrl, new SystemErrErrorHandler());
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
             }
             this.validator.setUpValidatorAndParsers(errorHandler, noStream, loadEntities);
         }
 
-        public MessageEmitterAdapter newErrorHandler(int lineOffset, boolean asciiQuotes, OutputFormat outputFormat) throws SAXException {
+        private MessageEmitterAdapter newErrorHandler(OutputStream out) throws SAXException {
             boolean showSource = true;
             boolean batchMode = true;
             MessageEmitterAdapter adapter = new MessageEmitterAdapter(null, this.validator.getSourceCode(), showSource,
-                    new ImageCollector(this.validator.getSourceCode()), lineOffset, batchMode, newEmitter(asciiQuotes, outputFormat));
+                    new ImageCollector(this.validator.getSourceCode()), lineOffset, batchMode, newEmitter(out, asciiQuotes, outputFormat));
             adapter.setErrorsOnly(false);
+            adapter.setSourceRetained(!this.validator.isParserOnly());
+            adapter.setFailFast(failFast, failFastOnWarnings);
             adapter.setHtml(true);
             adapter.start(null);
             return adapter;
         }
 
-        private MessageEmitter newEmitter(boolean asciiQuotes, OutputFormat outputFormat) {
+        private MessageEmitter newEmitter(OutputStream out, boolean asciiQuotes, OutputFormat outputFormat) {
             switch (outputFormat) {
             case TEXT:
-                return new TextMessageEmitter(this.out, asciiQuotes);
+                return new TextMessageEmitter(out, asciiQuotes);
             case GNU:
-                return new GnuMessageEmitter(this.out, asciiQuotes);
+                return new GnuMessageEmitter(out, asciiQuotes);
             case JSON:
-                return new JsonMessageEmitter(new Serializer(this.out), null,
+                return new JsonMessageEmitter(new Serializer(out), null,
                         asciiQuotes);
+            case NDJSON:
+                return new JsonMessageEmitter(new Serializer(out, true), null,
+                        asciiQuotes, true, 0);
             case XML:
-                return new XmlMessageEmitter(new XmlSerializer(this.out));
+                return new XmlMessageEmitter(new XmlSerializer(out));
             default:
                 throw new UnsupportedOperationException("OutputFormat " + outputFormat + " not supported");
             }
         }
 
-        private String validate(Path path) throws IOException, SAXException {
-            if (!used.compareAndSet(false, true)) {
-                throw new IllegalStateException("OneOffValidator instances are not reusable");
-            }
+        /**
+         * Wraps the caller's stream so that emitters closing their output
+         * when they are done only flush it.
+         */
+        private OutputStream unclosable(OutputStream out) {
+            return new FilterOutputStream(out) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            };
+        }
+
+        private void validate(Path path, OutputStream out) throws IOException, SAXException {
+            MessageEmitterAdapter errorHandler = newErrorHandler(unclosable(out));
+            this.errorHandler.setDelegate(errorHandler);
+            validator.setAssertionsErrorHandler(errorHandler);
             try {
-                if (Files.notExists(path) || !Files.isReadable(path)) {
-                    errorHandler.warning(new SAXParseException(
-                            "File not found.", null, path.toString(), -1, -1));
-                } else if (isXhtml(path.toFile())) {
-                    if (forceHtml) {
+                try {
+                    if (Files.notExists(path) || !Files.isReadable(path)) {
+                        errorHandler.warning(new SAXParseException(
+                                "File not found.", null, path.toString(), -1, -1));
+                    } else if (isXhtml(path.toFile())) {
+                        if (forceHTML) {
+                            validator.checkHtmlFile(path.toFile(), true);
+                        } else {
+                            validator.checkXmlFile(path.toFile());
+                        }
+                    } else if (isHtml(path.toFile())) {
                         validator.checkHtmlFile(path.toFile(), true);
                     } else {
-                        validator.checkXmlFile(path.toFile());
+                        errorHandler.warning(new SAXParseException(EXTENSION_ERROR, null, path.toString(), -1, -1));
                     }
-                } else if (isHtml(path.toFile())) {
-                    validator.checkHtmlFile(path.toFile(), true);
-                } else {
-                    errorHandler.warning(new SAXParseException(EXTENSION_ERROR, null, path.toString(), -1, -1));
+                } catch (SAXException e) {
+                    errorHandler.warning(new SAXParseException(e.getMessage(), null, path.toString(), -1, -1));
                 }
-            } catch (SAXException e) {
-                errorHandler.warning(new SAXParseException(e.getMessage(), null, path.toString(), -1, -1));
-            }
 
-            errorHandler.end(MSG_SUCCESS, MSG_FAIL, "");
-            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+                errorHandler.end(MSG_SUCCESS, MSG_FAIL, "");
+            } finally {
+                this.errorHandler.setDelegate(null);
+                validator.setAssertionsErrorHandler(this.errorHandler);
+            }
         }
 
         private boolean isXhtml(File file) {
@@ -308,24 +519,16 @@ public class EmbeddedValidator {
             return name.endsWith(".html") || name.endsWith(".htm");
         }
 
-        private String validate(InputStream in) throws IOException, SAXException {
-            if (!used.compareAndSet(false, true)) {
-                throw new IllegalStateException("OneOffValidator instances are not reusable");
-            }
-            validator.checkHtmlInputSource(new InputSource(in));
-            errorHandler.end(MSG_SUCCESS, MSG_FAIL, "");
-            return new String(out.toByteArray(), StandardCharsets.UTF_8);
-        }
-
-        @Override
-        public void close() {
-            try {
-                bufOut.close();
-            } catch (IOException e) {
-            }
+        private void validate(InputStream in, OutputStream out) throws IOException, SAXException {
+            MessageEmitterAdapter errorHandler = newErrorHandler(unclosable(out));
+            this.errorHandler.setDelegate(errorHandler);
+            validator.setAssertionsErrorHandler(errorHandler);
             try {
-                out.close();
-            } catch (IOException e) {
+                validator.checkHtmlInputSource(new InputSource(in));
+                errorHandler.end(MSG_SUCCESS, MSG_FAIL, "");
+            } finally {
+                this.errorHandler.setDelegate(null);
+                validator.setAssertionsErrorHandler(this.errorHandler);
             }
         }
 
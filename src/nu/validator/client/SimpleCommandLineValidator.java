@@ -22,9 +22,17 @@
 
 package nu.validator.client;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -32,7 +40,25 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumSet;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.jar.Manifest;
 import java.util.regex.Pattern;
 
@@ -40,13 +66,18 @@ import nu.validator.htmlparser.sax.XmlSerializer;
 import nu.validator.io.SystemIdIOException;
 import nu.validator.messages.GnuMessageEmitter;
 import nu.validator.messages.JsonMessageEmitter;
+import nu.validator.messages.MessageEmitter;
 import nu.validator.messages.MessageEmitterAdapter;
+import nu.validator.messages.RecordingMessageEmitter;
 import nu.validator.messages.TextMessageEmitter;
 import nu.validator.messages.XmlMessageEmitter;
 import nu.validator.servlet.imagereview.ImageCollector;
 import nu.validator.source.SourceCode;
+import nu.validator.validation.OptionalChecker;
 import nu.validator.validation.SimpleDocumentValidator;
 import nu.validator.validation.SimpleDocumentValidator.SchemaReadException;
+import nu.validator.validation.Timings;
+import nu.validator.xml.ForwardingErrorHandler;
 import nu.validator.xml.SystemErrErrorHandler;
 
 import org.xml.sax.InputSource;
@@ -63,7 +94,16 @@ public class SimpleCommandLineValidator {
 
     private static String userAgent;
 
-    private static SimpleDocumentValidator validator;
+    private static final int MAX_PENDING_PER_THREAD = 4;
+
+    private static final String WARM_UP_DOCUMENT = "<!DOCTYPE html>"
+            + "<html lang=en><title>Warm-up</title><style>p { color: red }"
+            + "</style><p>This document is checked once so that the"
+            + " checkers are ready before the first request arrives.</p>";
+
+    private static FileChecker checker;
+
+    private static MessageEmitter emitter;
 
     private static OutputStream out;
 
@@ -107,8 +147,28 @@ public class SimpleCommandLineValidator {
 
     private static int lineOffset;
 
+    private static int threads;
+
+    private static boolean serverStdio;
+
+    private static boolean timings;
+
+    private static Set<OptionalChecker> disabledCheckers;
+
+    private static boolean parserOnly;
+
+    private static int failFast;
+
+    private static ExecutorService executor;
+
+    private static BlockingQueue<FileChecker> idleCheckers;
+
+    private static List<FileChecker> workers;
+
+    private static Deque<Future<Output>> pending;
+
     private static enum OutputFormat {
-        HTML, XHTML, TEXT, XML, JSON, RELAXED, SOAP, UNICORN, GNU
+        HTML, XHTML, TEXT, XML, JSON, NDJSON, RELAXED, SOAP, UNICORN, GNU
     }
 
     private static OutputFormat outputFormat;
@@ -147,14 +207,20 @@ public class SimpleCommandLineValidator {
         noLangDetect = false;
         noStream = false;
         lineOffset = 0;
+        threads = 1;
         asciiQuotes = false;
         verbose = false;
+        timings = false;
+        disabledCheckers = EnumSet.noneOf(OptionalChecker.class);
+        parserOnly = false;
+        failFast = 0;
 
         filterPattern = null;
         String filterString = "";
         String outFormat = null;
         schemaUrl = null;
         hasSchemaOption = false;
+        serverStdio = false;
         boolean hasFileArgs = false;
         boolean readFromStdIn = false;
         int fileArgsStart = 0;
@@ -258,6 +324,49 @@ public class SimpleCommandLineValidator {
                     noLangDetect = true;
                 } else if ("--no-stream".equals(args[i])) {
                     noStream = true;
+                } else if ("--server-stdio".equals(args[i])) {
+                    serverStdio = true;
+                } else if ("--timings".equals(args[i])) {
+                    timings = true;
+                } else if ("--fail-fast".equals(args[i])) {
+                    failFast = 1;
+                } else if (args[i].startsWith("--fail-fast=")) {
+                    try {
+                        failFast = Integer.parseInt(args[i].substring(
+                                "--fail-fast=".length()));
+                    } catch (NumberFormatException e) {
+                        failFast = 0;
+                    }
+                    if (failFast < 1) {
+                        System.err.println("error: The \"--fail-fast\" option"
+                                + " requires a positive number.");
+                        usage();
+                        System.exit(1);
+                    }
+                } else if ("--parser-only".equals(args[i])) {
+                    parserOnly = true;
+                } else if ("--disable-checkers".equals(args[i])) {
+                    try {
+                        disabledCheckers.addAll(
+                                OptionalChecker.parse(args[++i]));
+                    } catch (IllegalArgumentException e) {
+                        System.err.println("error: " + e.getMessage()
+                                + " The \"--disable-checkers\" option"
+                                + " requires a comma-separated list of"
+                                + " checker names.");
+                        System.exit(1);
+                    }
+                } else if ("--threads".equals(args[i])) {
+                    try {
+                        threads = Integer.parseInt(args[++i]);
+                    } catch (NumberFormatException e) {
+                        threads = 0;
+                    }
+                    if (threads < 1) {
+                        System.err.println("error: The \"--threads\" option"
+                                + " requires a positive number.");
+                        System.exit(1);
+                    }
                 } else if ("--schema".equals(args[i])) {
                     hasSchemaOption = true;
                     schemaUrl = args[++i];
@@ -286,37 +395,37 @@ public class SimpleCommandLineValidator {
                 outputFormat = OutputFormat.XML;
             } else if ("json".equals(outFormat)) {
                 outputFormat = OutputFormat.JSON;
+            } else if ("ndjson".equals(outFormat)) {
+                outputFormat = OutputFormat.NDJSON;
             } else {
                 System.err.printf("Error: Unsupported output format \"%s\"."
                         + " Must be \"gnu\", \"xml\", \"json\","
-                        + " or \"text\".\n", outFormat);
+                        + " \"ndjson\", or \"text\".\n", outFormat);
                 System.exit(1);
             }
         }
-        if (readFromStdIn) {
+        if (serverStdio) {
+            serveStdio();
+        } else if (readFromStdIn) {
             InputSource is = new InputSource(System.in);
-            if (noLangDetect) {
-                validator = new SimpleDocumentValidator(true, false, false);
-            } else {
-                validator = new SimpleDocumentValidator();
-            }
-            setup(schemaUrl);
+            setup(newValidator(true));
             if (forceCSS) {
-                validator.checkCssInputSource(is);
+                checker.validator.checkCssInputSource(is);
             } else if (forceSVG) {
-                checkSvgInputSource(is);
+                checker.checkSvgInputSource(is);
             } else {
-                validator.checkHtmlInputSource(is);
+                checker.validator.checkHtmlInputSource(is);
             }
             end();
         } else if (hasFileArgs) {
-            if (noLangDetect) {
-                validator = new SimpleDocumentValidator(true, false, false);
-            } else {
-                validator = new SimpleDocumentValidator(true, false, true);
+            setup(newValidator(false));
+            if (threads > 1) {
+                startWorkers();
             }
-            setup(schemaUrl);
             checkFiles(args, fileArgsStart);
+            if (threads > 1) {
+                finishWorkers();
+            }
             end();
         } else {
             System.err.printf("\nError: No documents specified.\n");
@@ -325,81 +434,378 @@ public class SimpleCommandLineValidator {
         }
     }
 
-    private static void setSchema(String schemaUrl)
-            throws SAXException, Exception {
-        try {
-            validator.setUpMainSchema(schemaUrl, new SystemErrErrorHandler());
-        } catch (SchemaReadException e) {
-            otherOut.println(e.getMessage() + " Terminating.");
-            System.exit(1);
-        } catch (StackOverflowError e) {
-            otherOut.println("StackOverflowError"
-                    + " while evaluating HTML schema.");
-            otherOut.println("The checker requires a java thread stack size"
-                    + " of at least 512k.");
-            otherOut.println("Consider invoking java with the -Xss"
-                    + " option. For example:");
-            otherOut.println("\n  java -Xss512k -jar ~/vnu.jar FILE.html");
-            System.exit(1);
+    private static SimpleDocumentValidator newValidator(boolean logUrls) {
+        SimpleDocumentValidator validator;
+        if (noLangDetect) {
+            validator = new SimpleDocumentValidator(true, false, false);
+        } else {
+            validator = new SimpleDocumentValidator(true, logUrls, true);
+        }
+        for (OptionalChecker disabled : disabledCheckers) {
+            validator.setCheckerEnabled(disabled, false);
+        }
+        if (timings) {
+            validator.setTimings(new Timings());
         }
-        validator.setUpValidatorAndParsers(errorHandler, noStream, loadEntities);
+        validator.setParserOnly(parserOnly);
+        return validator;
     }
 
-    private static void setup(String schemaUrl) throws SAXException, Exception {
-        setErrorHandler();
-        if (cssCheckingEnabled()) {
-            errorHandler.setLineOffset(-1);
-        }
-        errorHandler.setHtml(true);
+    private static void setup(SimpleDocumentValidator validator)
+            throws SAXException, Exception {
+        emitter = newEmitter(out);
+        errorHandler = newErrorHandler(validator.getSourceCode(), emitter);
         errorHandler.start(null);
-        validator.setAllowCss(cssCheckingEnabled());
-        setSchema(schemaUrl);
+        checker = new FileChecker(validator, errorHandler, null);
+        checker.setSchema(schemaUrl);
     }
 
     private static void end() throws SAXException {
         errorHandler.end("Document checking completed. No errors found.",
                 "Document checking completed.", "");
+        if (timings) {
+            printTimings();
+        }
         if (errorHandler.getErrors() > 0 || errorHandler.getFatalErrors() > 0
                 || (wError && errorHandler.getWarnings() > 0 && !errorsOnly)) {
             System.exit(exitZeroAlways ? 0 : 1);
         }
     }
 
-    private static void checkFiles(String[] args, int fileArgsStart)
-            throws IOException, Exception, SAXException {
-        for (int i = fileArgsStart; i < args.length; i++) {
-            if (args[i].startsWith("http://") || args[i].startsWith("https://")) {
-                emitFilename(args[i]);
+    /**
+     * Writes the time and allocations of each stage, added up over all
+     * documents and threads, to the stream that does not carry the
+     * messages.
+     */
+    private static void printTimings() {
+        Timings total = new Timings();
+        total.add(checker.validator.getTimings());
+        if (workers != null) {
+            for (FileChecker worker : workers) {
+                total.add(worker.validator.getTimings());
+            }
+        }
+        List<Timings.Stage> stages = total.getUsedStages();
+        Collections.sort(stages, new Comparator<Timings.Stage>() {
+            @Override
+            public int compare(Timings.Stage a, Timings.Stage b) {
+                return Long.compare(b.getNanos(), a.getNanos());
+            }
+        });
+        long totalNanos = 0;
+        for (Timings.Stage stage : stages) {
+            totalNanos += stage.getNanos();
+        }
+        otherOut.printf("%-32s %12s %7s %14s\n", "Stage", "Time (ms)",
+                "Share", "Allocated (KB)");
+        for (Timings.Stage stage : stages) {
+            otherOut.printf("%-32s %12.1f %6.1f%% %14s\n", stage.getName(),
+                    stage.getNanos() / 1e6,
+                    100.0 * stage.getNanos() / totalNanos,
+                    stage.getAllocatedBytes() < 0 ? "-"
+                            : Long.toString(stage.getAllocatedBytes() / 1024));
+        }
+        otherOut.printf("%-32s %12.1f\n", "Total", totalNanos / 1e6);
+    }
+
+    /**
+     * Sets up one checker per thread. Each has its own validator and parsers
+     * and records its messages, which are then written out by the main
+     * thread in the order the files were given.
+     */
+    private static void startWorkers() throws SAXException, Exception {
+        executor = Executors.newFixedThreadPool(threads);
+        idleCheckers = new ArrayBlockingQueue<>(threads);
+        workers = new ArrayList<>(threads);
+        pending = new ArrayDeque<>();
+        for (int i = 0; i < threads; i++) {
+            SimpleDocumentValidator validator = newValidator(false);
+            RecordingMessageEmitter recorder = new RecordingMessageEmitter(
+                    emitter);
+            FileChecker worker = new FileChecker(validator,
+                    newErrorHandler(validator.getSourceCode(), recorder),
+                    recorder);
+            worker.setSchema(schemaUrl);
+            workers.add(worker);
+            idleCheckers.add(worker);
+        }
+    }
+
+    private static void finishWorkers() throws Exception {
+        while (!pending.isEmpty()) {
+            writeOutput(pending.remove());
+        }
+        executor.shutdown();
+        for (FileChecker worker : workers) {
+            errorHandler.addCounts(worker.errorHandler);
+        }
+    }
+
+    private static void schedule(final Check check) throws Exception {
+        if (failedFast()) {
+            return;
+        }
+        if (executor == null) {
+            check.run(checker);
+            return;
+        }
+        pending.add(executor.submit(new Callable<Output>() {
+            @Override
+            public Output call() throws Exception {
+                FileChecker worker = idleCheckers.take();
                 try {
-                    validator.checkHttpURL(args[i], userAgent, errorHandler);
-                } catch (IOException e) {
-                    errorHandler.fatalError(new SAXParseException(e.getMessage(),
-                            null, args[i], -1, -1,
-                            new SystemIdIOException(args[i], e.getMessage())));
+                    return worker.record(check);
+                } finally {
+                    idleCheckers.add(worker);
                 }
-            } else {
-                File file = new File(args[i]);
-                if (file.isDirectory()) {
-                    recurseDirectory(file);
-                } else if (forceCSS) {
-                    checkCssFile(file);
-                } else if (skipNonCSS) {
-                    if (isCss(file)) {
-                        checkCssFile(file);
+            }
+        }));
+        if (pending.size() > MAX_PENDING_PER_THREAD * threads) {
+            writeOutput(pending.remove());
+        }
+    }
+
+    /**
+     * Whether the number of errors given with --fail-fast has been reached,
+     * in which case no further documents are checked. With several threads,
+     * documents already being checked by other threads are still reported.
+     */
+    private static boolean failedFast() {
+        if (checker.errorHandler != null
+                && checker.errorHandler.hasFailedFast()) {
+            return true;
+        }
+        if (workers != null) {
+            for (FileChecker worker : workers) {
+                if (worker.errorHandler.hasFailedFast()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static void writeOutput(Future<Output> future) throws Exception {
+        Output output;
+        try {
+            output = future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+        otherOut.write(output.info, 0, output.info.length);
+        output.messages.replay(emitter);
+        System.err.write(output.warnings, 0, output.warnings.length);
+    }
+
+    /**
+     * Keeps one set-up validator resident and checks documents as they are
+     * requested on stdin, writing one framed result per request to stdout.
+     * 
+     * <p>A request is a header line of tab-separated fields. Either
+     * <code>FILE PATH</code> checks a file, directory or http(s) URL the
+     * same way as a command-line argument, or
+     * <code>DATA LENGTH CONTENT-TYPE [NAME]</code> checks the LENGTH bytes
+     * that follow the header line. An empty line or the end of input stops
+     * the server, and so does input that ends before the LENGTH bytes, after
+     * a response reporting it. Each response is a header line
+     * <code>LENGTH STATUS</code>, where STATUS is the exit status a normal
+     * run would have had, followed by LENGTH bytes of output in the
+     * requested format. Options other than the documents themselves are
+     * given on the command line and apply to every request.
+     */
+    private static void serveStdio() throws Exception {
+        // stdout carries the responses
+        otherOut = System.err;
+        DataInputStream requests = new DataInputStream(
+                new BufferedInputStream(System.in));
+        OutputStream responses = new BufferedOutputStream(
+                new FileOutputStream(FileDescriptor.out));
+        SimpleDocumentValidator validator = newValidator(false);
+        checker = new FileChecker(validator, null, null);
+        checker.setSchema(schemaUrl);
+        warmUp();
+        if (timings) {
+            validator.getTimings().reset();
+        }
+        String line;
+        boolean truncated = false;
+        while (!truncated && (line = readLine(requests)) != null
+                && !"".equals(line)) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            MessageEmitter requestEmitter = newEmitter(buffer);
+            MessageEmitterAdapter requestErrorHandler = newErrorHandler(
+                    validator.getSourceCode(), requestEmitter);
+            requestErrorHandler.start(null);
+            checker.setErrorHandler(requestErrorHandler);
+            String[] fields = line.split("\t");
+            if (fields.length == 2 && "FILE".equals(fields[0])) {
+                checkArgument(fields[1]);
+            } else if ((fields.length == 3 || fields.length == 4)
+                    && "DATA".equals(fields[0])) {
+                int length;
+                try {
+                    length = Integer.parseInt(fields[1]);
+                } catch (NumberFormatException e) {
+                    length = -1;
+                }
+                String name = fields.length == 4 ? fields[3] : null;
+                if (length < 0) {
+                    requestError(requestErrorHandler, null,
+                            "Malformed request: " + line);
+                } else {
+                    byte[] data = new byte[length];
+                    try {
+                        requests.readFully(data);
+                    } catch (EOFException e) {
+                        truncated = true;
                     }
-                } else if (alsoCheckCSS && isCss(file)) {
-                    checkCssFile(file);
-                } else if (forceSVG) {
-                    checkSvgFile(file);
-                } else if (skipNonSVG) {
-                    if (isSvg(file)) {
-                        checkSvgFile(file);
+                    if (truncated) {
+                        requestError(requestErrorHandler, name,
+                                "Request ended before its " + length
+                                        + " bytes of data.");
+                    } else {
+                        checkData(data, fields[2], name);
                     }
-                } else if (alsoCheckSVG && isSvg(file)) {
-                    checkSvgFile(file);
-                } else {
-                    checkHtmlFile(file);
                 }
+            } else {
+                requestError(requestErrorHandler, null,
+                        "Malformed request: " + line);
+            }
+            requestErrorHandler.end(
+                    "Document checking completed. No errors found.",
+                    "Document checking completed.", "");
+            checker.setErrorHandler(null);
+            boolean failed = requestErrorHandler.getErrors() > 0
+                    || requestErrorHandler.getFatalErrors() > 0
+                    || (wError && requestErrorHandler.getWarnings() > 0
+                            && !errorsOnly);
+            String header = buffer.size() + "\t"
+                    + (failed && !exitZeroAlways ? 1 : 0) + "\n";
+            responses.write(header.getBytes(StandardCharsets.US_ASCII));
+            buffer.writeTo(responses);
+            responses.flush();
+        }
+        if (timings) {
+            printTimings();
+        }
+    }
+
+    /**
+     * Reports a request that cannot be checked as the response to that
+     * request, so that the server keeps running for the requests after it.
+     * The source is reset first, since messages without a system id are
+     * reported under the URI of the last checked source.
+     */
+    private static void requestError(
+            MessageEmitterAdapter requestErrorHandler, String systemId,
+            String message) throws SAXException {
+        InputSource is = new InputSource();
+        is.setSystemId(systemId);
+        checker.validator.getSourceCode().initialize(is);
+        requestErrorHandler.fatalError(new SAXParseException(message, null,
+                systemId, -1, -1));
+    }
+
+    private static boolean isSupportedEncoding(String encoding) {
+        try {
+            return Charset.isSupported(encoding);
+        } catch (IllegalCharsetNameException e) {
+            return false;
+        }
+    }
+
+    private static void checkData(byte[] data, String contentType,
+            String name) throws Exception {
+        InputSource is = new InputSource(new ByteArrayInputStream(data));
+        is.setSystemId(name);
+        String type = contentType.trim();
+        int semicolon = type.indexOf(';');
+        if (semicolon != -1) {
+            for (String param : type.substring(semicolon + 1).replace(" ",
+                    "").split(";")) {
+                if (param.startsWith("charset=")) {
+                    is.setEncoding(param.substring("charset=".length()));
+                }
+            }
+            type = type.substring(0, semicolon).trim();
+        }
+        if (is.getEncoding() != null
+                && !isSupportedEncoding(is.getEncoding())) {
+            requestError(checker.errorHandler, name,
+                    "Unsupported character encoding \u201C"
+                            + is.getEncoding() + "\u201D.");
+            return;
+        }
+        if ("text/css".equals(type)) {
+            // Lines are counted from the start of the HTML wrapper.
+            checker.errorHandler.setLineOffset(-1);
+            checker.checkCssInputSource(is);
+        } else if ("image/svg+xml".equals(type)) {
+            checker.checkSvgInputSource(is);
+        } else if ("application/xhtml+xml".equals(type)
+                || type.endsWith("/xml") || type.endsWith("+xml")) {
+            checker.checkXhtmlInputSource(is);
+        } else {
+            checker.checkHtmlInputSource(is);
+        }
+    }
+
+    /**
+     * Checks a small document so that the classes, data and caches the
+     * checkers load lazily are in place before the first real request.
+     */
+    private static void warmUp() throws Exception {
+        checker.setErrorHandler(newErrorHandler(
+                checker.validator.getSourceCode(),
+                newEmitter(new ByteArrayOutputStream())));
+        checker.validator.checkHtmlInputSource(new InputSource(
+                new ByteArrayInputStream(WARM_UP_DOCUMENT.getBytes(
+                        StandardCharsets.UTF_8))));
+        checker.setErrorHandler(null);
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) {
+                return line.size() == 0 ? null
+                        : new String(line.toByteArray(),
+                                StandardCharsets.UTF_8);
+            }
+            line.write(b);
+        }
+        String s = new String(line.toByteArray(), StandardCharsets.UTF_8);
+        return s.endsWith("\r") ? s.substring(0, s.length() - 1) : s;
+    }
+
+    private static void checkFiles(String[] args, int fileArgsStart)
+            throws IOException, Exception, SAXException {
+        for (int i = fileArgsStart; i < args.length; i++) {
+            checkArgument(args[i]);
+        }
+    }
+
+    private static void checkArgument(final String arg) throws Exception {
+        if (arg.startsWith("http://") || arg.startsWith("https://")) {
+            schedule(new Check() {
+                @Override
+                public void run(FileChecker fileChecker) throws Exception {
+                    fileChecker.checkHttpURL(arg);
+                }
+            });
+        } else {
+            File file = new File(arg);
+            if (file.isDirectory()) {
+                recurseDirectory(file);
+            } else {
+                checkFile(file);
             }
         }
     }
@@ -411,125 +817,294 @@ public class SimpleCommandLineValidator {
             for (File file : files) {
                 if (file.isDirectory()) {
                     recurseDirectory(file);
-                } else if (forceCSS) {
-                    checkCssFile(file);
-                } else if (skipNonCSS) {
-                    if (isCss(file)) {
-                        checkCssFile(file);
-                    }
-                } else if (alsoCheckCSS && isCss(file)) {
-                    checkCssFile(file);
-                } else if (forceSVG) {
-                    checkSvgFile(file);
-                } else if (skipNonSVG) {
-                    if (isSvg(file)) {
-                        checkSvgFile(file);
-                    }
-                } else if (alsoCheckSVG && isSvg(file)) {
-                    checkSvgFile(file);
                 } else {
-                    checkHtmlFile(file);
+                    checkFile(file);
                 }
             }
         }
     }
 
-    private static void checkSvgInputSource(InputSource is) throws Exception {
-        if (!"http://s.validator.nu/svg-xhtml5-rdf-mathml.rnc".equals(
-                validator.getMainSchemaUrl()) && !hasSchemaOption) {
-            setSchema("http://s.validator.nu/svg-xhtml5-rdf-mathml.rnc");
+    private static void checkFile(final File file) throws Exception {
+        schedule(new Check() {
+            @Override
+            public void run(FileChecker fileChecker) throws Exception {
+                fileChecker.checkFile(file);
+            }
+        });
+    }
+
+    private interface Check {
+        void run(FileChecker fileChecker) throws Exception;
+    }
+
+    /**
+     * What checking one file produced, in the order it is written out.
+     */
+    private static final class Output {
+
+        final byte[] info;
+
+        final RecordingMessageEmitter.Recording messages;
+
+        final byte[] warnings;
+
+        Output(byte[] info, RecordingMessageEmitter.Recording messages,
+                byte[] warnings) {
+            this.info = info;
+            this.messages = messages;
+            this.warnings = warnings;
         }
-        validator.checkXmlInputSource(is);
     }
 
-    private static void checkSvgFile(File file) throws IOException, Exception {
-        if (!"http://s.validator.nu/svg-xhtml5-rdf-mathml.rnc".equals(
-                validator.getMainSchemaUrl()) && !hasSchemaOption) {
-            setSchema("http://s.validator.nu/svg-xhtml5-rdf-mathml.rnc");
+    /**
+     * A validator together with the error handler it reports to. The
+     * validator reports through a forwarding error handler, so that the
+     * stdio server can give each request an error handler of its own.
+     */
+    private static final class FileChecker {
+
+        private final SimpleDocumentValidator validator;
+
+        private final ForwardingErrorHandler forwarder = new ForwardingErrorHandler();
+
+        private MessageEmitterAdapter errorHandler;
+
+        private final RecordingMessageEmitter recorder;
+
+        private PrintStream info = otherOut;
+
+        private PrintStream warnings = System.err;
+
+        private boolean parsersSetUp;
+
+        FileChecker(SimpleDocumentValidator validator,
+                MessageEmitterAdapter errorHandler,
+                RecordingMessageEmitter recorder) {
+            this.validator = validator;
+            this.recorder = recorder;
+            validator.setAllowCss(cssCheckingEnabled());
+            setErrorHandler(errorHandler);
         }
-        try {
-            String path = file.getPath();
-            if (!file.exists()) {
-                if (verbose) {
-                    errorHandler.warning(new SAXParseException(
-                            "File not found.", null,
-                            file.toURI().toURL().toString(), -1, -1));
+
+        void setErrorHandler(MessageEmitterAdapter errorHandler) {
+            this.errorHandler = errorHandler;
+            if (errorHandler != null) {
+                errorHandler.setTimings(validator.getTimings(), false);
+            }
+            forwarder.setDelegate(errorHandler);
+        }
+
+        Output record(Check check) throws Exception {
+            ByteArrayOutputStream infoBuffer = new ByteArrayOutputStream();
+            ByteArrayOutputStream warningBuffer = new ByteArrayOutputStream();
+            info = new PrintStream(infoBuffer);
+            warnings = new PrintStream(warningBuffer);
+            try {
+                // other threads may have failed fast while this was queued
+                if (!failedFast()) {
+                    check.run(this);
+                }
+            } finally {
+                info.flush();
+                warnings.flush();
+            }
+            return new Output(infoBuffer.toByteArray(),
+                    recorder.takeRecording(), warningBuffer.toByteArray());
+        }
+
+        void setSchema(String schemaUrl) throws SAXException, Exception {
+            if (validator.isParserOnly()) {
+                // no schema to set up, and the same parsers do for every
+                // kind of document
+                if (!parsersSetUp) {
+                    validator.setUpValidatorAndParsers(forwarder, noStream,
+                            loadEntities);
+                    parsersSetUp = true;
                 }
                 return;
-            } else {
-                emitFilename(path);
-                validator.checkXmlFile(file);
             }
-        } catch (SAXException e) {
-            if (!errorsOnly) {
-                System.err.printf("\"%s\":-1:-1: warning: %s\n",
-                        file.toURI().toURL().toString(), e.getMessage());
+            try {
+                validator.setUpMainSchema(schemaUrl,
+                        new SystemErrErrorHandler());
+            } catch (SchemaReadException e) {
+                otherOut.println(e.getMessage() + " Terminating.");
+                System.exit(1);
+            } catch (StackOverflowError e) {
+                otherOut.println("StackOverflowError"
+                        + " while evaluating HTML schema.");
+                otherOut.println("The checker requires a java thread stack size"
+                        + " of at least 512k.");
+                otherOut.println("Consider invoking java with the -Xss"
+                        + " option. For example:");
+                otherOut.println("\n  java -Xss512k -jar ~/vnu.jar FILE.html");
+                System.exit(1);
             }
+            validator.setUpValidatorAndParsers(forwarder, noStream,
+                    loadEntities);
         }
-    }
 
-    private static void checkCssFile(File file) throws IOException, Exception {
-        try {
-            String path = file.getPath();
-            if (!file.exists()) {
-                if (verbose) {
-                    errorHandler.warning(new SAXParseException(
-                            "File not found.", null,
-                            file.toURI().toURL().toString(), -1, -1));
+        void checkHttpURL(String url) throws SAXException, Exception {
+            emitFilename(url);
+            try {
+                validator.checkHttpURL(url, userAgent, errorHandler);
+            } catch (IOException e) {
+                errorHandler.fatalError(new SAXParseException(e.getMessage(),
+                        null, url, -1, -1,
+                        new SystemIdIOException(url, e.getMessage())));
+            }
+        }
+
+        void checkFile(File file) throws IOException, Exception {
+            if (forceCSS) {
+                checkCssFile(file);
+            } else if (skipNonCSS) {
+                if (isCss(file)) {
+                    checkCssFile(file);
                 }
-                return;
+            } else if (alsoCheckCSS && isCss(file)) {
+                checkCssFile(file);
+            } else if (forceSVG) {
+                checkSvgFile(file);
+            } else if (skipNonSVG) {
+                if (isSvg(file)) {
+                    checkSvgFile(file);
+                }
+            } else if (alsoCheckSVG && isSvg(file)) {
+                checkSvgFile(file);
             } else {
-                emitFilename(path);
-                validator.checkCssFile(file, true);
+                checkHtmlFile(file);
             }
-        } catch (SAXException e) {
-            if (!errorsOnly) {
-                System.err.printf("\"%s\":-1:-1: warning: %s\n",
-                        file.toURI().toURL().toString(), e.getMessage());
+        }
+
+        void checkHtmlInputSource(InputSource is) throws Exception {
+            if (!"http://s.validator.nu/html5-all.rnc".equals(
+                    validator.getMainSchemaUrl()) && !hasSchemaOption) {
+                setSchema("http://s.validator.nu/html5-all.rnc");
             }
+            validator.checkHtmlInputSource(is);
         }
-    }
 
-    private static void checkHtmlFile(File file) throws IOException, Exception {
-        try {
-            String path = file.getPath();
-            if (!file.exists()) {
-                if (verbose) {
-                    errorHandler.warning(new SAXParseException(
-                            "File not found.", null,
-                            file.toURI().toURL().toString(), -1, -1));
+        void checkCssInputSource(InputSource is) throws Exception {
+            if (!"http://s.validator.nu/html5-all.rnc".equals(
+                    validator.getMainSchemaUrl()) && !hasSchemaOption) {
+                setSchema("http://s.validator.nu/html5-all.rnc");
+            }
+            validator.checkCssInputSource(is);
+        }
+
+        void checkSvgInputSource(InputSource is) throws Exception {
+            if (!"http://s.validator.nu/svg-xhtml5-rdf-mathml.rnc".equals(
+                    validator.getMainSchemaUrl()) && !hasSchemaOption) {
+                setSchema("http://s.validator.nu/svg-xhtml5-rdf-mathml.rnc");
+            }
+            validator.checkXmlInputSource(is);
+        }
+
+        void checkXhtmlInputSource(InputSource is) throws Exception {
+            if (!"http://s.validator.nu/xhtml5-all.rnc".equals(
+                    validator.getMainSchemaUrl()) && !hasSchemaOption) {
+                setSchema("http://s.validator.nu/xhtml5-all.rnc");
+            }
+            validator.checkXmlInputSource(is);
+        }
+
+        private void checkSvgFile(File file) throws IOException, Exception {
+            if (!"http://s.validator.nu/svg-xhtml5-rdf-mathml.rnc".equals(
+                    validator.getMainSchemaUrl()) && !hasSchemaOption) {
+                setSchema("http://s.validator.nu/svg-xhtml5-rdf-mathml.rnc");
+            }
+            try {
+                String path = file.getPath();
+                if (!file.exists()) {
+                    if (verbose) {
+                        errorHandler.warning(new SAXParseException(
+                                "File not found.", null,
+                                file.toURI().toURL().toString(), -1, -1));
+                    }
+                    return;
+                } else {
+                    emitFilename(path);
+                    validator.checkXmlFile(file);
                 }
-                return;
-            } else if (isXhtml(file)) {
-                emitFilename(path);
-                if (forceHTML) {
-                    validator.checkHtmlFile(file, true);
+            } catch (SAXException e) {
+                if (!errorsOnly) {
+                    warnings.printf("\"%s\":-1:-1: warning: %s\n",
+                            file.toURI().toURL().toString(), e.getMessage());
+                }
+            }
+        }
+
+        private void checkCssFile(File file) throws IOException, Exception {
+            try {
+                String path = file.getPath();
+                if (!file.exists()) {
+                    if (verbose) {
+                        errorHandler.warning(new SAXParseException(
+                                "File not found.", null,
+                                file.toURI().toURL().toString(), -1, -1));
+                    }
+                    return;
                 } else {
-                    if (!"http://s.validator.nu/xhtml5-all.rnc".equals(
+                    emitFilename(path);
+                    validator.checkCssFile(file, true);
+                }
+            } catch (SAXException e) {
+                if (!errorsOnly) {
+                    warnings.printf("\"%s\":-1:-1: warning: %s\n",
+                            file.toURI().toURL().toString(), e.getMessage());
+                }
+            }
+        }
+
+        private void checkHtmlFile(File file) throws IOException, Exception {
+            try {
+                String path = file.getPath();
+                if (!file.exists()) {
+                    if (verbose) {
+                        errorHandler.warning(new SAXParseException(
+                                "File not found.", null,
+                                file.toURI().toURL().toString(), -1, -1));
+                    }
+                    return;
+                } else if (isXhtml(file)) {
+                    emitFilename(path);
+                    if (forceHTML) {
+                        validator.checkHtmlFile(file, true);
+                    } else {
+                        if (!"http://s.validator.nu/xhtml5-all.rnc".equals(
+                                validator.getMainSchemaUrl())
+                                && !hasSchemaOption) {
+                            setSchema("http://s.validator.nu/xhtml5-all.rnc");
+                        }
+                        validator.checkXmlFile(file);
+                    }
+                } else if (isHtml(file)) {
+                    emitFilename(path);
+                    if (!"http://s.validator.nu/html5-all.rnc".equals(
                             validator.getMainSchemaUrl()) && !hasSchemaOption) {
-                        setSchema("http://s.validator.nu/xhtml5-all.rnc");
+                        setSchema("http://s.validator.nu/html5-all.rnc");
+                    }
+                    validator.checkHtmlFile(file, true);
+                } else {
+                    if (verbose) {
+                        errorHandler.warning(new SAXParseException(
+                                "File was not checked. Files must have .html,"
+                                        + " .xhtml, .htm, or .xht extensions.",
+                                null, file.toURI().toURL().toString(), -1,
+                                -1));
                     }
-                    validator.checkXmlFile(file);
-                }
-            } else if (isHtml(file)) {
-                emitFilename(path);
-                if (!"http://s.validator.nu/html5-all.rnc".equals(
-                        validator.getMainSchemaUrl()) && !hasSchemaOption) {
-                    setSchema("http://s.validator.nu/html5-all.rnc");
                 }
-                validator.checkHtmlFile(file, true);
-            } else {
-                if (verbose) {
-                    errorHandler.warning(new SAXParseException(
-                            "File was not checked. Files must have .html,"
-                                    + " .xhtml, .htm, or .xht extensions.",
-                            null, file.toURI().toURL().toString(), -1, -1));
+            } catch (SAXException e) {
+                if (!errorsOnly) {
+                    warnings.printf("\"%s\":-1:-1: warning: %s\n",
+                            file.toURI().toURL().toString(), e.getMessage());
                 }
             }
-        } catch (SAXException e) {
-            if (!errorsOnly) {
-                System.err.printf("\"%s\":-1:-1: warning: %s\n",
-                        file.toURI().toURL().toString(), e.getMessage());
+        }
+
+        private void emitFilename(String name) {
+            if (verbose) {
+                info.println(name);
             }
         }
     }
@@ -558,39 +1133,42 @@ public class SimpleCommandLineValidator {
         return (name.endsWith(".html") || name.endsWith(".htm") || !skipNonHTML);
     }
 
-    private static void emitFilename(String name) {
-        if (verbose) {
-            otherOut.println(name);
-        }
-    }
-
-    private static void setErrorHandler() {
-        SourceCode sourceCode = validator.getSourceCode();
-        ImageCollector imageCollector = new ImageCollector(sourceCode);
-        boolean showSource = false;
+    private static MessageEmitter newEmitter(OutputStream out) {
         if (outputFormat == OutputFormat.TEXT) {
-            errorHandler = new MessageEmitterAdapter(filterPattern, sourceCode,
-                    showSource, imageCollector, lineOffset, true,
-                    new TextMessageEmitter(out, asciiQuotes));
+            return new TextMessageEmitter(out, asciiQuotes);
         } else if (outputFormat == OutputFormat.GNU) {
-            errorHandler = new MessageEmitterAdapter(filterPattern, sourceCode,
-                    showSource, imageCollector, lineOffset, true,
-                    new GnuMessageEmitter(out, asciiQuotes));
+            return new GnuMessageEmitter(out, asciiQuotes);
         } else if (outputFormat == OutputFormat.XML) {
-            errorHandler = new MessageEmitterAdapter(filterPattern, sourceCode,
-                    showSource, imageCollector, lineOffset, true,
-                    new XmlMessageEmitter(new XmlSerializer(out)));
+            return new XmlMessageEmitter(new XmlSerializer(out));
         } else if (outputFormat == OutputFormat.JSON) {
             String callback = null;
-            errorHandler = new MessageEmitterAdapter(filterPattern, sourceCode,
-                    showSource, imageCollector, lineOffset, true,
-                    new JsonMessageEmitter(
-                            new nu.validator.json.Serializer(out), callback,
-                            asciiQuotes));
+            return new JsonMessageEmitter(
+                    new nu.validator.json.Serializer(out), callback,
+                    asciiQuotes);
+        } else if (outputFormat == OutputFormat.NDJSON) {
+            return new JsonMessageEmitter(
+                    new nu.validator.json.Serializer(out, true), null,
+                    asciiQuotes, true, 0);
         } else {
             throw new RuntimeException("Bug. Should be unreachable.");
         }
-        errorHandler.setErrorsOnly(errorsOnly);
+    }
+
+    private static MessageEmitterAdapter newErrorHandler(SourceCode sourceCode,
+            MessageEmitter messageEmitter) {
+        ImageCollector imageCollector = new ImageCollector(sourceCode);
+        boolean showSource = false;
+        MessageEmitterAdapter adapter = new MessageEmitterAdapter(
+                filterPattern, sourceCode, showSource, imageCollector,
+                lineOffset, true, messageEmitter);
+        adapter.setErrorsOnly(errorsOnly);
+        adapter.setSourceRetained(!parserOnly);
+        adapter.setFailFast(failFast, wError && !errorsOnly);
+        if (cssCheckingEnabled()) {
+            adapter.setLineOffset(-1);
+        }
+        adapter.setHtml(true);
+        return adapter;
     }
 
     private static void usage() {
@@ -606,7 +1184,9 @@ public class SimpleCommandLineValidator {
         otherOut.println("    --user-agent USER_AGENT --no-langdetect --no-stream --filterfile FILENAME");
         otherOut.println("    --filterpattern PATTERN --css --skip-non-css --also-check-css --svg");
         otherOut.println("    --skip-non-svg --also-check-svg --html --skip-non-html");
-        otherOut.println("    --format gnu|xml|json|text --help --verbose --version");
+        otherOut.println("    --format gnu|xml|json|ndjson|text --threads N --server-stdio --help");
+        otherOut.println("    --disable-checkers NAMES --parser-only --fail-fast[=N] --timings");
+        otherOut.println("    --verbose --version");
         otherOut.println("");
         otherOut.println("For detailed usage information, try the \"--help\" option or see:");
         otherOut.println("");
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2020 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.client.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs <code>vnu</code> in child processes and checks how the
+ * <code>--fail-fast</code> option is parsed: a bare option stops at the
+ * first error, <code>--fail-fast=N</code> at the Nth, and values that are
+ * not positive numbers end in a usage error rather than an exception.
+ */
+public class FailFastTester {
+
+    private static final class Result {
+
+        final int status;
+
+        final String output;
+
+        Result(int status, String output) {
+            this.status = status;
+            this.output = output;
+        }
+    }
+
+    private int failures = 0;
+
+    /**
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        FailFastTester tester = new FailFastTester();
+        tester.run();
+        if (tester.failures > 0) {
+            System.exit(1);
+        }
+        System.out.println("FailFastTester: OK.");
+    }
+
+    private static Result vnu(String... args) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin"
+                + File.separator + "java");
+        command.add("-classpath");
+        command.add(System.getProperty("java.class.path"));
+        command.add("nu.validator.client.SimpleCommandLineValidator");
+        command.addAll(Arrays.asList(args));
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectErrorStream(true);
+        Process process = builder.start();
+        process.getOutputStream().close();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        InputStream in = process.getInputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            output.write(buffer, 0, n);
+        }
+        return new Result(process.waitFor(),
+                new String(output.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private static int countErrors(String output) {
+        int count = 0;
+        int i = 0;
+        while ((i = output.indexOf(": error: ", i)) != -1) {
+            count++;
+            i++;
+        }
+        return count;
+    }
+
+    private void run() throws Exception {
+        File document = File.createTempFile("failfast", ".html");
+        document.deleteOnExit();
+        try (OutputStream out = new FileOutputStream(document)) {
+            out.write(("<!DOCTYPE html><html lang=en><title>t</title>"
+                    + "<p><b></p><p><i></p><p><u></p>\n").getBytes(
+                            StandardCharsets.UTF_8));
+        }
+        String path = document.getPath();
+
+        Result all = vnu("--format", "gnu", path);
+        check("document has more than two errors", countErrors(all.output) > 2);
+
+        Result first = vnu("--format", "gnu", "--fail-fast", path);
+        check("--fail-fast fails", first.status == 1);
+        check("--fail-fast stops at the first error",
+                countErrors(first.output) == 1);
+
+        Result second = vnu("--format", "gnu", "--fail-fast=2", path);
+        check("--fail-fast=2 fails", second.status == 1);
+        check("--fail-fast=2 stops at the second error",
+                countErrors(second.output) == 2);
+
+        for (String value : new String[] { "0", "-1", "x", "",
+                "99999999999" }) {
+            Result invalid = vnu("--fail-fast=" + value, path);
+            check("--fail-fast=" + value + " is a usage error",
+                    invalid.status == 1
+                            && invalid.output.contains("positive number")
+                            && invalid.output.contains("Usage:")
+                            && !invalid.output.contains("Exception"));
+        }
+    }
+
+    private void check(String what, boolean ok) {
+        if (!ok) {
+            System.err.println("FailFastTester: failed: " + what);
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2020 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.client.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs <code>vnu --server-stdio</code> in a child process and checks the
+ * responses to requests that cannot be checked: a malformed request line,
+ * data in an unsupported character encoding, and input that ends before
+ * the promised data. Each must get a failing response naming the request
+ * rather than the document checked before it, and the server must still
+ * stop with status 0.
+ */
+public class StdioTester {
+
+    private static final class Response {
+
+        final int status;
+
+        final String output;
+
+        Response(int status, String output) {
+            this.status = status;
+            this.output = output;
+        }
+    }
+
+    private int failures = 0;
+
+    /**
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        StdioTester tester = new StdioTester();
+        tester.run();
+        if (tester.failures > 0) {
+            System.exit(1);
+        }
+        System.out.println("StdioTester: OK.");
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) {
+                return null;
+            }
+            line.write(b);
+        }
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private void run() throws Exception {
+        String java = System.getProperty("java.home") + File.separator
+                + "bin" + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(java, "-classpath",
+                System.getProperty("java.class.path"),
+                "nu.validator.client.SimpleCommandLineValidator",
+                "--server-stdio");
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        Process process = builder.start();
+        String document = "<!DOCTYPE html><html lang=en><title>t</title>";
+        StringBuilder requests = new StringBuilder();
+        requests.append("DATA\t" + document.length()
+                + "\ttext/html\tfirst.html\n" + document);
+        requests.append("BOGUS\n");
+        requests.append("DATA\t3\ttext/html; charset=bogus\tsecond.html\n<p>");
+        requests.append("DATA\t100\ttext/html\tthird.html\n<p>");
+        OutputStream stdin = process.getOutputStream();
+        stdin.write(requests.toString().getBytes(StandardCharsets.UTF_8));
+        stdin.close();
+
+        DataInputStream stdout = new DataInputStream(
+                process.getInputStream());
+        List<Response> responses = new ArrayList<>();
+        String header;
+        while ((header = readLine(stdout)) != null) {
+            String[] fields = header.split("\t");
+            byte[] output = new byte[Integer.parseInt(fields[0])];
+            stdout.readFully(output);
+            responses.add(new Response(Integer.parseInt(fields[1]),
+                    new String(output, StandardCharsets.UTF_8)));
+        }
+        int exitStatus = process.waitFor();
+
+        check("server stops with status 0", exitStatus == 0);
+        check("one response per request", responses.size() == 4);
+        if (responses.size() != 4) {
+            return;
+        }
+        check("valid document passes", responses.get(0).status == 0);
+        Response malformed = responses.get(1);
+        check("malformed request fails", malformed.status == 1);
+        check("malformed request is reported",
+                malformed.output.contains("Malformed request: BOGUS"));
+        check("malformed request is not reported under the previous document",
+                !malformed.output.contains("first.html"));
+        Response encoding = responses.get(2);
+        check("unsupported encoding fails", encoding.status == 1);
+        check("unsupported encoding is reported",
+                encoding.output.contains("second.html")
+                        && encoding.output.contains(
+                                "Unsupported character encoding"));
+        Response truncated = responses.get(3);
+        check("truncated data fails", truncated.status == 1);
+        check("truncated data is reported",
+                truncated.output.contains("third.html")
+                        && truncated.output.contains("Request ended"));
+    }
+
+    private void check(String what, boolean ok) {
+        if (!ok) {
+            System.err.println("StdioTester: failed: " + what);
+            failures++;
+        }
+    }
+}
@@ -28,6 +28,8 @@ import java.util.regex.Pattern;
 
 import java.util.Map;
 
+import nu.validator.validation.ValidationScope;
+
 import org.relaxng.datatype.DatatypeException;
 
 abstract class AbstractRel extends AbstractDatatype {
@@ -65,8 +67,7 @@ abstract class AbstractRel extends AbstractDatatype {
         }
         tokensSeen.add(token);
         if (!isRegistered(literal, token)) {
-            if ("1".equals(
-                    System.getProperty("nu.validator.schema.rdfa-full"))) {
+            if (ValidationScope.current().isRdfaFull()) {
                 if (!CURIE.matcher(token).matches()) {
                     errNotRegistered(i - 1, token);
                 }
@@ -26,6 +26,8 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import nu.validator.validation.ValidationScope;
+
 import org.relaxng.datatype.DatatypeException;
 
 public class ImageCandidateStrings extends AbstractDatatype {
@@ -217,9 +219,7 @@ public class ImageCandidateStrings extends AbstractDatatype {
             }
             if ('w' == last) {
                 // see nu.validator.checker.schematronequiv.Assertions
-                System.setProperty(
-                        "nu.validator.checker.imageCandidateString.hasWidth",
-                        "1");
+                ValidationScope.current().setImageCandidateHasWidth(true);
                 try {
                     int width = Integer.parseInt(num, 10);
                     if (width <= 0) {
@@ -26,9 +26,12 @@ package nu.validator.datatype;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 import org.relaxng.datatype.DatatypeException;
@@ -51,6 +54,17 @@ public final class Language extends AbstractDatatype {
     private static final boolean WARN = System.getProperty(
             "nu.validator.datatype.warn", "").equals("true");
 
+    /**
+     * The maximum number of distinct valid literals remembered.
+     */
+    private static final int MAX_ENTRIES = Integer.parseInt(System.getProperty(
+            "nu.validator.datatype.language-cache-size", "1024"));
+
+    /**
+     * Literals longer than this are checked but not remembered.
+     */
+    private static final int MAX_CACHED_LENGTH = 256;
+
     private static String[] languages = null;
 
     private static String[] extlangs = null;
@@ -98,6 +112,12 @@ public final class Language extends AbstractDatatype {
         }
     }
 
+    /**
+     * Literals already found to be valid. Pages tend to use the same one or
+     * two language tags in every <code>lang</code> attribute.
+     */
+    private final Set<String> validLiterals = ConcurrentHashMap.newKeySet();
+
     /**
      * Package-private constructor
      */
@@ -107,6 +127,24 @@ public final class Language extends AbstractDatatype {
 
     @Override
     public void checkValid(CharSequence lit) throws DatatypeException {
+        String literal = lit.toString();
+        if (validLiterals.contains(literal)) {
+            return;
+        }
+        check(literal);
+        if (literal.length() <= MAX_CACHED_LENGTH) {
+            if (validLiterals.size() >= MAX_ENTRIES) {
+                Iterator<String> iter = validLiterals.iterator();
+                if (iter.hasNext()) {
+                    iter.next();
+                    iter.remove();
+                }
+            }
+            validLiterals.add(literal);
+        }
+    }
+
+    private void check(CharSequence lit) throws DatatypeException {
         String literal = lit.toString();
         if (literal.length() == 0) {
             throw newDatatypeException(
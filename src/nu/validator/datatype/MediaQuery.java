@@ -23,6 +23,9 @@
 package nu.validator.datatype;
 
 import java.io.StringReader;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.relaxng.datatype.DatatypeException;
 import org.w3c.css.css.StyleSheetParser;
@@ -38,28 +41,102 @@ public class MediaQuery extends AbstractDatatype {
      */
     public static final MediaQuery THE_INSTANCE = new MediaQuery();
 
+    /**
+     * The maximum number of distinct literals remembered per datatype.
+     */
+    private static final int MAX_ENTRIES = Integer.parseInt(System.getProperty(
+            "nu.validator.datatype.media-query-cache-size", "256"));
+
+    /**
+     * Literals longer than this are checked but not remembered.
+     */
+    private static final int MAX_CACHED_LENGTH = 1024;
+
+    /**
+     * Marks a literal that was found to be valid.
+     */
+    private static final String VALID = "";
+
+    /**
+     * A css-validator context and parser kept per thread, so that cache
+     * misses don't pay for setting up a new <code>ApplContext</code> (which
+     * loads the message bundle and profile) each time.
+     */
+    private static final class ParserContext {
+
+        final ApplContext ac;
+
+        final StyleSheetParser parser;
+
+        ParserContext() {
+            ac = new ApplContext("en");
+            ac.setCssVersionAndProfile("css3svg");
+            ac.setMedium("all");
+            ac.setSuggestPropertyName(false);
+            ac.setTreatVendorExtensionsAsWarnings(true);
+            ac.setTreatCssHacksAsWarnings(true);
+            ac.setWarningLevel(-1);
+            ac.setFakeURL("file://localhost/StyleElement");
+            parser = new StyleSheetParser();
+        }
+    }
+
+    private static final ThreadLocal<ParserContext> PARSER_CONTEXT = new ThreadLocal<ParserContext>() {
+        @Override
+        protected ParserContext initialValue() {
+            return new ParserContext();
+        }
+    };
+
+    /**
+     * Maps literals already checked to the error message they produced, or
+     * to <code>VALID</code>. Pages tend to repeat the same few queries in
+     * every <code>media</code> and <code>sizes</code> attribute.
+     */
+    private final ConcurrentMap<String, String> validated = new ConcurrentHashMap<>();
+
     protected MediaQuery() {
         super();
     }
 
     @Override
     public void checkValid(CharSequence literal) throws DatatypeException {
-        ApplContext ac = new ApplContext("en");
-        ac.setCssVersionAndProfile("css3svg");
-        ac.setMedium("all");
-        ac.setSuggestPropertyName(false);
-        ac.setTreatVendorExtensionsAsWarnings(true);
-        ac.setTreatCssHacksAsWarnings(true);
-        ac.setWarningLevel(-1);
-        ac.setFakeURL("file://localhost/StyleElement");
         String literalString = literal.toString();
+        String message = validated.get(literalString);
+        if (message == null) {
+            message = check(literalString);
+            if (literalString.length() <= MAX_CACHED_LENGTH) {
+                if (validated.size() >= MAX_ENTRIES) {
+                    Iterator<String> iter = validated.keySet().iterator();
+                    if (iter.hasNext()) {
+                        iter.next();
+                        iter.remove();
+                    }
+                }
+                validated.put(literalString, message);
+            }
+        }
+        if (!VALID.equals(message)) {
+            throw newDatatypeException(message);
+        }
+    }
+
+    /**
+     * @return the message of the first error, or <code>VALID</code>
+     * @throws DatatypeException
+     *             for an error without a message, which is not remembered
+     */
+    private String check(String literalString) throws DatatypeException {
+        ParserContext context = PARSER_CONTEXT.get();
+        ApplContext ac = context.ac;
+        StyleSheetParser styleSheetParser = context.parser;
+        styleSheetParser.reInit();
         String style;
         if (isMediaCondition()) {
-            style = String.format("@media all and %s %s", literalString, "{}");
+            style = "@media all and " + literalString + " {}";
         } else {
-            style = String.format("@media %s %s", literalString, "{}");
+            style = "@media " + literalString + " {}";
         }
-        StyleSheetParser styleSheetParser = new StyleSheetParser();
         styleSheetParser.parseStyleSheet(ac, new StringReader(style), null);
         styleSheetParser.getStyleSheet().findConflicts(ac);
         Errors errors = styleSheetParser.getStyleSheet().getErrors();
@@ -88,10 +165,13 @@ public class MediaQuery extends AbstractDatatype {
             } else {
                 message = ex.getMessage();
             }
-            if (!"".equals(message)) {
+            if (message == null) {
                 throw newDatatypeException(message);
+            } else if (!"".equals(message)) {
+                return message;
             }
         }
+        return VALID;
     }
 
     protected boolean isMediaCondition() {
@@ -23,12 +23,19 @@
 
 package nu.validator.datatype.data;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
@@ -57,6 +64,14 @@ public class LanguageData {
 
     private static final String PREFERRED_VALUE = "preferred-value: ";
 
+    private static final String REGISTRY = "nu/validator/localentities/files/subtag-registry";
+
+    private static final String REGISTRY_INDEX = "nu/validator/localentities/files/subtag-registry-index";
+
+    private static final int INDEX_MAGIC = 0x6e757374; // "nust"
+
+    private static final int INDEX_VERSION = 1;
+
     private BufferedReader in;
 
     private SortedSet<String> languageSet = new TreeSet<>();
@@ -109,17 +124,142 @@ public class LanguageData {
 
     private String[][][] prefixesByVariant = null;
 
+    /**
+     * Reads the registry from the index that the build compiles it into,
+     * or parses the registry itself if the index is missing.
+     */
     public LanguageData() throws IOException {
         super();
-        in = new BufferedReader(
-                new InputStreamReader(
-                        LanguageData.class.getClassLoader().getResourceAsStream(
-                                "nu/validator/localentities/files/subtag-registry"),
-                        "UTF-8"));
+        ClassLoader loader = LanguageData.class.getClassLoader();
+        InputStream index = loader.getResourceAsStream(REGISTRY_INDEX);
+        if (index != null) {
+            readIndex(index);
+            return;
+        }
+        in = new BufferedReader(new InputStreamReader(
+                loader.getResourceAsStream(REGISTRY), "UTF-8"));
         consumeRegistry();
         prepareArrays();
     }
 
+    private LanguageData(InputStream registry) throws IOException {
+        super();
+        in = new BufferedReader(new InputStreamReader(registry, "UTF-8"));
+        consumeRegistry();
+        prepareArrays();
+    }
+
+    /**
+     * Compiles the registry at <code>args[0]</code> into an index at
+     * <code>args[1]</code>, holding the arrays that parsing it yields.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: java nu.validator.datatype.data.LanguageData REGISTRY INDEX");
+            System.exit(1);
+        }
+        LanguageData data = new LanguageData(new FileInputStream(args[0]));
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(args[1])))) {
+            data.writeIndex(out);
+        }
+    }
+
+    private void writeIndex(DataOutputStream out) throws IOException {
+        out.writeInt(INDEX_MAGIC);
+        out.writeInt(INDEX_VERSION);
+        writeStrings(out, languages);
+        writeStrings(out, extlangs);
+        writeStrings(out, scripts);
+        writeStrings(out, regions);
+        writeStrings(out, variants);
+        writeStrings(out, grandfathered);
+        writeStrings(out, redundant);
+        writeStrings(out, deprecatedLang);
+        writeStrings(out, deprecated);
+        writeInts(out, suppressedScriptByLanguage);
+        writeInts(out, prefixByExtlang);
+        out.writeInt(prefixesByVariant.length);
+        for (String[][] prefixes : prefixesByVariant) {
+            out.writeInt(prefixes.length);
+            for (String[] prefix : prefixes) {
+                writeStrings(out, prefix);
+            }
+        }
+        out.writeInt(preferredValueByLanguageMap.size());
+        for (Map.Entry<String, String> entry : preferredValueByLanguageMap.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue());
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] strings)
+            throws IOException {
+        out.writeInt(strings.length);
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] ints)
+            throws IOException {
+        out.writeInt(ints.length);
+        for (int i : ints) {
+            out.writeInt(i);
+        }
+    }
+
+    private void readIndex(InputStream index) throws IOException {
+        try (DataInputStream data = new DataInputStream(
+                new BufferedInputStream(index))) {
+            if (data.readInt() != INDEX_MAGIC
+                    || data.readInt() != INDEX_VERSION) {
+                throw new IOException("Not a subtag registry index.");
+            }
+            languages = readStrings(data);
+            extlangs = readStrings(data);
+            scripts = readStrings(data);
+            regions = readStrings(data);
+            variants = readStrings(data);
+            grandfathered = readStrings(data);
+            redundant = readStrings(data);
+            deprecatedLang = readStrings(data);
+            deprecated = readStrings(data);
+            suppressedScriptByLanguage = readInts(data);
+            prefixByExtlang = readInts(data);
+            prefixesByVariant = new String[data.readInt()][][];
+            for (int i = 0; i < prefixesByVariant.length; i++) {
+                String[][] prefixes = new String[data.readInt()][];
+                for (int j = 0; j < prefixes.length; j++) {
+                    prefixes[j] = readStrings(data);
+                }
+                prefixesByVariant[i] = prefixes;
+            }
+            int count = data.readInt();
+            for (int i = 0; i < count; i++) {
+                preferredValueByLanguageMap.put(data.readUTF(),
+                        data.readUTF());
+            }
+        }
+    }
+
+    private static String[] readStrings(DataInputStream data)
+            throws IOException {
+        String[] strings = new String[data.readInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = data.readUTF();
+        }
+        return strings;
+    }
+
+    private static int[] readInts(DataInputStream data) throws IOException {
+        int[] ints = new int[data.readInt()];
+        for (int i = 0; i < ints.length; i++) {
+            ints[i] = data.readInt();
+        }
+        return ints;
+    }
+
     private void consumeRegistry() throws IOException {
         while (consumeRecord()) {
             // spin
@@ -194,7 +334,7 @@ public class LanguageData {
         String subtag = null;
         String suppressScript = null;
         String preferredValue = null;
-        Set<String[]> prefixes = new HashSet<>();
+        Set<String[]> prefixes = new LinkedHashSet<>();
         String singlePrefix = null;
         boolean depr = false;
         String line = null;
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2020 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read through it.
+ */
+public final class CountingInputStream extends FilterInputStream {
+
+    private long count = 0;
+
+    private long mark = 0;
+
+    public CountingInputStream(InputStream delegate) {
+        super(delegate);
+    }
+
+    /**
+     * Returns the number of bytes read (or skipped) so far.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @see java.io.FilterInputStream#read()
+     */
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b != -1) {
+            count++;
+        }
+        return b;
+    }
+
+    /**
+     * @see java.io.FilterInputStream#read(byte[], int, int)
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int c = in.read(b, off, len);
+        if (c > 0) {
+            count += c;
+        }
+        return c;
+    }
+
+    /**
+     * @see java.io.FilterInputStream#skip(long)
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        long c = in.skip(n);
+        count += c;
+        return c;
+    }
+
+    /**
+     * @see java.io.FilterInputStream#mark(int)
+     */
+    @Override
+    public synchronized void mark(int readlimit) {
+        in.mark(readlimit);
+        mark = count;
+    }
+
+    /**
+     * @see java.io.FilterInputStream#reset()
+     */
+    @Override
+    public synchronized void reset() throws IOException {
+        in.reset();
+        count = mark;
+    }
+}
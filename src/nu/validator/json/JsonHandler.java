@@ -56,6 +56,15 @@ public interface JsonHandler {
      */
     public void endDocument() throws SAXException;
 
+    /**
+     * Pushes anything written so far to the underlying output. Handlers
+     * that do not buffer need not do anything.
+     * 
+     * @throws SAXException if bad things happen
+     */
+    public default void flush() throws SAXException {
+    }
+
     /**
      * Reports the start of an <i>array</i>.
      * 
@@ -48,6 +48,8 @@ public class Serializer implements JsonHandler {
 
     private final Writer writer;
 
+    private final boolean documentSequence;
+
     private static Writer newOutputStreamWriter(OutputStream out) {
         CharsetEncoder enc = Charset.forName("UTF-8").newEncoder();
         enc.onMalformedInput(CodingErrorAction.REPLACE);
@@ -56,7 +58,20 @@ public class Serializer implements JsonHandler {
     }
     
     public Serializer(OutputStream out) {
+        this(out, false);
+    }
+
+    /**
+     * @param out
+     *            the output
+     * @param documentSequence
+     *            whether more than one document may be written, one per
+     *            line; if so, <code>endDocument()</code> neither flushes nor
+     *            closes the output, and the caller must <code>flush()</code>
+     */
+    public Serializer(OutputStream out, boolean documentSequence) {
         this.writer = newOutputStreamWriter(out);
+        this.documentSequence = documentSequence;
         push(State.INITIAL);
     }
 
@@ -203,8 +218,10 @@ public class Serializer implements JsonHandler {
                         writer.write(')');
                     }
                     writer.write('\n');
-                    writer.flush();
-                    writer.close();
+                    if (!documentSequence) {
+                        writer.flush();
+                        writer.close();
+                    }
                     pop();
                     break;
                 default:
@@ -215,6 +232,15 @@ public class Serializer implements JsonHandler {
         }
     }
 
+    @Override
+    public void flush() throws SAXException {
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            throw new SAXException(e.getMessage(), e);
+        }
+    }
+
     @Override
     public void endObject() throws SAXException {
         try {
@@ -222,7 +248,6 @@ public class Serializer implements JsonHandler {
             switch (state) {
                 case OBJECT:
                     writer.write('}');
-                    writer.flush();
                     pop();
                     first = false;
                     if (peek() == State.VALUE) {
@@ -47,6 +47,10 @@ public class LocalCacheEntityResolver implements EntityResolver {
     public static InputStream getHtml5SpecAsStream() {
         return LOADER.getResourceAsStream("nu/validator/localentities/files/html5spec");
     }
+
+    public static InputStream getHtml5SpecIndexAsStream() {
+        return LOADER.getResourceAsStream("nu/validator/localentities/files/html5spec-index");
+    }
     
     private EntityResolver delegate;
 
@@ -148,6 +148,14 @@ public class GnuMessageEmitter extends MessageEmitter {
         return messageTextHandler;
     }
 
+    /**
+     * @see nu.validator.messages.MessageEmitter#hasTextHandler()
+     */
+    @Override
+    public boolean hasTextHandler() {
+        return true;
+    }
+
     @Override
     public void endMessage() throws SAXException {
         try {
@@ -25,6 +25,7 @@ package nu.validator.messages;
 import nu.validator.json.JsonHandler;
 import nu.validator.messages.types.MessageType;
 import nu.validator.source.SourceHandler;
+import nu.validator.validation.Timings;
 
 import org.xml.sax.SAXException;
 
@@ -38,23 +39,65 @@ public class JsonMessageEmitter extends MessageEmitter {
 
     private final JsonMessageTextHandler messageTextHandler;
     
+    private final boolean lineDelimited;
+
+    private final int flushInterval;
+
     private boolean arrayOpen;
+
+    private boolean summaryOpen;
+
+    private String documentUri;
+
+    private int unflushedMessages;
     
     /**
      * @param handler
      */
     public JsonMessageEmitter(final JsonHandler handler, final String callback,
             boolean asciiQuotes) {
+        this(handler, callback, asciiQuotes, false, 0);
+    }
+
+    /**
+     * @param handler
+     *            the JSON handler; for <code>lineDelimited</code> output, one
+     *            that accepts a sequence of documents
+     * @param callback
+     *            JavaScript callback function name or <code>null</code>;
+     *            ignored for <code>lineDelimited</code> output
+     * @param asciiQuotes
+     *            whether to use ASCII quotes in message text
+     * @param lineDelimited
+     *            whether to write newline-delimited JSON: each message as a
+     *            document on its own line, then a last line with the
+     *            document-level fields (<code>url</code>,
+     *            <code>source</code>, <code>language</code>)
+     * @param flushInterval
+     *            flush the handler after every this many messages, or 0 to
+     *            flush only at the end
+     */
+    public JsonMessageEmitter(final JsonHandler handler, final String callback,
+            boolean asciiQuotes, boolean lineDelimited, int flushInterval) {
         this.handler = handler;
-        this.callback = callback;
+        this.callback = lineDelimited ? null : callback;
         this.extractHandler = new JsonExtractHandler(handler);
         this.messageTextHandler = new JsonMessageTextHandler(handler,
                 asciiQuotes);
+        this.lineDelimited = lineDelimited;
+        this.flushInterval = flushInterval;
     }
 
     @Override
     public void endMessage() throws SAXException {
         handler.endObject();
+        if (lineDelimited) {
+            handler.endDocument();
+        }
+        if (flushInterval > 0 && ++unflushedMessages >= flushInterval) {
+            handler.flush();
+            unflushedMessages = 0;
+        }
     }
 
     @Override
@@ -62,7 +105,11 @@ public class JsonMessageEmitter extends MessageEmitter {
             int oneBasedFirstLine, int oneBasedFirstColumn,
             int oneBasedLastLine, int oneBasedLastColumn, boolean exact)
             throws SAXException {
-        assert arrayOpen;
+        if (lineDelimited) {
+            handler.startDocument(null);
+        } else {
+            assert arrayOpen;
+        }
         handler.startObject();
         handler.key("type");
         handler.string(type.getSuperType());
@@ -106,12 +153,32 @@ public class JsonMessageEmitter extends MessageEmitter {
     @Override
     public void endMessages(String language) throws SAXException {
         maybeCloseArray();
+        maybeOpenSummary();
         if (!"".equals(language) && language != null) {
             handler.key("language");
             handler.string(language);
         }
         handler.endObject();
         handler.endDocument();
+        if (lineDelimited) {
+            handler.flush();
+        }
+    }
+
+    /**
+     * Starts the line with the document-level fields for line-delimited
+     * output, unless already started.
+     */
+    private void maybeOpenSummary() throws SAXException {
+        if (lineDelimited && !summaryOpen) {
+            handler.startDocument(null);
+            handler.startObject();
+            if (documentUri != null) {
+                handler.key("url");
+                handler.string(documentUri);
+            }
+            summaryOpen = true;
+        }
     }
 
     /**
@@ -149,15 +216,69 @@ public class JsonMessageEmitter extends MessageEmitter {
     @Override
     public SourceHandler startFullSource(int lineOffset) throws SAXException {
         maybeCloseArray();
+        maybeOpenSummary();
         handler.key("source");
         return new JsonSourceHandler(handler);
     }
 
+    /**
+     * @see nu.validator.messages.MessageEmitter#startOutline(boolean, boolean)
+     */
+    @Override
+    public OutlineHandler startOutline(boolean headingOutline,
+            boolean truncated) throws SAXException {
+        maybeCloseArray();
+        maybeOpenSummary();
+        String key = headingOutline ? "headingOutline" : "outline";
+        if (truncated) {
+            handler.key(key + "Truncated");
+            handler.bool(true);
+        }
+        handler.key(key);
+        handler.startArray();
+        return new JsonOutlineHandler(handler);
+    }
+
+    /**
+     * @see nu.validator.messages.MessageEmitter#endOutline()
+     */
+    @Override
+    public void endOutline() throws SAXException {
+        handler.endArray();
+    }
+
+    /**
+     * @see nu.validator.messages.MessageEmitter#reportTimings(nu.validator.validation.Timings)
+     */
+    @Override
+    public void reportTimings(Timings timings) throws SAXException {
+        maybeCloseArray();
+        maybeOpenSummary();
+        handler.key("timings");
+        handler.startObject();
+        for (Timings.Stage stage : timings.getUsedStages()) {
+            handler.key(stage.getName());
+            handler.startObject();
+            handler.key("nanos");
+            handler.number(stage.getNanos());
+            if (stage.getAllocatedBytes() >= 0) {
+                handler.key("allocatedBytes");
+                handler.number(stage.getAllocatedBytes());
+            }
+            handler.endObject();
+        }
+        handler.endObject();
+    }
+
     /**
      * @see nu.validator.messages.MessageEmitter#startMessages(java.lang.String, boolean)
      */
     @Override
     public void startMessages(String documentUri, boolean willShowSource) throws SAXException {
+        if (lineDelimited) {
+            this.documentUri = documentUri;
+            return;
+        }
         handler.startDocument(callback);
         handler.startObject();
         if (documentUri != null) {
@@ -178,6 +299,14 @@ public class JsonMessageEmitter extends MessageEmitter {
         return extractHandler;
     }
 
+    /**
+     * @see nu.validator.messages.MessageEmitter#hasSourceHandler()
+     */
+    @Override
+    public boolean hasSourceHandler() {
+        return true;
+    }
+
     /**
      * @see nu.validator.messages.MessageEmitter#startText()
      */
@@ -188,4 +317,12 @@ public class JsonMessageEmitter extends MessageEmitter {
         return messageTextHandler;
     }
 
+    /**
+     * @see nu.validator.messages.MessageEmitter#hasTextHandler()
+     */
+    @Override
+    public boolean hasTextHandler() {
+        return true;
+    }
+
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2020 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.messages;
+
+import java.util.List;
+
+import nu.validator.json.JsonHandler;
+import nu.validator.servlet.OutlineBuildingXMLReaderWrapper.Section;
+
+import org.xml.sax.SAXException;
+
+public class JsonOutlineHandler implements OutlineHandler {
+
+    private final JsonHandler handler;
+
+    public JsonOutlineHandler(JsonHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public void startSection(Section section) throws SAXException {
+        handler.startObject();
+        handler.key("element");
+        handler.string(section.getElementName());
+        String headingElementName = section.getHeadingElementName();
+        if (headingElementName != null) {
+            handler.key("headingElement");
+            handler.string(headingElementName);
+        }
+        StringBuilder headingText = section.getHeadingTextBuilder();
+        if (headingText.length() > 0) {
+            handler.key("heading");
+            handler.string(headingText.toString());
+        } else if (section.hasEmptyHeading()) {
+            handler.key("emptyHeading");
+            handler.bool(true);
+        }
+        List<Section> subheadSections = section.getSubheadSections();
+        if (subheadSections != null && !subheadSections.isEmpty()) {
+            handler.key("subheads");
+            handler.startArray();
+            for (Section subhead : subheadSections) {
+                handler.string(subhead.getHeadingTextBuilder().toString());
+            }
+            handler.endArray();
+        }
+        handler.key("sections");
+        handler.startArray();
+    }
+
+    @Override
+    public void endSection() throws SAXException {
+        handler.endArray();
+        handler.endObject();
+    }
+
+}
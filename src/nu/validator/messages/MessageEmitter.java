@@ -25,6 +25,7 @@ package nu.validator.messages;
 import nu.validator.messages.types.MessageType;
 import nu.validator.saxtree.DocumentFragment;
 import nu.validator.source.SourceHandler;
+import nu.validator.validation.Timings;
 
 import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
@@ -74,6 +75,30 @@ public abstract class MessageEmitter {
 
     }
 
+    /**
+     * Tells whether <code>startText()</code> returns a handler, without
+     * starting any text.
+     */
+    public boolean hasTextHandler() {
+        return false;
+    }
+
+    /**
+     * Tells whether <code>startSource()</code> returns a handler, without
+     * starting any source.
+     */
+    public boolean hasSourceHandler() {
+        return false;
+    }
+
+    /**
+     * Tells whether <code>startElaboration()</code> returns a handler,
+     * without starting any elaboration.
+     */
+    public boolean hasElaborationHandler() {
+        return false;
+    }
+
     public SourceHandler startFullSource(int lineOffset) throws SAXException {
         return null;
     }
@@ -97,4 +122,17 @@ public abstract class MessageEmitter {
     public void endImageReview() throws SAXException {
 
     }
+
+    public OutlineHandler startOutline(boolean headingOutline,
+            boolean truncated) throws SAXException {
+        return null;
+    }
+
+    public void endOutline() throws SAXException {
+
+    }
+
+    public void reportTimings(Timings timings) throws SAXException {
+
+    }
 }
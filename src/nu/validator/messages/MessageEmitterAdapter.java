@@ -24,6 +24,7 @@
 package nu.validator.messages;
 
 import java.io.IOException;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -44,6 +45,7 @@ import nu.validator.io.SystemIdIOException;
 import nu.validator.messages.types.MessageType;
 import nu.validator.saxtree.DocumentFragment;
 import nu.validator.saxtree.TreeParser;
+import nu.validator.servlet.OutlineBuildingXMLReaderWrapper.Section;
 import nu.validator.servlet.imagereview.Image;
 import nu.validator.servlet.imagereview.ImageCollector;
 import nu.validator.source.Location;
@@ -53,6 +55,7 @@ import nu.validator.spec.EmptySpec;
 import nu.validator.spec.Spec;
 import nu.validator.spec.html5.Html5AttributeDatatypeBuilder;
 import nu.validator.spec.html5.ImageReportAdviceBuilder;
+import nu.validator.validation.Timings;
 import nu.validator.xml.AttributesImpl;
 import nu.validator.xml.CharacterUtil;
 import nu.validator.xml.XhtmlSaxEmitter;
@@ -395,6 +398,9 @@ public class MessageEmitterAdapter implements ErrorHandler {
     protected static final Pattern DEFAULT_FILTER_PATTERN = Pattern.compile(
             String.join("|", DEFAULT_FILTER_STRINGS));
 
+    private static final MessageFilter DEFAULT_FILTER = MessageFilter.compile(
+            DEFAULT_FILTER_PATTERN);
+
     protected static final Pattern FILE_NOT_CHECKED = Pattern.compile(
             ".*File was not checked.*");
 
@@ -410,9 +416,17 @@ public class MessageEmitterAdapter implements ErrorHandler {
 
     private final boolean batchMode;
 
+    private long messageLimit = MAX_MESSAGES;
+
+    private int failFastLimit = 0;
+
+    private boolean failFastOnWarnings = false;
+
+    private volatile boolean failedFast = false;
+
     private int nonDocumentErrors = 0;
 
-    private final Pattern filterPattern;
+    private final MessageFilter filter;
 
     private final SourceCode sourceCode;
 
@@ -424,6 +438,20 @@ public class MessageEmitterAdapter implements ErrorHandler {
 
     private final ImageCollector imageCollector;
 
+    private Deque<Section> outline;
+
+    private Deque<Section> headingOutline;
+
+    private boolean outlineTruncated;
+
+    private Timings timings;
+
+    private Timings.Stage emitStage;
+
+    private Timings.Stage sourceStage;
+
+    private boolean reportTimings;
+
     private int lineOffset;
 
     private Spec spec = EmptySpec.THE_INSTANCE;
@@ -434,6 +462,8 @@ public class MessageEmitterAdapter implements ErrorHandler {
 
     private boolean errorsOnly = false;
 
+    private boolean sourceRetained = true;
+
     @SuppressWarnings("deprecation")
     protected static String scrub(String s) throws SAXException {
         if (s == null) {
@@ -458,16 +488,39 @@ public class MessageEmitterAdapter implements ErrorHandler {
     }
 
     private void throwIfTooManyMessages() throws SAXException {
-        if (!batchMode && (warnings + errors > MAX_MESSAGES)) {
+        if (!batchMode && messageLimit > 0
+                && (warnings + errors > messageLimit)) {
             throw new TooManyErrorsException("Too many messages.");
         }
     }
 
+    private boolean isFailFastLimitReached() {
+        if (failFastLimit <= 0) {
+            return false;
+        }
+        int count = errors + fatalErrors;
+        if (failFastOnWarnings) {
+            count += warnings;
+        }
+        return count >= failFastLimit;
+    }
+
+    private void throwIfFailFast() throws SAXException {
+        if (isFailFastLimitReached()) {
+            failedFast = true;
+            throw new FailFastException(failFastLimit == 1
+                    ? "Stopped checking at the first error."
+                    : "Stopped checking after " + failFastLimit
+                            + " errors.");
+        }
+    }
+
     public MessageEmitterAdapter(Pattern filterPattern, SourceCode sourceCode,
             boolean showSource, ImageCollector imageCollector, int lineOffset,
             boolean batchMode, MessageEmitter messageEmitter) {
         super();
-        this.filterPattern = filterPattern;
+        this.filter = filterPattern == null ? null
+                : MessageFilter.get(filterPattern);
         this.sourceCode = sourceCode;
         this.emitter = messageEmitter;
         this.exactErrorHandler = new ExactErrorHandler(this);
@@ -482,7 +535,7 @@ public class MessageEmitterAdapter implements ErrorHandler {
      */
     public MessageEmitterAdapter() {
         super();
-        this.filterPattern = null;
+        this.filter = null;
         this.sourceCode = null;
         this.emitter = null;
         this.exactErrorHandler = null;
@@ -513,6 +566,20 @@ public class MessageEmitterAdapter implements ErrorHandler {
         return warnings;
     }
 
+    /**
+     * Adds the message counts of another adapter whose messages have been
+     * replayed into this adapter's emitter.
+     *
+     * @param other
+     *            the adapter that originally counted the messages
+     */
+    public void addCounts(MessageEmitterAdapter other) {
+        warnings += other.warnings;
+        errors += other.errors;
+        fatalErrors += other.fatalErrors;
+        nonDocumentErrors += other.nonDocumentErrors;
+    }
+
     private boolean isErrors() {
         return !(errors == 0 && fatalErrors == 0);
     }
@@ -531,7 +598,8 @@ public class MessageEmitterAdapter implements ErrorHandler {
      */
     private void warning(SAXParseException e, boolean exact)
             throws SAXException {
-        if ((!batchMode && fatalErrors > 0) || nonDocumentErrors > 0) {
+        if ((!batchMode && fatalErrors > 0) || nonDocumentErrors > 0
+                || failedFast) {
             return;
         }
         if (!FILE_NOT_CHECKED.matcher(e.getMessage()).matches()) {
@@ -539,6 +607,7 @@ public class MessageEmitterAdapter implements ErrorHandler {
         }
         throwIfTooManyMessages();
         messageFromSAXParseException(MessageType.WARNING, e, exact, null);
+        throwIfFailFast();
     }
 
     /**
@@ -554,7 +623,8 @@ public class MessageEmitterAdapter implements ErrorHandler {
      * @throws SAXException
      */
     private void error(SAXParseException e, boolean exact) throws SAXException {
-        if ((!batchMode && fatalErrors > 0) || nonDocumentErrors > 0) {
+        if ((!batchMode && fatalErrors > 0) || nonDocumentErrors > 0
+                || failedFast) {
             return;
         }
         Map<String, DatatypeException> datatypeErrors = null;
@@ -580,6 +650,7 @@ public class MessageEmitterAdapter implements ErrorHandler {
                         throwIfTooManyMessages();
                         messageFromSAXParseException(MessageType.WARNING, e,
                                 exact, null);
+                        throwIfFailFast();
                         return;
                     }
                 }
@@ -588,11 +659,13 @@ public class MessageEmitterAdapter implements ErrorHandler {
         this.errors++;
         throwIfTooManyMessages();
         messageFromSAXParseException(MessageType.ERROR, e, exact, null);
+        throwIfFailFast();
     }
 
     public void errorWithStart(SAXParseException e, int[] start)
             throws SAXException {
-        if ((!batchMode && fatalErrors > 0) || nonDocumentErrors > 0) {
+        if ((!batchMode && fatalErrors > 0) || nonDocumentErrors > 0
+                || failedFast) {
             return;
         }
         this.errors++;
@@ -603,6 +676,7 @@ public class MessageEmitterAdapter implements ErrorHandler {
         int lastColumn = e.getColumnNumber();
         boolean exact = (startLine == lastLine && startColumn == lastColumn);
         messageFromSAXParseException(MessageType.ERROR, e, exact, start);
+        throwIfFailFast();
     }
 
     /**
@@ -619,7 +693,8 @@ public class MessageEmitterAdapter implements ErrorHandler {
      */
     private void fatalError(SAXParseException e, boolean exact)
             throws SAXException {
-        if ((!batchMode && fatalErrors > 0) || nonDocumentErrors > 0) {
+        if ((!batchMode && fatalErrors > 0) || nonDocumentErrors > 0
+                || failedFast) {
             return;
         }
         this.fatalErrors++;
@@ -678,6 +753,20 @@ public class MessageEmitterAdapter implements ErrorHandler {
 
     public void end(String successMessage, String failureMessage,
             String language) throws SAXException {
+        enterStage(emitStage);
+        try {
+            emitResultAndReports(successMessage, failureMessage);
+        } finally {
+            exitStage();
+        }
+        if (reportTimings) {
+            emitter.reportTimings(timings);
+        }
+        emitter.endMessages(language);
+    }
+
+    private void emitResultAndReports(String successMessage,
+            String failureMessage) throws SAXException {
         ResultHandler resultHandler = emitter.startResult();
         if (resultHandler != null) {
             if (isIndeterminate()) {
@@ -717,14 +806,49 @@ public class MessageEmitterAdapter implements ErrorHandler {
             emitter.endImageReview();
         }
 
-        if (showSource) {
+        if (showSource && sourceRetained) {
             SourceHandler sourceHandler = emitter.startFullSource(lineOffset);
             if (sourceHandler != null) {
-                sourceCode.emitSource(sourceHandler);
+                enterStage(sourceStage);
+                try {
+                    sourceCode.emitSource(sourceHandler);
+                } finally {
+                    exitStage();
+                }
             }
             emitter.endFullSource();
         }
-        emitter.endMessages(language);
+        if (outline != null) {
+            emitOutline(outline, false);
+        }
+        if (headingOutline != null) {
+            emitOutline(headingOutline, true);
+        }
+    }
+
+    private void emitOutline(Deque<Section> sections, boolean isHeadingOutline)
+            throws SAXException {
+        OutlineHandler outlineHandler = emitter.startOutline(isHeadingOutline,
+                outlineTruncated);
+        if (outlineHandler != null) {
+            emitSections(outlineHandler, sections);
+        }
+        emitter.endOutline();
+    }
+
+    private void emitSections(OutlineHandler outlineHandler,
+            Deque<Section> sections) throws SAXException {
+        for (Section section : sections) {
+            if (section.getIsMasked()) {
+                // an hgroup subhead; reported along with the first heading
+                // of the hgroup, but any subsections still belong here
+                emitSections(outlineHandler, section.getSections());
+                continue;
+            }
+            outlineHandler.startSection(section);
+            emitSections(outlineHandler, section.getSections());
+            outlineHandler.endSection();
+        }
     }
 
     private void emitImageReview(ImageReviewHandler imageReviewHandler)
@@ -799,10 +923,21 @@ public class MessageEmitterAdapter implements ErrorHandler {
     private void message(MessageType type, Exception message, String systemId,
             int oneBasedLine, int oneBasedColumn, boolean exact, int[] start)
             throws SAXException {
+        enterStage(emitStage);
+        try {
+            emitMessage(type, message, systemId, oneBasedLine, oneBasedColumn,
+                    exact, start);
+        } finally {
+            exitStage();
+        }
+    }
+
+    private void emitMessage(MessageType type, Exception message,
+            String systemId, int oneBasedLine, int oneBasedColumn,
+            boolean exact, int[] start) throws SAXException {
         String msg = message.getMessage();
-        if (msg != null && ((filterPattern != null
-                && filterPattern.matcher(msg).matches())
-                || DEFAULT_FILTER_PATTERN.matcher(msg).matches())) {
+        if (msg != null && ((filter != null && filter.matches(msg))
+                || DEFAULT_FILTER.matches(msg))) {
             if (type.getSuperType() == "error" && this.errors > 0) {
                 this.errors--;
             } else if (type.getSubType() == "warning" && this.warnings > 0) {
@@ -825,7 +960,10 @@ public class MessageEmitterAdapter implements ErrorHandler {
         String uri = sourceCode.getUri();
         if (oneBasedLine > -1
                 && (uri == systemId || (uri != null && uri.equals(systemId)))) {
-            if (oneBasedColumn > -1) {
+            if (!sourceRetained) {
+                messageWithoutSource(type, message, systemId, oneBasedLine,
+                        oneBasedColumn, exact);
+            } else if (oneBasedColumn > -1) {
                 if (exact) {
                     messageWithExact(type, message, systemId, oneBasedLine,
                             oneBasedColumn, start);
@@ -875,7 +1013,12 @@ public class MessageEmitterAdapter implements ErrorHandler {
                 sourceCode.addLocatorLocation(rangeStart.getLine() + 1,
                         rangeStart.getColumn());
             }
-            sourceCode.rangeEndError(rangeStart, rangeLast, sourceHandler);
+            enterStage(sourceStage);
+            try {
+                sourceCode.rangeEndError(rangeStart, rangeLast, sourceHandler);
+            } finally {
+                exitStage();
+            }
         }
         emitter.endSource();
         elaboration(message);
@@ -897,7 +1040,12 @@ public class MessageEmitterAdapter implements ErrorHandler {
         if (sourceCode.isWithinKnownSource(location)) {
             SourceHandler sourceHandler = emitter.startSource();
             if (sourceHandler != null) {
-                sourceCode.exactError(location, sourceHandler);
+                enterStage(sourceStage);
+                try {
+                    sourceCode.exactError(location, sourceHandler);
+                } finally {
+                    exitStage();
+                }
             }
             emitter.endSource();
         } else {
@@ -918,13 +1066,29 @@ public class MessageEmitterAdapter implements ErrorHandler {
         messageText(message);
         SourceHandler sourceHandler = emitter.startSource();
         if (sourceHandler != null) {
-            sourceCode.lineError(oneBasedLine, sourceHandler);
+            enterStage(sourceStage);
+            try {
+                sourceCode.lineError(oneBasedLine, sourceHandler);
+            } finally {
+                exitStage();
+            }
         }
         emitter.endSource();
         elaboration(message);
         endMessage();
     }
 
+    private void messageWithoutSource(MessageType type, Exception message,
+            String systemId, int oneBasedLine, int oneBasedColumn,
+            boolean exact) throws SAXException {
+        systemId = batchMode ? systemId : null;
+        startMessage(type, scrub(shortenDataUri(systemId)), oneBasedLine,
+                oneBasedColumn, oneBasedLine, oneBasedColumn, exact);
+        messageText(message);
+        elaboration(message);
+        endMessage();
+    }
+
     private void messageWithoutExtract(MessageType type, Exception message,
             String systemId, int oneBasedLine, int oneBasedColumn)
             throws SAXException {
@@ -1779,6 +1943,110 @@ public class MessageEmitterAdapter implements ErrorHandler {
         this.errorsOnly = errorsOnly;
     }
 
+    /**
+     * Sets whether the source code of the document is being retained. When
+     * it is not, as when only the parser runs, messages about the document
+     * are reported without extracts and the source is not shown.
+     *
+     * @param sourceRetained
+     *            the sourceRetained to set
+     */
+    public void setSourceRetained(boolean sourceRetained) {
+        this.sourceRetained = sourceRetained;
+    }
+
+    /**
+     * Sets how many warnings and errors may be reported before giving up
+     * with a fatal error. Defaults to the
+     * <code>nu.validator.messages.limit</code> system property.
+     * 
+     * @param messageLimit
+     *            the limit, or 0 for no limit
+     */
+    public void setMessageLimit(long messageLimit) {
+        this.messageLimit = messageLimit;
+    }
+
+    /**
+     * Makes checking stop as soon as the given number of errors has been
+     * reported, by throwing a <code>FailFastException</code> out of the
+     * parse, so that no time is spent on the rest of the document once the
+     * verdict is known. Fatal errors count towards the number too, but only
+     * errors and warnings reported during the parse stop it. In batch mode
+     * the count runs over all the documents checked.
+     * 
+     * @param failFastLimit
+     *            the number of errors to stop at, or 0 to check documents
+     *            completely
+     * @param failFastOnWarnings
+     *            whether warnings count towards the number as well
+     */
+    public void setFailFast(int failFastLimit, boolean failFastOnWarnings) {
+        this.failFastLimit = failFastLimit;
+        this.failFastOnWarnings = failFastOnWarnings;
+    }
+
+    /**
+     * @return whether the number of errors set with
+     *         <code>setFailFast</code> has been reached, so that no further
+     *         documents need to be checked
+     */
+    public boolean hasFailedFast() {
+        return failedFast || isFailFastLimitReached();
+    }
+
+    /**
+     * Sets the outlines to report at the end, for emitters that report
+     * outlines along with the messages.
+     * 
+     * @param outline
+     *            the structural outline, or <code>null</code>
+     * @param headingOutline
+     *            the heading-level outline, or <code>null</code>
+     * @param truncated
+     *            whether the outlines were cut short
+     */
+    public void setOutlines(Deque<Section> outline,
+            Deque<Section> headingOutline, boolean truncated) {
+        this.outline = outline;
+        this.headingOutline = headingOutline;
+        this.outlineTruncated = truncated;
+    }
+
+    /**
+     * Charges emitting messages and building their source extracts to the
+     * emit and source stages of the given timings.
+     * 
+     * @param timings
+     *            the timings to add to, or <code>null</code>
+     * @param report
+     *            whether to report the timings through the emitter at the
+     *            end
+     */
+    public void setTimings(Timings timings, boolean report) {
+        this.timings = timings;
+        this.reportTimings = report && timings != null;
+        if (timings == null) {
+            emitStage = null;
+            sourceStage = null;
+        } else {
+            emitStage = timings.stage(Timings.EMIT);
+            sourceStage = timings.stage(Timings.SOURCE);
+        }
+    }
+
+    private void enterStage(Timings.Stage stage) {
+        if (stage != null) {
+            timings.enter(stage);
+        }
+    }
+
+    private void exitStage() {
+        if (timings != null) {
+            timings.exit();
+        }
+    }
+
     /**
      * @throws SAXException
      * @see nu.validator.messages.MessageEmitter#endMessage()
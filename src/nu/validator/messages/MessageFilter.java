@@ -0,0 +1,517 @@
+/*
+ * Copyright (c) 2020 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.messages;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * Decides whether a message is matched by a filter pattern: a regular
+ * expression that has to match the whole message, usually made of many
+ * alternatives joined with <code>|</code>. Rather than running each message
+ * through one big backtracking alternation, the top-level alternatives are
+ * sorted into plain text (<code>foo</code>), prefixes (<code>foo.*</code>),
+ * suffixes (<code>.*foo</code>) and substrings (<code>.*foo.*</code>), which
+ * are looked up with a hash set, tries and an Aho-Corasick automaton. Only
+ * the remaining alternatives are matched as a regular expression, and the
+ * verdicts for those are remembered per message text. Patterns that can't
+ * be split safely, and messages containing line terminators (which
+ * <code>.</code> does not match), are matched against the pattern as a
+ * whole.
+ */
+public final class MessageFilter {
+
+    /**
+     * The maximum number of distinct filter patterns kept compiled.
+     */
+    private static final int MAX_FILTERS = 16;
+
+    /**
+     * The maximum number of distinct messages per filter whose verdict is
+     * remembered.
+     */
+    private static final int MAX_VERDICTS = Integer.parseInt(System.getProperty(
+            "nu.validator.messages.filter-cache-size", "4096"));
+
+    /**
+     * Messages longer than this are matched but not remembered.
+     */
+    private static final int MAX_CACHED_LENGTH = 1024;
+
+    private static final ConcurrentMap<String, MessageFilter> FILTERS = new ConcurrentHashMap<>();
+
+    private final Pattern pattern;
+
+    private final boolean split;
+
+    private final Set<String> texts = new HashSet<>();
+
+    private final Trie prefixes = new Trie();
+
+    private final Trie suffixes = new Trie();
+
+    private final Trie substrings = new Trie();
+
+    private final Pattern rest;
+
+    private final ConcurrentMap<String, Boolean> verdicts = new ConcurrentHashMap<>();
+
+    /**
+     * Returns a filter for the pattern, reusing the one built earlier for
+     * the same pattern if there is one, so that a filter file shared by
+     * many requests is only split and compiled once.
+     *
+     * @throws java.util.regex.PatternSyntaxException
+     *             if the pattern is not a valid regular expression
+     */
+    public static MessageFilter get(String pattern) {
+        MessageFilter filter = FILTERS.get(pattern);
+        if (filter == null) {
+            filter = cache(pattern, compile(Pattern.compile(pattern)));
+        }
+        return filter;
+    }
+
+    /**
+     * Returns a filter for the pattern, reusing the one built earlier for
+     * the same pattern if there is one.
+     */
+    public static MessageFilter get(Pattern pattern) {
+        if (pattern.flags() != 0) {
+            return compile(pattern);
+        }
+        MessageFilter filter = FILTERS.get(pattern.pattern());
+        if (filter == null) {
+            filter = cache(pattern.pattern(), compile(pattern));
+        }
+        return filter;
+    }
+
+    private static MessageFilter cache(String pattern, MessageFilter filter) {
+        if (FILTERS.size() >= MAX_FILTERS) {
+            Iterator<String> iter = FILTERS.keySet().iterator();
+            if (iter.hasNext()) {
+                iter.next();
+                iter.remove();
+            }
+        }
+        FILTERS.put(pattern, filter);
+        return filter;
+    }
+
+    static MessageFilter compile(Pattern pattern) {
+        return new MessageFilter(pattern);
+    }
+
+    /**
+     * Returns the pattern this filter matches messages against.
+     */
+    public Pattern pattern() {
+        return pattern;
+    }
+
+    private MessageFilter(Pattern pattern) {
+        this.pattern = pattern;
+        List<String> alternatives = pattern.flags() == 0
+                ? splitAlternatives(pattern.pattern())
+                : null;
+        split = alternatives != null;
+        if (!split) {
+            rest = null;
+            return;
+        }
+        StringBuilder regexes = new StringBuilder();
+        for (String alternative : alternatives) {
+            String body = alternative;
+            boolean anyStart = body.startsWith(".*");
+            if (anyStart) {
+                body = body.substring(2);
+            }
+            String text = null;
+            boolean anyEnd = false;
+            if (body.endsWith(".*")) {
+                text = literal(body.substring(0, body.length() - 2));
+                anyEnd = text != null;
+            }
+            if (text == null) {
+                text = literal(body);
+            }
+            if (text == null) {
+                if (regexes.length() > 0) {
+                    regexes.append('|');
+                }
+                regexes.append(alternative);
+            } else if (anyStart && anyEnd) {
+                substrings.add(text);
+            } else if (anyStart) {
+                suffixes.add(new StringBuilder(text).reverse().toString());
+            } else if (anyEnd) {
+                prefixes.add(text);
+            } else {
+                texts.add(text);
+            }
+        }
+        prefixes.freeze();
+        suffixes.freeze();
+        substrings.freeze();
+        substrings.buildFailureLinks();
+        rest = regexes.length() > 0 ? Pattern.compile(regexes.toString())
+                : null;
+    }
+
+    /**
+     * Returns whether the pattern matches the whole message.
+     */
+    public boolean matches(String message) {
+        if (!split || hasLineTerminator(message)) {
+            return matchesRegex(pattern, message);
+        }
+        if (texts.contains(message) || prefixes.matchesPrefixOf(message)
+                || suffixes.matchesSuffixOf(message)
+                || substrings.occursIn(message)) {
+            return true;
+        }
+        return rest != null && matchesRegex(rest, message);
+    }
+
+    private boolean matchesRegex(Pattern regex, String message) {
+        Boolean verdict = verdicts.get(message);
+        if (verdict == null) {
+            verdict = regex.matcher(message).matches();
+            if (message.length() <= MAX_CACHED_LENGTH) {
+                if (verdicts.size() >= MAX_VERDICTS) {
+                    Iterator<String> iter = verdicts.keySet().iterator();
+                    if (iter.hasNext()) {
+                        iter.next();
+                        iter.remove();
+                    }
+                }
+                verdicts.put(message, verdict);
+            }
+        }
+        return verdict;
+    }
+
+    private static boolean hasLineTerminator(String message) {
+        for (int i = 0; i < message.length(); i++) {
+            switch (message.charAt(i)) {
+                case '\n':
+                case '\r':
+                case '\u0085':
+                case '\u2028':
+                case '\u2029':
+                    return true;
+                default:
+                    continue;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Splits a pattern at its top-level <code>|</code> characters, or
+     * returns <code>null</code> if its alternatives can't be matched one by
+     * one: when a top-level flag such as <code>(?i)</code> would carry over
+     * into later alternatives, or when a back reference depends on the
+     * numbering of groups across alternatives.
+     */
+    private static List<String> splitAlternatives(String pattern) {
+        List<String> alternatives = new ArrayList<>();
+        int length = pattern.length();
+        int start = 0;
+        int depth = 0;
+        int classDepth = 0;
+        for (int i = 0; i < length; i++) {
+            char c = pattern.charAt(i);
+            if (c == '\\') {
+                if (i + 1 == length) {
+                    return null;
+                }
+                char next = pattern.charAt(i + 1);
+                if (next == 'Q') {
+                    int end = pattern.indexOf("\\E", i + 2);
+                    if (end < 0) {
+                        break;
+                    }
+                    i = end + 1;
+                } else if ((next >= '1' && next <= '9') || next == 'k') {
+                    return null;
+                } else {
+                    i++;
+                }
+                continue;
+            }
+            if (classDepth > 0) {
+                if (c == '[') {
+                    classDepth++;
+                } else if (c == ']') {
+                    classDepth--;
+                }
+                continue;
+            }
+            switch (c) {
+                case '[':
+                    classDepth = 1;
+                    // A ']' right at the start of a class is a literal.
+                    if (i + 1 < length && pattern.charAt(i + 1) == '^') {
+                        i++;
+                    }
+                    if (i + 1 < length && pattern.charAt(i + 1) == ']') {
+                        i++;
+                    }
+                    break;
+                case '(':
+                    if (depth == 0 && isInlineFlags(pattern, i)) {
+                        return null;
+                    }
+                    depth++;
+                    break;
+                case ')':
+                    depth--;
+                    break;
+                case '|':
+                    if (depth == 0) {
+                        alternatives.add(pattern.substring(start, i));
+                        start = i + 1;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (depth != 0 || classDepth != 0) {
+            return null;
+        }
+        alternatives.add(pattern.substring(start));
+        return alternatives;
+    }
+
+    private static boolean isInlineFlags(String pattern, int i) {
+        if (i + 1 >= pattern.length() || pattern.charAt(i + 1) != '?') {
+            return false;
+        }
+        for (int j = i + 2; j < pattern.length(); j++) {
+            char c = pattern.charAt(j);
+            if (c == ')') {
+                return true;
+            }
+            if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+                    || c == '-')) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the text that a regular expression matches if it is made of
+     * literal characters only, or <code>null</code> otherwise.
+     */
+    private static String literal(String regex) {
+        StringBuilder sb = new StringBuilder(regex.length());
+        int length = regex.length();
+        for (int i = 0; i < length; i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (++i == length) {
+                    return null;
+                }
+                char next = regex.charAt(i);
+                if (next == 'Q') {
+                    int end = regex.indexOf("\\E", i + 1);
+                    if (end < 0) {
+                        return null;
+                    }
+                    sb.append(regex, i + 1, end);
+                    i = end + 1;
+                } else if (Character.isLetterOrDigit(next)) {
+                    return null;
+                } else {
+                    sb.append(next);
+                }
+                continue;
+            }
+            if (".*+?^$[](){}|".indexOf(c) >= 0) {
+                return null;
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A trie over strings, which, once its failure links are built, also
+     * works as an Aho-Corasick automaton finding any of them in a text.
+     */
+    private static final class Trie {
+
+        private final List<TreeMap<Character, Integer>> edges = new ArrayList<>();
+
+        private boolean[] terminal = new boolean[1];
+
+        private char[][] keys;
+
+        private int[][] targets;
+
+        private int[] failure;
+
+        Trie() {
+            edges.add(new TreeMap<Character, Integer>());
+        }
+
+        void add(String s) {
+            int state = 0;
+            for (int i = 0; i < s.length(); i++) {
+                Character c = Character.valueOf(s.charAt(i));
+                Integer target = edges.get(state).get(c);
+                if (target == null) {
+                    target = Integer.valueOf(edges.size());
+                    edges.add(new TreeMap<Character, Integer>());
+                    edges.get(state).put(c, target);
+                }
+                state = target.intValue();
+            }
+            if (terminal.length < edges.size()) {
+                boolean[] grown = new boolean[Math.max(edges.size(),
+                        terminal.length * 2)];
+                System.arraycopy(terminal, 0, grown, 0, terminal.length);
+                terminal = grown;
+            }
+            terminal[state] = true;
+        }
+
+        void freeze() {
+            int size = edges.size();
+            keys = new char[size][];
+            targets = new int[size][];
+            for (int state = 0; state < size; state++) {
+                TreeMap<Character, Integer> map = edges.get(state);
+                keys[state] = new char[map.size()];
+                targets[state] = new int[map.size()];
+                int i = 0;
+                for (Map.Entry<Character, Integer> entry : map.entrySet()) {
+                    keys[state][i] = entry.getKey().charValue();
+                    targets[state][i] = entry.getValue().intValue();
+                    i++;
+                }
+            }
+        }
+
+        private int next(int state, char c) {
+            char[] stateKeys = keys[state];
+            int low = 0;
+            int high = stateKeys.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                char key = stateKeys[mid];
+                if (key < c) {
+                    low = mid + 1;
+                } else if (key > c) {
+                    high = mid - 1;
+                } else {
+                    return targets[state][mid];
+                }
+            }
+            return -1;
+        }
+
+        void buildFailureLinks() {
+            failure = new int[keys.length];
+            Queue<Integer> queue = new ArrayDeque<>();
+            queue.add(Integer.valueOf(0));
+            while (!queue.isEmpty()) {
+                int state = queue.remove().intValue();
+                for (int i = 0; i < keys[state].length; i++) {
+                    char c = keys[state][i];
+                    int target = targets[state][i];
+                    int fallback = 0;
+                    if (state != 0) {
+                        int f = failure[state];
+                        while (f != 0 && next(f, c) < 0) {
+                            f = failure[f];
+                        }
+                        int n = next(f, c);
+                        fallback = n < 0 ? 0 : n;
+                    }
+                    failure[target] = fallback;
+                    terminal[target] |= terminal[fallback];
+                    queue.add(Integer.valueOf(target));
+                }
+            }
+        }
+
+        boolean matchesPrefixOf(String s) {
+            int state = 0;
+            for (int i = 0; !terminal[state]; i++) {
+                if (i == s.length()) {
+                    return false;
+                }
+                state = next(state, s.charAt(i));
+                if (state < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean matchesSuffixOf(String s) {
+            int state = 0;
+            for (int i = s.length() - 1; !terminal[state]; i--) {
+                if (i < 0) {
+                    return false;
+                }
+                state = next(state, s.charAt(i));
+                if (state < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean occursIn(String s) {
+            int state = 0;
+            for (int i = 0; !terminal[state]; i++) {
+                if (i == s.length()) {
+                    return false;
+                }
+                char c = s.charAt(i);
+                int n;
+                while ((n = next(state, c)) < 0 && state != 0) {
+                    state = failure[state];
+                }
+                state = n < 0 ? 0 : n;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright (c) 2020 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.messages;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import nu.validator.messages.types.MessageType;
+import nu.validator.source.SourceHandler;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Records the per-message calls made on it so that they can be replayed on
+ * another emitter later, possibly on another thread. This lets messages for
+ * several documents be produced concurrently and still be written out in a
+ * fixed order by a single emitter.
+ * 
+ * <p>Only messages are recorded; the document-level calls (start and end of
+ * messages, result, image review and full source) are left to the emitter
+ * the recording is replayed on. Text, extract and elaboration handlers are
+ * only handed out when that kind of emitter provides them, so that the
+ * caller produces exactly what it would have produced for the emitter
+ * itself.
+ */
+public final class RecordingMessageEmitter extends MessageEmitter {
+
+    private static final int START_MESSAGE = 0;
+
+    private static final int END_MESSAGE = 1;
+
+    private static final int START_TEXT = 2;
+
+    private static final int END_TEXT = 3;
+
+    private static final int START_SOURCE = 4;
+
+    private static final int END_SOURCE = 5;
+
+    private static final int START_ELABORATION = 6;
+
+    private static final int END_ELABORATION = 7;
+
+    private static final int HANDLER_CALL = 8;
+
+    private static final class Event {
+
+        final int kind;
+
+        final Method method;
+
+        final Object[] args;
+
+        Event(int kind, Method method, Object[] args) {
+            this.kind = kind;
+            this.method = method;
+            this.args = args;
+        }
+    }
+
+    /**
+     * The messages recorded between two calls to
+     * <code>takeRecording()</code>.
+     */
+    public static final class Recording {
+
+        private final List<Event> events;
+
+        Recording(List<Event> events) {
+            this.events = events;
+        }
+
+        public boolean isEmpty() {
+            return events.isEmpty();
+        }
+
+        public void replay(MessageEmitter target) throws SAXException {
+            Object handler = null;
+            Class<?> handlerType = null;
+            for (Event event : events) {
+                switch (event.kind) {
+                    case START_MESSAGE:
+                        Object[] a = event.args;
+                        target.startMessage((MessageType) a[0], (String) a[1],
+                                (Integer) a[2], (Integer) a[3], (Integer) a[4],
+                                (Integer) a[5], (Boolean) a[6]);
+                        break;
+                    case END_MESSAGE:
+                        target.endMessage();
+                        break;
+                    case START_TEXT:
+                        handler = target.startText();
+                        handlerType = MessageTextHandler.class;
+                        break;
+                    case END_TEXT:
+                        target.endText();
+                        handler = null;
+                        break;
+                    case START_SOURCE:
+                        handler = target.startSource();
+                        handlerType = SourceHandler.class;
+                        break;
+                    case END_SOURCE:
+                        target.endSource();
+                        handler = null;
+                        break;
+                    case START_ELABORATION:
+                        handler = target.startElaboration();
+                        handlerType = ContentHandler.class;
+                        break;
+                    case END_ELABORATION:
+                        target.endElaboration();
+                        handler = null;
+                        break;
+                    default:
+                        if (handler != null) {
+                            invoke(handler, handlerType, event);
+                        }
+                        break;
+                }
+            }
+        }
+
+        private static void invoke(Object handler, Class<?> handlerType,
+                Event event) throws SAXException {
+            try {
+                Method method = event.method;
+                if (method.getDeclaringClass() != handlerType) {
+                    // The proxy reports methods that several handler
+                    // interfaces share (e.g. characters) as declared by
+                    // the first of them.
+                    method = handlerType.getMethod(method.getName(),
+                            method.getParameterTypes());
+                }
+                method.invoke(handler, event.args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof SAXException) {
+                    throw (SAXException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new SAXException(e);
+            } catch (IllegalAccessException | NoSuchMethodException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private List<Event> events = new ArrayList<>();
+
+    private final Object recordingHandler = Proxy.newProxyInstance(
+            RecordingMessageEmitter.class.getClassLoader(),
+            new Class<?>[] { MessageTextHandler.class, SourceHandler.class,
+                    ContentHandler.class },
+            new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method,
+                        Object[] args) throws Throwable {
+                    if (method.getDeclaringClass() == Object.class) {
+                        return method.invoke(this, args);
+                    }
+                    events.add(new Event(HANDLER_CALL, method, copy(args)));
+                    return null;
+                }
+            });
+
+    private final boolean hasTextHandler;
+
+    private final boolean hasSourceHandler;
+
+    private final boolean hasElaborationHandler;
+
+    /**
+     * @param target
+     *            an emitter of the kind the recordings will be replayed on;
+     *            only asked which handlers it provides
+     */
+    public RecordingMessageEmitter(MessageEmitter target) {
+        super();
+        hasTextHandler = target.hasTextHandler();
+        hasSourceHandler = target.hasSourceHandler();
+        hasElaborationHandler = target.hasElaborationHandler();
+    }
+
+    /**
+     * Returns the messages recorded so far and starts a new recording.
+     */
+    public Recording takeRecording() {
+        Recording recording = new Recording(events);
+        events = new ArrayList<>();
+        return recording;
+    }
+
+    private static Object[] copy(Object[] args) {
+        if (args == null) {
+            return null;
+        }
+        Object[] rv = args.clone();
+        if (rv.length == 3 && rv[0] instanceof char[]) {
+            int start = (Integer) rv[1];
+            int length = (Integer) rv[2];
+            rv[0] = Arrays.copyOfRange((char[]) rv[0], start, start + length);
+            rv[1] = 0;
+        }
+        for (int i = 0; i < rv.length; i++) {
+            if (rv[i] instanceof Attributes) {
+                rv[i] = new AttributesImpl((Attributes) rv[i]);
+            } else if (rv[i] instanceof SortedSet) {
+                rv[i] = new TreeSet<>((SortedSet<?>) rv[i]);
+            }
+        }
+        return rv;
+    }
+
+    private void record(int kind) {
+        events.add(new Event(kind, null, null));
+    }
+
+    @Override
+    public void startMessage(MessageType type, String systemId,
+            int oneBasedFirstLine, int oneBasedFirstColumn,
+            int oneBasedLastLine, int oneBasedLastColumn, boolean exact)
+            throws SAXException {
+        events.add(new Event(START_MESSAGE, null,
+                new Object[] { type, systemId, oneBasedFirstLine,
+                        oneBasedFirstColumn, oneBasedLastLine,
+                        oneBasedLastColumn, exact }));
+    }
+
+    @Override
+    public void endMessage() throws SAXException {
+        record(END_MESSAGE);
+    }
+
+    @Override
+    public MessageTextHandler startText() throws SAXException {
+        record(START_TEXT);
+        return hasTextHandler ? (MessageTextHandler) recordingHandler : null;
+    }
+
+    @Override
+    public void endText() throws SAXException {
+        record(END_TEXT);
+    }
+
+    @Override
+    public SourceHandler startSource() throws SAXException {
+        record(START_SOURCE);
+        return hasSourceHandler ? (SourceHandler) recordingHandler : null;
+    }
+
+    @Override
+    public void endSource() throws SAXException {
+        record(END_SOURCE);
+    }
+
+    @Override
+    public ContentHandler startElaboration() throws SAXException {
+        record(START_ELABORATION);
+        return hasElaborationHandler ? (ContentHandler) recordingHandler
+                : null;
+    }
+
+    @Override
+    public void endElaboration() throws SAXException {
+        record(END_ELABORATION);
+    }
+
+    @Override
+    public boolean hasTextHandler() {
+        return hasTextHandler;
+    }
+
+    @Override
+    public boolean hasSourceHandler() {
+        return hasSourceHandler;
+    }
+
+    @Override
+    public boolean hasElaborationHandler() {
+        return hasElaborationHandler;
+    }
+}
@@ -214,6 +214,14 @@ public class TextMessageEmitter extends MessageEmitter {
         }
     }
 
+    /**
+     * @see nu.validator.messages.MessageEmitter#hasTextHandler()
+     */
+    @Override
+    public boolean hasTextHandler() {
+        return true;
+    }
+
     @Override
     public void endMessage() throws SAXException {
         try {
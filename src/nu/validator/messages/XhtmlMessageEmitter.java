@@ -312,6 +312,14 @@ public class XhtmlMessageEmitter extends MessageEmitter implements ImageReviewHa
         return messageTextHandler;
     }
 
+    /**
+     * @see nu.validator.messages.MessageEmitter#hasTextHandler()
+     */
+    @Override
+    public boolean hasTextHandler() {
+        return true;
+    }
+
     /**
      * @see nu.validator.messages.MessageEmitter#endSource()
      */
@@ -333,6 +341,14 @@ public class XhtmlMessageEmitter extends MessageEmitter implements ImageReviewHa
         return extractHandler;
     }
 
+    /**
+     * @see nu.validator.messages.MessageEmitter#hasSourceHandler()
+     */
+    @Override
+    public boolean hasSourceHandler() {
+        return true;
+    }
+
     /**
      * @see nu.validator.messages.MessageEmitter#endFullSource()
      */
@@ -387,6 +403,14 @@ public class XhtmlMessageEmitter extends MessageEmitter implements ImageReviewHa
         return contentHandler;
     }
 
+    /**
+     * @see nu.validator.messages.MessageEmitter#hasElaborationHandler()
+     */
+    @Override
+    public boolean hasElaborationHandler() {
+        return true;
+    }
+
     /**
      * @see nu.validator.messages.MessageEmitter#endImageReview()
      */
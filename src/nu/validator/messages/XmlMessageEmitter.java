@@ -176,6 +176,14 @@ public class XmlMessageEmitter extends MessageEmitter {
         return extractHandler;
     }
 
+    /**
+     * @see nu.validator.messages.MessageEmitter#hasSourceHandler()
+     */
+    @Override
+    public boolean hasSourceHandler() {
+        return true;
+    }
+
     /**
      * @see nu.validator.messages.MessageEmitter#startText()
      */
@@ -186,6 +194,14 @@ public class XmlMessageEmitter extends MessageEmitter {
         return messageTextHandler;
     }
 
+    /**
+     * @see nu.validator.messages.MessageEmitter#hasTextHandler()
+     */
+    @Override
+    public boolean hasTextHandler() {
+        return true;
+    }
+
     /**
      * @see nu.validator.messages.MessageEmitter#endElaboration()
      */
@@ -203,4 +219,12 @@ public class XmlMessageEmitter extends MessageEmitter {
         return contentHandler;
     }
 
+    /**
+     * @see nu.validator.messages.MessageEmitter#hasElaborationHandler()
+     */
+    @Override
+    public boolean hasElaborationHandler() {
+        return true;
+    }
+
 }
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2020 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.messages.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import nu.validator.htmlparser.sax.HtmlSerializer;
+import nu.validator.htmlparser.sax.XmlSerializer;
+import nu.validator.json.Serializer;
+import nu.validator.messages.GnuMessageEmitter;
+import nu.validator.messages.JsonMessageEmitter;
+import nu.validator.messages.MessageEmitter;
+import nu.validator.messages.MessageTextHandler;
+import nu.validator.messages.RecordingMessageEmitter;
+import nu.validator.messages.TextMessageEmitter;
+import nu.validator.messages.XhtmlMessageEmitter;
+import nu.validator.messages.XmlMessageEmitter;
+import nu.validator.messages.types.MessageType;
+import nu.validator.source.SourceHandler;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+/**
+ * Checks that each message emitter says which handlers it provides
+ * truthfully, and that messages recorded with
+ * <code>RecordingMessageEmitter</code> and replayed on an emitter come out
+ * exactly as if they had been emitted on it directly.
+ */
+public class RecordingTester {
+
+    private static final String[] FORMATS = { "gnu", "text", "xml", "json",
+            "xhtml" };
+
+    private int failures = 0;
+
+    /**
+     * @param args
+     * @throws SAXException
+     */
+    public static void main(String[] args) throws SAXException {
+        RecordingTester tester = new RecordingTester();
+        for (String format : FORMATS) {
+            tester.checkHandlers(format);
+            tester.checkReplay(format);
+        }
+        if (tester.failures > 0) {
+            System.exit(1);
+        }
+        System.out.println("RecordingTester: OK.");
+    }
+
+    /**
+     * An emitter of the given format and the content handler, if any, whose
+     * document the caller starts and ends.
+     */
+    private static final class Output {
+
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        final MessageEmitter emitter;
+
+        final ContentHandler document;
+
+        Output(String format) {
+            OutputStream out = buffer;
+            if ("gnu".equals(format)) {
+                emitter = new GnuMessageEmitter(out, false);
+                document = null;
+            } else if ("text".equals(format)) {
+                emitter = new TextMessageEmitter(out, false);
+                document = null;
+            } else if ("xml".equals(format)) {
+                emitter = new XmlMessageEmitter(new XmlSerializer(out));
+                document = null;
+            } else if ("json".equals(format)) {
+                emitter = new JsonMessageEmitter(new Serializer(out), null,
+                        false);
+                document = null;
+            } else {
+                document = new HtmlSerializer(out);
+                emitter = new XhtmlMessageEmitter(document);
+            }
+        }
+
+        void start() throws SAXException {
+            if (document != null) {
+                document.startDocument();
+            }
+            emitter.startMessages(null, false);
+        }
+
+        void end() throws SAXException {
+            emitter.endMessages(null);
+            if (document != null) {
+                document.endDocument();
+            }
+        }
+    }
+
+    private static void emitMessages(MessageEmitter emitter)
+            throws SAXException {
+        for (int i = 1; i <= 2; i++) {
+            emitter.startMessage(MessageType.ERROR, "file:/test.html", i, 1,
+                    i, 5, false);
+            MessageTextHandler text = emitter.startText();
+            if (text != null) {
+                char[] chars = ("Message " + i + ".").toCharArray();
+                text.characters(chars, 0, chars.length);
+            }
+            emitter.endText();
+            SourceHandler source = emitter.startSource();
+            if (source != null) {
+                source.startSource(null, null);
+                char[] chars = "<p>".toCharArray();
+                source.characters(chars, 0, chars.length);
+                source.endSource();
+            }
+            emitter.endSource();
+            emitter.startElaboration();
+            emitter.endElaboration();
+            emitter.endMessage();
+        }
+    }
+
+    private void checkHandlers(String format) throws SAXException {
+        Output output = new Output(format);
+        MessageEmitter emitter = output.emitter;
+        output.start();
+        emitter.startMessage(MessageType.ERROR, null, 1, 1, 1, 1, false);
+        check(format + " text handler",
+                emitter.hasTextHandler() == (emitter.startText() != null));
+        emitter.endText();
+        SourceHandler source = emitter.startSource();
+        check(format + " source handler",
+                emitter.hasSourceHandler() == (source != null));
+        if (source != null) {
+            source.startSource(null, null);
+            source.endSource();
+        }
+        emitter.endSource();
+        check(format + " elaboration handler",
+                emitter.hasElaborationHandler() == (emitter.startElaboration() != null));
+        emitter.endElaboration();
+        emitter.endMessage();
+        output.end();
+    }
+
+    private void checkReplay(String format) throws SAXException {
+        Output direct = new Output(format);
+        direct.start();
+        emitMessages(direct.emitter);
+        direct.end();
+
+        Output replayed = new Output(format);
+        RecordingMessageEmitter recorder = new RecordingMessageEmitter(
+                replayed.emitter);
+        emitMessages(recorder);
+        replayed.start();
+        recorder.takeRecording().replay(replayed.emitter);
+        replayed.end();
+
+        check(format + " replay", Arrays.equals(direct.buffer.toByteArray(),
+                replayed.buffer.toByteArray()));
+    }
+
+    private void check(String what, boolean ok) {
+        if (!ok) {
+            System.err.println("RecordingTester: failed: " + what);
+            failures++;
+        }
+    }
+}
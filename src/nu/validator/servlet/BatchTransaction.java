@@ -0,0 +1,614 @@
+/*
+ * Copyright (c) 2020 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.servlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import nu.validator.json.Serializer;
+
+import org.apache.log4j.Logger;
+import org.xml.sax.SAXException;
+
+/**
+ * Validates many documents sent in one request body and streams back one
+ * JSON result per line (NDJSON) as each document finishes.
+ * 
+ * <p>The request body is a sequence of frames. Each frame is a header line
+ * of the form <code>LENGTH TAB CONTENT-TYPE [TAB NAME] LF</code> followed by
+ * exactly <code>LENGTH</code> bytes of document. <code>NAME</code> is used
+ * the same way as the <code>Content-Location</code> header of a
+ * single-document POST. The query parameters of the batch request (schema,
+ * parser, level, filterpattern and so on) apply to every document, except
+ * that output is always JSON and source, outline and image report options
+ * are ignored.
+ * 
+ * <p>Each result line is the usual JSON output with an extra
+ * <code>index</code> member giving the zero-based position of the document
+ * in the request, since results are written in completion order. Documents
+ * are validated concurrently on a shared, bounded worker pool, and only a
+ * bounded number of documents per batch are buffered at any time.
+ * 
+ * <p>The container's request object is only used on the thread servicing
+ * the batch: its parameters and headers are copied before any document is
+ * handed to the worker pool.
+ */
+final class BatchTransaction {
+
+    private static final Logger log4j = Logger.getLogger(BatchTransaction.class);
+
+    private static final int THREADS = Integer.parseInt(System.getProperty(
+            "nu.validator.servlet.batch-threads",
+            Integer.toString(Runtime.getRuntime().availableProcessors())));
+
+    private static final int MAX_IN_FLIGHT = 2 * THREADS;
+
+    private static final long SIZE_LIMIT = Integer.parseInt(System.getProperty(
+            "nu.validator.servlet.max-file-size", "2097152"));
+
+    private static final int MAX_HEADER_LINE = 8192;
+
+    private static final String[] IGNORED_PARAMETERS = { "callback", "doc",
+            "file", "showimagereport", "showoutline", "showsource" };
+
+    private static final String[] DOCUMENT_HEADERS = { "Content-Encoding",
+            "Content-Language", "Content-Length", "Content-Location",
+            "Content-Type" };
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+            THREADS, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r,
+                            "batch-validator-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    private final HttpServletRequest request;
+
+    private final HttpServletResponse response;
+
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+
+    private Map<String, String[]> parameters;
+
+    private Map<String, List<String>> headers;
+
+    private OutputStream out;
+
+    private boolean outputBroken = false;
+
+    BatchTransaction(HttpServletRequest request, HttpServletResponse response) {
+        this.request = request;
+        this.response = response;
+    }
+
+    void service() throws ServletException, IOException {
+        if (!"POST".equals(request.getMethod())) {
+            response.setHeader("Allow", "POST, OPTIONS");
+            response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+            return;
+        }
+        response.setContentType("application/x-ndjson; charset=utf-8");
+        response.setDateHeader("Expires", 0);
+        response.setHeader("Cache-Control", "no-cache");
+        parameters = documentParameters(request);
+        headers = batchHeaders(request);
+        out = response.getOutputStream();
+        DataInputStream in = new DataInputStream(request.getInputStream());
+        int index = 0;
+        try {
+            String line;
+            while (!isOutputBroken()
+                    && (line = readHeaderLine(in)) != null) {
+                if ("".equals(line)) {
+                    continue;
+                }
+                String[] fields = line.split("\t", 3);
+                if (fields.length < 2) {
+                    throw new IOException("Malformed frame header for document "
+                            + index + ".");
+                }
+                long length;
+                try {
+                    length = Long.parseLong(fields[0].trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed frame length for document "
+                            + index + ".");
+                }
+                String contentType = fields[1].trim();
+                String name = fields.length > 2 ? fields[2].trim() : null;
+                if (length < 0) {
+                    throw new IOException("Malformed frame length for document "
+                            + index + ".");
+                } else if (length > SIZE_LIMIT) {
+                    skipFully(in, length);
+                    writeError(index, name, "Resource size exceeds limit.");
+                } else {
+                    byte[] document = new byte[(int) length];
+                    in.readFully(document);
+                    inFlight.acquireUninterruptibly();
+                    if (isOutputBroken()) {
+                        inFlight.release();
+                        break;
+                    }
+                    submit(index, name, contentType, document);
+                }
+                index++;
+            }
+        } catch (IOException e) {
+            log4j.debug("Batch request body error", e);
+            inFlight.acquireUninterruptibly(MAX_IN_FLIGHT);
+            writeError(-1, null, e instanceof EOFException
+                    ? "Request body ended in the middle of a document."
+                    : e.getMessage());
+            return;
+        }
+        inFlight.acquireUninterruptibly(MAX_IN_FLIGHT);
+    }
+
+    private void submit(final int index, final String name,
+            final String contentType, final byte[] document) {
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    validate(index, name, contentType, document);
+                } finally {
+                    inFlight.release();
+                }
+            }
+        });
+    }
+
+    private synchronized boolean isOutputBroken() {
+        return outputBroken;
+    }
+
+    private void validate(int index, String name, String contentType,
+            byte[] document) {
+        if (isOutputBroken()) {
+            return;
+        }
+        DocumentResponse docResponse = new DocumentResponse(response);
+        DocumentRequest docRequest = new DocumentRequest(request, parameters,
+                headers, name, contentType, document);
+        try {
+            new VerifierServletTransaction(docRequest, docResponse).service();
+        } catch (ServletException | IOException | RuntimeException e) {
+            log4j.error("Batch document " + index + " failed", e);
+            docResponse.error = "Oops. That was not supposed to happen.";
+        }
+        byte[] result = docResponse.buffer.toByteArray();
+        if (result.length < 2 || result[0] != '{') {
+            writeError(index, name, docResponse.error == null
+                    ? "No result." : docResponse.error);
+            return;
+        }
+        byte[] prefix = ("{\"index\":" + index + ",").getBytes(
+                StandardCharsets.US_ASCII);
+        synchronized (this) {
+            if (outputBroken) {
+                return;
+            }
+            try {
+                out.write(prefix);
+                out.write(result, 1, result.length - 1);
+                if (result[result.length - 1] != '\n') {
+                    out.write('\n');
+                }
+                out.flush();
+            } catch (IOException e) {
+                log4j.debug("Batch client went away", e);
+                outputBroken = true;
+            }
+        }
+    }
+
+    private void writeError(int index, String name, String message) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try {
+            Serializer serializer = new Serializer(buffer);
+            serializer.startDocument(null);
+            serializer.startObject();
+            if (index > -1) {
+                serializer.key("index");
+                serializer.number(index);
+            }
+            if (name != null) {
+                serializer.key("url");
+                serializer.string(name);
+            }
+            serializer.key("messages");
+            serializer.startArray();
+            serializer.startObject();
+            serializer.key("type");
+            serializer.string("non-document-error");
+            serializer.key("subType");
+            serializer.string("io");
+            serializer.key("message");
+            serializer.string(message == null ? "" : message);
+            serializer.endObject();
+            serializer.endArray();
+            serializer.endObject();
+            serializer.endDocument();
+        } catch (SAXException e) {
+            throw new RuntimeException(e);
+        }
+        synchronized (this) {
+            if (outputBroken) {
+                return;
+            }
+            try {
+                buffer.writeTo(out);
+                out.flush();
+            } catch (IOException e) {
+                log4j.debug("Batch client went away", e);
+                outputBroken = true;
+            }
+        }
+    }
+
+    /**
+     * Copies the batch parameters as every document sees them.
+     */
+    private static Map<String, String[]> documentParameters(
+            HttpServletRequest request) {
+        Map<String, String[]> map = new LinkedHashMap<>(
+                request.getParameterMap());
+        for (String ignored : IGNORED_PARAMETERS) {
+            map.remove(ignored);
+        }
+        map.put("out", new String[] { "json" });
+        return Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Copies the batch headers other than the ones that describe the body,
+     * which each document replaces with its own.
+     */
+    private static Map<String, List<String>> batchHeaders(
+            HttpServletRequest request) {
+        Map<String, List<String>> map = new TreeMap<>(
+                String.CASE_INSENSITIVE_ORDER);
+        Enumeration<String> names = request.getHeaderNames();
+        while (names != null && names.hasMoreElements()) {
+            String headerName = names.nextElement();
+            map.put(headerName, Collections.list(
+                    request.getHeaders(headerName)));
+        }
+        for (String headerName : DOCUMENT_HEADERS) {
+            map.remove(headerName);
+        }
+        return map;
+    }
+
+    private static String readHeaderLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) {
+                if (line.size() == 0) {
+                    return null;
+                }
+                throw new EOFException();
+            }
+            if (line.size() == MAX_HEADER_LINE) {
+                throw new IOException("Frame header line too long.");
+            }
+            line.write(b);
+        }
+        String s = new String(line.toByteArray(), StandardCharsets.UTF_8);
+        return s.endsWith("\r") ? s.substring(0, s.length() - 1) : s;
+    }
+
+    private static void skipFully(InputStream in, long length)
+            throws IOException {
+        while (length > 0) {
+            long skipped = in.skip(length);
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+    }
+
+    /**
+     * Presents one document of a batch as if it were a single-document
+     * POST, with attributes of its own so that concurrently validated
+     * documents do not see each other's request properties. Parameters and
+     * headers come from the copies made for the batch, never from the
+     * wrapped request, which is not safe to use from worker threads.
+     */
+    private static final class DocumentRequest extends HttpServletRequestWrapper {
+
+        private final Map<String, String[]> parameters;
+
+        private final Map<String, List<String>> headers;
+
+        private final String contentType;
+
+        private final byte[] document;
+
+        private final Map<String, Object> attributes = new HashMap<>();
+
+        private ServletInputStream stream;
+
+        DocumentRequest(HttpServletRequest request,
+                Map<String, String[]> parameters,
+                Map<String, List<String>> batchHeaders, String name,
+                String contentType, byte[] document) {
+            super(request);
+            this.parameters = parameters;
+            this.contentType = contentType;
+            this.document = document;
+            this.headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            this.headers.putAll(batchHeaders);
+            this.headers.put("Content-Type",
+                    Collections.singletonList(contentType));
+            this.headers.put("Content-Length", Collections.singletonList(
+                    Integer.toString(document.length)));
+            if (name != null) {
+                this.headers.put("Content-Location",
+                        Collections.singletonList(name));
+            }
+        }
+
+        @Override
+        public String getMethod() {
+            return "POST";
+        }
+
+        @Override
+        public String getContentType() {
+            return contentType;
+        }
+
+        @Override
+        public int getContentLength() {
+            return document.length;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return document.length;
+        }
+
+        @Override
+        public String getHeader(String headerName) {
+            List<String> values = headers.get(headerName);
+            return values == null || values.isEmpty() ? null : values.get(0);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String headerName) {
+            List<String> values = headers.get(headerName);
+            return Collections.enumeration(values == null
+                    ? Collections.<String> emptyList() : values);
+        }
+
+        @Override
+        public Enumeration<String> getHeaderNames() {
+            return Collections.enumeration(headers.keySet());
+        }
+
+        @Override
+        public String getParameter(String parameterName) {
+            String[] values = parameters.get(parameterName);
+            return values == null || values.length == 0 ? null : values[0];
+        }
+
+        @Override
+        public String[] getParameterValues(String parameterName) {
+            String[] values = parameters.get(parameterName);
+            return values == null ? null : values.clone();
+        }
+
+        @Override
+        public Map<String, String[]> getParameterMap() {
+            return parameters;
+        }
+
+        @Override
+        public Enumeration<String> getParameterNames() {
+            return Collections.enumeration(parameters.keySet());
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            if (stream == null) {
+                stream = new DelegatingServletInputStream(
+                        new ByteArrayInputStream(document));
+            }
+            return stream;
+        }
+
+        @Override
+        public Object getAttribute(String attributeName) {
+            return attributes.get(attributeName);
+        }
+
+        @Override
+        public Enumeration<String> getAttributeNames() {
+            return Collections.enumeration(attributes.keySet());
+        }
+
+        @Override
+        public void setAttribute(String attributeName, Object o) {
+            attributes.put(attributeName, o);
+        }
+
+        @Override
+        public void removeAttribute(String attributeName) {
+            attributes.remove(attributeName);
+        }
+    }
+
+    /**
+     * Captures the output of one document instead of committing anything
+     * to the shared batch response.
+     */
+    private static final class DocumentResponse extends HttpServletResponseWrapper {
+
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        String error;
+
+        private final ServletOutputStream stream = new ServletOutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                buffer.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                buffer.write(b, off, len);
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+        DocumentResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            return stream;
+        }
+
+        @Override
+        public PrintWriter getWriter() {
+            return new PrintWriter(new OutputStreamWriter(buffer,
+                    StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void sendError(int sc, String msg) {
+            error = msg;
+        }
+
+        @Override
+        public void sendError(int sc) {
+            error = "HTTP status " + sc + ".";
+        }
+
+        @Override
+        public void sendRedirect(String location) {
+            error = "Redirected to " + location + ".";
+        }
+
+        @Override
+        public void setStatus(int sc) {
+        }
+
+        @Override
+        public void setContentType(String type) {
+        }
+
+        @Override
+        public void setContentLength(int len) {
+        }
+
+        @Override
+        public void setContentLengthLong(long len) {
+        }
+
+        @Override
+        public void setHeader(String headerName, String value) {
+        }
+
+        @Override
+        public void addHeader(String headerName, String value) {
+        }
+
+        @Override
+        public void setDateHeader(String headerName, long date) {
+        }
+
+        @Override
+        public void addDateHeader(String headerName, long date) {
+        }
+
+        @Override
+        public void setIntHeader(String headerName, int value) {
+        }
+
+        @Override
+        public void addIntHeader(String headerName, int value) {
+        }
+
+        @Override
+        public void flushBuffer() {
+        }
+
+        @Override
+        public boolean isCommitted() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2020 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.servlet;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import com.thaiopensource.util.PropertyMap;
+import com.thaiopensource.validate.IncorrectSchemaException;
+import com.thaiopensource.validate.Schema;
+import com.thaiopensource.validate.SchemaResolver;
+
+/**
+ * A size- and age-bounded LRU cache of compiled external (that is,
+ * user-supplied and not preloaded) schemas, keyed by schema URL and the
+ * request options that affect how the schema resources are fetched.
+ * 
+ * <p>Cached schemas are shared between requests, and compiled schemas keep
+ * the property map they were compiled with, so they must be compiled with a
+ * {@link CompileContext} rather than with the objects of the request that
+ * happens to compile them. Validators get the handlers of their own request
+ * from the property map they are created with.
+ * 
+ * <p>Entries younger than the TTL are used as is. Older entries are
+ * revalidated with a conditional request using the <code>ETag</code> and
+ * <code>Last-Modified</code> values the schema was served with; entries
+ * without either are simply fetched and compiled again. Only the top-level
+ * schema resource is revalidated, so changes to resources it includes show
+ * up once the TTL has run out and the top-level resource changes, or once
+ * the entry is evicted.
+ */
+final class ExternalSchemaCache {
+
+    private static final int MAX_ENTRIES = Integer.parseInt(
+            System.getProperty("nu.validator.servlet.schema-cache-size",
+                    "64"));
+
+    private static final long TTL = Long.parseLong(System.getProperty(
+            "nu.validator.servlet.schema-cache-ttl", "300000"));
+
+    private static final Map<String, CachedSchema> CACHE = new LinkedHashMap<String, CachedSchema>(
+            16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(
+                Map.Entry<String, CachedSchema> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    static final class CachedSchema {
+
+        private final Schema schema;
+
+        private final String entityTag;
+
+        private final String lastModified;
+
+        private volatile long checkedAt;
+
+        CachedSchema(Schema schema, String entityTag, String lastModified) {
+            this.schema = schema;
+            this.entityTag = entityTag;
+            this.lastModified = lastModified;
+            this.checkedAt = System.currentTimeMillis();
+        }
+
+        Schema getSchema() {
+            return schema;
+        }
+
+        String getEntityTag() {
+            return entityTag;
+        }
+
+        String getLastModified() {
+            return lastModified;
+        }
+
+        boolean isFresh() {
+            return System.currentTimeMillis() - checkedAt < TTL;
+        }
+
+        boolean canRevalidate() {
+            return entityTag != null || lastModified != null;
+        }
+
+        /**
+         * Marks the entry as fresh again after the server said the schema
+         * has not been modified.
+         */
+        void revalidated() {
+            checkedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Stands in for the error handler, entity resolver and schema resolver
+     * of the request that compiles a cached schema, and lets go of them once
+     * the compilation is done.
+     */
+    static final class CompileContext
+            implements ErrorHandler, EntityResolver, SchemaResolver {
+
+        private ErrorHandler errorHandler;
+
+        private EntityResolver entityResolver;
+
+        private SchemaResolver schemaResolver;
+
+        CompileContext(ErrorHandler errorHandler,
+                EntityResolver entityResolver, SchemaResolver schemaResolver) {
+            this.errorHandler = errorHandler;
+            this.entityResolver = entityResolver;
+            this.schemaResolver = schemaResolver;
+        }
+
+        /**
+         * Drops the request objects. Warnings and errors reported afterwards
+         * are ignored, and fatal errors and resolution attempts fail.
+         */
+        synchronized void detach() {
+            errorHandler = null;
+            entityResolver = null;
+            schemaResolver = null;
+        }
+
+        private synchronized ErrorHandler errorHandler() {
+            return errorHandler;
+        }
+
+        private synchronized EntityResolver entityResolver()
+                throws IOException {
+            if (entityResolver == null) {
+                throw new IOException("Schema compilation has ended.");
+            }
+            return entityResolver;
+        }
+
+        private synchronized SchemaResolver schemaResolver()
+                throws IOException {
+            if (schemaResolver == null) {
+                throw new IOException("Schema compilation has ended.");
+            }
+            return schemaResolver;
+        }
+
+        @Override
+        public void warning(SAXParseException exception) throws SAXException {
+            ErrorHandler eh = errorHandler();
+            if (eh != null) {
+                eh.warning(exception);
+            }
+        }
+
+        @Override
+        public void error(SAXParseException exception) throws SAXException {
+            ErrorHandler eh = errorHandler();
+            if (eh != null) {
+                eh.error(exception);
+            }
+        }
+
+        @Override
+        public void fatalError(SAXParseException exception)
+                throws SAXException {
+            ErrorHandler eh = errorHandler();
+            if (eh != null) {
+                eh.fatalError(exception);
+            }
+            throw exception;
+        }
+
+        @Override
+        public InputSource resolveEntity(String publicId, String systemId)
+                throws SAXException, IOException {
+            return entityResolver().resolveEntity(publicId, systemId);
+        }
+
+        @Override
+        public Schema resolveSchema(String url, PropertyMap options)
+                throws SAXException, IOException, IncorrectSchemaException {
+            return schemaResolver().resolveSchema(url, options);
+        }
+    }
+
+    private ExternalSchemaCache() {
+    }
+
+    /**
+     * Builds the cache key for a schema URL. Besides the URL, the key holds
+     * the request options that change which resources the schema and the
+     * ones it includes resolve to or whether they are accepted.
+     * 
+     * @param url
+     *            the schema URL
+     * @param laxType
+     *            whether content types are checked laxly
+     * @param userAgent
+     *            the <code>User-Agent</code> sent when fetching
+     * @param acceptLanguage
+     *            the <code>Accept-Language</code> sent when fetching, or
+     *            <code>null</code>
+     * @param ignoreResponseStatus
+     *            whether error responses are accepted
+     * @return the key
+     */
+    static String key(String url, boolean laxType, String userAgent,
+            String acceptLanguage, boolean ignoreResponseStatus) {
+        StringBuilder sb = new StringBuilder(url);
+        sb.append('\u0000').append(laxType);
+        sb.append('\u0000').append(ignoreResponseStatus);
+        sb.append('\u0000').append(userAgent);
+        sb.append('\u0000').append(acceptLanguage);
+        return sb.toString();
+    }
+
+    /**
+     * Checks whether schemas from the given URL are eligible for caching.
+     * 
+     * @param url
+     *            the schema URL
+     * @return <code>true</code> for http and https URLs when the cache is
+     *         enabled
+     */
+    static boolean isCacheable(String url) {
+        return MAX_ENTRIES > 0 && TTL > 0
+                && (url.startsWith("http://") || url.startsWith("https://"));
+    }
+
+    /**
+     * @param key
+     *            the key from {@link #key}
+     * @return the cached entry, fresh or stale, or <code>null</code>
+     */
+    static CachedSchema get(String key) {
+        synchronized (CACHE) {
+            return CACHE.get(key);
+        }
+    }
+
+    /**
+     * @param key
+     *            the key from {@link #key}
+     * @param schema
+     *            the compiled schema
+     * @param entityTag
+     *            the <code>ETag</code> the schema was served with, or
+     *            <code>null</code>
+     * @param lastModified
+     *            the <code>Last-Modified</code> date the schema was served
+     *            with, or <code>null</code>
+     */
+    static void put(String key, Schema schema, String entityTag,
+            String lastModified) {
+        CachedSchema entry = new CachedSchema(schema, entityTag, lastModified);
+        synchronized (CACHE) {
+            CACHE.put(key, entry);
+        }
+    }
+}
@@ -40,12 +40,31 @@ import nu.validator.io.StreamBoundException;
 public final class InboundSizeLimitFilter implements Filter {
 
     private long sizeLimit;
+
+    private String batchPathInfo;
+
+    private long batchSizeLimit;
     
     /**
      * @param sizeLimit
      */
     public InboundSizeLimitFilter(final long sizeLimit) {
+        this(sizeLimit, null, sizeLimit);
+    }
+
+    /**
+     * @param sizeLimit
+     *            the limit for ordinary requests
+     * @param batchPathInfo
+     *            the path info of the batch endpoint
+     * @param batchSizeLimit
+     *            the limit for requests to the batch endpoint
+     */
+    public InboundSizeLimitFilter(final long sizeLimit,
+            final String batchPathInfo, final long batchSizeLimit) {
         this.sizeLimit = sizeLimit;
+        this.batchPathInfo = batchPathInfo;
+        this.batchSizeLimit = batchSizeLimit;
     }
     
     public InboundSizeLimitFilter() {
@@ -60,7 +79,10 @@ public final class InboundSizeLimitFilter implements Filter {
     public void doFilter(ServletRequest req, ServletResponse res,
             FilterChain chain) throws IOException, ServletException {
         HttpServletRequest request = (HttpServletRequest) req;
-        chain.doFilter(new RequestWrapper(request), res);
+        long limit = batchPathInfo != null
+                && batchPathInfo.equals(request.getPathInfo()) ? batchSizeLimit
+                        : sizeLimit;
+        chain.doFilter(new RequestWrapper(request, limit), res);
     }
 
     @Override
@@ -72,8 +94,11 @@ public final class InboundSizeLimitFilter implements Filter {
 
         private ServletInputStream stream = null;
 
-        public RequestWrapper(HttpServletRequest req) throws IOException {
+        private final long limit;
+
+        public RequestWrapper(HttpServletRequest req, long limit) throws IOException {
             super(req);
+            this.limit = limit;
         }
 
         /**
@@ -82,10 +107,10 @@ public final class InboundSizeLimitFilter implements Filter {
         @Override
         public ServletInputStream getInputStream() throws IOException {
             if (stream == null) {
-                if (super.getContentLength() > sizeLimit) {
+                if (super.getContentLengthLong() > limit) {
                     throw new StreamBoundException("Resource size exceeds limit.");
                 }
-                stream = new DelegatingServletInputStream(new BoundedInputStream(super.getInputStream(), sizeLimit, super.getHeader("Content-Location")));
+                stream = new DelegatingServletInputStream(new BoundedInputStream(super.getInputStream(), limit, super.getHeader("Content-Location")));
             }
             return stream;
         }
@@ -69,6 +69,12 @@ public class Main {
     private static final long SIZE_LIMIT = Integer.parseInt(System.getProperty(
             "nu.validator.servlet.max-file-size", "2097152"));
 
+    private static final int MAX_THREADS = Integer.parseInt(System.getProperty(
+            "nu.validator.servlet.max-threads", "100"));
+
+    private static final long BATCH_SIZE_LIMIT = Long.parseLong(System.getProperty(
+            "nu.validator.servlet.max-batch-size", "67108864"));
+
     private static final boolean isRunningInsideDockerContainer() {
         try (BufferedReader reader = new BufferedReader( //
                 new InputStreamReader(new FileInputStream("/proc/1/cgroup"),
@@ -141,6 +147,11 @@ public class Main {
                 host, port));
     }
 
+    private static FilterHolder asyncSupported(FilterHolder holder) {
+        holder.setAsyncSupported(true);
+        return holder;
+    }
+
     public static void main(String[] args) throws Exception {
         if (!"1".equals(System.getProperty(
                 "nu.validator.servlet.read-local-log4j-properties"))) {
@@ -165,17 +176,20 @@ public class Main {
         gzipHandler.setIncludedMethods("POST", "GET");
         gzipHandler.setInflateBufferSize(2048);
         gzipHandler.setHandler(contextHandler);
-        contextHandler.addFilter(new FilterHolder(new InboundSizeLimitFilter(
-                SIZE_LIMIT)), "/*", EnumSet.of(DispatcherType.REQUEST));
-        contextHandler.addFilter(new FilterHolder(new InboundGzipFilter()),
+        // Async support lets VerifierServlet move requests off the Jetty
+        // threads when nu.validator.servlet.executor is "virtual".
+        contextHandler.addFilter(asyncSupported(new FilterHolder(new InboundSizeLimitFilter(
+                SIZE_LIMIT, VerifierServlet.BATCH_PATH, BATCH_SIZE_LIMIT))), "/*", EnumSet.of(DispatcherType.REQUEST));
+        contextHandler.addFilter(asyncSupported(new FilterHolder(new InboundGzipFilter())),
                 "/*", EnumSet.of(DispatcherType.REQUEST));
         contextHandler.addFilter(
-                new FilterHolder(new MultipartFormDataFilter()), "/*",
+                asyncSupported(new FilterHolder(new MultipartFormDataFilter())), "/*",
                 EnumSet.of(DispatcherType.REQUEST));
-        contextHandler.addServlet(new ServletHolder(new VerifierServlet()),
-                "/*");
+        ServletHolder servletHolder = new ServletHolder(new VerifierServlet());
+        servletHolder.setAsyncSupported(true);
+        contextHandler.addServlet(servletHolder, "/*");
 
-        Server server = new Server(new QueuedThreadPool(100));
+        Server server = new Server(new QueuedThreadPool(MAX_THREADS));
         server.setHandler(contextHandler);
         server.setHandler(gzipHandler);
 
@@ -87,6 +87,16 @@ public final class OutlineBuildingXMLReaderWrapper implements XMLReader,
 
     private static final int MAX_EXCERPT = 500;
 
+    // Heading text beyond this many characters (after collapsing runs of
+    // whitespace) can't affect the excerpt, so we don't keep it.
+    private static final int MAX_HEADING_TEXT = 2 * MAX_EXCERPT + 2;
+
+    // Past this many sections, the walk is abandoned and the outline is
+    // reported as truncated; this keeps the memory an outline can take
+    // bounded for very large documents.
+    private static final int MAX_SECTIONS = Integer.parseInt(System.getProperty(
+            "nu.validator.servlet.max-outline-sections", "10000"));
+
     private static final String[] SECTIONING_CONTENT_ELEMENTS = { "article",
             "aside", "nav", "section" };
 
@@ -107,7 +117,7 @@ public final class OutlineBuildingXMLReaderWrapper implements XMLReader,
     // attribute;
     // during a walk over the nodes of a DOM tree, nodes are identified with
     // their depth and local name
-    private class Element {
+    private static class Element {
         // the depth of element in the DOM
         final private int depth;
 
@@ -154,7 +164,7 @@ public final class OutlineBuildingXMLReaderWrapper implements XMLReader,
 
     // a section is a container that corresponds to some nodes in the original
     // DOM tree
-    public class Section {
+    public static class Section {
         // the section that contains this section
         private Section parent;
 
@@ -297,20 +307,15 @@ public final class OutlineBuildingXMLReaderWrapper implements XMLReader,
     // a sectioning content element or a sectioning root element
     private Element currentOutlinee;
 
-    // A stack (not defined in the spec) to hold all open elements. We just
-    // use this stack for the purpose of checking whether there are any
-    // open elements at all with a "hidden" attribute -- including elements
-    // that may be descendants of heading-content elements (which per the
-    // spec never end up on the outline stack).
-    private Deque<Element> elementStack = new LinkedList<>();
+    // The depth of the outermost open element with a "hidden" attribute,
+    // or 0 if there is none. We just use this for the purpose of checking
+    // whether there are any open elements at all with a "hidden" attribute
+    // -- including elements that may be descendants of heading-content
+    // elements (which per the spec never end up on the outline stack).
+    private int hiddenDepth;
 
     private boolean inHiddenSubtree() {
-        for (Element element : elementStack) {
-            if (element.isHidden()) {
-                return true;
-            }
-        }
-        return false;
+        return hiddenDepth > 0;
     }
 
     // A stack, defined in the spec, to which we only add open
@@ -335,6 +340,12 @@ public final class OutlineBuildingXMLReaderWrapper implements XMLReader,
 
     private boolean isWalkOver;
 
+    // the number of sections created so far
+    private int sectionCount;
+
+    // whether the walk was abandoned after MAX_SECTIONS sections
+    private boolean truncated;
+
     private static final Pattern excerptPattern = Pattern.compile("\\W*\\S*$");
 
     private static final Pattern whitespacePattern = Pattern.compile("\\s+");
@@ -347,6 +358,39 @@ public final class OutlineBuildingXMLReaderWrapper implements XMLReader,
                 str.substring(0, maxLength)).replaceFirst("&hellip;") : str;
     }
 
+    /*
+     * Appends heading text, collapsing runs of whitespace to a single space
+     * as it goes and dropping anything past MAX_HEADING_TEXT, so that the
+     * text of a huge heading is never held in full.
+     */
+    private static void appendHeadingText(StringBuilder builder, char[] ch,
+            int start, int length) {
+        int end = start + length;
+        for (int i = start; i < end && builder.length() < MAX_HEADING_TEXT; i++) {
+            char c = ch[i];
+            switch (c) {
+                case ' ':
+                case '\t':
+                case '\n':
+                case '\u000B':
+                case '\f':
+                case '\r':
+                    int last = builder.length() - 1;
+                    if (last < 0 || builder.charAt(last) != ' ') {
+                        builder.append(' ');
+                    }
+                    break;
+                default:
+                    builder.append(c);
+            }
+        }
+    }
+
+    private Section newSection(String elementName) {
+        sectionCount++;
+        return new Section(elementName);
+    }
+
     /**
      * @see org.xml.sax.helpers.XMLFilterImpl#characters(char[], int, int)
      */
@@ -362,7 +406,8 @@ public final class OutlineBuildingXMLReaderWrapper implements XMLReader,
         }
 
         if (inHeadingContentOrHiddenElement && !inHiddenSubtree()) {
-            currentSection.getHeadingTextBuilder().append(ch, start, length);
+            appendHeadingText(currentSection.getHeadingTextBuilder(), ch,
+                    start, length);
         }
         contentHandler.characters(ch, start, length);
     }
@@ -377,11 +422,13 @@ public final class OutlineBuildingXMLReaderWrapper implements XMLReader,
         if (contentHandler == null) {
             return;
         }
-        elementStack.pop();
         if (isWalkOver) {
             contentHandler.endElement(uri, localName, qName);
             return;
         }
+        if (hiddenDepth == currentWalkDepth) {
+            hiddenDepth = 0;
+        }
 
         if ("hgroup".equals(localName)) {
             inHgroup = false;
@@ -438,6 +485,8 @@ public final class OutlineBuildingXMLReaderWrapper implements XMLReader,
                     } else {
                         currentSection.createEmptyHeading();
                     }
+                    headingTextBuilder.trimToSize();
+                    currentSection.getHeadingImgAltTextBuilder().trimToSize();
                 }
             }
 
@@ -556,6 +605,10 @@ public final class OutlineBuildingXMLReaderWrapper implements XMLReader,
         if (contentHandler == null) {
             return;
         }
+        if (!isWalkOver && sectionCount >= MAX_SECTIONS) {
+            isWalkOver = true;
+            truncated = true;
+        }
         if (isWalkOver) {
             contentHandler.startElement(uri, localName, qName, atts);
             return;
@@ -569,15 +622,18 @@ public final class OutlineBuildingXMLReaderWrapper implements XMLReader,
 
         boolean hidden = atts.getIndex("", "hidden") >= 0
                 || "template".equals(localName);
-        elementStack.push(new Element(currentWalkDepth, localName, hidden));
+        if (hidden && hiddenDepth == 0) {
+            hiddenDepth = currentWalkDepth;
+        }
 
         // If the top of the stack is a heading content element or an element
         // with a hidden attribute
         if (inHeadingContentOrHiddenElement) {
             if (!inHiddenSubtree() && "img".equals(localName)
                     && atts.getIndex("", "alt") >= 0) {
-                currentSection.getHeadingImgAltTextBuilder().append(
-                        atts.getValue("", "alt"));
+                String alt = atts.getValue("", "alt");
+                appendHeadingText(currentSection.getHeadingImgAltTextBuilder(),
+                        alt.toCharArray(), 0, alt.length());
             }
             // Do nothing.
             contentHandler.startElement(uri, localName, qName, atts);
@@ -619,7 +675,7 @@ public final class OutlineBuildingXMLReaderWrapper implements XMLReader,
             // Let current section be a newly created section for the current
             // outlinee element.
             // Associate current outlinee with current section.
-            currentSection = new Section(localName);
+            currentSection = newSection(localName);
 
             // Let there be a new outline for the new current outlinee,
             // initialized with just the new current section as the only section
@@ -657,7 +713,7 @@ public final class OutlineBuildingXMLReaderWrapper implements XMLReader,
                 // of the current outlinee element, so that this new
                 // section is the new last section of that outline.
                 // Let current section be that new section.
-                currentSection = new Section(localName);
+                currentSection = newSection(localName);
                 currentOutlinee.getOutline().add(currentSection);
 
                 // Let the element being entered be the new heading for the
@@ -679,7 +735,7 @@ public final class OutlineBuildingXMLReaderWrapper implements XMLReader,
                         // (This does not change which section is the last
                         // section in the outline.)
                         // Let current section be this new section.
-                        currentSection = new Section(localName);
+                        currentSection = newSection(localName);
                         currentSection.setParent(candidateSection);
                         candidateSection.getSections().add(currentSection);
 
@@ -735,17 +791,31 @@ public final class OutlineBuildingXMLReaderWrapper implements XMLReader,
         if (contentHandler == null) {
             return;
         }
-        if (currentOutlinee != null) {
+        Element outlinee = currentOutlinee;
+        if (truncated) {
+            // The walk stopped partway, so the outlines of any sectioning
+            // elements still open never got appended to their parents;
+            // report what we have for the outermost one.
+            for (Element element : outlineStack) {
+                if (!element.getOutline().isEmpty()) {
+                    outlinee = element;
+                }
+            }
+            request.setAttribute(
+                    "http://validator.nu/properties/outline-truncated",
+                    Boolean.TRUE);
+        }
+        if (outlinee != null) {
             if (isHeadingOutline) {
                 request.setAttribute(
                         "http://validator.nu/properties/heading-outline",
-                        currentOutlinee.outline);
+                        outlinee.outline);
             } else {
                 request.setAttribute(
                         "http://validator.nu/properties/document-outline",
-                        currentOutlinee.outline);
+                        outlinee.outline);
             }
-            setOutline(currentOutlinee.outline);
+            setOutline(outlinee.outline);
         }
         contentHandler.endDocument();
     }
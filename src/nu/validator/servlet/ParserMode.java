@@ -4,5 +4,6 @@ public enum ParserMode {
     HTML,
     XML_NO_EXTERNAL_ENTITIES,
     XML_EXTERNAL_ENTITIES_NO_VALIDATION,
+    HTML_PARSER_ONLY,
     AUTO
 }
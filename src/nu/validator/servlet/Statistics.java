@@ -24,10 +24,16 @@ package nu.validator.servlet;
 
 import java.io.IOException;
 import java.text.DecimalFormat;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
 
 import javax.servlet.http.HttpServletResponse;
 
 import nu.validator.htmlparser.sax.HtmlSerializer;
+import nu.validator.json.Serializer;
 import nu.validator.xml.EmptyAttributes;
 
 import org.xml.sax.ContentHandler;
@@ -51,6 +57,24 @@ public class Statistics {
 
     private static final char[] VALIDATIONS_PER_SECOND = "Validations per second".toCharArray();
 
+    private static final char[] HISTOGRAMS = "Latency and size histograms".toCharArray();
+
+    private static final char[] HISTOGRAM_METRIC = "Measurement".toCharArray();
+
+    private static final char[] HISTOGRAM_INPUT = "Input".toCharArray();
+
+    private static final char[] HISTOGRAM_COUNT = "Count".toCharArray();
+
+    private static final char[] HISTOGRAM_MEAN = "Mean".toCharArray();
+
+    private static final char[] HISTOGRAM_P50 = "p50 \u2264".toCharArray();
+
+    private static final char[] HISTOGRAM_P90 = "p90 \u2264".toCharArray();
+
+    private static final char[] HISTOGRAM_P99 = "p99 \u2264".toCharArray();
+
+    private static final char[] HISTOGRAM_MAX = "Max".toCharArray();
+
     private static final char[] SORT_LANGS_SCRIPT = (""
             + " var rows = document.querySelectorAll('tr');"
             + " var langRows = new Array();"
@@ -106,6 +130,7 @@ public class Statistics {
         OUTPUT_XML("Output: XML"), //
         OUTPUT_HTML("Output: HTML"), //
         OUTPUT_JSON("Output: JSON"), //
+        OUTPUT_NDJSON("Output: NDJSON"), //
         OUTPUT_GNU("Output: GNU"), //
         OUTPUT_TEXT("Output: Text"), //
         OUTPUT_XHTML("Output: XHTML"), //
@@ -552,6 +577,47 @@ public class Statistics {
         }
     }
 
+    /**
+     * Per-request measurements that are kept as histograms rather than as
+     * plain counters. Times are in microseconds. Parsing and validation run
+     * as one streaming SAX pass, so they are measured together.
+     */
+    public enum Metric {
+        SETUP_TIME("Time: loading and set-up", "us"), //
+        PARSE_TIME("Time: parsing and validation", "us"), //
+        EMIT_TIME("Time: finishing message output", "us"), //
+        BYTES_IN("Size: document", "bytes");
+
+        Metric(String description, String unit) {
+            this.description = description;
+            this.unit = unit;
+        }
+
+        private final String description;
+
+        private final String unit;
+
+        public String getUnit() {
+            return unit;
+        }
+
+        /**
+         * @see java.lang.Enum#toString()
+         */
+        @Override
+        public String toString() {
+            return description + " (" + unit + ")";
+        }
+    }
+
+    /**
+     * The fields that histograms are broken down by. Each request is
+     * recorded against exactly one of these.
+     */
+    private static final Field[] INPUT_TYPES = { Field.INPUT_HTML,
+            Field.INPUT_XML, Field.INPUT_CSS, Field.INPUT_SVG,
+            Field.INPUT_UNSUPPORTED };
+
     public Field getFieldFromName(String name) {
         for (Field field : Field.class.getEnumConstants()) {
             if (field.name().equals(name)) {
@@ -570,33 +636,169 @@ public class Statistics {
         }
     }
 
+    /**
+     * A lock-free histogram with power-of-two buckets: bucket <var>i</var>
+     * holds values <var>v</var> with 2<sup>i-1</sup> &#x2264; <var>v</var>
+     * &lt; 2<sup>i</sup> (bucket 0 holds zero and negative values).
+     */
+    private static final class Histogram {
+
+        private static final LongBinaryOperator MAX = new LongBinaryOperator() {
+            @Override
+            public long applyAsLong(long left, long right) {
+                return Math.max(left, right);
+            }
+        };
+
+        private final LongAdder[] buckets = new LongAdder[Long.SIZE];
+
+        private final LongAdder sum = new LongAdder();
+
+        private final LongAccumulator max = new LongAccumulator(MAX, 0);
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long value) {
+            int bucket = value <= 0 ? 0
+                    : Long.SIZE - Long.numberOfLeadingZeros(value);
+            buckets[Math.min(bucket, buckets.length - 1)].increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        Snapshot snapshot() {
+            long[] counts = new long[buckets.length];
+            long count = 0;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets[i].sum();
+                count += counts[i];
+            }
+            return new Snapshot(counts, count, sum.sum(), max.get());
+        }
+    }
+
+    /**
+     * A point-in-time copy of a histogram.
+     */
+    private static final class Snapshot {
+
+        final long[] counts;
+
+        final long count;
+
+        final long sum;
+
+        final long max;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        static long upperBound(int bucket) {
+            return bucket == 0 ? 0
+                    : (bucket == Long.SIZE - 1 ? Long.MAX_VALUE
+                            : (1L << bucket) - 1);
+        }
+
+        /**
+         * Returns the inclusive upper bound of the bucket that contains the
+         * given quantile.
+         */
+        long quantile(double q) {
+            long rank = (long) Math.ceil(q * count);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(upperBound(i), max);
+                }
+            }
+            return max;
+        }
+    }
+
     private final long startTime = System.currentTimeMillis();
 
-    private long total = 0;
+    private final LongAdder total = new LongAdder();
+
+    private final LongAdder[] counters;
 
-    private final long[] counters;
+    private final Map<Field, Histogram[]> histograms = new EnumMap<>(
+            Field.class);
 
     private Statistics() {
-        counters = new long[Field.values().length];
+        counters = new LongAdder[Field.values().length];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new LongAdder();
+        }
+        for (Field inputType : INPUT_TYPES) {
+            Histogram[] perMetric = new Histogram[Metric.values().length];
+            for (int i = 0; i < perMetric.length; i++) {
+                perMetric[i] = new Histogram();
+            }
+            histograms.put(inputType, perMetric);
+        }
     }
 
     public void incrementTotal() {
-        total++;
+        total.increment();
     }
 
     public void incrementField(Field field) {
-        counters[field.ordinal()]++;
+        counters[field.ordinal()].increment();
+    }
+
+    /**
+     * Records a measurement for a request of the given input type, which
+     * must be one of the <code>INPUT_*</code> content-type fields.
+     */
+    public void record(Metric metric, Field inputType, long value) {
+        Histogram[] perMetric = histograms.get(inputType);
+        if (perMetric == null) {
+            throw new IllegalArgumentException(
+                    "Not an input type field: " + inputType);
+        }
+        perMetric[metric.ordinal()].record(value);
+    }
+
+    /**
+     * Takes a copy of the histograms. The counters are not read under a
+     * common lock, so a copy taken while requests are being recorded may
+     * be off by the requests in flight.
+     */
+    private Snapshot[][] snapshotHistograms() {
+        Snapshot[][] snapshots = new Snapshot[INPUT_TYPES.length][];
+        for (int i = 0; i < INPUT_TYPES.length; i++) {
+            Histogram[] perMetric = histograms.get(INPUT_TYPES[i]);
+            snapshots[i] = new Snapshot[perMetric.length];
+            for (int j = 0; j < perMetric.length; j++) {
+                snapshots[i][j] = perMetric[j].snapshot();
+            }
+        }
+        return snapshots;
+    }
+
+    private long[] snapshotCounters() {
+        long[] countersCopy = new long[counters.length];
+        for (int i = 0; i < counters.length; i++) {
+            countersCopy[i] = counters[i].sum();
+        }
+        return countersCopy;
     }
 
     public void writeToResponse(HttpServletResponse response)
             throws IOException {
         try {
-            long totalCopy;
-            long[] countersCopy = new long[counters.length];
-            synchronized (this) {
-                totalCopy = total;
-                System.arraycopy(counters, 0, countersCopy, 0, counters.length);
-            }
+            long totalCopy = total.sum();
+            long[] countersCopy = snapshotCounters();
+            Snapshot[][] histogramsCopy = snapshotHistograms();
             double totalDouble = totalCopy;
             double uptimeMillis = System.currentTimeMillis() - startTime;
             response.setContentType("text/html; charset=utf-8");
@@ -678,6 +880,61 @@ public class Statistics {
                 }
                 endElement(ch, "tbody");
                 endElement(ch, "table");
+
+                startElement(ch, "h2");
+                characters(ch, HISTOGRAMS);
+                endElement(ch, "h2");
+                startElement(ch, "table");
+                startElement(ch, "thead");
+                startElement(ch, "tr");
+                for (char[] heading : new char[][] { HISTOGRAM_METRIC,
+                        HISTOGRAM_INPUT, HISTOGRAM_COUNT, HISTOGRAM_MEAN,
+                        HISTOGRAM_P50, HISTOGRAM_P90, HISTOGRAM_P99,
+                        HISTOGRAM_MAX }) {
+                    startElement(ch, "th");
+                    characters(ch, heading);
+                    endElement(ch, "th");
+                }
+                endElement(ch, "tr");
+                endElement(ch, "thead");
+                startElement(ch, "tbody");
+                for (Metric metric : Metric.values()) {
+                    for (int i = 0; i < INPUT_TYPES.length; i++) {
+                        Snapshot snapshot = histogramsCopy[i][metric.ordinal()];
+                        if (snapshot.count == 0) {
+                            continue;
+                        }
+                        startElement(ch, "tr");
+                        startElement(ch, "td");
+                        characters(ch, metric.toString());
+                        endElement(ch, "td");
+                        startElement(ch, "td");
+                        characters(ch, INPUT_TYPES[i].toString());
+                        endElement(ch, "td");
+                        startElement(ch, "td");
+                        characters(ch, snapshot.count);
+                        endElement(ch, "td");
+                        startElement(ch, "td");
+                        characters(ch, snapshot.sum / (double) snapshot.count);
+                        endElement(ch, "td");
+                        startElement(ch, "td");
+                        characters(ch, snapshot.quantile(0.5));
+                        endElement(ch, "td");
+                        startElement(ch, "td");
+                        characters(ch, snapshot.quantile(0.9));
+                        endElement(ch, "td");
+                        startElement(ch, "td");
+                        characters(ch, snapshot.quantile(0.99));
+                        endElement(ch, "td");
+                        startElement(ch, "td");
+                        characters(ch, snapshot.max);
+                        endElement(ch, "td");
+                        endElement(ch, "tr");
+                    }
+                }
+                endElement(ch, "tbody");
+                endElement(ch, "table");
+
                 startElement(ch, "script");
                 characters(ch, SORT_LANGS_SCRIPT);
                 endElement(ch, "script");
@@ -691,6 +948,75 @@ public class Statistics {
         }
     }
 
+    /**
+     * Writes the counters and histograms as JSON. Counters are keyed by
+     * field name; each histogram lists its non-empty buckets by inclusive
+     * upper bound (<code>le</code>).
+     */
+    public void writeJsonToResponse(HttpServletResponse response)
+            throws IOException {
+        try {
+            long totalCopy = total.sum();
+            long[] countersCopy = snapshotCounters();
+            Snapshot[][] histogramsCopy = snapshotHistograms();
+            response.setContentType("application/json; charset=utf-8");
+            Serializer json = new Serializer(response.getOutputStream());
+            json.startDocument(null);
+            json.startObject();
+            json.key("total");
+            json.number(totalCopy);
+            json.key("uptimeMillis");
+            json.number(System.currentTimeMillis() - startTime);
+            json.key("counters");
+            json.startObject();
+            for (int i = 0; i < countersCopy.length; i++) {
+                json.key(Field.values()[i].name());
+                json.number(countersCopy[i]);
+            }
+            json.endObject();
+            json.key("histograms");
+            json.startArray();
+            for (Metric metric : Metric.values()) {
+                for (int i = 0; i < INPUT_TYPES.length; i++) {
+                    Snapshot snapshot = histogramsCopy[i][metric.ordinal()];
+                    json.startObject();
+                    json.key("metric");
+                    json.string(metric.name());
+                    json.key("unit");
+                    json.string(metric.getUnit());
+                    json.key("input");
+                    json.string(INPUT_TYPES[i].name());
+                    json.key("count");
+                    json.number(snapshot.count);
+                    json.key("sum");
+                    json.number(snapshot.sum);
+                    json.key("max");
+                    json.number(snapshot.max);
+                    json.key("buckets");
+                    json.startArray();
+                    for (int j = 0; j < snapshot.counts.length; j++) {
+                        if (snapshot.counts[j] == 0) {
+                            continue;
+                        }
+                        json.startObject();
+                        json.key("le");
+                        json.number(Snapshot.upperBound(j));
+                        json.key("count");
+                        json.number(snapshot.counts[j]);
+                        json.endObject();
+                    }
+                    json.endArray();
+                    json.endObject();
+                }
+            }
+            json.endArray();
+            json.endObject();
+            json.endDocument();
+        } catch (SAXException e) {
+            throw new IOException(e);
+        }
+    }
+
     private void characters(ContentHandler ch, double d) throws SAXException {
         // Let's just create a new DecimalFormat each time to avoid the
         // complexity of recycling an instance correctly without threading
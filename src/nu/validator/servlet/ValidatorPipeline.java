@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2020 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.servlet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.http.HttpServletRequest;
+
+import nu.validator.checker.LanguageDetectingChecker;
+import nu.validator.checker.XmlPiChecker;
+import nu.validator.checker.schematronequiv.Assertions;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.ext.LexicalHandler;
+
+import com.thaiopensource.relaxng.impl.CombineValidator;
+import com.thaiopensource.util.PropertyMap;
+import com.thaiopensource.util.PropertyMapBuilder;
+import com.thaiopensource.validate.ValidateProperty;
+import com.thaiopensource.validate.Validator;
+import com.thaiopensource.validate.prop.rng.RngProperty;
+
+/**
+ * A fully assembled chain of validators for one list of preloaded schemas,
+ * kept in a pool keyed by that list so that it can be reused across
+ * requests instead of being rebuilt for each one.
+ * 
+ * <p>The validators in the chain report to an error handler that forwards
+ * to whichever error handler the pipeline is currently checked out with.
+ * Per-request checker state (the request and the HTTP
+ * <code>Content-Language</code> header, for example) is rebound on
+ * checkout and dropped again on checkin.
+ */
+final class ValidatorPipeline {
+
+    private static final int MAX_IDLE_PER_KEY = Integer.parseInt(
+            System.getProperty("nu.validator.servlet.pipeline-pool-size",
+                    "16"));
+
+    private static final ConcurrentMap<String, BlockingQueue<ValidatorPipeline>> IDLE = new ConcurrentHashMap<>();
+
+    private final String key;
+
+    private final ForwardingErrorHandler errorHandler = new ForwardingErrorHandler();
+
+    private final PropertyMap propertyMap;
+
+    private final List<Assertions> assertions = new ArrayList<>();
+
+    private final List<LanguageDetectingChecker> languageDetectingCheckers = new ArrayList<>();
+
+    private Validator validator;
+
+    private LexicalHandler lexicalHandler;
+
+    private boolean usesHtml5Spec;
+
+    /**
+     * Returns an idle pipeline for the given key, or <code>null</code> if
+     * there is none and the caller needs to assemble a new one.
+     * 
+     * @param key
+     *            the schema list (plus any flags) the pipeline was built for
+     * @return an idle pipeline or <code>null</code>
+     */
+    static ValidatorPipeline checkOut(String key) {
+        if (MAX_IDLE_PER_KEY <= 0) {
+            return null;
+        }
+        BlockingQueue<ValidatorPipeline> idle = IDLE.get(key);
+        return idle == null ? null : idle.poll();
+    }
+
+    /**
+     * Resets the pipeline, drops its per-request state and returns it to
+     * the pool (unless the pool for its key is already full).
+     * 
+     * @param pipeline
+     *            the pipeline to return
+     */
+    static void checkIn(ValidatorPipeline pipeline) {
+        pipeline.release();
+        if (MAX_IDLE_PER_KEY <= 0) {
+            return;
+        }
+        BlockingQueue<ValidatorPipeline> idle = IDLE.get(pipeline.key);
+        if (idle == null) {
+            idle = new ArrayBlockingQueue<>(MAX_IDLE_PER_KEY);
+            BlockingQueue<ValidatorPipeline> existing = IDLE.putIfAbsent(
+                    pipeline.key, idle);
+            if (existing != null) {
+                idle = existing;
+            }
+        }
+        idle.offer(pipeline);
+    }
+
+    /**
+     * @param key
+     *            the pool key for this pipeline
+     * @param entityResolver
+     *            the entity resolver validators in this pipeline get
+     */
+    ValidatorPipeline(String key, EntityResolver entityResolver) {
+        this.key = key;
+        PropertyMapBuilder pmb = new PropertyMapBuilder();
+        pmb.put(ValidateProperty.ERROR_HANDLER, errorHandler);
+        pmb.put(ValidateProperty.ENTITY_RESOLVER, entityResolver);
+        pmb.put(ValidateProperty.XML_READER_CREATOR,
+                new VerifierServletXMLReaderCreator(errorHandler,
+                        entityResolver));
+        RngProperty.CHECK_ID_IDREF.add(pmb);
+        this.propertyMap = pmb.toPropertyMap();
+    }
+
+    /**
+     * Returns the property map to create validators for this pipeline with.
+     * 
+     * @return the property map
+     */
+    PropertyMap getPropertyMap() {
+        return propertyMap;
+    }
+
+    /**
+     * Puts a validator in front of the ones already in the pipeline.
+     * 
+     * @param v
+     *            a validator created with <code>getPropertyMap()</code>
+     * @param html5
+     *            whether the validator comes from an HTML5 schema
+     */
+    void prepend(Validator v, boolean html5) {
+        ContentHandler ch = v.getContentHandler();
+        if (ch instanceof XmlPiChecker) {
+            lexicalHandler = (LexicalHandler) ch;
+        }
+        if (ch instanceof Assertions) {
+            assertions.add((Assertions) ch);
+        }
+        if (ch instanceof LanguageDetectingChecker) {
+            languageDetectingCheckers.add((LanguageDetectingChecker) ch);
+        }
+        usesHtml5Spec |= html5;
+        validator = validator == null ? v : new CombineValidator(v, validator);
+    }
+
+    /**
+     * Binds the per-request state and returns the assembled validator.
+     * 
+     * @param eh
+     *            the error handler for this request
+     * @param request
+     *            the request
+     * @param sourceIsCss
+     *            whether the document is CSS wrapped in HTML
+     * @return the validator at the head of the pipeline
+     */
+    Validator bind(ErrorHandler eh, HttpServletRequest request,
+            boolean sourceIsCss) {
+        errorHandler.setDelegate(eh);
+        for (Assertions a : assertions) {
+            // Assertions reports CSS errors with their exact start when
+            // its error handler is a MessageEmitterAdapter, so it gets the
+            // real one rather than the forwarder.
+            a.setErrorHandler(eh);
+            a.setRequest(request);
+            a.setSourceIsCss(sourceIsCss);
+        }
+        for (LanguageDetectingChecker langdetect : languageDetectingCheckers) {
+            langdetect.setRequest(request);
+            langdetect.setHttpContentLanguageHeader(
+                    request.getHeader("Content-Language"));
+        }
+        return validator;
+    }
+
+    /**
+     * Returns the lexical handler of the XML PI checker in this pipeline.
+     * 
+     * @return the lexical handler or <code>null</code>
+     */
+    LexicalHandler getLexicalHandler() {
+        return lexicalHandler;
+    }
+
+    /**
+     * Returns whether any validator in this pipeline comes from an HTML5
+     * schema, so that messages can be elaborated from the HTML spec.
+     * 
+     * @return <code>true</code> if the HTML spec applies
+     */
+    boolean usesHtml5Spec() {
+        return usesHtml5Spec;
+    }
+
+    private void release() {
+        if (validator != null) {
+            validator.reset();
+        }
+        errorHandler.setDelegate(null);
+        for (Assertions a : assertions) {
+            a.setErrorHandler(errorHandler);
+            a.setRequest(null);
+        }
+        for (LanguageDetectingChecker langdetect : languageDetectingCheckers) {
+            langdetect.setRequest(null);
+        }
+    }
+
+    private static final class ForwardingErrorHandler implements ErrorHandler {
+
+        private ErrorHandler delegate;
+
+        void setDelegate(ErrorHandler delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void warning(SAXParseException exception) throws SAXException {
+            if (delegate != null) {
+                delegate.warning(exception);
+            }
+        }
+
+        @Override
+        public void error(SAXParseException exception) throws SAXException {
+            if (delegate != null) {
+                delegate.error(exception);
+            }
+        }
+
+        @Override
+        public void fatalError(SAXParseException exception)
+                throws SAXException {
+            if (delegate != null) {
+                delegate.fatalError(exception);
+            }
+        }
+    }
+}
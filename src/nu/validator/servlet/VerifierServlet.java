@@ -28,7 +28,12 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.UnsupportedEncodingException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -64,6 +69,16 @@ public class VerifierServlet extends HttpServlet {
 
     static final String PARSETREE_PATH = System.getProperty("nu.validator.servlet.path.parsetree", "/parsetree/");
 
+    static final String BATCH_PATH = System.getProperty("nu.validator.servlet.path.batch", "/batch/");
+
+    /**
+     * Runs requests off the container's thread pool when the
+     * <code>nu.validator.servlet.executor</code> mode asks for it;
+     * <code>null</code> means requests run on the container thread.
+     */
+    private static final ExecutorService REQUEST_EXECUTOR = newRequestExecutor(
+            System.getProperty("nu.validator.servlet.executor", "platform"));
+
     private static final byte[] GENERIC_ROBOTS_TXT;
 
     private static final byte[] HTML5_ROBOTS_TXT;
@@ -103,6 +118,30 @@ public class VerifierServlet extends HttpServlet {
         new MessageEmitterAdapter(null, null, false, null, 0, false, null);
     }
 
+    /**
+     * Creates the executor for the given mode: "platform" runs requests on
+     * the container thread; "virtual" runs each request on its own virtual
+     * thread, so requests blocked on fetching a document do not tie up
+     * container threads. Virtual threads are looked up reflectively because
+     * this code base still targets Java 8.
+     */
+    private static ExecutorService newRequestExecutor(String mode) {
+        if ("platform".equals(mode)) {
+            return null;
+        } else if (!"virtual".equals(mode)) {
+            throw new RuntimeException(
+                    "Unknown nu.validator.servlet.executor mode: " + mode);
+        }
+        try {
+            return (ExecutorService) Executors.class.getMethod(
+                    "newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            log4j.warn("Virtual threads are not available in this Java"
+                    + " runtime; running requests on the container threads.");
+            return null;
+        }
+    }
+
     /**
      * @return
      * @throws UnsupportedEncodingException
@@ -156,6 +195,51 @@ public class VerifierServlet extends HttpServlet {
         }
     }
 
+    /**
+     * Hands the request to <code>REQUEST_EXECUTOR</code> as an async request
+     * when there is one, and otherwise services it on the calling thread.
+     *
+     * @see javax.servlet.http.HttpServlet#service(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    protected void service(final HttpServletRequest request,
+            final HttpServletResponse response)
+            throws ServletException, IOException {
+        if (REQUEST_EXECUTOR == null || !request.isAsyncSupported()
+                || request.getDispatcherType() != DispatcherType.REQUEST) {
+            super.service(request, response);
+            return;
+        }
+        final AsyncContext asyncContext = request.startAsync(request, response);
+        asyncContext.setTimeout(0);
+        try {
+            REQUEST_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        VerifierServlet.super.service(request, response);
+                    } catch (ServletException | IOException
+                            | RuntimeException e) {
+                        log4j.error("Error servicing request", e);
+                        if (!response.isCommitted()) {
+                            try {
+                                response.sendError(
+                                        HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                            } catch (IOException e1) {
+                                log4j.debug("Client went away", e1);
+                            }
+                        }
+                    } finally {
+                        asyncContext.complete();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            asyncContext.complete();
+            throw new ServletException(e);
+        }
+    }
+
     /**
      * @see javax.servlet.http.HttpServlet#doGet(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
      */
@@ -191,6 +275,9 @@ public class VerifierServlet extends HttpServlet {
         } else if (Statistics.STATISTICS != null && "/stats.html".equals(request.getPathInfo())) {
             Statistics.STATISTICS.writeToResponse(response);
             return;
+        } else if (Statistics.STATISTICS != null && "/stats.json".equals(request.getPathInfo())) {
+            Statistics.STATISTICS.writeJsonToResponse(response);
+            return;
         }
         doPost(request, response);
     }
@@ -286,6 +373,14 @@ public class VerifierServlet extends HttpServlet {
             } else {
                 new VerifierServletTransaction(request, response).service();
             }
+        } else if (hostMatch(GENERIC_HOST, serverName) && BATCH_PATH.equals(pathInfo)) {
+            response.setHeader("Access-Control-Allow-Origin", "*");
+            response.setHeader("Access-Control-Allow-Headers", "content-type");
+            if (isOptions) {
+                sendOptions(request, response);
+            } else {
+                new BatchTransaction(request, response).service();
+            }
         } else if (hostMatch(HTML5_HOST, serverName) && HTML5_PATH.equals(pathInfo)) {
             response.setHeader("Access-Control-Allow-Origin", "*");
             response.setHeader("Access-Control-Allow-Headers", "content-type");
@@ -25,6 +25,7 @@ package nu.validator.servlet;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -37,6 +38,7 @@ import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Deque;
+import java.util.EnumSet;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -48,6 +50,12 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -70,12 +78,15 @@ import nu.validator.htmlparser.sax.HtmlParser;
 import nu.validator.htmlparser.sax.HtmlSerializer;
 import nu.validator.htmlparser.sax.XmlSerializer;
 import nu.validator.io.BoundedInputStream;
+import nu.validator.io.CountingInputStream;
 import nu.validator.io.DataUri;
 import nu.validator.io.StreamBoundException;
 import nu.validator.localentities.LocalCacheEntityResolver;
+import nu.validator.messages.FailFastException;
 import nu.validator.messages.GnuMessageEmitter;
 import nu.validator.messages.JsonMessageEmitter;
 import nu.validator.messages.MessageEmitterAdapter;
+import nu.validator.messages.MessageFilter;
 import nu.validator.messages.TextMessageEmitter;
 import nu.validator.messages.TooManyErrorsException;
 import nu.validator.messages.XhtmlMessageEmitter;
@@ -85,6 +96,10 @@ import nu.validator.servlet.OutlineBuildingXMLReaderWrapper.Section;
 import nu.validator.source.SourceCode;
 import nu.validator.spec.Spec;
 import nu.validator.spec.html5.Html5SpecBuilder;
+import nu.validator.spec.html5.Html5SpecIndex;
+import nu.validator.validation.OptionalChecker;
+import nu.validator.validation.Timings;
+import nu.validator.validation.ValidationScope;
 import nu.validator.xml.AttributesImpl;
 import nu.validator.xml.AttributesPermutingXMLReaderWrapper;
 import nu.validator.xml.BaseUriTracker;
@@ -119,6 +134,7 @@ import org.xml.sax.SAXNotSupportedException;
 import org.xml.sax.SAXParseException;
 import org.xml.sax.XMLReader;
 import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
 
 import com.thaiopensource.relaxng.impl.CombineValidator;
 import com.thaiopensource.util.PropertyMap;
@@ -147,7 +163,7 @@ import com.ibm.icu.text.Normalizer;
 class VerifierServletTransaction implements DocumentModeHandler, SchemaResolver {
 
     private enum OutputFormat {
-        HTML, XHTML, TEXT, XML, JSON, RELAXED, SOAP, UNICORN, GNU
+        HTML, XHTML, TEXT, XML, JSON, NDJSON, RELAXED, SOAP, UNICORN, GNU
     }
 
     private static final Logger log4j = Logger.getLogger(VerifierServletTransaction.class);
@@ -267,6 +283,33 @@ class VerifierServletTransaction implements DocumentModeHandler, SchemaResolver
 
     private long start = System.currentTimeMillis();
 
+    /**
+     * <code>System.nanoTime()</code> readings taken by <code>validate()</code>
+     * for the statistics histograms; zero when the stage was not reached.
+     */
+    private long validateStartNanos;
+
+    private long parseStartNanos;
+
+    private long emitStartNanos;
+
+    private long emitEndNanos;
+
+    /**
+     * Counts the document bytes for the statistics; <code>null</code> when
+     * statistics are off or the document had no byte stream.
+     */
+    private CountingInputStream inputCounter;
+
+    private boolean holdsValidationPermit = false;
+
+    /**
+     * Settings the checkers and datatypes read during this transaction's
+     * parse. Language detection starts out as the JVM-wide setting and may
+     * be switched off for the request with <code>disablecheckers</code>.
+     */
+    private final ValidationScope validationScope = newValidationScope();
+
     protected final HttpServletRequest request;
 
     private final HttpServletResponse response;
@@ -305,6 +348,8 @@ class VerifierServletTransaction implements DocumentModeHandler, SchemaResolver
 
     private static Schema[] preloadedSchemas;
 
+    private static EntityResolver pipelineEntityResolver;
+
     private final static String cannotRecover = "Cannot recover after last"
             + " error. Any further errors will be ignored.";
 
@@ -338,6 +383,45 @@ class VerifierServletTransaction implements DocumentModeHandler, SchemaResolver
     private static final long SIZE_LIMIT = Integer.parseInt(System.getProperty(
             "nu.validator.servlet.max-file-size", "2097152"));
 
+    private static final boolean LANGUAGE_DETECTION = !"0".equals(
+            System.getProperty("nu.validator.checker.enableLangDetection"));
+
+    private static final int JSON_FLUSH_INTERVAL = Integer.parseInt(System.getProperty(
+            "nu.validator.servlet.json-flush-interval", "100"));
+
+    private static final int STARTUP_THREADS = Integer.parseInt(System.getProperty(
+            "nu.validator.servlet.startup-threads",
+            Integer.toString(Runtime.getRuntime().availableProcessors())));
+
+    private static final int MAX_CONCURRENT_VALIDATIONS = Integer.parseInt(
+            System.getProperty(
+                    "nu.validator.servlet.max-concurrent-validations",
+                    "virtual".equals(System.getProperty(
+                            "nu.validator.servlet.executor"))
+                                    ? Integer.toString(Runtime.getRuntime().availableProcessors())
+                                    : "0"));
+
+    /**
+     * Bounds how many documents are parsed and validated at once, or
+     * <code>null</code> for no bound. Defaults to the number of processors
+     * when requests run on virtual threads, since nothing else then limits
+     * how many requests compete for CPU.
+     */
+    private static final Semaphore VALIDATION_PERMITS = newValidationPermits(
+            MAX_CONCURRENT_VALIDATIONS);
+
+    /**
+     * Bounds how many documents are read into memory ahead of their turn
+     * while validation is bounded, or <code>null</code> when documents are
+     * only read once they have a validation permit.
+     */
+    private static final Semaphore READ_AHEAD_PERMITS = newValidationPermits(
+            MAX_CONCURRENT_VALIDATIONS > 0 ? Integer.parseInt(
+                    System.getProperty(
+                            "nu.validator.servlet.max-waiting-validations",
+                            Integer.toString(2 * MAX_CONCURRENT_VALIDATIONS)))
+                    : 0);
+
     private static String systemFilterString = "";
 
     private final static String FILTER_FILE = System.getProperty(
@@ -370,6 +454,10 @@ class VerifierServletTransaction implements DocumentModeHandler, SchemaResolver
 
     private Set<String> loadedValidatorUrls = new HashSet<>();
 
+    private List<ValidatorPipeline> checkedOutPipelines = new ArrayList<>();
+
+    private boolean pipelinesReusable = true;
+
     private boolean checkNormalization = false;
 
     private boolean rootNamespaceSeen = false;
@@ -390,6 +478,11 @@ class VerifierServletTransaction implements DocumentModeHandler, SchemaResolver
 
     private boolean showOutline;
 
+    private Timings timings;
+
+    private EnumSet<OptionalChecker> disabledCheckers = EnumSet.noneOf(
+            OptionalChecker.class);
+
     private boolean checkErrorPages;
 
     private boolean schemaIsDefault;
@@ -503,90 +596,145 @@ class VerifierServletTransaction implements DocumentModeHandler, SchemaResolver
             RngProperty.CHECK_ID_IDREF.add(pmb);
             PropertyMap pMap = pmb.toPropertyMap();
 
-            log4j.debug("Parsing set up. Starting to read schemas.");
-
-            SortedMap<String, Schema> schemaMap = new TreeMap<>();
-
-            schemaMap.put("http://c.validator.nu/table/",
-                    CheckerSchema.TABLE_CHECKER);
-            schemaMap.put("http://hsivonen.iki.fi/checkers/table/",
-                    CheckerSchema.TABLE_CHECKER);
-            schemaMap.put("http://c.validator.nu/nfc/",
-                    CheckerSchema.NORMALIZATION_CHECKER);
-            schemaMap.put("http://hsivonen.iki.fi/checkers/nfc/",
-                    CheckerSchema.NORMALIZATION_CHECKER);
-            schemaMap.put("http://c.validator.nu/debug/",
-                    CheckerSchema.DEBUG_CHECKER);
-            schemaMap.put("http://hsivonen.iki.fi/checkers/debug/",
-                    CheckerSchema.DEBUG_CHECKER);
-            schemaMap.put("http://c.validator.nu/text-content/",
-                    CheckerSchema.TEXT_CONTENT_CHECKER);
-            schemaMap.put("http://hsivonen.iki.fi/checkers/text-content/",
-                    CheckerSchema.TEXT_CONTENT_CHECKER);
-            schemaMap.put("http://c.validator.nu/usemap/",
-                    CheckerSchema.USEMAP_CHECKER);
-            schemaMap.put("http://n.validator.nu/checkers/usemap/",
-                    CheckerSchema.USEMAP_CHECKER);
-            schemaMap.put("http://c.validator.nu/unchecked/",
-                    CheckerSchema.UNCHECKED_SUBTREE_WARNER);
-            schemaMap.put("http://s.validator.nu/html5/assertions.sch",
-                    CheckerSchema.ASSERTION_SCH);
-            schemaMap.put("http://c.validator.nu/obsolete/",
-                    CheckerSchema.CONFORMING_BUT_OBSOLETE_WARNER);
-            schemaMap.put("http://c.validator.nu/xml-pi/",
-                    CheckerSchema.XML_PI_CHECKER);
-            schemaMap.put("http://c.validator.nu/unsupported/",
-                    CheckerSchema.UNSUPPORTED_CHECKER);
-            schemaMap.put("http://c.validator.nu/microdata/",
-                    CheckerSchema.MICRODATA_CHECKER);
-            schemaMap.put("http://c.validator.nu/rdfalite/",
-                    CheckerSchema.RDFALITE_CHECKER);
-            schemaMap.put("http://c.validator.nu/langdetect/",
-                    CheckerSchema.LANGUAGE_DETECTING_CHECKER);
-
-            for (String presetUrl : presetUrls) {
-                for (String url : SPACE.split(presetUrl)) {
-                    if (schemaMap.get(url) == null && !isCheckerUrl(url)) {
-                        Schema sch = schemaByUrl(url, er, pMap);
-                        schemaMap.put(url, sch);
-                    }
-                }
-            }
+            pipelineEntityResolver = er;
 
-            log4j.debug("Schemas read.");
+            // Parsing the spec, loading the language profiles and compiling
+            // the schemas are independent of each other and dominate
+            // startup, so they run concurrently.
+            ExecutorService startupExecutor = Executors.newFixedThreadPool(
+                    STARTUP_THREADS);
 
-            preloadedSchemaUrls = new String[schemaMap.size()];
-            preloadedSchemas = new Schema[schemaMap.size()];
-            int i = 0;
-            for (Map.Entry<String, Schema> entry : schemaMap.entrySet()) {
-                preloadedSchemaUrls[i] = entry.getKey().intern();
-                Schema s = entry.getValue();
-                String u = entry.getKey();
-                if (isDataAttributeDroppingSchema(u)) {
-                    s = new DataAttributeDroppingSchemaWrapper(
-                            s);
-                }
-                if (isXmlLangAllowingSchema(u)) {
-                    s = new XmlLangAttributeDroppingSchemaWrapper(s);
+            try {
+                log4j.debug("Starting to read spec.");
+
+                Future<Spec> specFuture = startupExecutor.submit(
+                        new Callable<Spec>() {
+                            @Override
+                            public Spec call() throws Exception {
+                                // The build precompiles the spec into an index;
+                                // parse the spec itself only if the index is
+                                // missing.
+                                InputStream index = LocalCacheEntityResolver.getHtml5SpecIndexAsStream();
+                                if (index != null) {
+                                    return Html5SpecIndex.load(index);
+                                }
+                                return Html5SpecBuilder.parseSpec(
+                                        LocalCacheEntityResolver.getHtml5SpecAsStream());
+                            }
+                        });
+
+                // Loaded here so that the first document long enough for
+                // language detection does not have to wait for the profiles.
+                Future<?> languageProfilesFuture = null;
+                if (LANGUAGE_DETECTION) {
+                    languageProfilesFuture = startupExecutor.submit(
+                            new Runnable() {
+                                @Override
+                                public void run() {
+                                    LanguageDetectingChecker.loadProfiles();
+                                }
+                            });
                 }
-                if (isRoleAttributeFilteringSchema(u)) {
-                    s = new RoleAttributeFilteringSchemaWrapper(s);
+
+                log4j.debug("Parsing set up. Starting to read schemas.");
+
+                SortedMap<String, Schema> schemaMap = new TreeMap<>();
+
+                schemaMap.put("http://c.validator.nu/table/",
+                        CheckerSchema.TABLE_CHECKER);
+                schemaMap.put("http://hsivonen.iki.fi/checkers/table/",
+                        CheckerSchema.TABLE_CHECKER);
+                schemaMap.put("http://c.validator.nu/nfc/",
+                        CheckerSchema.NORMALIZATION_CHECKER);
+                schemaMap.put("http://hsivonen.iki.fi/checkers/nfc/",
+                        CheckerSchema.NORMALIZATION_CHECKER);
+                schemaMap.put("http://c.validator.nu/debug/",
+                        CheckerSchema.DEBUG_CHECKER);
+                schemaMap.put("http://hsivonen.iki.fi/checkers/debug/",
+                        CheckerSchema.DEBUG_CHECKER);
+                schemaMap.put("http://c.validator.nu/text-content/",
+                        CheckerSchema.TEXT_CONTENT_CHECKER);
+                schemaMap.put("http://hsivonen.iki.fi/checkers/text-content/",
+                        CheckerSchema.TEXT_CONTENT_CHECKER);
+                schemaMap.put("http://c.validator.nu/usemap/",
+                        CheckerSchema.USEMAP_CHECKER);
+                schemaMap.put("http://n.validator.nu/checkers/usemap/",
+                        CheckerSchema.USEMAP_CHECKER);
+                schemaMap.put("http://c.validator.nu/unchecked/",
+                        CheckerSchema.UNCHECKED_SUBTREE_WARNER);
+                schemaMap.put("http://s.validator.nu/html5/assertions.sch",
+                        CheckerSchema.ASSERTION_SCH);
+                schemaMap.put("http://c.validator.nu/obsolete/",
+                        CheckerSchema.CONFORMING_BUT_OBSOLETE_WARNER);
+                schemaMap.put("http://c.validator.nu/xml-pi/",
+                        CheckerSchema.XML_PI_CHECKER);
+                schemaMap.put("http://c.validator.nu/unsupported/",
+                        CheckerSchema.UNSUPPORTED_CHECKER);
+                schemaMap.put("http://c.validator.nu/microdata/",
+                        CheckerSchema.MICRODATA_CHECKER);
+                schemaMap.put("http://c.validator.nu/rdfalite/",
+                        CheckerSchema.RDFALITE_CHECKER);
+                schemaMap.put("http://c.validator.nu/langdetect/",
+                        CheckerSchema.LANGUAGE_DETECTING_CHECKER);
+
+                Map<String, Future<Schema>> schemaFutures = new HashMap<>();
+                for (String presetUrl : presetUrls) {
+                    for (String url : SPACE.split(presetUrl)) {
+                        if (schemaMap.get(url) == null && !isCheckerUrl(url)
+                                && !schemaFutures.containsKey(url)) {
+                            schemaFutures.put(url, startupExecutor.submit(
+                                    new PresetSchemaTask(url, er, pMap)));
+                        }
+                    }
                 }
-                if (isTemplateElementDroppingSchema(u)) {
-                    s = new TemplateElementDroppingSchemaWrapper(s);
+                for (Map.Entry<String, Future<Schema>> entry : schemaFutures.entrySet()) {
+                    schemaMap.put(entry.getKey(),
+                            awaitStartupTask(entry.getValue()));
                 }
-                if (isCustomElementNamespaceChangingSchema(u)) {
-                    s = new NamespaceChangingSchemaWrapper(s);
+
+                log4j.debug("Schemas read.");
+
+                preloadedSchemaUrls = new String[schemaMap.size()];
+                preloadedSchemas = new Schema[schemaMap.size()];
+                int i = 0;
+                for (Map.Entry<String, Schema> entry : schemaMap.entrySet()) {
+                    preloadedSchemaUrls[i] = entry.getKey().intern();
+                    Schema s = entry.getValue();
+                    String u = entry.getKey();
+                    if (isDataAttributeDroppingSchema(u)) {
+                        s = new DataAttributeDroppingSchemaWrapper(
+                                s);
+                    }
+                    if (isXmlLangAllowingSchema(u)) {
+                        s = new XmlLangAttributeDroppingSchemaWrapper(s);
+                    }
+                    if (isRoleAttributeFilteringSchema(u)) {
+                        s = new RoleAttributeFilteringSchemaWrapper(s);
+                    }
+                    if (isTemplateElementDroppingSchema(u)) {
+                        s = new TemplateElementDroppingSchemaWrapper(s);
+                    }
+                    if (isCustomElementNamespaceChangingSchema(u)) {
+                        s = new NamespaceChangingSchemaWrapper(s);
+                    }
+                    preloadedSchemas[i] = s;
+                    i++;
                 }
-                preloadedSchemas[i] = s;
-                i++;
-            }
 
-            log4j.debug("Reading spec.");
+                log4j.debug("Reading spec.");
+
+                html5spec = awaitStartupTask(specFuture);
+
+                log4j.debug("Spec read.");
 
-            html5spec = Html5SpecBuilder.parseSpec(LocalCacheEntityResolver.getHtml5SpecAsStream());
+                if (languageProfilesFuture != null) {
+                    awaitStartupTask(languageProfilesFuture);
 
-            log4j.debug("Spec read.");
+                    log4j.debug("Language profiles loaded.");
+                }
+            } finally {
+                startupExecutor.shutdown();
+            }
 
             if (new File(FILTER_FILE).isFile()) {
                 log4j.debug("Reading filter file " + FILTER_FILE);
@@ -619,6 +767,20 @@ class VerifierServletTransaction implements DocumentModeHandler, SchemaResolver
         }
     }
 
+    private static <T> T awaitStartupTask(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
     @SuppressWarnings("deprecation")
     protected static String scrub(CharSequence s) {
         return Normalizer.normalize(
@@ -753,6 +915,8 @@ class VerifierServletTransaction implements DocumentModeHandler, SchemaResolver
                 outputFormat = OutputFormat.XML;
             } else if ("json".equals(outFormat)) {
                 outputFormat = OutputFormat.JSON;
+            } else if ("ndjson".equals(outFormat)) {
+                outputFormat = OutputFormat.NDJSON;
             } else {
                 response.sendError(HttpServletResponse.SC_BAD_REQUEST,
                         "Unsupported output format");
@@ -760,6 +924,22 @@ class VerifierServletTransaction implements DocumentModeHandler, SchemaResolver
             }
         }
 
+        String disableCheckers = request.getParameter("disablecheckers");
+        if (disableCheckers != null) {
+            try {
+                disabledCheckers = OptionalChecker.parse(disableCheckers);
+            } catch (IllegalArgumentException e) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                        "Unknown checker");
+                return;
+            }
+            validationScope.setLanguageDetection(LANGUAGE_DETECTION
+                    && !disabledCheckers.contains(
+                            OptionalChecker.LANGUAGE_DETECTION));
+            validationScope.setInlineCss(!disabledCheckers.contains(
+                    OptionalChecker.INLINE_CSS));
+        }
+
         if (!methodIsGet) {
             document = request.getHeader("Content-Location");
         }
@@ -864,7 +1044,9 @@ class VerifierServletTransaction implements DocumentModeHandler, SchemaResolver
         }
         Pattern filterPattern = null;
         if (!"".equals(filterString)) {
-            filterPattern = Pattern.compile(filterString);
+            // Reuses the filter built for earlier requests with the same
+            // filter file and parameters.
+            filterPattern = MessageFilter.get(filterString).pattern();
         }
         if (request.getParameter("useragent") != null) {
             userAgent = scrub(request.getParameter("useragent"));
@@ -880,12 +1062,23 @@ class VerifierServletTransaction implements DocumentModeHandler, SchemaResolver
         showSource = (request.getParameter("showsource") != null);
         showSource = (showSource || "textarea".equals(inputType));
         showOutline = (request.getParameter("showoutline") != null);
+        if (parser == ParserMode.HTML_PARSER_ONLY) {
+            // nothing but the parser sees the document
+            showSource = false;
+            showOutline = false;
+        }
+        if (request.getParameter("timings") != null
+                && (outputFormat == OutputFormat.JSON
+                        || outputFormat == OutputFormat.NDJSON)) {
+            timings = new Timings();
+        }
         if (request.getParameter("checkerrorpages") != null) {
             request.setAttribute(
                     "http://validator.nu/properties/ignore-response-status",
                     true);
         }
-        if (request.getParameter("showimagereport") != null) {
+        if (request.getParameter("showimagereport") != null
+                && parser != ParserMode.HTML_PARSER_ONLY) {
             imageCollector = new ImageCollector(sourceCode);
         }
 
@@ -928,6 +1121,26 @@ class VerifierServletTransaction implements DocumentModeHandler, SchemaResolver
             }
         }
 
+        int failFast = 0;
+        String failFastStr = request.getParameter("failfast");
+        if (failFastStr != null) {
+            if (failFastStr.isEmpty()) {
+                // a bare failfast parameter stops at the first error
+                failFast = 1;
+            } else {
+                try {
+                    failFast = Integer.parseInt(failFastStr);
+                } catch (NumberFormatException e) {
+                    failFast = 0;
+                }
+                if (failFast < 1) {
+                    response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                            "Invalid failfast value");
+                    return;
+                }
+            }
+        }
+
         try {
             if (outputFormat == OutputFormat.HTML
                     || outputFormat == OutputFormat.XHTML) {
@@ -943,6 +1156,7 @@ class VerifierServletTransaction implements DocumentModeHandler, SchemaResolver
                 errorHandler = new MessageEmitterAdapter(filterPattern,
                         sourceCode, showSource, imageCollector, lineOffset,
                         false, new XhtmlMessageEmitter(contentHandler));
+                errorHandler.setFailFast(failFast, false);
                 PageEmitter.emit(contentHandler, this);
             } else {
                 if (outputFormat == OutputFormat.TEXT) {
@@ -970,11 +1184,25 @@ class VerifierServletTransaction implements DocumentModeHandler, SchemaResolver
                             sourceCode, showSource, null, lineOffset, false,
                             new JsonMessageEmitter(
                                     new nu.validator.json.Serializer(out),
-                                    callback, asciiQuotes));
+                                    callback, asciiQuotes, false,
+                                    JSON_FLUSH_INTERVAL));
+                } else if (outputFormat == OutputFormat.NDJSON) {
+                    response.setContentType("application/x-ndjson; charset=utf-8");
+                    errorHandler = new MessageEmitterAdapter(filterPattern,
+                            sourceCode, showSource, null, lineOffset, false,
+                            new JsonMessageEmitter(
+                                    new nu.validator.json.Serializer(out, true),
+                                    null, asciiQuotes, true,
+                                    JSON_FLUSH_INTERVAL));
+                    // Every message goes straight out, so there is no
+                    // need to cap how many there are.
+                    errorHandler.setMessageLimit(0);
                 } else {
                     throw new RuntimeException("Unreachable.");
                 }
                 errorHandler.setErrorsOnly(errorsOnly);
+                errorHandler.setFailFast(failFast, false);
+                errorHandler.setTimings(timings, true);
                 validate();
             }
         } catch (SAXException e) {
@@ -1007,6 +1235,8 @@ class VerifierServletTransaction implements DocumentModeHandler, SchemaResolver
             parser = ParserMode.XML_NO_EXTERNAL_ENTITIES;
         } else if ("html5".equals(parserStr)) {
             parser = ParserMode.HTML;
+        } else if ("html-parser-only".equals(parserStr)) {
+            parser = ParserMode.HTML_PARSER_ONLY;
         } // else auto
 
         laxType = (request.getParameter("laxtype") != null);
@@ -1061,6 +1291,7 @@ class VerifierServletTransaction implements DocumentModeHandler, SchemaResolver
         entityResolver = new LocalCacheEntityResolver(dataRes);
         setAllowRnc(true);
         setAllowCss(true);
+        validateStartNanos = System.nanoTime();
         try {
             this.errorHandler.start(document);
             PropertyMapBuilder pmb = new PropertyMapBuilder();
@@ -1073,7 +1304,9 @@ class VerifierServletTransaction implements DocumentModeHandler, SchemaResolver
             RngProperty.CHECK_ID_IDREF.add(pmb);
             jingPropertyMap = pmb.toPropertyMap();
 
-            tryToSetupValidator();
+            if (parser != ParserMode.HTML_PARSER_ONLY) {
+                tryToSetupValidator();
+            }
 
             setAllowRnc(false);
 
@@ -1100,46 +1333,55 @@ class VerifierServletTransaction implements DocumentModeHandler, SchemaResolver
             }
             reader.setErrorHandler(errorHandler);
             sourceCode.initialize(documentInput);
-            if (validator == null) {
-                checkNormalization = true;
-            }
-            if (checkNormalization) {
-                reader.setFeature(
-                        "http://xml.org/sax/features/unicode-normalization-checking",
-                        true);
-            }
-            WiretapXMLReaderWrapper wiretap = new WiretapXMLReaderWrapper(
-                    reader);
-            ContentHandler recorder = sourceCode.getLocationRecorder();
-            if (baseUriTracker == null) {
-                wiretap.setWiretapContentHander(recorder);
-            } else {
-                wiretap.setWiretapContentHander(new CombineContentHandler(
-                        recorder, baseUriTracker));
-            }
-            wiretap.setWiretapLexicalHandler((LexicalHandler) recorder);
-            reader = wiretap;
-            if (htmlParser != null) {
-                htmlParser.addCharacterHandler(sourceCode);
-                htmlParser.setMappingLangToXmlLang(true);
+            if (parser == ParserMode.HTML_PARSER_ONLY) {
+                // no validator, wiretap or character handler: the parser
+                // reports errors and the source code retains nothing
+                errorHandler.setSourceRetained(false);
                 htmlParser.setErrorHandler(errorHandler.getExactErrorHandler());
                 htmlParser.setTreeBuilderErrorHandlerOverride(errorHandler);
                 errorHandler.setHtml(true);
-            } else if (xmlParser != null) {
-                // this must be after wiretap!
-                if (!filteredNamespaces.isEmpty()) {
-                    reader = new NamespaceDroppingXMLReaderWrapper(reader,
-                            filteredNamespaces);
-                }
-                xmlParser.setErrorHandler(errorHandler.getExactErrorHandler());
-                xmlParser.lockErrorHandler();
             } else {
-                throw new RuntimeException("Bug. Unreachable.");
+                if (validator == null) {
+                    checkNormalization = true;
+                }
+                if (checkNormalization) {
+                    reader.setFeature(
+                            "http://xml.org/sax/features/unicode-normalization-checking",
+                            true);
+                }
+                WiretapXMLReaderWrapper wiretap = new WiretapXMLReaderWrapper(
+                        reader);
+                ContentHandler recorder = sourceCode.getLocationRecorder();
+                if (baseUriTracker == null) {
+                    wiretap.setWiretapContentHander(recorder);
+                } else {
+                    wiretap.setWiretapContentHander(new CombineContentHandler(
+                            recorder, baseUriTracker));
+                }
+                wiretap.setWiretapLexicalHandler((LexicalHandler) recorder);
+                reader = wiretap;
+                if (htmlParser != null) {
+                    htmlParser.addCharacterHandler(sourceCode);
+                    htmlParser.setMappingLangToXmlLang(true);
+                    htmlParser.setErrorHandler(errorHandler.getExactErrorHandler());
+                    htmlParser.setTreeBuilderErrorHandlerOverride(errorHandler);
+                    errorHandler.setHtml(true);
+                } else if (xmlParser != null) {
+                    // this must be after wiretap!
+                    if (!filteredNamespaces.isEmpty()) {
+                        reader = new NamespaceDroppingXMLReaderWrapper(reader,
+                                filteredNamespaces);
+                    }
+                    xmlParser.setErrorHandler(errorHandler.getExactErrorHandler());
+                    xmlParser.lockErrorHandler();
+                } else {
+                    throw new RuntimeException("Bug. Unreachable.");
+                }
+                reader = new AttributesPermutingXMLReaderWrapper(reader); // make
+                // RNG
+                // validation
+                // better
             }
-            reader = new AttributesPermutingXMLReaderWrapper(reader); // make
-            // RNG
-            // validation
-            // better
             if (charsetOverride != null) {
                 String charset = documentInput.getEncoding();
                 if (charset == null) {
@@ -1158,12 +1400,50 @@ class VerifierServletTransaction implements DocumentModeHandler, SchemaResolver
                 reader = new OutlineBuildingXMLReaderWrapper(reader, request, false);
                 reader = new OutlineBuildingXMLReaderWrapper(reader, request, true);
             }
-            reader.parse(documentInput);
+            if (Statistics.STATISTICS != null
+                    && documentInput.getByteStream() != null) {
+                inputCounter = new CountingInputStream(
+                        documentInput.getByteStream());
+                documentInput.setByteStream(inputCounter);
+            }
+            if (READ_AHEAD_PERMITS != null) {
+                // Read the whole document first, so that a slow origin
+                // server holds up only this request and not a validation
+                // permit. The read-ahead permit bounds how many documents
+                // wait in memory.
+                READ_AHEAD_PERMITS.acquireUninterruptibly();
+                try {
+                    bufferDocument();
+                    VALIDATION_PERMITS.acquireUninterruptibly();
+                    holdsValidationPermit = true;
+                } finally {
+                    READ_AHEAD_PERMITS.release();
+                }
+            } else if (VALIDATION_PERMITS != null) {
+                VALIDATION_PERMITS.acquireUninterruptibly();
+                holdsValidationPermit = true;
+            }
+            parseStartNanos = System.nanoTime();
+            if (timings != null && documentInput.getByteStream() != null) {
+                documentInput.setByteStream(timings.wrap(
+                        documentInput.getByteStream(), Timings.FETCH));
+            }
+            ValidationScope previousScope = validationScope.enter();
+            enterStage(Timings.PARSE);
+            try {
+                reader.parse(documentInput);
+            } finally {
+                exitStage();
+                validationScope.exit(previousScope);
+            }
             if (showOutline) {
                 outline = (Deque<Section>) request.getAttribute(
                         "http://validator.nu/properties/document-outline");
                 headingOutline = (Deque<Section>) request.getAttribute(
                         "http://validator.nu/properties/heading-outline");
+                errorHandler.setOutlines(outline, headingOutline,
+                        request.getAttribute(
+                                "http://validator.nu/properties/outline-truncated") != null);
             }
         } catch (CannotFindPresetSchemaException e) {
         } catch (ResourceNotRetrievableException e) {
@@ -1176,6 +1456,8 @@ class VerifierServletTransaction implements DocumentModeHandler, SchemaResolver
             errorHandler.ioError(new IOException(e.getMessage(), null));
         } catch (ConnectTimeoutException e) {
             errorHandler.ioError(new IOException(e.getMessage(), null));
+        } catch (FailFastException e) {
+            errorHandler.info(e.getMessage());
         } catch (TooManyErrorsException e) {
             errorHandler.fatalError(e);
         } catch (SAXException e) {
@@ -1195,6 +1477,7 @@ class VerifierServletTransaction implements DocumentModeHandler, SchemaResolver
             errorHandler.schemaError(e);
         } catch (RuntimeException e) {
             isHtmlOrXhtml = false;
+            pipelinesReusable = false;
             log4j.error("RuntimeException, doc: " + document + " schema: "
                     + schemaUrls + " lax: " + laxType, e);
             errorHandler.internalError(
@@ -1202,16 +1485,24 @@ class VerifierServletTransaction implements DocumentModeHandler, SchemaResolver
                     "Oops. That was not supposed to happen. A bug manifested itself in the application internals. Unable to continue. Sorry. The admin was notified.");
         } catch (Error e) {
             isHtmlOrXhtml = false;
+            pipelinesReusable = false;
             log4j.error("Error, doc: " + document + " schema: " + schemaUrls
                     + " lax: " + laxType, e);
             errorHandler.internalError(
                     e,
                     "Oops. That was not supposed to happen. A bug manifested itself in the application internals. Unable to continue. Sorry. The admin was notified.");
         } finally {
+            if (holdsValidationPermit) {
+                holdsValidationPermit = false;
+                VALIDATION_PERMITS.release();
+            }
+            emitStartNanos = System.nanoTime();
             errorHandler.end(successMessage(), failureMessage(),
                     (String) request.getAttribute(
                             "http://validator.nu/properties/document-language"));
+            emitEndNanos = System.nanoTime();
             gatherStatistics();
+            releaseValidatorPipelines();
         }
         if (isHtmlOrXhtml) {
             XhtmlOutlineEmitter outlineEmitter = new XhtmlOutlineEmitter(
@@ -1223,252 +1514,331 @@ class VerifierServletTransaction implements DocumentModeHandler, SchemaResolver
         }
     }
 
+    private void enterStage(String name) {
+        if (timings != null) {
+            timings.enter(timings.stage(name));
+        }
+    }
+
+    private void exitStage() {
+        if (timings != null) {
+            timings.exit();
+        }
+    }
+
+    private static ValidationScope newValidationScope() {
+        ValidationScope scope = new ValidationScope();
+        scope.setLanguageDetection(LANGUAGE_DETECTION);
+        return scope;
+    }
+
+    private static Semaphore newValidationPermits(int permits) {
+        return permits > 0 ? new Semaphore(permits, true) : null;
+    }
+
+    /**
+     * Replaces the byte stream of the document with an in-memory copy.
+     */
+    private void bufferDocument() throws IOException {
+        InputStream in = documentInput.getByteStream();
+        if (in == null) {
+            return;
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int len;
+        while ((len = in.read(chunk)) != -1) {
+            buffer.write(chunk, 0, len);
+        }
+        in.close();
+        documentInput.setByteStream(
+                new ByteArrayInputStream(buffer.toByteArray()));
+    }
+
+    /**
+     * Returns the pipelines checked out by this transaction to the pool,
+     * unless validation blew up in a way that may have left them in an
+     * inconsistent state.
+     */
+    private void releaseValidatorPipelines() {
+        for (ValidatorPipeline pipeline : checkedOutPipelines) {
+            if (pipelinesReusable) {
+                ValidatorPipeline.checkIn(pipeline);
+            }
+        }
+        checkedOutPipelines.clear();
+    }
+
+    private void gatherTimings(Statistics stats, Statistics.Field inputType) {
+        if (validateStartNanos == 0 || emitEndNanos == 0) {
+            return;
+        }
+        long setupEndNanos = parseStartNanos == 0 ? emitStartNanos
+                : parseStartNanos;
+        stats.record(Statistics.Metric.SETUP_TIME, inputType,
+                (setupEndNanos - validateStartNanos) / 1000);
+        if (parseStartNanos != 0) {
+            stats.record(Statistics.Metric.PARSE_TIME, inputType,
+                    (emitStartNanos - parseStartNanos) / 1000);
+        }
+        stats.record(Statistics.Metric.EMIT_TIME, inputType,
+                (emitEndNanos - emitStartNanos) / 1000);
+        if (inputCounter != null) {
+            stats.record(Statistics.Metric.BYTES_IN, inputType,
+                    inputCounter.getCount());
+        }
+    }
+
     private void gatherStatistics() {
         Statistics stats = Statistics.STATISTICS;
         if (stats == null) {
             return;
         }
-        synchronized (stats) {
-            stats.incrementTotal();
-            if (charsetOverride != null) {
-                stats.incrementField(Statistics.Field.CUSTOM_ENC);
-            }
-            switch (parser) {
-                case XML_EXTERNAL_ENTITIES_NO_VALIDATION:
-                    stats.incrementField(Statistics.Field.PARSER_XML_EXTERNAL);
-                    break;
-                case AUTO:
-                case HTML:
-                case XML_NO_EXTERNAL_ENTITIES:
-                default:
+        stats.incrementTotal();
+        if (charsetOverride != null) {
+            stats.incrementField(Statistics.Field.CUSTOM_ENC);
+        }
+        switch (parser) {
+            case XML_EXTERNAL_ENTITIES_NO_VALIDATION:
+                stats.incrementField(Statistics.Field.PARSER_XML_EXTERNAL);
+                break;
+            case AUTO:
+            case HTML:
+            case XML_NO_EXTERNAL_ENTITIES:
+            default:
+                break;
+        }
+        if (!filteredNamespaces.isEmpty()) {
+            stats.incrementField(Statistics.Field.XMLNS_FILTER);
+        }
+        if (laxType) {
+            stats.incrementField(Statistics.Field.LAX_TYPE);
+        }
+        if (aboutLegacyCompat) {
+            stats.incrementField(Statistics.Field.ABOUT_LEGACY_COMPAT);
+        }
+        if (xhtml1Doctype) {
+            stats.incrementField(Statistics.Field.XHTML1_DOCTYPE);
+        }
+        if (html4Doctype) {
+            stats.incrementField(Statistics.Field.HTML4_DOCTYPE);
+        }
+        if (imageCollector != null) {
+            stats.incrementField(Statistics.Field.IMAGE_REPORT);
+        }
+        if (showSource) {
+            stats.incrementField(Statistics.Field.SHOW_SOURCE);
+        }
+        if (showOutline) {
+            stats.incrementField(Statistics.Field.SHOW_OUTLINE);
+        }
+        if (methodIsGet) {
+            stats.incrementField(Statistics.Field.INPUT_GET);
+        } else { // POST
+            stats.incrementField(Statistics.Field.INPUT_POST);
+            Object inputType = request.getAttribute("nu.validator.servlet.MultipartFormDataFilter.type");
+            if ("textarea".equals(inputType)) {
+                stats.incrementField(Statistics.Field.INPUT_TEXT_FIELD);
+            } else if ("file".equals(inputType)) {
+                stats.incrementField(Statistics.Field.INPUT_FILE_UPLOAD);
+            } else {
+                stats.incrementField(Statistics.Field.INPUT_ENTITY_BODY);
+            }
+        }
+        Statistics.Field inputType;
+        if (documentInput != null
+                && "text/css".equals(documentInput.getType())) {
+            inputType = Statistics.Field.INPUT_CSS;
+        } else if (documentInput != null
+                && "image/svg+xml".equals(documentInput.getType())) {
+            inputType = Statistics.Field.INPUT_SVG;
+        } else if (htmlParser != null) {
+            inputType = Statistics.Field.INPUT_HTML;
+        } else if (xmlParser != null) {
+            inputType = Statistics.Field.INPUT_XML;
+        } else {
+            inputType = Statistics.Field.INPUT_UNSUPPORTED;
+        }
+        stats.incrementField(inputType);
+        gatherTimings(stats, inputType);
+        switch (outputFormat) {
+            case GNU:
+                stats.incrementField(Statistics.Field.OUTPUT_GNU);
+                break;
+            case HTML:
+                stats.incrementField(Statistics.Field.OUTPUT_HTML);
+                break;
+            case JSON:
+                stats.incrementField(Statistics.Field.OUTPUT_JSON);
+                break;
+            case NDJSON:
+                stats.incrementField(Statistics.Field.OUTPUT_NDJSON);
+                break;
+            case TEXT:
+                stats.incrementField(Statistics.Field.OUTPUT_TEXT);
+                break;
+            case XHTML:
+                stats.incrementField(Statistics.Field.OUTPUT_XHTML);
+                break;
+            case XML:
+                stats.incrementField(Statistics.Field.OUTPUT_XML);
+                break;
+            case RELAXED:
+            case SOAP:
+            case UNICORN:
+            default:
+                break;
+        }
+        if (schemaListForStats == null) {
+            stats.incrementField(Statistics.Field.LOGIC_ERROR);
+        } else {
+            boolean preset = false;
+            for (int i = 0; i < presetUrls.length; i++) {
+                if (presetUrls[i].equals(schemaListForStats)) {
+                    preset = true;
+                    if (externalSchema || externalSchematron) {
+                        stats.incrementField(Statistics.Field.LOGIC_ERROR);
+                    } else {
+                        stats.incrementField(Statistics.Field.PRESET_SCHEMA);
+                        /*
+                         * XXX WARNING WARNING: These mappings correspond to
+                         * values in the presets.txt file in the validator
+                         * source repo. They might be bogus if a custom
+                         * presets file is used instead.
+                         */
+                        switch (i) {
+                            case 0:
+                            case 5:
+                                stats.incrementField(Statistics.Field.HTML5_SCHEMA);
+                                break;
+                            case 1:
+                            case 6:
+                                stats.incrementField(Statistics.Field.HTML5_RDFA_LITE_SCHEMA);
+                                break;
+                            case 2:
+                                stats.incrementField(Statistics.Field.HTML4_STRICT_SCHEMA);
+                                break;
+                            case 3:
+                                stats.incrementField(Statistics.Field.HTML4_TRANSITIONAL_SCHEMA);
+                                break;
+                            case 4:
+                                stats.incrementField(Statistics.Field.HTML4_FRAMESET_SCHEMA);
+                                break;
+                            case 7:
+                                stats.incrementField(Statistics.Field.XHTML1_COMPOUND_SCHEMA);
+                                break;
+                            case 8:
+                                stats.incrementField(Statistics.Field.SVG_SCHEMA);
+                                break;
+                            default:
+                                stats.incrementField(Statistics.Field.LOGIC_ERROR);
+                                break;
+                        }
+                    }
                     break;
-            }
-            if (!filteredNamespaces.isEmpty()) {
-                stats.incrementField(Statistics.Field.XMLNS_FILTER);
-            }
-            if (laxType) {
-                stats.incrementField(Statistics.Field.LAX_TYPE);
-            }
-            if (aboutLegacyCompat) {
-                stats.incrementField(Statistics.Field.ABOUT_LEGACY_COMPAT);
-            }
-            if (xhtml1Doctype) {
-                stats.incrementField(Statistics.Field.XHTML1_DOCTYPE);
-            }
-            if (html4Doctype) {
-                stats.incrementField(Statistics.Field.HTML4_DOCTYPE);
-            }
-            if (imageCollector != null) {
-                stats.incrementField(Statistics.Field.IMAGE_REPORT);
-            }
-            if (showSource) {
-                stats.incrementField(Statistics.Field.SHOW_SOURCE);
-            }
-            if (showOutline) {
-                stats.incrementField(Statistics.Field.SHOW_OUTLINE);
-            }
-            if (methodIsGet) {
-                stats.incrementField(Statistics.Field.INPUT_GET);
-            } else { // POST
-                stats.incrementField(Statistics.Field.INPUT_POST);
-                Object inputType = request.getAttribute("nu.validator.servlet.MultipartFormDataFilter.type");
-                if ("textarea".equals(inputType)) {
-                    stats.incrementField(Statistics.Field.INPUT_TEXT_FIELD);
-                } else if ("file".equals(inputType)) {
-                    stats.incrementField(Statistics.Field.INPUT_FILE_UPLOAD);
-                } else {
-                    stats.incrementField(Statistics.Field.INPUT_ENTITY_BODY);
                 }
             }
-            if (documentInput != null
-                    && "text/css".equals(documentInput.getType())) {
-                stats.incrementField(Statistics.Field.INPUT_CSS);
-            } else if (documentInput != null
-                    && "image/svg+xml".equals(documentInput.getType())) {
-                stats.incrementField(Statistics.Field.INPUT_SVG);
-            } else if (htmlParser != null) {
-                stats.incrementField(Statistics.Field.INPUT_HTML);
-            } else if (xmlParser != null) {
-                stats.incrementField(Statistics.Field.INPUT_XML);
-            } else {
-                stats.incrementField(Statistics.Field.INPUT_UNSUPPORTED);
-            }
-            switch (outputFormat) {
-                case GNU:
-                    stats.incrementField(Statistics.Field.OUTPUT_GNU);
-                    break;
-                case HTML:
-                    stats.incrementField(Statistics.Field.OUTPUT_HTML);
-                    break;
-                case JSON:
-                    stats.incrementField(Statistics.Field.OUTPUT_JSON);
-                    break;
-                case TEXT:
-                    stats.incrementField(Statistics.Field.OUTPUT_TEXT);
-                    break;
-                case XHTML:
-                    stats.incrementField(Statistics.Field.OUTPUT_XHTML);
-                    break;
-                case XML:
-                    stats.incrementField(Statistics.Field.OUTPUT_XML);
-                    break;
-                case RELAXED:
-                case SOAP:
-                case UNICORN:
-                default:
-                    break;
+            if (!preset && !externalSchema) {
+                stats.incrementField(Statistics.Field.BUILT_IN_NON_PRESET);
             }
-            if (schemaListForStats == null) {
+        }
+        if ("".equals(schemaUrls)) {
+            stats.incrementField(Statistics.Field.AUTO_SCHEMA);
+            if (externalSchema) {
                 stats.incrementField(Statistics.Field.LOGIC_ERROR);
+            }
+        } else if (externalSchema) {
+            if (externalSchematron) {
+                stats.incrementField(Statistics.Field.EXTERNAL_SCHEMA_SCHEMATRON);
             } else {
-                boolean preset = false;
-                for (int i = 0; i < presetUrls.length; i++) {
-                    if (presetUrls[i].equals(schemaListForStats)) {
-                        preset = true;
-                        if (externalSchema || externalSchematron) {
-                            stats.incrementField(Statistics.Field.LOGIC_ERROR);
-                        } else {
-                            stats.incrementField(Statistics.Field.PRESET_SCHEMA);
-                            /*
-                             * XXX WARNING WARNING: These mappings correspond to
-                             * values in the presets.txt file in the validator
-                             * source repo. They might be bogus if a custom
-                             * presets file is used instead.
-                             */
-                            switch (i) {
-                                case 0:
-                                case 5:
-                                    stats.incrementField(Statistics.Field.HTML5_SCHEMA);
-                                    break;
-                                case 1:
-                                case 6:
-                                    stats.incrementField(Statistics.Field.HTML5_RDFA_LITE_SCHEMA);
-                                    break;
-                                case 2:
-                                    stats.incrementField(Statistics.Field.HTML4_STRICT_SCHEMA);
-                                    break;
-                                case 3:
-                                    stats.incrementField(Statistics.Field.HTML4_TRANSITIONAL_SCHEMA);
-                                    break;
-                                case 4:
-                                    stats.incrementField(Statistics.Field.HTML4_FRAMESET_SCHEMA);
-                                    break;
-                                case 7:
-                                    stats.incrementField(Statistics.Field.XHTML1_COMPOUND_SCHEMA);
-                                    break;
-                                case 8:
-                                    stats.incrementField(Statistics.Field.SVG_SCHEMA);
-                                    break;
-                                default:
-                                    stats.incrementField(Statistics.Field.LOGIC_ERROR);
-                                    break;
-                            }
-                        }
-                        break;
-                    }
-                }
-                if (!preset && !externalSchema) {
-                    stats.incrementField(Statistics.Field.BUILT_IN_NON_PRESET);
-                }
+                stats.incrementField(Statistics.Field.EXTERNAL_SCHEMA_NON_SCHEMATRON);
+            }
+        } else if (externalSchematron) {
+            stats.incrementField(Statistics.Field.LOGIC_ERROR);
+        }
+        if (request.getAttribute(
+                "http://validator.nu/properties/aria-label-misuse-found") != null
+                && (boolean) request.getAttribute(
+                        "http://validator.nu/properties/aria-label-misuse-found")) {
+            stats.incrementField(Statistics.Field.ARIA_LABEL_MISUSE_FOUND);
+        }
+        if (request.getAttribute(
+                "http://validator.nu/properties/hgroup-found") != null
+                && (boolean) request.getAttribute(
+                        "http://validator.nu/properties/hgroup-found")) {
+            stats.incrementField(Statistics.Field.HGROUP_FOUND);
+        }
+        if (request.getAttribute(
+                "http://validator.nu/properties/style-element-errors-found") != null
+                && (boolean) request.getAttribute(
+                        "http://validator.nu/properties/style-element-errors-found")) {
+            stats.incrementField(Statistics.Field.STYLE_ELEMENT_ERRORS_FOUND);
+        }
+        if (request.getAttribute(
+                "http://validator.nu/properties/style-attribute-errors-found") != null
+                && (boolean) request.getAttribute(
+                        "http://validator.nu/properties/style-attribute-errors-found")) {
+            stats.incrementField(Statistics.Field.STYLE_ATTRIBUTE_ERRORS_FOUND);
+        }
+        if (request.getAttribute(
+                "http://validator.nu/properties/lang-found") != null
+                && (boolean) request.getAttribute(
+                        "http://validator.nu/properties/lang-found")) {
+            stats.incrementField(Statistics.Field.LANG_FOUND);
+        }
+        if (request.getAttribute(
+                "http://validator.nu/properties/lang-wrong") != null
+                && (boolean) request.getAttribute(
+                        "http://validator.nu/properties/lang-wrong")) {
+            stats.incrementField(Statistics.Field.LANG_WRONG);
+        }
+        if (request.getAttribute(
+                "http://validator.nu/properties/lang-empty") != null
+                && (boolean) request.getAttribute(
+                        "http://validator.nu/properties/lang-empty")) {
+            stats.incrementField(Statistics.Field.LANG_EMPTY);
+        }
+        String fieldName;
+        String language = (String) request.getAttribute(
+                "http://validator.nu/properties/document-language");
+        if (!"".equals(language) && language != null) {
+            fieldName = "DETECTEDLANG_" + language.toUpperCase();
+            if ("zh-hans".equals(language)) {
+                fieldName = "DETECTEDLANG_ZH_HANS";
+            } else if ("zh-hant".equals(language)) {
+                fieldName = "DETECTEDLANG_ZH_HANT";
+            } else if ("sr-latn".equals(language)) {
+                fieldName = "DETECTEDLANG_SR_LATN";
+            } else if ("sr-cyrl".equals(language)) {
+                fieldName = "DETECTEDLANG_SR_CYRL";
+            } else if ("uz-latn".equals(language)) {
+                fieldName = "DETECTEDLANG_UZ_LATN";
+            } else if ("uz-cyrl".equals(language)) {
+                fieldName = "DETECTEDLANG_UZ_CYRL";
             }
-            if ("".equals(schemaUrls)) {
-                stats.incrementField(Statistics.Field.AUTO_SCHEMA);
-                if (externalSchema) {
-                    stats.incrementField(Statistics.Field.LOGIC_ERROR);
-                }
-            } else if (externalSchema) {
-                if (externalSchematron) {
-                    stats.incrementField(Statistics.Field.EXTERNAL_SCHEMA_SCHEMATRON);
-                } else {
-                    stats.incrementField(Statistics.Field.EXTERNAL_SCHEMA_NON_SCHEMATRON);
-                }
-            } else if (externalSchematron) {
-                stats.incrementField(Statistics.Field.LOGIC_ERROR);
+            try {
+                stats.incrementField(stats.getFieldFromName(fieldName));
+            } catch (IllegalArgumentException e) {
+                log4j.error(e.getMessage(), e);
             }
-            if (request.getAttribute(
-                    "http://validator.nu/properties/aria-label-misuse-found") != null
-                    && (boolean) request.getAttribute(
-                            "http://validator.nu/properties/aria-label-misuse-found")) {
-                stats.incrementField(Statistics.Field.ARIA_LABEL_MISUSE_FOUND);
-            }
-            if (request.getAttribute(
-                    "http://validator.nu/properties/hgroup-found") != null
-                    && (boolean) request.getAttribute(
-                            "http://validator.nu/properties/hgroup-found")) {
-                stats.incrementField(Statistics.Field.HGROUP_FOUND);
-            }
-            if (request.getAttribute(
-                    "http://validator.nu/properties/style-element-errors-found") != null
-                    && (boolean) request.getAttribute(
-                            "http://validator.nu/properties/style-element-errors-found")) {
-                stats.incrementField(Statistics.Field.STYLE_ELEMENT_ERRORS_FOUND);
-            }
-            if (request.getAttribute(
-                    "http://validator.nu/properties/style-attribute-errors-found") != null
-                    && (boolean) request.getAttribute(
-                            "http://validator.nu/properties/style-attribute-errors-found")) {
-                stats.incrementField(Statistics.Field.STYLE_ATTRIBUTE_ERRORS_FOUND);
-            }
-            if (request.getAttribute(
-                    "http://validator.nu/properties/lang-found") != null
-                    && (boolean) request.getAttribute(
-                            "http://validator.nu/properties/lang-found")) {
-                stats.incrementField(Statistics.Field.LANG_FOUND);
-            }
-            if (request.getAttribute(
-                    "http://validator.nu/properties/lang-wrong") != null
-                    && (boolean) request.getAttribute(
-                            "http://validator.nu/properties/lang-wrong")) {
-                stats.incrementField(Statistics.Field.LANG_WRONG);
-            }
-            if (request.getAttribute(
-                    "http://validator.nu/properties/lang-empty") != null
-                    && (boolean) request.getAttribute(
-                            "http://validator.nu/properties/lang-empty")) {
+        }
+        String langVal = (String) request.getAttribute(
+                "http://validator.nu/properties/lang-value");
+        if (langVal != null) {
+            if ("".equals(langVal)) {
                 stats.incrementField(Statistics.Field.LANG_EMPTY);
-            }
-            String fieldName;
-            String language = (String) request.getAttribute(
-                    "http://validator.nu/properties/document-language");
-            if (!"".equals(language) && language != null) {
-                fieldName = "DETECTEDLANG_" + language.toUpperCase();
-                if ("zh-hans".equals(language)) {
-                    fieldName = "DETECTEDLANG_ZH_HANS";
-                } else if ("zh-hant".equals(language)) {
-                    fieldName = "DETECTEDLANG_ZH_HANT";
-                } else if ("sr-latn".equals(language)) {
-                    fieldName = "DETECTEDLANG_SR_LATN";
-                } else if ("sr-cyrl".equals(language)) {
-                    fieldName = "DETECTEDLANG_SR_CYRL";
-                } else if ("uz-latn".equals(language)) {
-                    fieldName = "DETECTEDLANG_UZ_LATN";
-                } else if ("uz-cyrl".equals(language)) {
-                    fieldName = "DETECTEDLANG_UZ_CYRL";
+            } else {
+                if (langVal.contains("_")) {
+                    fieldName = "LANG_"
+                            + langVal.replace("_", "__").toUpperCase();
+                } else {
+                    fieldName = "LANG_"
+                            + langVal.replace("-", "_").toUpperCase();
                 }
                 try {
                     stats.incrementField(stats.getFieldFromName(fieldName));
                 } catch (IllegalArgumentException e) {
-                    log4j.error(e.getMessage(), e);
-                }
-            }
-            String langVal = (String) request.getAttribute(
-                    "http://validator.nu/properties/lang-value");
-            if (langVal != null) {
-                if ("".equals(langVal)) {
-                    stats.incrementField(Statistics.Field.LANG_EMPTY);
-                } else {
-                    if (langVal.contains("_")) {
-                        fieldName = "LANG_"
-                                + langVal.replace("_", "__").toUpperCase();
-                    } else {
-                        fieldName = "LANG_"
-                                + langVal.replace("-", "_").toUpperCase();
-                    }
-                    try {
-                        stats.incrementField(stats.getFieldFromName(fieldName));
-                    } catch (IllegalArgumentException e) {
-                        stats.incrementField(Statistics.Field.LANG_OTHER);
-                    }
+                    stats.incrementField(Statistics.Field.LANG_OTHER);
                 }
             }
         }
@@ -1576,6 +1946,18 @@ class VerifierServletTransaction implements DocumentModeHandler, SchemaResolver
                     reader.setContentHandler(validator.getContentHandler());
                 }
                 break;
+            case HTML_PARSER_ONLY:
+                setAllowGenericXml(false);
+                setAllowHtml(true);
+                setAllowCss(false);
+                setAcceptAllKnownXmlTypes(false);
+                setAllowXhtml(false);
+                loadDocumentInput();
+                newHtmlParser();
+                htmlParser.setDocumentModeHandler(this);
+                htmlParser.setContentHandler(new DefaultHandler());
+                reader = htmlParser;
+                break;
             case XML_NO_EXTERNAL_ENTITIES:
             case XML_EXTERNAL_ENTITIES_NO_VALIDATION:
                 setAllowGenericXml(true);
@@ -1697,22 +2079,29 @@ class VerifierServletTransaction implements DocumentModeHandler, SchemaResolver
      */
     private Validator validatorByUrls(String schemaList) throws SAXException,
             IOException, IncorrectSchemaException {
-        System.setProperty("nu.validator.schema.rdfa-full", "0");
+        validationScope.setRdfaFull(false);
         schemaListForStats  = schemaList;
         Validator v = null;
         String[] schemas = SPACE.split(schemaList);
-        for (int i = schemas.length - 1; i > -1; i--) {
-            String url = schemas[i];
+        for (String url : schemas) {
             if ("http://s.validator.nu/html5-all.rnc".equals(url)) {
-                System.setProperty("nu.validator.schema.rdfa-full", "1");
+                validationScope.setRdfaFull(true);
             }
-            if ("http://c.validator.nu/all/".equals(url)
-                    || "http://hsivonen.iki.fi/checkers/all/".equals(url)) {
-                for (String checker : ALL_CHECKERS) {
-                    v = combineValidatorByUrl(v, checker);
+        }
+        if (isPoolable(schemas)) {
+            v = pooledValidatorByUrls(schemaList, schemas);
+        } else {
+            for (int i = schemas.length - 1; i > -1; i--) {
+                String url = schemas[i];
+                if (isAllCheckersUrl(url)) {
+                    for (String checker : ALL_CHECKERS) {
+                        if (!isDisabled(checker, disabledCheckers)) {
+                            v = combineValidatorByUrl(v, checker);
+                        }
+                    }
+                } else if (!isDisabled(url, disabledCheckers)) {
+                    v = combineValidatorByUrl(v, url);
                 }
-            } else {
-                v = combineValidatorByUrl(v, url);
             }
         }
         if (imageCollector != null && v != null) {
@@ -1721,6 +2110,147 @@ class VerifierServletTransaction implements DocumentModeHandler, SchemaResolver
         return v;
     }
 
+    private static boolean isDisabled(String url,
+            Set<OptionalChecker> disabledCheckers) {
+        if (disabledCheckers.isEmpty()) {
+            return false;
+        }
+        OptionalChecker checker = OptionalChecker.forUrl(url);
+        return checker != null && disabledCheckers.contains(checker);
+    }
+
+    private static boolean isAllCheckersUrl(String url) {
+        return "http://c.validator.nu/all/".equals(url)
+                || "http://hsivonen.iki.fi/checkers/all/".equals(url);
+    }
+
+    private static boolean isHtml5SchemaUrl(String url) {
+        return "http://s.validator.nu/xhtml5.rnc".equals(url)
+                || "http://s.validator.nu/html5.rnc".equals(url)
+                || "http://s.validator.nu/html5-all.rnc".equals(url)
+                || "http://s.validator.nu/xhtml5-all.rnc".equals(url)
+                || "http://s.validator.nu/html5-its.rnc".equals(url)
+                || "http://s.validator.nu/xhtml5-rdfalite.rnc".equals(url)
+                || "http://s.validator.nu/html5-rdfalite.rnc".equals(url);
+    }
+
+    /**
+     * Checks whether a schema list can be served from the pipeline pool:
+     * every schema in it has to be preloaded and none of them may have
+     * been loaded earlier in this transaction. Pooled pipelines are not
+     * instrumented, so the list is not poolable when timing.
+     * 
+     * @param schemas
+     * @return <code>true</code> if the list can use a pooled pipeline
+     */
+    private boolean isPoolable(String[] schemas) {
+        if (timings != null) {
+            return false;
+        }
+        boolean any = false;
+        for (String url : schemas) {
+            if ("".equals(url)) {
+                continue;
+            }
+            if (isAllCheckersUrl(url)) {
+                for (String checker : ALL_CHECKERS) {
+                    if (loadedValidatorUrls.contains(checker)) {
+                        return false;
+                    }
+                }
+            } else if (loadedValidatorUrls.contains(url)
+                    || Arrays.binarySearch(preloadedSchemaUrls, url) < 0) {
+                return false;
+            }
+            any = true;
+        }
+        return any;
+    }
+
+    /**
+     * @param schemaList
+     * @param schemas
+     * @return the validator of a pooled pipeline bound to this transaction
+     * @throws SAXException
+     * @throws IOException
+     * @throws IncorrectSchemaException
+     */
+    private Validator pooledValidatorByUrls(String schemaList,
+            String[] schemas) throws SAXException, IOException,
+            IncorrectSchemaException {
+        String key = disabledCheckers.isEmpty() ? schemaList
+                : schemaList + '\t' + OptionalChecker.toNames(disabledCheckers);
+        ValidatorPipeline pipeline = ValidatorPipeline.checkOut(key);
+        if (pipeline == null) {
+            pipeline = newValidatorPipeline(key, schemas, disabledCheckers);
+        }
+        checkedOutPipelines.add(pipeline);
+        for (String url : schemas) {
+            if (isAllCheckersUrl(url)) {
+                for (String checker : ALL_CHECKERS) {
+                    if (!isDisabled(checker, disabledCheckers)) {
+                        loadedValidatorUrls.add(checker);
+                    }
+                }
+            } else if (!isDisabled(url, disabledCheckers)) {
+                loadedValidatorUrls.add(url);
+            }
+        }
+        if (pipeline.usesHtml5Spec()) {
+            errorHandler.setSpec(html5spec);
+        }
+        if (pipeline.getLexicalHandler() != null) {
+            lexicalHandler = pipeline.getLexicalHandler();
+        }
+        return pipeline.bind(errorHandler, request, sourceCode.getIsCss());
+    }
+
+    /**
+     * Assembles a new pipeline the same way <code>combineValidatorByUrl</code>
+     * would, but from preloaded schemas only.
+     * 
+     * @param key
+     * @param schemas
+     * @param disabledCheckers
+     *            the checkers to leave out
+     * @return a new pipeline
+     * @throws SAXException
+     * @throws IOException
+     * @throws IncorrectSchemaException
+     */
+    private static ValidatorPipeline newValidatorPipeline(String key,
+            String[] schemas, Set<OptionalChecker> disabledCheckers)
+            throws SAXException, IOException, IncorrectSchemaException {
+        ValidatorPipeline pipeline = new ValidatorPipeline(key,
+                pipelineEntityResolver);
+        Set<String> seen = new HashSet<>();
+        for (int i = schemas.length - 1; i > -1; i--) {
+            String url = schemas[i];
+            if (isAllCheckersUrl(url)) {
+                for (String checker : ALL_CHECKERS) {
+                    if (!isDisabled(checker, disabledCheckers)) {
+                        prependToPipeline(pipeline, checker, seen);
+                    }
+                }
+            } else if (!isDisabled(url, disabledCheckers)) {
+                prependToPipeline(pipeline, url, seen);
+            }
+        }
+        return pipeline;
+    }
+
+    private static void prependToPipeline(ValidatorPipeline pipeline,
+            String url, Set<String> seen) throws SAXException, IOException,
+            IncorrectSchemaException {
+        if ("".equals(url) || !seen.add(url)) {
+            return;
+        }
+        Schema sch = preloadedSchemas[Arrays.binarySearch(
+                preloadedSchemaUrls, url)];
+        pipeline.prepend(sch.createValidator(pipeline.getPropertyMap()),
+                isHtml5SchemaUrl(url));
+    }
+
     /**
      * @param val
      * @param url
@@ -1755,13 +2285,7 @@ class VerifierServletTransaction implements DocumentModeHandler, SchemaResolver
             return null;
         }
         loadedValidatorUrls.add(url);
-        if ("http://s.validator.nu/xhtml5.rnc".equals(url)
-                || "http://s.validator.nu/html5.rnc".equals(url)
-                || "http://s.validator.nu/html5-all.rnc".equals(url)
-                || "http://s.validator.nu/xhtml5-all.rnc".equals(url)
-                || "http://s.validator.nu/html5-its.rnc".equals(url)
-                || "http://s.validator.nu/xhtml5-rdfalite.rnc".equals(url)
-                || "http://s.validator.nu/html5-rdfalite.rnc".equals(url)) {
+        if (isHtml5SchemaUrl(url)) {
             errorHandler.setSpec(html5spec);
         }
         Schema sch = resolveSchema(url, jingPropertyMap);
@@ -1782,7 +2306,7 @@ class VerifierServletTransaction implements DocumentModeHandler, SchemaResolver
             langdetect.setHttpContentLanguageHeader(
                     request.getHeader("Content-Language"));
         }
-        return validator;
+        return timings == null ? validator : timings.wrap(validator);
     }
 
     @Override
@@ -1807,15 +2331,72 @@ class VerifierServletTransaction implements DocumentModeHandler, SchemaResolver
 
         externalSchema  = true;
 
-        TypedInputSource schemaInput = (TypedInputSource) entityResolver.resolveEntity(
-                null, url);
-        SchemaReader sr = null;
-        if ("application/relax-ng-compact-syntax".equals(schemaInput.getType())) {
-            sr = CompactSchemaReader.getInstance();
+        // Only cache top-level schemas; the ones nested schemas resolve
+        // through here depend on the options they get resolved with.
+        boolean cacheable = options == jingPropertyMap
+                && ExternalSchemaCache.isCacheable(url);
+        String cacheKey = cacheable ? ExternalSchemaCache.key(url, laxType,
+                userAgent,
+                (String) request.getAttribute(
+                        "http://validator.nu/properties/accept-language"),
+                request.getAttribute(
+                        "http://validator.nu/properties/ignore-response-status") != null)
+                : null;
+        ExternalSchemaCache.CachedSchema cached = cacheable
+                ? ExternalSchemaCache.get(cacheKey) : null;
+        Schema sch;
+        if (cached != null && cached.isFresh()) {
+            sch = cached.getSchema();
         } else {
-            sr = new AutoSchemaReader();
+            TypedInputSource schemaInput;
+            try {
+                if (cached != null && cached.canRevalidate()) {
+                    httpRes.setConditionalRequest(cached.getEntityTag(),
+                            cached.getLastModified());
+                }
+                schemaInput = (TypedInputSource) entityResolver.resolveEntity(
+                        null, url);
+            } finally {
+                httpRes.setConditionalRequest(null, null);
+            }
+            if (schemaInput.isNotModified()) {
+                cached.revalidated();
+                sch = cached.getSchema();
+            } else {
+                SchemaReader sr = null;
+                if ("application/relax-ng-compact-syntax".equals(schemaInput.getType())) {
+                    sr = CompactSchemaReader.getInstance();
+                } else {
+                    sr = new AutoSchemaReader();
+                }
+                if (cacheable) {
+                    // The schema outlives this request, so compile it with
+                    // stand-ins for the request objects; its validators
+                    // still report through jingPropertyMap.
+                    ExternalSchemaCache.CompileContext context = new ExternalSchemaCache.CompileContext(
+                            errorHandler, entityResolver, this);
+                    PropertyMapBuilder pmb = new PropertyMapBuilder();
+                    pmb.put(ValidateProperty.ERROR_HANDLER, context);
+                    pmb.put(ValidateProperty.ENTITY_RESOLVER, context);
+                    pmb.put(ValidateProperty.XML_READER_CREATOR,
+                            new VerifierServletXMLReaderCreator(context,
+                                    context));
+                    pmb.put(ValidateProperty.SCHEMA_RESOLVER, context);
+                    RngProperty.CHECK_ID_IDREF.add(pmb);
+                    try {
+                        sch = sr.createSchema(schemaInput,
+                                pmb.toPropertyMap());
+                    } finally {
+                        context.detach();
+                    }
+                    ExternalSchemaCache.put(cacheKey, sch,
+                            schemaInput.getEntityTag(),
+                            schemaInput.getLastModified());
+                } else {
+                    sch = sr.createSchema(schemaInput, options);
+                }
+            }
         }
-        Schema sch = sr.createSchema(schemaInput, options);
 
         if (Statistics.STATISTICS != null && "com.thaiopensource.validate.schematron.SchemaImpl".equals(sch.getClass().getName())) {
             externalSchematron  = true;
@@ -1825,32 +2406,56 @@ class VerifierServletTransaction implements DocumentModeHandler, SchemaResolver
     }
 
     /**
-     * @param url
-     * @return
-     * @throws SAXException
-     * @throws IOException
-     * @throws IncorrectSchemaException
+     * Compiles a preset schema during startup. This runs on the startup
+     * executor while the static initializer is still running, so it must
+     * not touch the static state of the enclosing class (which would block
+     * until the initializer finishes).
      */
-    private static Schema schemaByUrl(String url, EntityResolver resolver,
-            PropertyMap pMap) throws SAXException, IOException,
-            IncorrectSchemaException {
-        log4j.debug("Will load schema: " + url);
-        TypedInputSource schemaInput;
-        try {
-        schemaInput = (TypedInputSource) resolver.resolveEntity(
-                null, url);
-        } catch (ClassCastException e) {
-            log4j.fatal(url, e);
-            throw e;
+    private static final class PresetSchemaTask implements Callable<Schema> {
+
+        private static final Logger log4j = Logger.getLogger(
+                VerifierServletTransaction.class);
+
+        private final String url;
+
+        private final EntityResolver resolver;
+
+        private final PropertyMap pMap;
+
+        PresetSchemaTask(String url, EntityResolver resolver,
+                PropertyMap pMap) {
+            this.url = url;
+            this.resolver = resolver;
+            this.pMap = pMap;
         }
-        SchemaReader sr = null;
-        if ("application/relax-ng-compact-syntax".equals(schemaInput.getType())) {
-            sr = CompactSchemaReader.getInstance();
-        } else {
-            sr = new AutoSchemaReader();
+
+        /**
+         * @return
+         * @throws SAXException
+         * @throws IOException
+         * @throws IncorrectSchemaException
+         */
+        @Override
+        public Schema call() throws SAXException, IOException,
+                IncorrectSchemaException {
+            log4j.debug("Will load schema: " + url);
+            TypedInputSource schemaInput;
+            try {
+            schemaInput = (TypedInputSource) resolver.resolveEntity(
+                    null, url);
+            } catch (ClassCastException e) {
+                log4j.fatal(url, e);
+                throw e;
+            }
+            SchemaReader sr = null;
+            if ("application/relax-ng-compact-syntax".equals(schemaInput.getType())) {
+                sr = CompactSchemaReader.getInstance();
+            } else {
+                sr = new AutoSchemaReader();
+            }
+            Schema sch = sr.createSchema(schemaInput, pMap);
+            return sch;
         }
-        Schema sch = sr.createSchema(schemaInput, pMap);
-        return sch;
     }
 
     /**
@@ -1991,6 +2596,8 @@ class VerifierServletTransaction implements DocumentModeHandler, SchemaResolver
         emitter.option("Automatically from Content-Type", "",
                 (parser == ParserMode.AUTO));
         emitter.option("HTML", "html", (parser == ParserMode.HTML));
+        emitter.option("HTML; parse errors only", "html-parser-only",
+                (parser == ParserMode.HTML_PARSER_ONLY));
         emitter.option("XML; don\u2019t load external entities", "xml",
                 (parser == ParserMode.XML_NO_EXTERNAL_ENTITIES));
         emitter.option("XML; load external entities", "xmldtd",
@@ -2135,7 +2742,7 @@ class VerifierServletTransaction implements DocumentModeHandler, SchemaResolver
                 html4Doctype = true;
             }
         }
-        if (validator == null) {
+        if (validator == null && parser != ParserMode.HTML_PARSER_ONLY) {
             try {
                 if ("yes".equals(request.getParameter("sniffdoctype"))) {
                     if ("-//W3C//DTD XHTML 1.0 Transitional//EN" //
@@ -2250,8 +2857,13 @@ class VerifierServletTransaction implements DocumentModeHandler, SchemaResolver
             return;
         }
         if (methodIsGet) {
-            documentInput = (TypedInputSource) entityResolver.resolveEntity(
-                    null, document);
+            enterStage(Timings.FETCH);
+            try {
+                documentInput = (TypedInputSource) entityResolver.resolveEntity(
+                        null, document);
+            } finally {
+                exitStage();
+            }
             errorHandler.setLoggingOk(true);
         } else { // POST
             long len = request.getContentLength();
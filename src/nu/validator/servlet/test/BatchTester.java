@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 2020 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.servlet.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import nu.validator.servlet.VerifierServlet;
+
+/**
+ * Sends batch requests straight to <code>VerifierServlet</code> and checks
+ * that every document gets the batch parameters with the per-document
+ * overrides applied, that the container's request object is only used on
+ * the servicing thread, and that a batch stops reading documents once the
+ * client has gone away.
+ */
+public class BatchTester {
+
+    private static final int DOCUMENTS = 1000;
+
+    private final Thread servicingThread = Thread.currentThread();
+
+    private final List<String> offThreadCalls = Collections.synchronizedList(
+            new ArrayList<String>());
+
+    private int failures = 0;
+
+    /**
+     * A request whose parameter and header accessors note the calls made
+     * from threads other than the servicing thread.
+     */
+    private final class RequestHandler implements InvocationHandler {
+
+        private final Map<String, String[]> parameters;
+
+        private final Map<String, String> headers = new TreeMap<>(
+                String.CASE_INSENSITIVE_ORDER);
+
+        private final Map<String, Object> attributes = new HashMap<>();
+
+        private final ByteArrayInputStream body;
+
+        private int bytesRead = 0;
+
+        RequestHandler(Map<String, String[]> parameters, byte[] body) {
+            this.parameters = parameters;
+            this.body = new ByteArrayInputStream(body);
+            headers.put("User-Agent", "BatchTester");
+            headers.put("Content-Type", "text/plain; charset=utf-8");
+            headers.put("Content-Language", "fr");
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if (name.startsWith("getParameter") || name.startsWith("getHeader")) {
+                if (Thread.currentThread() != servicingThread) {
+                    offThreadCalls.add(name);
+                }
+            }
+            switch (name) {
+                case "getMethod":
+                    return "POST";
+                case "getPathInfo":
+                    return "/batch/";
+                case "getServerName":
+                    return "localhost";
+                case "getDispatcherType":
+                    return DispatcherType.REQUEST;
+                case "isAsyncSupported":
+                    return Boolean.FALSE;
+                case "getContentType":
+                    return headers.get("Content-Type");
+                case "getHeader":
+                    return headers.get(args[0]);
+                case "getHeaders":
+                    return headers.containsKey(args[0])
+                            ? Collections.enumeration(Collections.singletonList(
+                                    headers.get(args[0])))
+                            : Collections.emptyEnumeration();
+                case "getHeaderNames":
+                    return Collections.enumeration(headers.keySet());
+                case "getIntHeader":
+                    return Integer.valueOf(-1);
+                case "getDateHeader":
+                    return Long.valueOf(-1);
+                case "getParameter":
+                    String[] values = parameters.get(args[0]);
+                    return values == null ? null : values[0];
+                case "getParameterValues":
+                    return parameters.get(args[0]);
+                case "getParameterMap":
+                    return parameters;
+                case "getParameterNames":
+                    return Collections.enumeration(parameters.keySet());
+                case "getAttribute":
+                    return attributes.get(args[0]);
+                case "setAttribute":
+                    attributes.put((String) args[0], args[1]);
+                    return null;
+                case "getInputStream":
+                    return new ServletInputStream() {
+                        @Override
+                        public int read() {
+                            int b = body.read();
+                            if (b != -1) {
+                                bytesRead++;
+                            }
+                            return b;
+                        }
+
+                        @Override
+                        public boolean isFinished() {
+                            return body.available() == 0;
+                        }
+
+                        @Override
+                        public boolean isReady() {
+                            return true;
+                        }
+
+                        @Override
+                        public void setReadListener(ReadListener readListener) {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        }
+    }
+
+    /**
+     * A response that collects the output or, for a client that has gone
+     * away, fails every write.
+     */
+    private static final class ResponseHandler implements InvocationHandler {
+
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        final boolean broken;
+
+        ResponseHandler(boolean broken) {
+            this.broken = broken;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if ("getOutputStream".equals(method.getName())) {
+                return new ServletOutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        if (broken) {
+                            throw new IOException("Client went away.");
+                        }
+                        buffer.write(b);
+                    }
+
+                    @Override
+                    public boolean isReady() {
+                        return true;
+                    }
+
+                    @Override
+                    public void setWriteListener(WriteListener writeListener) {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            } else if ("getStatus".equals(method.getName())) {
+                return Integer.valueOf(HttpServletResponse.SC_OK);
+            }
+            return defaultValue(method.getReturnType());
+        }
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return Boolean.FALSE;
+        } else if (type == int.class) {
+            return Integer.valueOf(0);
+        } else if (type == long.class) {
+            return Long.valueOf(0);
+        }
+        return null;
+    }
+
+    /**
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        System.setProperty("nu.validator.servlet.batch-threads", "2");
+        BatchTester tester = new BatchTester();
+        tester.checkParameters();
+        tester.checkClientGone();
+        if (tester.failures > 0) {
+            System.exit(1);
+        }
+        System.out.println("BatchTester: OK.");
+        System.exit(0);
+    }
+
+    private static void frame(ByteArrayOutputStream body, String contentType,
+            String name, String document) throws IOException {
+        byte[] bytes = document.getBytes(StandardCharsets.UTF_8);
+        String header = bytes.length + "\t" + contentType
+                + (name == null ? "" : "\t" + name) + "\n";
+        body.write(header.getBytes(StandardCharsets.UTF_8));
+        body.write(bytes);
+    }
+
+    private ResponseHandler service(RequestHandler requestHandler,
+            boolean broken) throws ServletException, IOException {
+        ResponseHandler responseHandler = new ResponseHandler(broken);
+        HttpServletRequest request = (HttpServletRequest) Proxy.newProxyInstance(
+                BatchTester.class.getClassLoader(),
+                new Class<?>[] { HttpServletRequest.class }, requestHandler);
+        HttpServletResponse response = (HttpServletResponse) Proxy.newProxyInstance(
+                BatchTester.class.getClassLoader(),
+                new Class<?>[] { HttpServletResponse.class }, responseHandler);
+        new VerifierServlet().service(request, response);
+        return responseHandler;
+    }
+
+    private void checkParameters() throws ServletException, IOException {
+        Map<String, String[]> parameters = new LinkedHashMap<>();
+        parameters.put("out", new String[] { "xml" });
+        parameters.put("showsource", new String[] { "yes" });
+        parameters.put("showoutline", new String[] { "yes" });
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        frame(body, "text/html; charset=utf-8", "http://example.com/a.html",
+                "<!DOCTYPE html><html lang=en><title>a</title><p>a");
+        frame(body, "text/html; charset=utf-8", null,
+                "<!DOCTYPE html><html lang=en><title>b</title><p><p></b>");
+        frame(body, "text/css; charset=utf-8", "http://example.com/c.css",
+                "p { color: red; }");
+        RequestHandler requestHandler = new RequestHandler(parameters,
+                body.toByteArray());
+        ResponseHandler responseHandler = service(requestHandler, false);
+        String output = new String(responseHandler.buffer.toByteArray(),
+                StandardCharsets.UTF_8);
+        String[] results = output.split("\n");
+        check("one result per document", results.length == 3);
+        boolean[] seen = new boolean[3];
+        for (String result : results) {
+            check("result is JSON with an index: " + result,
+                    result.startsWith("{\"index\":"));
+            check("result has no source: " + result,
+                    !result.contains("\"source\""));
+            for (int i = 0; i < seen.length; i++) {
+                if (result.startsWith("{\"index\":" + i + ",")) {
+                    seen[i] = true;
+                }
+            }
+            if (result.startsWith("{\"index\":0,")) {
+                check("first document has its name",
+                        result.contains("\"url\":\"http://example.com/a.html\""));
+            } else if (result.startsWith("{\"index\":1,")) {
+                check("second document has an error",
+                        result.contains("\"type\":\"error\""));
+            }
+        }
+        for (int i = 0; i < seen.length; i++) {
+            check("result for document " + i, seen[i]);
+        }
+        check("request only used on the servicing thread ("
+                + offThreadCalls.size() + " calls from workers)",
+                offThreadCalls.isEmpty());
+    }
+
+    private void checkClientGone() throws ServletException, IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (int i = 0; i < DOCUMENTS; i++) {
+            frame(body, "text/html; charset=utf-8", null,
+                    "<!DOCTYPE html><html lang=en><title>t</title><p>" + i);
+        }
+        byte[] bytes = body.toByteArray();
+        RequestHandler requestHandler = new RequestHandler(
+                new LinkedHashMap<String, String[]>(), bytes);
+        service(requestHandler, true);
+        check("stops reading once the client is gone",
+                requestHandler.bytesRead < bytes.length / 2);
+    }
+
+    private void check(String what, boolean ok) {
+        if (!ok) {
+            System.err.println("BatchTester: failed: " + what);
+            failures++;
+        }
+    }
+}
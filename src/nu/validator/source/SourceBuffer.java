@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2020 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.source;
+
+import java.util.Arrays;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Retains the decoded source text of a document for producing extracts.
+ * 
+ * <p>Line breaks are not stored; instead, the offset at which each line
+ * starts is recorded in an <code>int[]</code>. The text itself is kept in
+ * fixed-size chunks that hold one byte per character as long as the chunk
+ * only contains characters up to U+00FF and that are widened to
+ * <code>char[]</code> only once a chunk sees a character beyond that. The
+ * last chunk grows as needed, so that small documents stay small.
+ */
+final class SourceBuffer {
+
+    private static final int CHUNK_SHIFT = 14;
+
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private static final int INITIAL_CHUNK_SIZE = 1024;
+
+    /**
+     * Latin-1 chunks; <code>null</code> where the chunk is in
+     * <code>charChunks</code> instead.
+     */
+    private byte[][] byteChunks = new byte[4][];
+
+    /**
+     * Widened chunks; <code>null</code> where the chunk is in
+     * <code>byteChunks</code> instead.
+     */
+    private char[][] charChunks = new char[4][];
+
+    private int length = 0;
+
+    private int[] lineStarts = new int[64];
+
+    private int numberOfLines = 0;
+
+    private final char[] scratch = new char[1024];
+
+    void clear() {
+        Arrays.fill(byteChunks, null);
+        Arrays.fill(charChunks, null);
+        length = 0;
+        numberOfLines = 0;
+    }
+
+    /**
+     * Starts a new line at the current end of the text.
+     */
+    void newLine() {
+        if (numberOfLines == lineStarts.length) {
+            lineStarts = Arrays.copyOf(lineStarts, numberOfLines << 1);
+        }
+        lineStarts[numberOfLines++] = length;
+    }
+
+    /**
+     * Drops the last line if it is empty.
+     */
+    void removeEmptyLastLine() {
+        if (numberOfLines > 0 && lineStarts[numberOfLines - 1] == length) {
+            numberOfLines--;
+        }
+    }
+
+    int getNumberOfLines() {
+        return numberOfLines;
+    }
+
+    int getLineStart(int line) {
+        if (line >= numberOfLines) {
+            throw new IndexOutOfBoundsException(Integer.toString(line));
+        }
+        return lineStarts[line];
+    }
+
+    int getLineLength(int line) {
+        int start = getLineStart(line);
+        if (line + 1 == numberOfLines) {
+            return length - start;
+        }
+        return lineStarts[line + 1] - start;
+    }
+
+    int length() {
+        return length;
+    }
+
+    /**
+     * Appends characters to the current line.
+     * 
+     * @see java.lang.StringBuffer#append(char[], int, int)
+     * @see org.xml.sax.ContentHandler#characters(char[], int, int)
+     */
+    void append(char[] ch, int start, int len) {
+        int end = start + len;
+        while (start < end) {
+            int chunk = length >>> CHUNK_SHIFT;
+            int offset = length & CHUNK_MASK;
+            int n = Math.min(end - start, CHUNK_SIZE - offset);
+            ensureCapacity(chunk, offset + n);
+            char[] chars = charChunks[chunk];
+            if (chars == null) {
+                byte[] bytes = byteChunks[chunk];
+                int i = 0;
+                while (i < n) {
+                    char c = ch[start + i];
+                    if (c > 0xFF) {
+                        chars = widen(chunk, offset + i);
+                        break;
+                    }
+                    bytes[offset + i] = (byte) c;
+                    i++;
+                }
+                start += i;
+                offset += i;
+                length += i;
+                n -= i;
+            }
+            if (chars != null) {
+                System.arraycopy(ch, start, chars, offset, n);
+                start += n;
+                length += n;
+            }
+        }
+    }
+
+    /**
+     * Passes the characters from <code>start</code> (inclusive) to
+     * <code>start + len</code> (exclusive) to the handler in one call, as
+     * handlers such as the extract handler treat each call as one run of
+     * text. An empty run is still reported, since handlers may start a line
+     * on the first call.
+     */
+    void emit(int start, int len, SourceHandler handler)
+            throws SAXException {
+        if (start < 0 || len < 0 || start + len > length) {
+            throw new IndexOutOfBoundsException(start + ", " + len);
+        }
+        int chunk = start >>> CHUNK_SHIFT;
+        int offset = start & CHUNK_MASK;
+        if (len != 0 && offset + len <= CHUNK_SIZE
+                && charChunks[chunk] != null) {
+            handler.characters(charChunks[chunk], offset, len);
+            return;
+        }
+        char[] buf = len <= scratch.length ? scratch : new char[len];
+        int pos = 0;
+        while (pos < len) {
+            chunk = (start + pos) >>> CHUNK_SHIFT;
+            offset = (start + pos) & CHUNK_MASK;
+            int n = Math.min(len - pos, CHUNK_SIZE - offset);
+            char[] chars = charChunks[chunk];
+            if (chars != null) {
+                System.arraycopy(chars, offset, buf, pos, n);
+            } else {
+                byte[] bytes = byteChunks[chunk];
+                for (int i = 0; i < n; i++) {
+                    buf[pos + i] = (char) (bytes[offset + i] & 0xFF);
+                }
+            }
+            pos += n;
+        }
+        handler.characters(buf, 0, len);
+    }
+
+    private void ensureCapacity(int chunk, int capacity) {
+        if (chunk == byteChunks.length) {
+            byteChunks = Arrays.copyOf(byteChunks, chunk << 1);
+            charChunks = Arrays.copyOf(charChunks, chunk << 1);
+        }
+        char[] chars = charChunks[chunk];
+        if (chars != null) {
+            if (chars.length < capacity) {
+                charChunks[chunk] = Arrays.copyOf(chars,
+                        chunkCapacity(chars.length, capacity));
+            }
+            return;
+        }
+        byte[] bytes = byteChunks[chunk];
+        if (bytes == null) {
+            byteChunks[chunk] = new byte[chunkCapacity(0, capacity)];
+        } else if (bytes.length < capacity) {
+            byteChunks[chunk] = Arrays.copyOf(bytes,
+                    chunkCapacity(bytes.length, capacity));
+        }
+    }
+
+    private static int chunkCapacity(int current, int needed) {
+        int capacity = Math.max(current, INITIAL_CHUNK_SIZE);
+        while (capacity < needed) {
+            capacity <<= 1;
+        }
+        return Math.min(capacity, CHUNK_SIZE);
+    }
+
+    private char[] widen(int chunk, int used) {
+        byte[] bytes = byteChunks[chunk];
+        char[] chars = new char[bytes.length];
+        for (int i = 0; i < used; i++) {
+            chars[i] = (char) (bytes[i] & 0xFF);
+        }
+        byteChunks[chunk] = null;
+        charChunks[chunk] = chars;
+        return chars;
+    }
+}
@@ -22,7 +22,6 @@
 
 package nu.validator.source;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -51,8 +50,6 @@ public final class SourceCode implements CharacterHandler {
     
     private String encoding;
 
-    private int expectedLength;
-
     private final SortedSet<Location> reverseSortedLocations = new HeadBiasedSortedSet<>(Collections.reverseOrder());
 
     private final SortedSet<Location> exactErrors = new TailBiasedSortedSet<>();
@@ -70,9 +67,7 @@ public final class SourceCode implements CharacterHandler {
 //    private final SortedSet<Integer> oneBasedLineErrors = new TreeSet<>();
 
     
-    private final List<Line> lines = new ArrayList<>();
-
-    private Line currentLine = null;
+    private final SourceBuffer buffer = new SourceBuffer();
 
     private boolean prevWasCr = false;
 
@@ -97,15 +92,8 @@ public final class SourceCode implements CharacterHandler {
         this.encoding = inputSource.getEncoding();
         if (inputSource instanceof TypedInputSource) {
             TypedInputSource typedInputSource = (TypedInputSource) inputSource;
-            int length = typedInputSource.getLength();
-            if (length == -1) {
-                expectedLength = 2048;
-            } else {
-                expectedLength = length;
-            }
             this.type = typedInputSource.getType();
         } else {
-            expectedLength = 2048;
             this.type = null;
         }
     }
@@ -124,7 +112,7 @@ public final class SourceCode implements CharacterHandler {
             switch (c) {
                 case '\r':
                     if (s < i) {
-                        currentLine.characters(ch, s, i - s);
+                        buffer.append(ch, s, i - s);
                     }
                     newLine();
                     s = i + 1;
@@ -133,7 +121,7 @@ public final class SourceCode implements CharacterHandler {
                 case '\n':
                     if (!prevWasCr) {
                         if (s < i) {
-                            currentLine.characters(ch, s, i - s);
+                            buffer.append(ch, s, i - s);
                         }
                         newLine();
                     }
@@ -146,38 +134,24 @@ public final class SourceCode implements CharacterHandler {
             }
         }
         if (s < end) {
-            currentLine.characters(ch, s, end - s);
+            buffer.append(ch, s, end - s);
         }
     }
 
     private void newLine() {
-        int offset;
-        char[] buffer;
-        if (currentLine == null) {
-            offset = 0;
-            buffer = new char[expectedLength];
-        } else {
-            offset = currentLine.getOffset() + currentLine.getBufferLength();
-            buffer = currentLine.getBuffer();
-        }
-        currentLine = new Line(buffer, offset);
-        lines.add(currentLine);
+        buffer.newLine();
     }
 
     @Override
     public void end() throws SAXException {
-        if (currentLine != null && currentLine.getBufferLength() == 0) {
-            // Theoretical impurity with line separators vs. terminators
-            lines.remove(lines.size() - 1);
-            currentLine = null;
-        }
+        // Theoretical impurity with line separators vs. terminators
+        buffer.removeEmptyLastLine();
     }
 
     @Override
     public void start() throws SAXException {
         reverseSortedLocations.clear();
-        lines.clear();
-        currentLine = null;
+        buffer.clear();
         newLine();
         prevWasCr = false;
     }
@@ -254,41 +228,50 @@ public final class SourceCode implements CharacterHandler {
     public void lineError(int oneBasedLine, SourceHandler extractHandler)
             throws SAXException {
         oneBasedLineErrors.add(oneBasedLine);
-        Line line = lines.get(oneBasedLine - 1);
+        int line = oneBasedLine - 1;
+        int length = getLineLength(line);
         extractHandler.startSource(type, encoding);
-        extractHandler.characters(line.getBuffer(), line.getOffset(),
-                line.getBufferLength());
+        buffer.emit(buffer.getLineStart(line), length, extractHandler);
         extractHandler.endSource();
     }
 
     public boolean isWithinKnownSource(Location location) {
-        if (location.getLine() >= lines.size()) {
+        if (location.getLine() >= getNumberOfLines()) {
             return false;
         }
-        Line line = lines.get(location.getLine());
-        return line.getBufferLength() >= location.getColumn();
+        return getLineLength(location.getLine()) >= location.getColumn();
     }
 
     public boolean isWithinKnownSource(int oneBasedLine) {
-        return !(oneBasedLine > lines.size());
+        return !(oneBasedLine > getNumberOfLines());
     }
 
-    Line getLine(int line) {
-        return lines.get(line);
+    int getLineLength(int line) {
+        return buffer.getLineLength(line);
     }
 
     int getNumberOfLines() {
-        return lines.size();
+        return buffer.getNumberOfLines();
+    }
+
+    /**
+     * Emits <code>length</code> characters starting at <code>column</code>
+     * on <code>line</code>. As line breaks are not stored, runs past the end
+     * of the line continue into the following lines.
+     */
+    private void emitLine(int line, int column, int length,
+            SourceHandler handler) throws SAXException {
+        buffer.emit(buffer.getLineStart(line) + column, length, handler);
     }
 
     void emitCharacter(Location location, SourceHandler handler)
             throws SAXException {
-        Line line = getLine(location.getLine());
+        int line = location.getLine();
         int col = location.getColumn();
-        if (col == line.getBufferLength()) {
+        if (col == getLineLength(line)) {
             handler.newLine();
         } else {
-            handler.characters(line.getBuffer(), line.getOffset() + col, 1);
+            emitLine(line, col, 1, handler);
         }
     }
 
@@ -308,25 +291,24 @@ public final class SourceCode implements CharacterHandler {
         }
         int fromLine = from.getLine();
         int untilLine = until.getLine();
-        Line line = getLine(fromLine);
+        int lines = getNumberOfLines();
         if (fromLine == untilLine) {
+            int start = buffer.getLineStart(fromLine) + from.getColumn();
             try {
-                handler.characters(line.getBuffer(),
-                        line.getOffset() + from.getColumn(),
-                        until.getColumn() - from.getColumn());
-            } catch (ArrayIndexOutOfBoundsException e) {
+                buffer.emit(start, until.getColumn() - from.getColumn(),
+                        handler);
+            } catch (IndexOutOfBoundsException e) {
             }
         } else {
             // first line
-            int length = line.getBufferLength() - from.getColumn();
+            int length = getLineLength(fromLine) - from.getColumn();
             if (length > 0) {
-                if (!((fromLine == 0 || fromLine == lines.size() - 1)
+                if (!((fromLine == 0 || fromLine == lines - 1)
                         && this.isCss)) {
-                    handler.characters(line.getBuffer(),
-                            line.getOffset() + from.getColumn(), length);
+                    emitLine(fromLine, from.getColumn(), length, handler);
                 }
             }
-            if (fromLine + 1 != lines.size()) {
+            if (fromLine + 1 != lines) {
                 if (!(fromLine == 0 && this.isCss)) {
                     handler.newLine();
                 }
@@ -334,21 +316,17 @@ public final class SourceCode implements CharacterHandler {
             // lines in between
             int wholeLine = fromLine + 1;
             while (wholeLine < untilLine) {
-                line = getLine(wholeLine);
-                handler.characters(line.getBuffer(), line.getOffset(),
-                        line.getBufferLength());
+                emitLine(wholeLine, 0, getLineLength(wholeLine), handler);
                 wholeLine++;
-                if (wholeLine != lines.size()) {
+                if (wholeLine != lines) {
                     handler.newLine();
                 }
             }
             // last line
             int untilCol = until.getColumn();
             if (untilCol > 0) {
-                line = getLine(untilLine);
-                if (!(untilLine == lines.size() - 1 && this.isCss)) {
-                    handler.characters(line.getBuffer(), line.getOffset(),
-                            untilCol);
+                if (!(untilLine == lines - 1 && this.isCss)) {
+                    emitLine(untilLine, 0, untilCol, handler);
                 }
             }
         }
@@ -430,10 +408,10 @@ public final class SourceCode implements CharacterHandler {
             }
             if (this.isCss) {
                 emitContent(previousLocation,
-                        new Location(this, lines.size() - 1, 0), handler);
+                        new Location(this, getNumberOfLines() - 1, 0), handler);
             } else {
                 emitContent(previousLocation,
-                        new Location(this, lines.size(), 0), handler);
+                        new Location(this, getNumberOfLines(), 0), handler);
             }
         } finally {
             handler.endSource();
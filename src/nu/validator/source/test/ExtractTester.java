@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2020 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.source.test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedSet;
+
+import nu.validator.messages.XhtmlExtractHandler;
+import nu.validator.source.SourceCode;
+import nu.validator.source.SourceHandler;
+import nu.validator.xml.HtmlSerializer;
+import nu.validator.xml.XhtmlSaxEmitter;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Checks that <code>SourceCode</code> hands each run of source text to its
+ * handler in one piece, so that long runs are snipped once in extracts, also
+ * for lines that span several storage chunks or mix Latin-1 and other
+ * characters.
+ */
+public class ExtractTester {
+
+    private static final class RecordingHandler implements SourceHandler {
+
+        final List<String> runs = new ArrayList<>();
+
+        @Override
+        public void startSource(String type, String encoding) {
+        }
+
+        @Override
+        public void setLineErrors(SortedSet<Integer> oneBasedLineErrors) {
+        }
+
+        @Override
+        public void endSource() {
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            runs.add(new String(ch, start, length));
+        }
+
+        @Override
+        public void newLine() {
+        }
+
+        @Override
+        public void startRange(int oneBasedLine, int oneBasedColumn) {
+        }
+
+        @Override
+        public void endRange() {
+        }
+
+        @Override
+        public void startCharHilite(int oneBasedLine, int oneBasedColumn) {
+        }
+
+        @Override
+        public void endCharHilite() {
+        }
+    }
+
+    private final List<String> lines = new ArrayList<>();
+
+    private final SourceCode sourceCode = new SourceCode();
+
+    private int failures = 0;
+
+    /**
+     * @param args
+     * @throws SAXException
+     */
+    public static void main(String[] args) throws SAXException {
+        ExtractTester tester = new ExtractTester();
+        tester.run();
+        if (tester.failures > 0) {
+            System.exit(1);
+        }
+        System.out.println("ExtractTester: OK.");
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    private void run() throws SAXException {
+        lines.add("<!DOCTYPE html>");
+        lines.add("<p title=\"" + repeat('x', 3000) + "\">");
+        lines.add(repeat('a', 10000) + "\u00E9" + repeat('b', 10000)
+                + "\u65E5" + repeat('c', 20000));
+        lines.add("\u65E5\u672C\u8A9E " + repeat('d', 40000));
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) {
+            sb.append(line).append("\r\n");
+        }
+        char[] text = sb.toString().toCharArray();
+        sourceCode.initialize(new InputSource());
+        sourceCode.start();
+        for (int i = 0; i < text.length; i += 1000) {
+            sourceCode.characters(text, i, Math.min(1000, text.length - i));
+        }
+        sourceCode.end();
+
+        for (int i = 0; i < lines.size(); i++) {
+            RecordingHandler handler = new RecordingHandler();
+            sourceCode.lineError(i + 1, handler);
+            check("line " + (i + 1) + " is one run",
+                    handler.runs.size() == 1);
+            check("line " + (i + 1) + " is intact",
+                    handler.runs.size() == 1
+                            && lines.get(i).equals(handler.runs.get(0)));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HtmlSerializer serializer = new HtmlSerializer(out);
+        serializer.startDocument();
+        sourceCode.lineError(2,
+                new XhtmlExtractHandler(new XhtmlSaxEmitter(serializer)));
+        serializer.endDocument();
+        String extract = new String(out.toByteArray(),
+                StandardCharsets.UTF_8);
+        int ellipses = extract.length()
+                - extract.replace("\u2026", "").length();
+        check("long attribute is snipped once", ellipses == 1);
+    }
+
+    private void check(String what, boolean ok) {
+        if (!ok) {
+            System.err.println("ExtractTester: failed: " + what);
+            failures++;
+        }
+    }
+}
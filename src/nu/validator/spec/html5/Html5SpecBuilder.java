@@ -50,7 +50,7 @@ public final class Html5SpecBuilder implements ContentHandler {
 
     private static final String NS = "http://www.w3.org/1999/xhtml";
 
-    private static final String SPEC_LINK_URI = System.getProperty(
+    static final String SPEC_LINK_URI = System.getProperty(
             "nu.validator.spec.html5-link",
             "https://html.spec.whatwg.org/multipage/");
 
@@ -72,6 +72,8 @@ public final class Html5SpecBuilder implements ContentHandler {
         AWAITING_HEADING, IN_H4, IN_CODE_IN_H4, AWAITING_ELEMENT_DL, IN_ELEMENT_DL_START, IN_CATEGORIES_DT, CAPTURING_CATEGORIES_DDS, IN_CONTEXT_DT, CAPTURING_CONTEXT_DDS, IN_CONTENT_MODEL_DT, CAPTURING_CONTENT_MODEL_DDS, IN_TAG_OMISSION_DT, CAPTURING_TAG_OMISSION_DDS, IN_ATTRIBUTES_DT, CAPTURING_ATTRIBUTES_DDS
     }
 
+    private final String specLinkUri;
+
     private Locator locator;
     
     private State state = State.AWAITING_HEADING;
@@ -101,11 +103,19 @@ public final class Html5SpecBuilder implements ContentHandler {
     private boolean ignoreTextNodes = false;
 
     private static Spec parseSpec(InputSource in) throws IOException, SAXException {
+        return parse(in, SPEC_LINK_URI).buildSpec();
+    }
+
+    /**
+     * Parses the spec, prefixing links within it with the given URI.
+     */
+    static Html5SpecBuilder parse(InputSource in, String specLinkUri)
+            throws IOException, SAXException {
         HtmlParser parser = new HtmlParser(XmlViolationPolicy.ALTER_INFOSET);
-        Html5SpecBuilder handler = new Html5SpecBuilder();
+        Html5SpecBuilder handler = new Html5SpecBuilder(specLinkUri);
         parser.setContentHandler(handler);
         parser.parse(in);
-        return handler.buildSpec();
+        return handler;
     }
 
    
@@ -142,11 +152,28 @@ public final class Html5SpecBuilder implements ContentHandler {
                 contentModelsByElement, attributesByElement);
     }
 
+    Map<Name, String> getUrisByElement() {
+        return urisByElement;
+    }
+
+    Map<Name, DocumentFragment> getContextsByElement() {
+        return contextsByElement;
+    }
+
+    Map<Name, DocumentFragment> getContentModelsByElement() {
+        return contentModelsByElement;
+    }
+
+    Map<Name, DocumentFragment> getAttributesByElement() {
+        return attributesByElement;
+    }
+
     /**
      * 
      */
-    private Html5SpecBuilder() {
+    private Html5SpecBuilder(String specLinkUri) {
         super();
+        this.specLinkUri = specLinkUri;
     }
 
     /**
@@ -175,7 +202,7 @@ public final class Html5SpecBuilder implements ContentHandler {
                         //                                throw new SAXParseException(
                         //                                        "Malformed spec: no element id.", locator);
                       }
-                      urisByElement.put(currentName, SPEC_LINK_URI + "#"
+                      urisByElement.put(currentName, specLinkUri + "#"
                           + currentId);
                     }
                   }
@@ -483,7 +510,7 @@ public final class Html5SpecBuilder implements ContentHandler {
                     if ("a" == localName && NS == uri
                             && (href = atts.getValue("", "href")) != null) {
                         if (href.startsWith("#")) {
-                            href = SPEC_LINK_URI + href;
+                            href = specLinkUri + href;
                         }
                         AttributesImpl attributesImpl = new AttributesImpl();
                         attributesImpl.addAttribute("href", href);
@@ -0,0 +1,393 @@
+/*
+ * Copyright (c) 2020 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.spec.html5;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import nu.validator.saxtree.DocumentFragment;
+import nu.validator.saxtree.TreeBuilder;
+import nu.validator.saxtree.TreeParser;
+import nu.validator.spec.Spec;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+import com.thaiopensource.xml.util.Name;
+
+/**
+ * A compact, precompiled form of the parts of the HTML spec that messages
+ * are elaborated with, so that startup need not parse the whole spec.
+ * {@link #main(String[])} writes the index at build time from the same spec
+ * document that {@link Html5SpecBuilder} reads, keeping links within the
+ * spec relative; {@link #load(InputStream)} reads it back, resolving those
+ * links against <code>nu.validator.spec.html5-link</code>. The fragments
+ * are stored as encoded SAX events and only turned into trees the first
+ * time a message asks for them.
+ */
+public final class Html5SpecIndex {
+
+    private static final String NS = "http://www.w3.org/1999/xhtml";
+
+    private static final int MAGIC = 0x6e75736e; // "nusn"
+
+    private static final int VERSION = 1;
+
+    private static final int END_OF_FRAGMENT = 0;
+
+    private static final int START_ELEMENT = 1;
+
+    private static final int END_ELEMENT = 2;
+
+    private static final int CHARACTERS = 3;
+
+    /**
+     * Keeps each run of characters well inside the limit of
+     * <code>writeUTF</code>.
+     */
+    private static final int MAX_CHARS = 8192;
+
+    private Html5SpecIndex() {
+        super();
+    }
+
+    /**
+     * Reads an index written by {@link #main(String[])}.
+     */
+    public static Spec load(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        try {
+            if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+                throw new IOException("Not an HTML spec index.");
+            }
+            Map<Name, String> urisByElement = new HashMap<>();
+            int count = data.readInt();
+            for (int i = 0; i < count; i++) {
+                Name name = new Name(NS, data.readUTF());
+                urisByElement.put(name, resolve(data.readUTF()));
+            }
+            return new IndexedSpec(urisByElement, readFragments(data),
+                    readFragments(data), readFragments(data));
+        } finally {
+            data.close();
+        }
+    }
+
+    private static Map<Name, byte[]> readFragments(DataInputStream data)
+            throws IOException {
+        Map<Name, byte[]> fragments = new HashMap<>();
+        int count = data.readInt();
+        for (int i = 0; i < count; i++) {
+            Name name = new Name(NS, data.readUTF());
+            byte[] bytes = new byte[data.readInt()];
+            data.readFully(bytes);
+            fragments.put(name, bytes);
+        }
+        return fragments;
+    }
+
+    private static String resolve(String link) {
+        if (link.startsWith("#")) {
+            return Html5SpecBuilder.SPEC_LINK_URI + link;
+        }
+        return link;
+    }
+
+    private static DocumentFragment decode(byte[] bytes) {
+        DataInputStream data = new DataInputStream(
+                new ByteArrayInputStream(bytes));
+        TreeBuilder builder = new TreeBuilder(true, true);
+        try {
+            for (;;) {
+                switch (data.readByte()) {
+                    case END_OF_FRAGMENT:
+                        return (DocumentFragment) builder.getRoot();
+                    case START_ELEMENT:
+                        String uri = data.readUTF();
+                        String localName = data.readUTF();
+                        String qName = data.readUTF();
+                        AttributesImpl attributes = new AttributesImpl();
+                        int length = data.readInt();
+                        for (int i = 0; i < length; i++) {
+                            String attributeUri = data.readUTF();
+                            String attributeLocalName = data.readUTF();
+                            String attributeQName = data.readUTF();
+                            String type = data.readUTF();
+                            String value = data.readUTF();
+                            if ("href".equals(attributeLocalName)) {
+                                value = resolve(value);
+                            }
+                            attributes.addAttribute(attributeUri,
+                                    attributeLocalName, attributeQName, type,
+                                    value);
+                        }
+                        builder.startElement(uri, localName, qName,
+                                attributes);
+                        break;
+                    case END_ELEMENT:
+                        builder.endElement(data.readUTF(), data.readUTF(),
+                                data.readUTF());
+                        break;
+                    case CHARACTERS:
+                        char[] ch = data.readUTF().toCharArray();
+                        builder.characters(ch, 0, ch.length);
+                        break;
+                    default:
+                        throw new IOException("Bad fragment record.");
+                }
+            }
+        } catch (IOException | SAXException e) {
+            throw new IllegalStateException("Malformed HTML spec index.", e);
+        }
+    }
+
+    /**
+     * Writes the index of the spec at <code>args[0]</code> to
+     * <code>args[1]</code>.
+     */
+    public static void main(String[] args) throws IOException, SAXException {
+        if (args.length != 2) {
+            System.err.println("Usage: java nu.validator.spec.html5.Html5SpecIndex SPEC INDEX");
+            System.exit(1);
+        }
+        Html5SpecBuilder builder = Html5SpecBuilder.parse(
+                new InputSource(new File(args[0]).toURI().toString()), "");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(args[1])));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            Map<Name, String> urisByElement = builder.getUrisByElement();
+            out.writeInt(urisByElement.size());
+            for (Map.Entry<Name, String> entry : urisByElement.entrySet()) {
+                out.writeUTF(entry.getKey().getLocalName());
+                out.writeUTF(entry.getValue());
+            }
+            writeFragments(out, builder.getContextsByElement());
+            writeFragments(out, builder.getContentModelsByElement());
+            writeFragments(out, builder.getAttributesByElement());
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeFragments(DataOutputStream out,
+            Map<Name, DocumentFragment> fragments) throws IOException,
+            SAXException {
+        out.writeInt(fragments.size());
+        for (Map.Entry<Name, DocumentFragment> entry : fragments.entrySet()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(bytes);
+            new TreeParser(new FragmentEncoder(data), null).parse(
+                    entry.getValue());
+            data.writeByte(END_OF_FRAGMENT);
+            data.flush();
+            out.writeUTF(entry.getKey().getLocalName());
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+        }
+    }
+
+    /**
+     * Writes the SAX events of a fragment as index records.
+     */
+    private static final class FragmentEncoder implements ContentHandler {
+
+        private final DataOutputStream data;
+
+        FragmentEncoder(DataOutputStream data) {
+            this.data = data;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName,
+                Attributes atts) throws SAXException {
+            try {
+                data.writeByte(START_ELEMENT);
+                data.writeUTF(uri);
+                data.writeUTF(localName);
+                data.writeUTF(qName);
+                data.writeInt(atts.getLength());
+                for (int i = 0; i < atts.getLength(); i++) {
+                    data.writeUTF(atts.getURI(i));
+                    data.writeUTF(atts.getLocalName(i));
+                    data.writeUTF(atts.getQName(i));
+                    data.writeUTF(atts.getType(i));
+                    data.writeUTF(atts.getValue(i));
+                }
+            } catch (IOException e) {
+                throw new SAXException(e);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName)
+                throws SAXException {
+            try {
+                data.writeByte(END_ELEMENT);
+                data.writeUTF(uri);
+                data.writeUTF(localName);
+                data.writeUTF(qName);
+            } catch (IOException e) {
+                throw new SAXException(e);
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length)
+                throws SAXException {
+            try {
+                for (int i = 0; i < length; i += MAX_CHARS) {
+                    data.writeByte(CHARACTERS);
+                    data.writeUTF(new String(ch, start + i,
+                            Math.min(MAX_CHARS, length - i)));
+                }
+            } catch (IOException e) {
+                throw new SAXException(e);
+            }
+        }
+
+        @Override
+        public void ignorableWhitespace(char[] ch, int start, int length)
+                throws SAXException {
+            characters(ch, start, length);
+        }
+
+        @Override
+        public void setDocumentLocator(Locator locator) {
+        }
+
+        @Override
+        public void startDocument() throws SAXException {
+        }
+
+        @Override
+        public void endDocument() throws SAXException {
+        }
+
+        @Override
+        public void startPrefixMapping(String prefix, String uri)
+                throws SAXException {
+        }
+
+        @Override
+        public void endPrefixMapping(String prefix) throws SAXException {
+        }
+
+        @Override
+        public void processingInstruction(String target, String data)
+                throws SAXException {
+        }
+
+        @Override
+        public void skippedEntity(String name) throws SAXException {
+        }
+    }
+
+    /**
+     * A spec backed by the index, decoding each fragment on first use.
+     */
+    private static final class IndexedSpec extends Spec {
+
+        private final Map<Name, String> urisByElement;
+
+        private final Map<Name, byte[]> encodedContexts;
+
+        private final Map<Name, byte[]> encodedContentModels;
+
+        private final Map<Name, byte[]> encodedAttributes;
+
+        private final ConcurrentMap<Name, DocumentFragment> contexts = new ConcurrentHashMap<>();
+
+        private final ConcurrentMap<Name, DocumentFragment> contentModels = new ConcurrentHashMap<>();
+
+        private final ConcurrentMap<Name, DocumentFragment> attributes = new ConcurrentHashMap<>();
+
+        IndexedSpec(Map<Name, String> urisByElement,
+                Map<Name, byte[]> encodedContexts,
+                Map<Name, byte[]> encodedContentModels,
+                Map<Name, byte[]> encodedAttributes) {
+            super(null, null, null, null);
+            this.urisByElement = urisByElement;
+            this.encodedContexts = encodedContexts;
+            this.encodedContentModels = encodedContentModels;
+            this.encodedAttributes = encodedAttributes;
+        }
+
+        @Override
+        public String elementLink(Name element) {
+            return urisByElement.get(element);
+        }
+
+        @Override
+        public DocumentFragment contextDescription(Name element) {
+            return fragment(element, encodedContexts, contexts);
+        }
+
+        @Override
+        public DocumentFragment contentModelDescription(Name element) {
+            return fragment(element, encodedContentModels, contentModels);
+        }
+
+        @Override
+        public DocumentFragment elementSpecificAttributesDescription(
+                Name element) {
+            return fragment(element, encodedAttributes, attributes);
+        }
+
+        private static DocumentFragment fragment(Name element,
+                Map<Name, byte[]> encoded,
+                ConcurrentMap<Name, DocumentFragment> decoded) {
+            DocumentFragment fragment = decoded.get(element);
+            if (fragment == null) {
+                byte[] bytes = encoded.get(element);
+                if (bytes == null) {
+                    return null;
+                }
+                fragment = decode(bytes);
+                DocumentFragment previous = decoded.putIfAbsent(element,
+                        fragment);
+                if (previous != null) {
+                    fragment = previous;
+                }
+            }
+            return fragment;
+        }
+    }
+}
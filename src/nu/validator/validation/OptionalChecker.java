@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2020 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.validation;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import nu.validator.checker.jing.CheckerSchema;
+
+/**
+ * The checks that can be turned off without affecting parsing, schema
+ * validation or the assertions: the checkers that the
+ * <code>http://c.validator.nu/all/</code> URL stands for, plus the
+ * checking of CSS in <code>style</code> elements and attributes that the
+ * assertions do.
+ *
+ * <p>Each one has a short name, which for checkers is the last path
+ * segment of the checker URL (<code>table</code> for
+ * <code>http://c.validator.nu/table/</code>) and for inline CSS is
+ * <code>css</code>.
+ */
+public enum OptionalChecker {
+
+    LANGUAGE_DETECTION("langdetect", CheckerSchema.LANGUAGE_DETECTING_CHECKER),
+
+    TABLE("table", CheckerSchema.TABLE_CHECKER),
+
+    OBSOLETE("obsolete", CheckerSchema.CONFORMING_BUT_OBSOLETE_WARNER),
+
+    MICRODATA("microdata", CheckerSchema.MICRODATA_CHECKER),
+
+    NORMALIZATION("nfc", CheckerSchema.NORMALIZATION_CHECKER),
+
+    TEXT_CONTENT("text-content", CheckerSchema.TEXT_CONTENT_CHECKER),
+
+    UNCHECKED("unchecked", CheckerSchema.UNCHECKED_SUBTREE_WARNER),
+
+    UNSUPPORTED("unsupported", CheckerSchema.UNSUPPORTED_CHECKER),
+
+    USEMAP("usemap", CheckerSchema.USEMAP_CHECKER),
+
+    XML_PI("xml-pi", CheckerSchema.XML_PI_CHECKER),
+
+    INLINE_CSS("css", null);
+
+    private final String name;
+
+    private final CheckerSchema schema;
+
+    private OptionalChecker(String name, CheckerSchema schema) {
+        this.name = name;
+        this.schema = schema;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the schema that creates this checker, or <code>null</code>
+     * for inline CSS, which is checked by the assertions.
+     */
+    public CheckerSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * Returns the checker URL, or <code>null</code> for inline CSS.
+     */
+    public String getUrl() {
+        return schema == null ? null : "http://c.validator.nu/" + name + "/";
+    }
+
+    /**
+     * Returns the checker with the given checker URL, or <code>null</code>.
+     */
+    public static OptionalChecker forUrl(String url) {
+        for (OptionalChecker checker : values()) {
+            if (url.equals(checker.getUrl())) {
+                return checker;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses a list of names separated by commas or spaces. The name
+     * <code>all</code> stands for every optional checker.
+     * 
+     * @throws IllegalArgumentException
+     *             if a name is not known
+     */
+    public static EnumSet<OptionalChecker> parse(String names) {
+        EnumSet<OptionalChecker> checkers = EnumSet.noneOf(
+                OptionalChecker.class);
+        for (String name : names.split("[,\\s]+")) {
+            if ("".equals(name)) {
+                continue;
+            }
+            if ("all".equals(name)) {
+                checkers.addAll(EnumSet.allOf(OptionalChecker.class));
+                continue;
+            }
+            OptionalChecker checker = forName(name);
+            if (checker == null) {
+                throw new IllegalArgumentException(
+                        "Unknown checker \u201c" + name + "\u201d.");
+            }
+            checkers.add(checker);
+        }
+        return checkers;
+    }
+
+    private static OptionalChecker forName(String name) {
+        for (OptionalChecker checker : values()) {
+            if (checker.name.equals(name)) {
+                return checker;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the names of the given checkers separated by commas.
+     */
+    public static String toNames(Set<OptionalChecker> checkers) {
+        StringBuilder sb = new StringBuilder();
+        for (OptionalChecker checker : checkers) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(checker.name);
+        }
+        return sb.toString();
+    }
+}
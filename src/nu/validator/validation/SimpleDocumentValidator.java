@@ -29,17 +29,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.SequenceInputStream;
 
+import nu.validator.checker.LanguageDetectingChecker;
 import nu.validator.checker.jing.CheckerSchema;
-import nu.validator.checker.jing.CheckerValidator;
-import nu.validator.checker.table.TableChecker;
-import nu.validator.checker.ConformingButObsoleteWarner;
-import nu.validator.checker.MicrodataChecker;
-import nu.validator.checker.NormalizationChecker;
-import nu.validator.checker.TextContentChecker;
-import nu.validator.checker.UncheckedSubtreeWarner;
-import nu.validator.checker.UnsupportedFeatureChecker;
-import nu.validator.checker.UsemapChecker;
-import nu.validator.checker.XmlPiChecker;
+import nu.validator.checker.schematronequiv.Assertions;
 import nu.validator.gnu.xml.aelfred2.FatalSAXException;
 import nu.validator.gnu.xml.aelfred2.SAXDriver;
 import nu.validator.htmlparser.common.Heuristics;
@@ -52,6 +44,7 @@ import nu.validator.xml.dataattributes.DataAttributeDroppingSchemaWrapper;
 import nu.validator.xml.langattributes.XmlLangAttributeDroppingSchemaWrapper;
 import nu.validator.xml.roleattributes.RoleAttributeFilteringSchemaWrapper;
 import nu.validator.xml.templateelement.TemplateElementDroppingSchemaWrapper;
+import nu.validator.xml.ForwardingErrorHandler;
 import nu.validator.xml.IdFilter;
 import nu.validator.xml.NullEntityResolver;
 import nu.validator.xml.PrudentHttpEntityResolver;
@@ -66,6 +59,7 @@ import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 import org.xml.sax.XMLReader;
 import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
 
 import com.thaiopensource.relaxng.impl.CombineValidator;
 import com.thaiopensource.util.PropertyMap;
@@ -84,8 +78,11 @@ import org.apache.log4j.PropertyConfigurator;
 import java.net.*;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 /**
@@ -103,7 +100,7 @@ public class SimpleDocumentValidator {
 
     private Schema assertionSchema;
 
-    private Schema langdetectSchema;
+    private Assertions assertions;
 
     private Validator validator;
 
@@ -121,6 +118,15 @@ public class SimpleDocumentValidator {
 
     private LexicalHandler lexicalHandler;
 
+    private final ValidationScope validationScope = new ValidationScope();
+
+    private Timings timings;
+
+    private boolean parserOnly = false;
+
+    private final EnumSet<OptionalChecker> disabledCheckers = EnumSet.noneOf(
+            OptionalChecker.class);
+
     static {
         PrudentHttpEntityResolver.setParams(
                 Integer.parseInt(System.getProperty(
@@ -131,18 +137,74 @@ public class SimpleDocumentValidator {
                         "nu.validator.servlet.max-requests", "100")));
     }
 
+    private static final int SCHEMA_CACHE_SIZE = Integer.parseInt(
+            System.getProperty("nu.validator.validation.schema-cache-size",
+                    "16"));
+
+    /**
+     * Compiled main schemas by URL, least recently used first. Compiled
+     * schemas are immutable, so instances used in parallel (one per worker
+     * thread) share them instead of each compiling their own. A schema keeps
+     * the property map it was compiled with, so schemas are compiled with
+     * their own resolver, made the same way for every compilation, and with
+     * an error handler that only reaches the caller's handler during the
+     * compilation. What a URL compiles to thus depends on the URL alone.
+     */
+    private static final Map<String, Schema> schemaCache = new LinkedHashMap<String, Schema>(
+            16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Schema> eldest) {
+            return size() > SCHEMA_CACHE_SIZE;
+        }
+    };
+
     private Schema schemaByUrl(String schemaUrl, ErrorHandler errorHandler)
             throws Exception, SchemaReadException {
+        synchronized (schemaCache) {
+            Schema schema = schemaCache.get(schemaUrl);
+            if (schema != null) {
+                return schema;
+            }
+        }
+        Schema schema = compileSchema(schemaUrl, errorHandler);
+        synchronized (schemaCache) {
+            Schema existing = schemaCache.get(schemaUrl);
+            if (existing != null) {
+                return existing;
+            }
+            schemaCache.put(schemaUrl, schema);
+        }
+        return schema;
+    }
+
+    /**
+     * Makes a resolver that only reads the local entity cache, which holds
+     * copies of the known schemas.
+     */
+    private static LocalCacheEntityResolver newLocalEntityResolver() {
+        LocalCacheEntityResolver resolver = new LocalCacheEntityResolver(
+                new NullEntityResolver());
+        resolver.setAllowRnc(true);
+        return resolver;
+    }
+
+    private Schema compileSchema(String schemaUrl, ErrorHandler errorHandler)
+            throws Exception, SchemaReadException {
+        LocalCacheEntityResolver schemaResolver = newLocalEntityResolver();
+        ForwardingErrorHandler compileErrorHandler = new ForwardingErrorHandler();
+        compileErrorHandler.setDelegate(errorHandler);
         PropertyMapBuilder pmb = new PropertyMapBuilder();
-        pmb.put(ValidateProperty.ERROR_HANDLER, errorHandler);
-        pmb.put(ValidateProperty.ENTITY_RESOLVER, entityResolver);
+        pmb.put(ValidateProperty.ERROR_HANDLER, compileErrorHandler);
+        pmb.put(ValidateProperty.ENTITY_RESOLVER, schemaResolver);
         pmb.put(ValidateProperty.XML_READER_CREATOR,
                 new Jaxp11XMLReaderCreator());
         RngProperty.CHECK_ID_IDREF.add(pmb);
         PropertyMap jingPropertyMap = pmb.toPropertyMap();
 
         try {
-            TypedInputSource schemaInput = (TypedInputSource) entityResolver.resolveEntity(
+            TypedInputSource schemaInput = (TypedInputSource) schemaResolver.resolveEntity(
                     null, schemaUrl);
             SchemaReader sr;
             if ("application/relax-ng-compact-syntax".equals(schemaInput.getType())) {
@@ -154,6 +216,8 @@ public class SimpleDocumentValidator {
         } catch (ClassCastException e) {
             throw new SchemaReadException(String.format(
                     "Failed to resolve schema URL \"%s\".", schemaUrl));
+        } finally {
+            compileErrorHandler.setDelegate(null);
         }
     }
 
@@ -186,6 +250,79 @@ public class SimpleDocumentValidator {
         return this.sourceCode;
     }
 
+    /**
+     * Measures the stages of checking documents into the given timings,
+     * starting with the validator and parsers set up by the next call to
+     * <code>setUpValidatorAndParsers</code>. Measuring has a cost on every
+     * parse event, so it is off unless turned on here.
+     * 
+     * @param timings
+     *            the timings to add to, or <code>null</code> to stop
+     *            measuring
+     */
+    public void setTimings(Timings timings) {
+        this.timings = timings;
+    }
+
+    /**
+     * @return the timings set with <code>setTimings</code>, or
+     *         <code>null</code>
+     */
+    public Timings getTimings() {
+        return timings;
+    }
+
+    /**
+     * Turns one of the optional checkers on or off, starting with the
+     * validator set up by the next call to
+     * <code>setUpValidatorAndParsers</code>. Checkers that are off are
+     * left out of the validator chain altogether. All of them are on by
+     * default, except that the language detection is off if the validator
+     * was constructed with language detection disabled.
+     * 
+     * @param checker
+     *            the checker
+     * @param enabled
+     *            whether to run it
+     */
+    public void setCheckerEnabled(OptionalChecker checker, boolean enabled) {
+        if (enabled) {
+            disabledCheckers.remove(checker);
+        } else {
+            disabledCheckers.add(checker);
+        }
+    }
+
+    /**
+     * @param checker
+     *            the checker
+     * @return whether the checker is on
+     */
+    public boolean isCheckerEnabled(OptionalChecker checker) {
+        return !disabledCheckers.contains(checker);
+    }
+
+    /**
+     * Sets whether to set up only the parsers, starting with the next call
+     * to <code>setUpValidatorAndParsers</code>. In that mode only parse
+     * errors are reported: there is no validator chain, the source code is
+     * not retained for extracts and no main schema needs to be set up, which
+     * makes checking documents several times cheaper.
+     * 
+     * @param parserOnly
+     *            whether to report parse errors only
+     */
+    public void setParserOnly(boolean parserOnly) {
+        this.parserOnly = parserOnly;
+    }
+
+    /**
+     * @return whether only parse errors are reported
+     */
+    public boolean isParserOnly() {
+        return parserOnly;
+    }
+
     public String getMainSchemaUrl() {
         return this.mainSchemaUrl;
     }
@@ -212,9 +349,8 @@ public class SimpleDocumentValidator {
      */
     public SimpleDocumentValidator(boolean initializeLog4j, boolean logUrls,
             boolean enableLanguageDetection) {
-        System.setProperty("nu.validator.checker.enableLangDetection", "0");
-        if (enableLanguageDetection) {
-            System.setProperty("nu.validator.checker.enableLangDetection", "1");
+        if (!enableLanguageDetection) {
+            disabledCheckers.add(OptionalChecker.LANGUAGE_DETECTION);
         }
         if (initializeLog4j) {
             Properties properties = new Properties();
@@ -232,9 +368,7 @@ public class SimpleDocumentValidator {
                 e.printStackTrace();
             }
         }
-        this.entityResolver = new LocalCacheEntityResolver(
-                new NullEntityResolver());
-        this.entityResolver.setAllowRnc(true);
+        this.entityResolver = newLocalEntityResolver();
     }
 
     /* *
@@ -260,23 +394,14 @@ public class SimpleDocumentValidator {
                 throw new SchemaReadException(
                         "Failed to retrieve secondary schema.");
             }
-            try {
-                langdetectSchema = CheckerSchema.LANGUAGE_DETECTING_CHECKER;
-            } catch (Exception e) {
-                throw new SchemaReadException(
-                        "Failed to retrieve secondary schema.");
-            }
             schema = new DataAttributeDroppingSchemaWrapper(schema);
             schema = new XmlLangAttributeDroppingSchemaWrapper(schema);
             schema = new RoleAttributeFilteringSchemaWrapper(schema);
             schema = new TemplateElementDroppingSchemaWrapper(schema);
             schema = new NamespaceChangingSchemaWrapper(schema);
             this.hasHtml5Schema = true;
-            if ("http://s.validator.nu/html5-all.rnc".equals(schemaUrl)) {
-                System.setProperty("nu.validator.schema.rdfa-full", "1");
-            } else {
-                System.setProperty("nu.validator.schema.rdfa-full", "0");
-            }
+            validationScope.setRdfaFull(
+                    "http://s.validator.nu/html5-all.rnc".equals(schemaUrl));
         }
         this.mainSchemaUrl = schemaUrl;
         this.mainSchema = schema;
@@ -296,6 +421,15 @@ public class SimpleDocumentValidator {
      */
     public void setUpValidatorAndParsers(ErrorHandler docValidationErrHandler,
             boolean noStream, boolean loadExternalEnts) throws SAXException {
+        if (timings != null) {
+            docValidationErrHandler = timings.wrap(docValidationErrHandler,
+                    Timings.EMIT);
+        }
+        if (parserOnly) {
+            setUpParsersOnly(docValidationErrHandler, noStream,
+                    loadExternalEnts);
+            return;
+        }
         PropertyMapBuilder pmb = new PropertyMapBuilder();
         pmb.put(ValidateProperty.ERROR_HANDLER, docValidationErrHandler);
         pmb.put(ValidateProperty.XML_READER_CREATOR,
@@ -303,52 +437,40 @@ public class SimpleDocumentValidator {
         RngProperty.CHECK_ID_IDREF.add(pmb);
         PropertyMap jingPropertyMap = pmb.toPropertyMap();
 
-        validator = this.mainSchema.createValidator(jingPropertyMap);
+        validator = timed(this.mainSchema.createValidator(jingPropertyMap));
 
         if (this.hasHtml5Schema) {
             Validator assertionValidator = assertionSchema.createValidator(jingPropertyMap);
-            validator = new CombineValidator(validator, assertionValidator);
-            Validator langdetectValidator = langdetectSchema.createValidator(jingPropertyMap);
-            validator = new CombineValidator(validator, langdetectValidator);
-            validator = new CombineValidator(validator, new CheckerValidator(
-                    new TableChecker(), jingPropertyMap));
-            validator = new CombineValidator(validator, new CheckerValidator(
-                    new ConformingButObsoleteWarner(), jingPropertyMap));
-            validator = new CombineValidator(validator, new CheckerValidator(
-                    new MicrodataChecker(), jingPropertyMap));
-            validator = new CombineValidator(validator, new CheckerValidator(
-                    new NormalizationChecker(), jingPropertyMap));
-            validator = new CombineValidator(validator, new CheckerValidator(
-                    new TextContentChecker(), jingPropertyMap));
-            validator = new CombineValidator(validator, new CheckerValidator(
-                    new UncheckedSubtreeWarner(), jingPropertyMap));
-            validator = new CombineValidator(validator, new CheckerValidator(
-                    new UnsupportedFeatureChecker(), jingPropertyMap));
-            validator = new CombineValidator(validator, new CheckerValidator(
-                    new UsemapChecker(), jingPropertyMap));
-            validator = new CombineValidator(validator, new CheckerValidator(
-                    new XmlPiChecker(), jingPropertyMap));
+            assertions = (Assertions) assertionValidator.getContentHandler();
+            validator = new CombineValidator(validator, timed(assertionValidator));
+            for (OptionalChecker checker : OptionalChecker.values()) {
+                if (checker.getSchema() != null
+                        && !disabledCheckers.contains(checker)) {
+                    validator = new CombineValidator(validator, timed(
+                            checker.getSchema().createValidator(
+                                    jingPropertyMap)));
+                }
+            }
+            if (!disabledCheckers.contains(
+                    OptionalChecker.LANGUAGE_DETECTION)) {
+                // Loaded now rather than at the end of the first document
+                // long enough for detection, where it would hold up the
+                // output already under way.
+                LanguageDetectingChecker.loadProfiles();
+            }
         }
+        validationScope.setLanguageDetection(!disabledCheckers.contains(
+                OptionalChecker.LANGUAGE_DETECTION));
+        validationScope.setInlineCss(!disabledCheckers.contains(
+                OptionalChecker.INLINE_CSS));
 
-        HtmlParser htmlParser = new HtmlParser();
+        HtmlParser htmlParser = newHtmlParser(noStream);
         htmlParser.addCharacterHandler(sourceCode);
-        htmlParser.setCommentPolicy(XmlViolationPolicy.ALLOW);
-        htmlParser.setContentNonXmlCharPolicy(XmlViolationPolicy.ALLOW);
-        htmlParser.setContentSpacePolicy(XmlViolationPolicy.ALTER_INFOSET);
-        htmlParser.setNamePolicy(XmlViolationPolicy.ALLOW);
-        htmlParser.setXmlnsPolicy(XmlViolationPolicy.ALTER_INFOSET);
-        htmlParser.setMappingLangToXmlLang(true);
-        htmlParser.setHeuristics(Heuristics.ALL);
         htmlParser.setContentHandler(validator.getContentHandler());
         htmlParser.setErrorHandler(docValidationErrHandler);
-        htmlParser.setNamePolicy(XmlViolationPolicy.ALLOW);
-        htmlParser.setMappingLangToXmlLang(true);
         htmlParser.setFeature(
                 "http://xml.org/sax/features/unicode-normalization-checking",
                 true);
-        if (!noStream) {
-            htmlParser.setStreamabilityViolationPolicy(XmlViolationPolicy.FATAL);
-        }
         htmlReader = getWiretap(htmlParser);
         xmlParser = new SAXDriver();
         xmlParser.setContentHandler(validator.getContentHandler());
@@ -379,6 +501,62 @@ public class SimpleDocumentValidator {
         xmlParser.lockErrorHandler();
     }
 
+    /* *
+     * Prepares HTML and XML parsers that report parse errors only. Their
+     * content goes nowhere: no validator, no wiretap for the source code's
+     * location recorder and no character handler retaining the source.
+     */
+    private void setUpParsersOnly(ErrorHandler errorHandler, boolean noStream,
+            boolean loadExternalEnts) throws SAXException {
+        validator = null;
+        ContentHandler contentHandler = new DefaultHandler();
+        HtmlParser htmlParser = newHtmlParser(noStream);
+        htmlParser.setContentHandler(contentHandler);
+        htmlParser.setErrorHandler(errorHandler);
+        htmlReader = htmlParser;
+        xmlParser = new SAXDriver();
+        xmlParser.setContentHandler(contentHandler);
+        if (loadExternalEnts) {
+            xmlParser.setEntityResolver(entityResolver);
+        } else {
+            xmlParser.setFeature(
+                    "http://xml.org/sax/features/external-general-entities",
+                    false);
+            xmlParser.setFeature(
+                    "http://xml.org/sax/features/external-parameter-entities",
+                    false);
+            xmlParser.setEntityResolver(new NullEntityResolver());
+        }
+        xmlReader = xmlParser;
+        xmlParser.setErrorHandler(errorHandler);
+        xmlParser.lockErrorHandler();
+    }
+
+    private HtmlParser newHtmlParser(boolean noStream) {
+        HtmlParser htmlParser = new HtmlParser();
+        htmlParser.setCommentPolicy(XmlViolationPolicy.ALLOW);
+        htmlParser.setContentNonXmlCharPolicy(XmlViolationPolicy.ALLOW);
+        htmlParser.setContentSpacePolicy(XmlViolationPolicy.ALTER_INFOSET);
+        htmlParser.setNamePolicy(XmlViolationPolicy.ALLOW);
+        htmlParser.setXmlnsPolicy(XmlViolationPolicy.ALTER_INFOSET);
+        htmlParser.setMappingLangToXmlLang(true);
+        htmlParser.setHeuristics(Heuristics.ALL);
+        if (!noStream) {
+            htmlParser.setStreamabilityViolationPolicy(XmlViolationPolicy.FATAL);
+        }
+        return htmlParser;
+    }
+
+    private void resetValidator() {
+        if (validator != null) {
+            validator.reset();
+        }
+    }
+
+    private Validator timed(Validator v) {
+        return timings == null ? v : timings.wrap(v);
+    }
+
     private WiretapXMLReaderWrapper getWiretap(XMLReader reader) {
         WiretapXMLReaderWrapper wiretap = new WiretapXMLReaderWrapper(reader);
         ContentHandler recorder = sourceCode.getLocationRecorder();
@@ -387,6 +565,21 @@ public class SimpleDocumentValidator {
         return wiretap;
     }
 
+    /**
+     * Sets the error handler of the HTML assertions checker, which reports
+     * CSS errors with their exact start positions only when its handler is
+     * a <code>MessageEmitterAdapter</code>. Validators that are set up with
+     * a forwarding error handler and reused for several documents give it
+     * the handler of each document here.
+     * 
+     * @param errorHandler the error handler for the assertions checker
+     */
+    public void setAssertionsErrorHandler(ErrorHandler errorHandler) {
+        if (assertions != null) {
+            assertions.setErrorHandler(errorHandler);
+        }
+    }
+
     /**
      * @param allowCss
      *            The allowCss to set.
@@ -400,7 +593,7 @@ public class SimpleDocumentValidator {
      */
     public void checkHtmlInputSource(InputSource is) throws IOException,
             SAXException {
-        validator.reset();
+        resetValidator();
         is.setEncoding("UTF-8");
         checkAsHTML(is);
     }
@@ -410,7 +603,7 @@ public class SimpleDocumentValidator {
      */
     public void checkXmlInputSource(InputSource is) throws IOException,
             SAXException {
-        validator.reset();
+        resetValidator();
         checkAsXML(is);
     }
 
@@ -419,7 +612,7 @@ public class SimpleDocumentValidator {
      */
     public void checkCssInputSource(InputSource is) throws IOException,
             SAXException {
-        validator.reset();
+        resetValidator();
         checkAsCss(is);
     }
 
@@ -428,7 +621,7 @@ public class SimpleDocumentValidator {
      */
     public void checkCssFile(File file, boolean asUTF8) throws IOException,
             SAXException {
-        validator.reset();
+        resetValidator();
         InputSource is = new InputSource(new FileInputStream(file));
         is.setSystemId(file.toURI().toURL().toString());
         if (asUTF8) {
@@ -442,7 +635,7 @@ public class SimpleDocumentValidator {
      */
     public void checkHtmlFile(File file, boolean asUTF8) throws IOException,
             SAXException {
-        validator.reset();
+        resetValidator();
         InputSource is = new InputSource(new FileInputStream(file));
         is.setSystemId(file.toURI().toURL().toString());
         if (asUTF8) {
@@ -455,7 +648,7 @@ public class SimpleDocumentValidator {
      * Checks an XHTML document or other XML document.
      */
     public void checkXmlFile(File file) throws IOException, SAXException {
-        validator.reset();
+        resetValidator();
         InputSource is = new InputSource(new FileInputStream(file));
         is.setSystemId(file.toURI().toURL().toString());
         checkAsXML(is);
@@ -471,7 +664,7 @@ public class SimpleDocumentValidator {
             throws IOException, SAXException {
         CookieHandler.setDefault(
                 new CookieManager(null, CookiePolicy.ACCEPT_ALL));
-        validator.reset();
+        resetValidator();
         httpRes = new PrudentHttpEntityResolver(-1, true, errorHandler);
         if (this.allowCss) {
             httpRes.setAllowCss(true);
@@ -479,8 +672,13 @@ public class SimpleDocumentValidator {
         httpRes.setAllowHtml(true);
         httpRes.setUserAgent(userAgent);
         try {
-            documentInput = (TypedInputSource) httpRes.resolveEntity(null,
-                    document);
+            enterStage(Timings.FETCH);
+            try {
+                documentInput = (TypedInputSource) httpRes.resolveEntity(
+                        null, document);
+            } finally {
+                exitStage();
+            }
             String contentType = documentInput.getType();
             documentInput.setSystemId(document);
             for (String param : contentType.replace(" ", "").split(";")) {
@@ -517,9 +715,19 @@ public class SimpleDocumentValidator {
         is.setEncoding(charset);
         sourceCode.setIsCss();
         sourceCode.initialize(is);
+        // the style element is the document, so check it even if inline
+        // CSS checking is off
+        boolean inlineCss = validationScope.isInlineCss();
+        validationScope.setInlineCss(true);
+        ValidationScope previousScope = validationScope.enter();
+        enterParse(is);
         try {
             htmlReader.parse(is);
         } catch (SAXParseException e) {
+        } finally {
+            exitStage();
+            validationScope.exit(previousScope);
+            validationScope.setInlineCss(inlineCss);
         }
     }
 
@@ -528,9 +736,14 @@ public class SimpleDocumentValidator {
      */
     private void checkAsHTML(InputSource is) throws IOException, SAXException {
         sourceCode.initialize(is);
+        ValidationScope previousScope = validationScope.enter();
+        enterParse(is);
         try {
             htmlReader.parse(is);
         } catch (SAXParseException e) {
+        } finally {
+            exitStage();
+            validationScope.exit(previousScope);
         }
     }
 
@@ -538,12 +751,45 @@ public class SimpleDocumentValidator {
      * Parses a document with the XML parser and validates it.
      */
     private void checkAsXML(InputSource is) throws IOException, SAXException {
-        xmlParser.setCharacterHandler(sourceCode);
+        if (!parserOnly) {
+            xmlParser.setCharacterHandler(sourceCode);
+        }
         sourceCode.initialize(is);
+        ValidationScope previousScope = validationScope.enter();
+        enterParse(is);
         try {
             xmlReader.parse(is);
         } catch (SAXParseException e) {
         } catch (FatalSAXException e) {
+        } finally {
+            exitStage();
+            validationScope.exit(previousScope);
+        }
+    }
+
+    /* *
+     * Enters the parse stage, charging reads of the document to the fetch
+     * stage, if measuring.
+     */
+    private void enterParse(InputSource is) {
+        if (timings == null) {
+            return;
+        }
+        if (is.getByteStream() != null) {
+            is.setByteStream(timings.wrap(is.getByteStream(), Timings.FETCH));
+        }
+        enterStage(Timings.PARSE);
+    }
+
+    private void enterStage(String name) {
+        if (timings != null) {
+            timings.enter(timings.stage(name));
+        }
+    }
+
+    private void exitStage() {
+        if (timings != null) {
+            timings.exit();
         }
     }
 
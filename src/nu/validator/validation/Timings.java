@@ -0,0 +1,518 @@
+/*
+ * Copyright (c) 2020 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.validation;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import nu.validator.checker.Checker;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import com.thaiopensource.validate.Validator;
+
+/**
+ * Time and allocation counters for the stages of checking documents:
+ * fetching, parsing, each validator in the chain, building source extracts
+ * and emitting messages.
+ *
+ * <p>Stages nest (the parser calls the validators, which report messages),
+ * and each stage is charged only for the time spent in it and not in a
+ * stage entered from it, so the counters add up to the time spent in all
+ * stages. Whoever drives a validation wraps the parts of the pipeline it
+ * wants to measure with the <code>wrap</code> methods and brackets the
+ * rest with {@link #enter(Stage)} and {@link #exit()}. Time spent outside
+ * any stage is not counted.
+ *
+ * <p>Allocation counters are only kept on JVMs that can report the bytes
+ * allocated per thread; elsewhere they stay at -1. An instance is not
+ * thread-safe and is meant to be used by one validation at a time.
+ */
+public final class Timings {
+
+    public static final String FETCH = "fetch";
+
+    public static final String PARSE = "parse";
+
+    public static final String SCHEMA = "schema";
+
+    public static final String SOURCE = "source";
+
+    public static final String EMIT = "emit";
+
+    private static final com.sun.management.ThreadMXBean ALLOCATION_BEAN = allocationBean();
+
+    /**
+     * The counters of one stage.
+     */
+    public static final class Stage {
+
+        private final String name;
+
+        private long nanos;
+
+        private long allocatedBytes;
+
+        private Stage(String name) {
+            this.name = name;
+            this.allocatedBytes = ALLOCATION_BEAN == null ? -1 : 0;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the time spent in this stage in nanoseconds.
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * Returns the bytes allocated in this stage, or -1 if the JVM does
+         * not report allocations.
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+    }
+
+    private final Map<String, Stage> stages = new LinkedHashMap<>();
+
+    private Stage[] stack = new Stage[8];
+
+    private int depth = 0;
+
+    private long mark;
+
+    private long allocationMark;
+
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        try {
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+                if (sunBean.isThreadAllocatedMemorySupported()
+                        && sunBean.isThreadAllocatedMemoryEnabled()) {
+                    return sunBean;
+                }
+            }
+        } catch (LinkageError e) {
+        }
+        return null;
+    }
+
+    private static long allocatedBytes() {
+        if (ALLOCATION_BEAN == null) {
+            return 0;
+        }
+        return ALLOCATION_BEAN.getThreadAllocatedBytes(
+                Thread.currentThread().getId());
+    }
+
+    /**
+     * Returns the stage with the given name, adding it if it is new.
+     */
+    public Stage stage(String name) {
+        Stage stage = stages.get(name);
+        if (stage == null) {
+            stage = new Stage(name);
+            stages.put(name, stage);
+        }
+        return stage;
+    }
+
+    /**
+     * Returns the stage a validator is charged to: the class name of its
+     * checker, or {@link #SCHEMA} for a schema.
+     */
+    public Stage stage(Validator validator) {
+        ContentHandler contentHandler = validator.getContentHandler();
+        if (contentHandler instanceof Checker) {
+            return stage(contentHandler.getClass().getSimpleName());
+        }
+        return stage(SCHEMA);
+    }
+
+    /**
+     * Starts charging to the given stage until the matching
+     * {@link #exit()}.
+     */
+    public void enter(Stage stage) {
+        charge();
+        if (depth == stack.length) {
+            Stage[] newStack = new Stage[stack.length * 2];
+            System.arraycopy(stack, 0, newStack, 0, stack.length);
+            stack = newStack;
+        }
+        stack[depth++] = stage;
+    }
+
+    /**
+     * Goes back to charging the stage that was current before the last
+     * {@link #enter(Stage)}.
+     */
+    public void exit() {
+        if (depth == 0) {
+            return;
+        }
+        charge();
+        stack[--depth] = null;
+    }
+
+    private void charge() {
+        long now = System.nanoTime();
+        long allocated = allocatedBytes();
+        if (depth > 0) {
+            Stage stage = stack[depth - 1];
+            stage.nanos += now - mark;
+            if (ALLOCATION_BEAN != null) {
+                stage.allocatedBytes += allocated - allocationMark;
+            }
+        }
+        mark = now;
+        allocationMark = allocated;
+    }
+
+    /**
+     * Returns the stages in the order they were first used.
+     */
+    public Collection<Stage> getStages() {
+        return Collections.unmodifiableCollection(stages.values());
+    }
+
+    /**
+     * Returns the stages that have been charged for anything.
+     */
+    public List<Stage> getUsedStages() {
+        List<Stage> used = new ArrayList<>();
+        for (Stage stage : stages.values()) {
+            if (stage.nanos > 0) {
+                used.add(stage);
+            }
+        }
+        return used;
+    }
+
+    /**
+     * Adds the counters of another instance to the counters of this one.
+     */
+    public void add(Timings other) {
+        for (Stage stage : other.stages.values()) {
+            Stage own = stage(stage.name);
+            own.nanos += stage.nanos;
+            if (ALLOCATION_BEAN != null) {
+                own.allocatedBytes += stage.allocatedBytes;
+            }
+        }
+    }
+
+    /**
+     * Zeroes the counters and leaves any stages that were entered.
+     */
+    public void reset() {
+        for (Stage stage : stages.values()) {
+            stage.nanos = 0;
+            stage.allocatedBytes = ALLOCATION_BEAN == null ? -1 : 0;
+        }
+        while (depth > 0) {
+            stack[--depth] = null;
+        }
+    }
+
+    /**
+     * Wraps a validator so that its content handler is charged to the
+     * validator's stage.
+     */
+    public Validator wrap(Validator validator) {
+        return new TimingValidator(validator, stage(validator));
+    }
+
+    /**
+     * Wraps an error handler so that it is charged to the given stage.
+     */
+    public ErrorHandler wrap(ErrorHandler errorHandler, String stageName) {
+        return new TimingErrorHandler(errorHandler, stage(stageName));
+    }
+
+    /**
+     * Wraps a stream so that reading from it is charged to the given stage.
+     */
+    public InputStream wrap(InputStream in, String stageName) {
+        return new TimingInputStream(in, stage(stageName));
+    }
+
+    private final class TimingValidator implements Validator {
+
+        private final Validator delegate;
+
+        private final ContentHandler contentHandler;
+
+        TimingValidator(Validator delegate, Stage stage) {
+            this.delegate = delegate;
+            this.contentHandler = new TimingContentHandler(
+                    delegate.getContentHandler(), stage);
+        }
+
+        @Override
+        public ContentHandler getContentHandler() {
+            return contentHandler;
+        }
+
+        @Override
+        public DTDHandler getDTDHandler() {
+            return delegate.getDTDHandler();
+        }
+
+        @Override
+        public void reset() {
+            delegate.reset();
+        }
+    }
+
+    private final class TimingContentHandler implements ContentHandler {
+
+        private final ContentHandler delegate;
+
+        private final Stage stage;
+
+        TimingContentHandler(ContentHandler delegate, Stage stage) {
+            this.delegate = delegate;
+            this.stage = stage;
+        }
+
+        @Override
+        public void setDocumentLocator(Locator locator) {
+            enter(stage);
+            try {
+                delegate.setDocumentLocator(locator);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void startDocument() throws SAXException {
+            enter(stage);
+            try {
+                delegate.startDocument();
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void endDocument() throws SAXException {
+            enter(stage);
+            try {
+                delegate.endDocument();
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void startPrefixMapping(String prefix, String uri)
+                throws SAXException {
+            enter(stage);
+            try {
+                delegate.startPrefixMapping(prefix, uri);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void endPrefixMapping(String prefix) throws SAXException {
+            enter(stage);
+            try {
+                delegate.endPrefixMapping(prefix);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName,
+                Attributes atts) throws SAXException {
+            enter(stage);
+            try {
+                delegate.startElement(uri, localName, qName, atts);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName)
+                throws SAXException {
+            enter(stage);
+            try {
+                delegate.endElement(uri, localName, qName);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length)
+                throws SAXException {
+            enter(stage);
+            try {
+                delegate.characters(ch, start, length);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void ignorableWhitespace(char[] ch, int start, int length)
+                throws SAXException {
+            enter(stage);
+            try {
+                delegate.ignorableWhitespace(ch, start, length);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void processingInstruction(String target, String data)
+                throws SAXException {
+            enter(stage);
+            try {
+                delegate.processingInstruction(target, data);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void skippedEntity(String name) throws SAXException {
+            enter(stage);
+            try {
+                delegate.skippedEntity(name);
+            } finally {
+                exit();
+            }
+        }
+    }
+
+    private final class TimingErrorHandler implements ErrorHandler {
+
+        private final ErrorHandler delegate;
+
+        private final Stage stage;
+
+        TimingErrorHandler(ErrorHandler delegate, Stage stage) {
+            this.delegate = delegate;
+            this.stage = stage;
+        }
+
+        @Override
+        public void warning(SAXParseException exception) throws SAXException {
+            enter(stage);
+            try {
+                delegate.warning(exception);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void error(SAXParseException exception) throws SAXException {
+            enter(stage);
+            try {
+                delegate.error(exception);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void fatalError(SAXParseException exception)
+                throws SAXException {
+            enter(stage);
+            try {
+                delegate.fatalError(exception);
+            } finally {
+                exit();
+            }
+        }
+    }
+
+    private final class TimingInputStream extends FilterInputStream {
+
+        private final Stage stage;
+
+        TimingInputStream(InputStream in, Stage stage) {
+            super(in);
+            this.stage = stage;
+        }
+
+        @Override
+        public int read() throws IOException {
+            enter(stage);
+            try {
+                return super.read();
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            enter(stage);
+            try {
+                return super.read(b, off, len);
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            enter(stage);
+            try {
+                return super.skip(n);
+            } finally {
+                exit();
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2020 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.validation;
+
+/**
+ * Per-validation settings and state that checkers and datatypes need but
+ * that do not travel with the SAX events. Whoever drives a validation owns
+ * a <code>ValidationScope</code>, and makes it current on the validating
+ * thread for the duration of the parse with {@link #enter()} and
+ * {@link #exit(ValidationScope)}; checkers and datatypes read it back with
+ * {@link #current()}.
+ *
+ * <p>When no scope has been entered on a thread, {@link #current()}
+ * returns one that takes its settings from the
+ * <code>nu.validator.schema.rdfa-full</code> and
+ * <code>nu.validator.checker.enableLangDetection</code> system properties,
+ * as these settings used to be passed around that way.
+ */
+public final class ValidationScope {
+
+    private static final ThreadLocal<ValidationScope> CURRENT = new ThreadLocal<ValidationScope>() {
+        @Override
+        protected ValidationScope initialValue() {
+            return new ValidationScope(true);
+        }
+    };
+
+    private final boolean fromSystemProperties;
+
+    private boolean rdfaFull = false;
+
+    private boolean languageDetection = true;
+
+    private boolean inlineCss = true;
+
+    private boolean imageCandidateHasWidth = false;
+
+    public ValidationScope() {
+        this(false);
+    }
+
+    private ValidationScope(boolean fromSystemProperties) {
+        this.fromSystemProperties = fromSystemProperties;
+    }
+
+    /**
+     * Returns the scope of the validation running on this thread.
+     */
+    public static ValidationScope current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Makes this scope current on this thread.
+     *
+     * @return the previously current scope, to be passed to
+     *         {@link #exit(ValidationScope)}
+     */
+    public ValidationScope enter() {
+        ValidationScope previous = CURRENT.get();
+        CURRENT.set(this);
+        return previous;
+    }
+
+    /**
+     * Makes the given scope, as returned by {@link #enter()}, current on
+     * this thread again.
+     */
+    public void exit(ValidationScope previous) {
+        CURRENT.set(previous);
+    }
+
+    /**
+     * Whether the full RDFa schema is in use, which allows CURIEs in
+     * <code>rel</code> and allows <code>rev</code>.
+     */
+    public boolean isRdfaFull() {
+        if (fromSystemProperties) {
+            return "1".equals(
+                    System.getProperty("nu.validator.schema.rdfa-full"));
+        }
+        return rdfaFull;
+    }
+
+    public void setRdfaFull(boolean rdfaFull) {
+        this.rdfaFull = rdfaFull;
+    }
+
+    /**
+     * Whether the language of documents gets detected and checked against
+     * the declared language.
+     */
+    public boolean isLanguageDetection() {
+        if (fromSystemProperties) {
+            return !"0".equals(System.getProperty(
+                    "nu.validator.checker.enableLangDetection"));
+        }
+        return languageDetection;
+    }
+
+    public void setLanguageDetection(boolean languageDetection) {
+        this.languageDetection = languageDetection;
+    }
+
+    /**
+     * Whether CSS in <code>style</code> elements and attributes gets
+     * checked. A CSS document being checked is always checked.
+     */
+    public boolean isInlineCss() {
+        return inlineCss;
+    }
+
+    public void setInlineCss(boolean inlineCss) {
+        this.inlineCss = inlineCss;
+    }
+
+    /**
+     * Whether the last image candidate string checked had a width
+     * descriptor. Set by <code>ImageCandidateStrings</code> and read by
+     * <code>Assertions</code> for the <code>srcset</code>/<code>sizes</code>
+     * check.
+     */
+    public boolean isImageCandidateHasWidth() {
+        return imageCandidateHasWidth;
+    }
+
+    public void setImageCandidateHasWidth(boolean imageCandidateHasWidth) {
+        this.imageCandidateHasWidth = imageCandidateHasWidth;
+    }
+}
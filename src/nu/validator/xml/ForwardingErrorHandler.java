@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2020 Mozilla Foundation
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"), 
+ * to deal in the Software without restriction, including without limitation 
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense, 
+ * and/or sell copies of the Software, and to permit persons to whom the 
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR 
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, 
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL 
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER 
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING 
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER 
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package nu.validator.xml;
+
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * An error handler that passes errors on to a delegate that can be swapped
+ * later. Validators capture their error handler when they are created, so
+ * validators that are reused for several documents get one of these and
+ * have the handler for the current document set as its delegate. Errors
+ * reported while no delegate is set are dropped.
+ */
+public final class ForwardingErrorHandler implements ErrorHandler {
+
+    private ErrorHandler delegate;
+
+    public ErrorHandler getDelegate() {
+        return delegate;
+    }
+
+    public void setDelegate(ErrorHandler delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * @see org.xml.sax.ErrorHandler#warning(org.xml.sax.SAXParseException)
+     */
+    @Override
+    public void warning(SAXParseException exception) throws SAXException {
+        if (delegate != null) {
+            delegate.warning(exception);
+        }
+    }
+
+    /**
+     * @see org.xml.sax.ErrorHandler#error(org.xml.sax.SAXParseException)
+     */
+    @Override
+    public void error(SAXParseException exception) throws SAXException {
+        if (delegate != null) {
+            delegate.error(exception);
+        }
+    }
+
+    /**
+     * @see org.xml.sax.ErrorHandler#fatalError(org.xml.sax.SAXParseException)
+     */
+    @Override
+    public void fatalError(SAXParseException exception) throws SAXException {
+        if (delegate != null) {
+            delegate.fatalError(exception);
+        }
+    }
+}
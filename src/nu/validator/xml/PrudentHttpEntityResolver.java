@@ -113,6 +113,10 @@ import io.mola.galimatias.GalimatiasParseException;
 
     private HttpServletRequest request;
 
+    private String ifNoneMatch;
+
+    private String ifModifiedSince;
+
     /**
      * Sets the timeouts of the HTTP client.
      *
@@ -184,6 +188,23 @@ import io.mola.galimatias.GalimatiasParseException;
         userAgent = ua;
     }
 
+    /**
+     * Makes the next request conditional. If the server then responds with
+     * 304 Not Modified, <code>resolveEntity</code> returns an input source
+     * without a byte stream for which <code>isNotModified()</code> is
+     * <code>true</code>. The conditions only apply to one request.
+     *
+     * @param entityTag
+     *            value for <code>If-None-Match</code>, or <code>null</code>
+     * @param lastModified
+     *            value for <code>If-Modified-Since</code>, or
+     *            <code>null</code>
+     */
+    public void setConditionalRequest(String entityTag, String lastModified) {
+        this.ifNoneMatch = entityTag;
+        this.ifModifiedSince = lastModified;
+    }
+
     public PrudentHttpEntityResolver(long sizeLimit, boolean laxContentType,
             ErrorHandler errorHandler, HttpServletRequest request) {
         this.request = request;
@@ -264,6 +285,17 @@ import io.mola.galimatias.GalimatiasParseException;
                 m.setHeader("Accept-Language", (String) request.getAttribute(
                         "http://validator.nu/properties/accept-language"));
             }
+            boolean conditional = false;
+            if (ifNoneMatch != null) {
+                m.setHeader("If-None-Match", ifNoneMatch);
+                conditional = true;
+            }
+            if (ifModifiedSince != null) {
+                m.setHeader("If-Modified-Since", ifModifiedSince);
+                conditional = true;
+            }
+            ifNoneMatch = null;
+            ifModifiedSince = null;
             log4j.info(systemId);
             try {
                 if (url.port() > 65535) {
@@ -282,6 +314,14 @@ import io.mola.galimatias.GalimatiasParseException;
                         "http://validator.nu/properties/ignore-response-status");
             }
             int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode == 304 && conditional) {
+                m.releaseConnection();
+                TypedInputSource is = new TypedInputSource();
+                is.setSystemId(m.getURI().toString());
+                is.setPublicId(publicId);
+                is.setNotModified(true);
+                return is;
+            }
             if (statusCode != 200 && !ignoreResponseStatus) {
                 String msg = "HTTP resource not retrievable."
                         + " The HTTP status from the remote server was: "
@@ -320,6 +360,16 @@ import io.mola.galimatias.GalimatiasParseException;
             is = contentTypeParser.buildTypedInputSource(baseUri, publicId,
                     contentType);
 
+            Header etag = response.getFirstHeader("ETag");
+            if (etag != null) {
+                is.setEntityTag(etag.getValue().trim());
+            }
+
+            Header lm = response.getFirstHeader("Last-Modified");
+            if (lm != null) {
+                is.setLastModified(lm.getValue().trim());
+            }
+
             Header cl = response.getFirstHeader("Content-Language");
             if (cl != null) {
                 is.setLanguage(cl.getValue().trim());
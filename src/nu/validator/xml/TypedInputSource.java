@@ -40,6 +40,12 @@ public class TypedInputSource extends InputSource {
 
     private int length = -1;
 
+    private String entityTag;
+
+    private String lastModified;
+
+    private boolean notModified = false;
+
     /**
      * 
      */
@@ -120,4 +126,61 @@ public class TypedInputSource extends InputSource {
     public void setLanguage(String language) {
         this.language = language;
     }
+
+    /**
+     * Returns the value of the HTTP <code>ETag</code> header the resource
+     * was served with.
+     * 
+     * @return the entity tag or <code>null</code>
+     */
+    public String getEntityTag() {
+        return entityTag;
+    }
+
+    /**
+     * Sets the entity tag.
+     * 
+     * @param entityTag the entity tag to set
+     */
+    public void setEntityTag(String entityTag) {
+        this.entityTag = entityTag;
+    }
+
+    /**
+     * Returns the value of the HTTP <code>Last-Modified</code> header the
+     * resource was served with.
+     * 
+     * @return the last-modified date or <code>null</code>
+     */
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Sets the last-modified date.
+     * 
+     * @param lastModified the last-modified date to set
+     */
+    public void setLastModified(String lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Returns whether the server answered a conditional request with
+     * 304 Not Modified, in which case there is no byte stream.
+     * 
+     * @return the notModified
+     */
+    public boolean isNotModified() {
+        return notModified;
+    }
+
+    /**
+     * Sets the notModified.
+     * 
+     * @param notModified the notModified to set
+     */
+    public void setNotModified(boolean notModified) {
+        this.notModified = notModified;
+    }
 }